@@ -1,5 +1,53 @@
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+import javax.imageio.ImageIO;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
 import tester.*;
 import javalib.impworld.*;
 import javalib.worldimages.*;
@@ -71,6 +119,25 @@ interface IPixel {
 
   // EFFECT: changes the colDisplayed field of this pixel
   void makeColorDisplayedTo(Color col);
+
+  // EFFECT: makes the given APixel this IPixel's up-neighbour, and this IPixel its
+  // down-neighbour, without recomputing any energies
+  void attachBelow(APixel up);
+
+  // EFFECT: makes the given APixel this IPixel's left-neighbour, and this IPixel its
+  // right-neighbour, without recomputing any energies
+  void attachRightOf(APixel left);
+
+  // EFFECT: stores the given, already computed vertical and horizontal energies as the energies
+  // of this IPixel
+  void storeEnergies(double verticalEnergy, double horizontalEnergy);
+
+  // This method returns the energy last stored for this IPixel, without following its neighbours
+  // to compute it again.
+  double storedEnergy();
+
+  // EFFECT: marks the tile of the given EnergyTiles that this IPixel belongs to as out of date
+  void markTile(EnergyTiles tiles);
 }
 
 // This class is a generic representation of an IPixel, describing features and methods that are
@@ -198,6 +265,31 @@ abstract class APixel implements IPixel {
   public void makeColorDisplayedTo(Color col) {
     this.colDisplayed = col;
   }
+
+  // EFFECT: makes the given APixel this APixel's up-neighbour, and this APixel its
+  // down-neighbour, without recomputing any energies
+  public void attachBelow(APixel up) {
+    this.up = up;
+    up.down = this;
+  }
+
+  // EFFECT: makes the given APixel this APixel's left-neighbour, and this APixel its
+  // right-neighbour, without recomputing any energies
+  public void attachRightOf(APixel left) {
+    this.left = left;
+    left.right = this;
+  }
+
+  // EFFECT: stores the given, already computed vertical and horizontal energies as the energies
+  // of this APixel
+  public abstract void storeEnergies(double verticalEnergy, double horizontalEnergy);
+
+  // This method returns the energy last stored for this APixel, without following its neighbours
+  // to compute it again.
+  public abstract double storedEnergy();
+
+  // EFFECT: marks the tile of the given EnergyTiles that this APixel belongs to as out of date
+  public abstract void markTile(EnergyTiles tiles);
 }
 
 // This represents a colored pixel that is part of the original image.
@@ -205,6 +297,8 @@ class Pixel extends APixel {
   double verticalEnergy;
   double horizontalEnergy;
   double energy;
+  // the tile of its SeamCarver's EnergyTiles this Pixel belongs to, or -1 if it belongs to none
+  int tile;
 
   // Convenience constructor
   Pixel(Color col) {
@@ -216,6 +310,7 @@ class Pixel extends APixel {
     this.verticalEnergy = 0;
     this.horizontalEnergy = 0;
     this.energy = 0;
+    this.tile = -1;
   }
 
   // Constructor
@@ -224,6 +319,17 @@ class Pixel extends APixel {
     this.verticalEnergy = 0;
     this.horizontalEnergy = 0;
     this.energy = 0;
+    this.tile = -1;
+  }
+
+  // Constructor for a Pixel of the given packed ARGB color, used when a whole grid is built at
+  // once, and so whose neighbours are attached by the grid rather than made up front
+  Pixel(int argb) {
+    super(new Color(argb, true));
+    this.verticalEnergy = 0;
+    this.horizontalEnergy = 0;
+    this.energy = 0;
+    this.tile = -1;
   }
 
   // This method uses this Pixel's horizontal and vertical energies to compute this Pixel's
@@ -249,7 +355,8 @@ class Pixel extends APixel {
   }
 
   // This method sets the given APixels up, down, left and right as the neighbouring APixels of
-  // this Pixel; its up-, down-, left- and right- neighbours respectively.
+  // this Pixel; its up-, down-, left- and right- neighbours respectively. Its stored energy is
+  // left as it is, to be refreshed along with the rest of its tile.
   // EFFECT: sets the neighbors of this Pixel to the given APixels
   public void makeConnectionsPixel(APixel up, APixel down, APixel left, APixel right) {
     this.up = up;
@@ -260,9 +367,6 @@ class Pixel extends APixel {
     down.up = this;
     left.right = this;
     right.left = this;
-    this.verticalEnergy = this.up.findVEComponent() - this.down.findVEComponent();
-    this.horizontalEnergy = this.left.findHEComponent() - this.right.findHEComponent();
-    this.energy = this.calculateEnergy();
   }
 
   // This method computes the updated energies of this Pixel in the case that any of its
@@ -273,6 +377,33 @@ class Pixel extends APixel {
     this.horizontalEnergy = this.left.findHEComponent() - this.right.findHEComponent();
     //this.energy = this.calculateEnergy();
   }
+
+  // EFFECT: stores the given, already computed vertical and horizontal energies as the energies
+  // of this Pixel, along with the energy they make up
+  public void storeEnergies(double verticalEnergy, double horizontalEnergy) {
+    this.verticalEnergy = verticalEnergy;
+    this.horizontalEnergy = horizontalEnergy;
+    this.energy = Math.sqrt(Math.pow(verticalEnergy, 2) + Math.pow(horizontalEnergy, 2));
+  }
+
+  // This method returns the energy last stored for this Pixel, without following its neighbours
+  // to compute it again.
+  public double storedEnergy() {
+    return this.energy;
+  }
+
+  // EFFECT: marks the tile of the given EnergyTiles that this Pixel belongs to as out of date,
+  // if it belongs to one
+  public void markTile(EnergyTiles tiles) {
+    if (this.tile >= 0) {
+      tiles.mark(this.tile);
+    }
+  }
+
+  // EFFECT: computes the energies of this Pixel again from its neighbours and stores them
+  void refreshEnergy() {
+    this.energy = this.calculateEnergy();
+  }
 }
 
 // This represents a black-colored pixel that is not part of the original image, but is used to
@@ -331,6 +462,22 @@ class Border extends APixel {
   public void updateEnergies() {
     // does nothing because the energy is always Integer.MAX_VALUE
   }
+
+  // EFFECT: stores the given energies as the energies of this Border -- does nothing because the
+  // energy is always Integer.MAX_VALUE
+  public void storeEnergies(double verticalEnergy, double horizontalEnergy) {
+    // does nothing because the energy is always Integer.MAX_VALUE
+  }
+
+  // This method returns the energy of this Border, which is always Integer.MAX_VALUE.
+  public double storedEnergy() {
+    return this.calculateEnergy();
+  }
+
+  // EFFECT: marks nothing, since a Border's energy never goes out of date
+  public void markTile(EnergyTiles tiles) {
+    // does nothing because the energy is always Integer.MAX_VALUE
+  }
 }
 
 // This represents a seam (a line of pixels traced from one end of the image to an IPixel)
@@ -376,19 +523,434 @@ class SeamInfo {
   }
 }
 
+// These are the Java Flight Recorder events emitted by the SeamCarver. Every event is created,
+// timed with begin(), and only filled in and committed when shouldCommit() says a recording is
+// actually listening, so when recording is disabled the JIT removes them entirely.
+//
+// To record them, run with
+//   -XX:StartFlightRecording=filename=carve.jfr,settings=profile
+// and look for the "Seam Carver" category in JDK Mission Control.
+
+// This represents a computation of the energies of a whole grid of pixels, e.g. when the grid is
+// first built from the image.
+@Name("seamcarver.EnergyRecompute")
+@Label("Energy Recompute")
+@Category("Seam Carver")
+@Description("Recomputation of the energies of every pixel of the grid")
+@StackTrace(false)
+class EnergyRecomputeEvent extends Event {
+  @Label("Reason")
+  @Description("Why the energies were recomputed")
+  String reason;
+
+  @Label("Width")
+  int width;
+
+  @Label("Height")
+  int height;
+
+  @Label("Cells")
+  @Description("Number of pixels whose energy was computed")
+  long cells;
+}
+
+// This represents one dynamic programming pass over the grid, computing the cumulative weights of
+// every pixel in one direction.
+@Name("seamcarver.SeamPass")
+@Label("Seam DP Pass")
+@Category("Seam Carver")
+@Description("One dynamic programming pass computing the minimum seam weights")
+@StackTrace(false)
+class SeamPassEvent extends Event {
+  @Label("Direction")
+  @Description("vertical or horizontal")
+  String direction;
+
+  @Label("Width")
+  int width;
+
+  @Label("Height")
+  int height;
+
+  @Label("Cells")
+  @Description("Number of SeamInfos computed by the pass")
+  long cells;
+}
+
+// This represents the choice of the minimum weighted seam out of the last row or column of
+// SeamInfos.
+@Name("seamcarver.SeamSelected")
+@Label("Seam Selected")
+@Category("Seam Carver")
+@Description("Selection of the minimum weighted seam")
+@StackTrace(false)
+class SeamSelectedEvent extends Event {
+  @Label("Direction")
+  @Description("vertical or horizontal")
+  String direction;
+
+  @Label("Cost")
+  @Description("Total weight of the selected seam")
+  double cost;
+
+  @Label("Start Index")
+  @Description("Column (vertical) or row (horizontal) where the selected seam ends in the last "
+          + "row or column of the pass, which is where it is traced back from")
+  int startIndex;
+}
+
+// This represents a seam being taken out of the grid, or put back into it by an undo.
+@Name("seamcarver.SeamEdit")
+@Label("Seam Removed/Restored")
+@Category("Seam Carver")
+@Description("Removal of a seam from the grid, or its restoration by undo")
+@StackTrace(false)
+class SeamEditEvent extends Event {
+  @Label("Action")
+  @Description("removed or restored")
+  String action;
+
+  @Label("Direction")
+  @Description("vertical or horizontal")
+  String direction;
+
+  @Label("Cost")
+  @Description("Total weight of the seam")
+  double cost;
+
+  @Label("Length")
+  @Description("Number of pixels in the seam")
+  int length;
+}
+
+// This represents the drawing of the current grid into one of the images that is displayed.
+@Name("seamcarver.Render")
+@Label("Render")
+@Category("Seam Carver")
+@Description("Drawing of the current grid into a displayed image")
+@StackTrace(false)
+class RenderEvent extends Event {
+  @Label("Mode")
+  @Description("color, energies or weights")
+  String mode;
+
+  @Label("Width")
+  int width;
+
+  @Label("Height")
+  int height;
+}
+
+// This represents something that can hand over the pixels of an image one row at a time, as packed
+// ARGB ints, so that an ImageExporter can write it without copying the whole image first.
+interface IRowSource {
+  // This method finds and returns how many pixels there are in each row.
+  int rowLength();
+
+  // This method finds and returns how many rows there are.
+  int rowCount();
+
+  // EFFECT: copies the pixels of the given row into the start of the given array. The rows have to
+  // be read in order, from the top down.
+  void readRow(int row, int[] into);
+}
+
+// This represents the pixels of an image, decoded all at once into one array of packed ARGB
+// ints, going row by row from the top left.
+class ImageRaster implements IRowSource {
+  int width;
+  int height;
+  int[] argb;
+
+  // Constructor
+  ImageRaster(int width, int height, int[] argb) {
+    this.width = width;
+    this.height = height;
+    this.argb = argb;
+  }
+
+  // This method decodes the image in the file with the given name through ImageIO, and reads all
+  // of its pixels with a single bulk getRGB call.
+  static ImageRaster read(String fileName) {
+    BufferedImage image;
+    try {
+      image = ImageIO.read(new File(fileName));
+    } catch (IOException e) {
+      throw new RuntimeException("could not read the image " + fileName, e);
+    }
+    if (image == null) {
+      throw new RuntimeException("no image reader for " + fileName);
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    return new ImageRaster(width, height, image.getRGB(0, 0, width, height, null, 0, width));
+  }
+
+  // This method copies the pixels of the given, already loaded image into a raster.
+  static ImageRaster fromImage(FromFileImage image) {
+    int width = (int) image.getWidth();
+    int height = (int) image.getHeight();
+    int[] argb = new int[width * height];
+    // LOOP: goes through the rows of the image
+    for (int row = 0; row < height; row += 1) {
+      // LOOP: goes through the pixels of the row, copying each one's color
+      for (int col = 0; col < width; col += 1) {
+        argb[row * width + col] = image.getColorAt(col, row).getRGB();
+      }
+    }
+    return new ImageRaster(width, height, argb);
+  }
+
+  // This method finds and returns the packed ARGB color of the pixel at the given column and row.
+  int argbAt(int col, int row) {
+    return this.argb[row * this.width + col];
+  }
+
+  // This method finds and returns how many pixels there are in each row.
+  public int rowLength() {
+    return this.width;
+  }
+
+  // This method finds and returns how many rows there are.
+  public int rowCount() {
+    return this.height;
+  }
+
+  // EFFECT: copies the pixels of the given row into the start of the given array
+  public void readRow(int row, int[] into) {
+    System.arraycopy(this.argb, row * this.width, into, 0, this.width);
+  }
+
+  // This method makes and returns a made-up image of the given size that looks enough like a
+  // photograph to carve: a smooth background gradient, a few soft-edged blobs of color and a
+  // little noise, all chosen from the given seed so that the same seed always makes the same
+  // image.
+  static ImageRaster synthetic(int width, int height, long seed) {
+    Random random = new Random(seed);
+    int blobs = 3 + random.nextInt(5);
+    double[] blobX = new double[blobs];
+    double[] blobY = new double[blobs];
+    double[] blobRadius = new double[blobs];
+    int[] blobColor = new int[blobs];
+    // LOOP: goes through the blobs, placing and coloring each one
+    for (int blob = 0; blob < blobs; blob += 1) {
+      blobX[blob] = random.nextDouble() * width;
+      blobY[blob] = random.nextDouble() * height;
+      blobRadius[blob] = (0.05 + random.nextDouble() * 0.2) * Math.max(width, height);
+      blobColor[blob] = random.nextInt(0x1000000);
+    }
+    int[] argb = new int[width * height];
+    // LOOP: goes through the rows of the image
+    for (int row = 0; row < height; row += 1) {
+      // LOOP: goes through the pixels of the row, mixing the background, blobs and noise
+      for (int col = 0; col < width; col += 1) {
+        double red = 255.0 * col / Math.max(width, 1);
+        double green = 255.0 * row / Math.max(height, 1);
+        double blue = 128.0;
+        // LOOP: goes through the blobs, blending in any that cover this pixel
+        for (int blob = 0; blob < blobs; blob += 1) {
+          double distance = Math.hypot(col - blobX[blob], row - blobY[blob]);
+          double weight = Math.max(0.0, 1.0 - distance / blobRadius[blob]);
+          red += weight * (((blobColor[blob] >> 16) & 0xFF) - red);
+          green += weight * (((blobColor[blob] >> 8) & 0xFF) - green);
+          blue += weight * ((blobColor[blob] & 0xFF) - blue);
+        }
+        int noise = random.nextInt(9) - 4;
+        argb[row * width + col] = new Color(ImageRaster.clampChannel(red + noise),
+                ImageRaster.clampChannel(green + noise),
+                ImageRaster.clampChannel(blue + noise)).getRGB();
+      }
+    }
+    return new ImageRaster(width, height, argb);
+  }
+
+  // This method rounds the given channel value and keeps it within 0 to 255.
+  static int clampChannel(double value) {
+    return (int) Math.max(0, Math.min(255, Math.round(value)));
+  }
+}
+
+// This represents writing an image out to a file, or to a stream, one row at a time straight from
+// wherever its pixels are kept. PNG, JPEG and the other formats ImageIO knows are encoded by
+// ImageIO; PPM (P6, with no alpha) and PAM (P7, with alpha) are written directly, for pipelines
+// that would rather not decode anything.
+class ImageExporter {
+  // EFFECT: writes the image of the given source to the file with the given name, in the format
+  // its extension names
+  static void write(IRowSource source, String fileName) {
+    String format = ImageExporter.formatOf(fileName);
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName))) {
+      ImageExporter.write(source, format, out);
+    } catch (IOException e) {
+      throw new RuntimeException("could not write the image " + fileName, e);
+    }
+  }
+
+  // This method finds the format of the file with the given name from its extension.
+  static String formatOf(String fileName) {
+    int dot = fileName.lastIndexOf('.');
+    if (dot < 0 || dot == fileName.length() - 1) {
+      throw new RuntimeException("no image format for " + fileName);
+    }
+    return fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+  }
+
+  // EFFECT: writes the image of the given source to the given stream in the given format
+  static void write(IRowSource source, String format, OutputStream out) throws IOException {
+    if (format.equals("ppm")) {
+      ImageExporter.writeNetpbm(source, false, out);
+    } else if (format.equals("pam")) {
+      ImageExporter.writeNetpbm(source, true, out);
+    } else {
+      ImageExporter.writeImageIO(source, format, out);
+    }
+  }
+
+  // EFFECT: writes the image of the given source to the given stream as a binary PPM, or as a PAM
+  // with an alpha channel if asked to, one row at a time
+  static void writeNetpbm(IRowSource source, boolean alpha, OutputStream out)
+          throws IOException {
+    int width = source.rowLength();
+    int height = source.rowCount();
+    String header;
+    if (alpha) {
+      header = "P7\nWIDTH " + width + "\nHEIGHT " + height
+              + "\nDEPTH 4\nMAXVAL 255\nTUPLTYPE RGB_ALPHA\nENDHDR\n";
+    } else {
+      header = "P6\n" + width + " " + height + "\n255\n";
+    }
+    out.write(header.getBytes(StandardCharsets.US_ASCII));
+    int channels = alpha ? 4 : 3;
+    int[] row = new int[width];
+    byte[] bytes = new byte[width * channels];
+    // LOOP: goes through the rows, writing each one as soon as it has been read
+    for (int y = 0; y < height; y += 1) {
+      source.readRow(y, row);
+      // LOOP: goes through the pixels of the row, splitting each into its channels
+      for (int x = 0; x < width; x += 1) {
+        int at = x * channels;
+        bytes[at] = (byte) (row[x] >> 16);
+        bytes[at + 1] = (byte) (row[x] >> 8);
+        bytes[at + 2] = (byte) row[x];
+        if (alpha) {
+          bytes[at + 3] = (byte) (row[x] >>> 24);
+        }
+      }
+      out.write(bytes);
+    }
+    out.flush();
+  }
+
+  // EFFECT: writes the image of the given source to the given stream through ImageIO, in the
+  // given format, with no alpha channel for a JPEG
+  static void writeImageIO(IRowSource source, String format, OutputStream out)
+          throws IOException {
+    int width = source.rowLength();
+    int height = source.rowCount();
+    boolean opaque = format.equals("jpg") || format.equals("jpeg") || format.equals("bmp");
+    BufferedImage image = new BufferedImage(width, height,
+            opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    int[] row = new int[width];
+    // LOOP: goes through the rows, handing each one to the image as soon as it has been read
+    for (int y = 0; y < height; y += 1) {
+      source.readRow(y, row);
+      image.setRGB(0, y, width, 1, row, 0, width);
+    }
+    if (!ImageIO.write(image, format, out)) {
+      throw new RuntimeException("no image writer for " + format);
+    }
+    out.flush();
+  }
+}
+
+// This represents the rows of a SeamCarver's grid as it is now, read by following the grid down
+// from its top left Pixel and along each row, so that the carved image can be written out without
+// drawing it first. The rows have to be read in order.
+class GridRows implements IRowSource {
+  int width;
+  int height;
+  // the first APixel of the row that will be read next
+  APixel nextRow;
+
+  // Constructor
+  GridRows(APixel topLeft) {
+    APixel start = topLeft.findImageStart();
+    this.nextRow = start;
+    this.width = 0;
+    this.height = 0;
+    APixel cur = start;
+    // LOOP: goes along the first row, counting its Pixels
+    while (cur.hasRight()) {
+      this.width += 1;
+      cur = cur.rightNeighbor();
+    }
+    cur = start;
+    // LOOP: goes down the first column, counting its Pixels
+    while (cur.hasDown()) {
+      this.height += 1;
+      cur = cur.downNeighbor();
+    }
+  }
+
+  // This method finds and returns how many Pixels there are in each row of the grid.
+  public int rowLength() {
+    return this.width;
+  }
+
+  // This method finds and returns how many rows there are in the grid.
+  public int rowCount() {
+    return this.height;
+  }
+
+  // EFFECT: copies the colors the Pixels of the next row were made with into the start of the
+  // given array, and moves on to the row below it
+  public void readRow(int row, int[] into) {
+    APixel cur = this.nextRow;
+    // LOOP: goes along the row, copying the color of each Pixel
+    for (int col = 0; col < this.width; col += 1) {
+      into[col] = cur.col.getRGB();
+      cur = cur.rightNeighbor();
+    }
+    this.nextRow = this.nextRow.downNeighbor();
+  }
+}
+
 // This represents the original image that has been chosen to be compressed (seam carved).
 class SeamCarver extends World {
+  // the budget the "f" key gives every frame, in milliseconds, which leaves most of a frame at 60
+  // frames a second for drawing it
+  static final double DEFAULT_FRAME_BUDGET = 12.0;
+
+  // the image this SeamCarver was made from, if it was given one rather than a file name
   FromFileImage originalImage;
+  // every pixel of the original image, which the grid is built from
+  ImageRaster source;
   boolean paused;
   boolean paintRed;
   ComputedPixelImage inColor;
   ComputedPixelImage blackAndWhite;
   ComputedPixelImage displayEnergies;
   APixel topLeft;
-  ArrayList<ArrayList<APixel>> pixelHolder;
   ArrayList<SeamInfo> lastRow;
   ArrayList<SeamInfo> lastCol;
   ArrayList<SeamInfo> removed;
+  // the seams in removed, in the same order, with the versions of the grid around their removal
+  ArrayList<RemovedSeam> history;
+  // the seams that have been put back, the last one first, for as long as the grid is only
+  // changed by putting back more seams or by removing them again
+  ArrayList<RemovedSeam> undone;
+  // the energies of the Pixels split into tiles, with the tiles that removing or putting back a
+  // seam has put out of date marked, so that only those are computed again before the next pass
+  EnergyTiles tiles;
+  // which version of the grid this is, so that lastRow and lastCol can tell whether they were
+  // found for the grid as it is now. Putting back a seam goes back to the version from before it
+  // was removed, since the grid is the same again.
+  long gridVersion;
+  // the last version of the grid that has been handed out
+  long versions;
+  // the versions of the grid that lastRow and lastCol were found for, or -1 before they are found
+  long lastRowVersion;
+  long lastColVersion;
   boolean vCarve;
   boolean hCarve;
 
@@ -398,50 +960,162 @@ class SeamCarver extends World {
   boolean showWeights;
   boolean undoMode;
 
+  // where the direction of each seam comes from when neither "v" nor "h" has been pressed, which
+  // can be given a seed so that a run carves the same seams every time, or null to use
+  // Math.random
+  Random random;
+
+  // the thread carving this image in the background, or null when carving happens on every tick;
+  // only changed while holding this SeamCarver's lock, but read by ticks without it
+  volatile CarveWorker worker;
+  // how many key events are waiting for this SeamCarver's lock, which the worker lets have it
+  // before it takes the lock again for its next step
+  AtomicInteger keysWaiting;
+  // the most recent frame the worker has finished, waiting to be picked up by the next tick
+  AtomicReference<FrameSnapshot> frameSlot;
+  // the frame that is being displayed while the worker is carving
+  FrameSnapshot shownFrame;
+  // true when the grid or the display mode has changed since the worker last drew a frame
+  boolean frameOutdated;
+  // how long each tick may spend carving, in nanoseconds, or 0 to paint one seam red on one tick
+  // and remove it on the next
+  long frameBudget;
+  // how long the last pass run to find a seam in a budgeted frame took, in nanoseconds
+  long passNanos;
+  // how long removing the last seam, or putting back the last seam, in a budgeted frame took, in
+  // nanoseconds
+  long removeNanos;
+  // how many seams the last budgeted frame carved or put back
+  int frameSeams;
+
   // Constructor
   SeamCarver(FromFileImage originalImage) {
+    this(ImageRaster.fromImage(originalImage));
     this.originalImage = originalImage;
+  }
+
+  // Constructor that decodes the image in the file with the given name straight into a raster,
+  // which is the fastest way to get to the first seam for large images
+  SeamCarver(String fileName) {
+    this(ImageRaster.read(fileName));
+  }
+
+  // Constructor
+  SeamCarver(ImageRaster source) {
+    this.source = source;
     this.paused = true;
     this.paintRed = true;
-    this.inColor = new ComputedPixelImage((int) this.originalImage.getWidth(),
-            (int) this.originalImage.getHeight());
-    this.blackAndWhite = new ComputedPixelImage((int) this.originalImage.getWidth(),
-            (int) this.originalImage.getHeight());
-    this.displayEnergies = new ComputedPixelImage((int) this.originalImage.getWidth(),
-            (int) this.originalImage.getHeight());
+    this.inColor = new ComputedPixelImage(this.source.width, this.source.height);
+    this.blackAndWhite = new ComputedPixelImage(this.source.width, this.source.height);
+    this.displayEnergies = new ComputedPixelImage(this.source.width, this.source.height);
     this.topLeft = new Border();
     this.lastRow = new ArrayList<>();
     this.lastCol = new ArrayList<>();
     this.removed = new ArrayList<>();
-    this.pixelHolder = new ArrayList<>();
+    this.history = new ArrayList<>();
+    this.undone = new ArrayList<>();
+    this.tiles = new EnergyTiles(this.source.width, this.source.height);
+    this.gridVersion = 0;
+    this.versions = 0;
+    this.lastRowVersion = -1;
+    this.lastColVersion = -1;
     this.vCarve = false;
     this.hCarve = false;
     this.lastCarved = false;
     this.energySnapShot = false;
     this.showWeights = false;
     this.undoMode = false;
+    this.random = null;
+    this.worker = null;
+    this.frameSlot = new AtomicReference<>();
+    this.keysWaiting = new AtomicInteger();
+    this.shownFrame = null;
+    this.frameOutdated = true;
+    this.frameBudget = 0;
+    this.passNanos = 0;
+    this.removeNanos = 0;
+    this.frameSeams = 0;
     this.makeConnections();
     this.checkIfWellFormed();
-    this.seamCarveVertical();
-    this.seamCarveHorizontal();
+    this.seamCarveBoth();
   }
 
   // This method draws this image in color, on a background and displays it, which is what is
   // seen by the user.
+  // While the worker is carving in the background, the latest frame it has handed off is shown
+  // instead, or the image that was displayed when it started until it hands off its first one.
   public WorldScene makeScene() {
-    WorldScene res =  new WorldScene((int) this.originalImage.getWidth(),
-            (int) this.originalImage.getHeight());
+    WorldScene res =  new WorldScene(this.source.width, this.source.height);
+    if (this.worker != null) {
+      res.placeImageXY(this.shownFrame.image, this.source.width / 2, this.source.height / 2);
+    } else {
+      res.placeImageXY(this.displayedImage(), this.source.width / 2, this.source.height / 2);
+    }
+    return res;
+  }
+
+  // This method finds and returns whichever of the color, energies or weights images is the one
+  // being displayed.
+  ComputedPixelImage displayedImage() {
     if (this.energySnapShot) {
-      res.placeImageXY(this.blackAndWhite, (int) this.originalImage.getWidth() / 2,
-              (int)this.originalImage.getHeight() / 2);
+      return this.blackAndWhite;
     } else if (this.showWeights) {
-      res.placeImageXY(this.displayEnergies, (int) this.originalImage.getWidth() / 2,
-              (int)this.originalImage.getHeight() / 2);
+      return this.displayEnergies;
     } else {
-      res.placeImageXY(this.inColor, (int) this.originalImage.getWidth() / 2,
-              (int)this.originalImage.getHeight() / 2);
+      return this.inColor;
+    }
+  }
+
+  // EFFECT: draws the current grid into whichever of the color, energies or weights images is
+  // the one being displayed
+  void renderCurrentMode() {
+    this.renderInto(this.displayedImage());
+  }
+
+  // EFFECT: draws the current grid into the given image, the way whichever of the color,
+  // energies or weights modes is on shows it
+  void renderInto(ComputedPixelImage image) {
+    if (this.energySnapShot) {
+      this.drawEnergies(image);
+    } else if (this.showWeights) {
+      this.drawWeights(image);
+    } else {
+      this.drawColor(image);
+    }
+  }
+
+  // This method draws the current grid into a brand new image for whichever of the color,
+  // energies or weights modes is on, and returns it as a FrameSnapshot. Since the image is new,
+  // and never becomes one of the images of this SeamCarver, nothing draws on it again once it has
+  // been handed off to be displayed.
+  FrameSnapshot renderFrame() {
+    ComputedPixelImage image = new ComputedPixelImage(this.source.width, this.source.height);
+    this.renderInto(image);
+    this.frameOutdated = false;
+    return new FrameSnapshot(image, this.removed.size());
+  }
+
+  // EFFECT: writes the carved image, as the grid is now, to the file with the given name in the
+  // format its extension names, without drawing it first. Seams painted red are written in
+  // their own colors.
+  public synchronized void save(String fileName) {
+    ImageExporter.write(new GridRows(this.topLeft), fileName);
+  }
+
+  // EFFECT: starts carving this image on a background thread, which hands off frames for the
+  // ticks to display, or stops that thread and goes back to carving on every tick if it is
+  // already running
+  synchronized void toggleWorker() {
+    if (this.worker == null) {
+      this.shownFrame = new FrameSnapshot(this.displayedImage(), this.removed.size());
+      this.frameSlot.set(null);
+      this.frameOutdated = true;
+      this.worker = new CarveWorker(this);
+      this.worker.start();
+    } else {
+      this.worker.finish();
+      this.worker = null;
     }
-    return res;
   }
 
   // This method responds to a key event, wherein the user has pressed a key on the keyboard
@@ -449,9 +1123,22 @@ class SeamCarver extends World {
   // If the user presses the space bar, wherein the key is " ", then it will start or stop the
   // seam carving of this image. If the user presses "v" then vertical carving occurs and if they
   // press "h" then horizontal carving occurs. If the user presses "e" then the energies are shown
-  // and if the user presses "w" then the total weights are shown.
+  // and if the user presses "w" then the total weights are shown. If the user presses "f" then
+  // every tick carves as many seams as fit in DEFAULT_FRAME_BUDGET, or goes back to one seam
+  // every two ticks.
   // EFFECT: responds to a given key event, with specific actions explained above
+  // Key events can arrive while the worker is carving, so they are handled while holding this
+  // SeamCarver's lock, which the worker holds for every seam it carves. They are counted while
+  // they wait for it, so that the worker does not take it back before they have had it.
   public void onKeyEvent(String key) {
+    this.keysWaiting.incrementAndGet();
+    this.handleKey(key);
+  }
+
+  // EFFECT: responds to the given key event, which onKeyEvent counted as waiting for this
+  // SeamCarver's lock
+  synchronized void handleKey(String key) {
+    this.keysWaiting.decrementAndGet();
     // to make sure none of the red lines are kept when switching between modes
     if (!(this.paintRed) && this.lastCarved) {
       // if this.lastCarved is true, the last carved thing was vertical
@@ -460,8 +1147,6 @@ class SeamCarver extends World {
       this.seamRemoveHorizontal();
     }
     if (key.equals(" ")) {
-      this.seamCarveVertical();
-      this.seamCarveHorizontal();
       this.paused = !this.paused;
       if (this.paused) {
         // Once the carving pauses, when it starts again, it should reset to randomized carving.
@@ -482,53 +1167,168 @@ class SeamCarver extends World {
       this.energySnapShot = false;
     } else if (key.equals("u")) {
       this.undoMode = !this.undoMode;
+    } else if (key.equals("t")) {
+      this.toggleWorker();
+    } else if (key.equals("f")) {
+      this.budgetFrames(this.frameBudget == 0 ? DEFAULT_FRAME_BUDGET : 0.0);
     }
+    this.frameOutdated = true;
+    this.notifyAll();
   }
 
   // This method is invoked at every tick after the big bang method is invoked.
   // EFFECT: makes all of the necessary connections and makes the world scene on every tick
   // after the start of the big bang method
+  // While the worker is carving in the background, a tick only picks up the latest frame it has
+  // handed off, if there is a new one.
   public void onTick() {
-    if (this.energySnapShot) {
-      this.makeBandW();
-    } else if (this.showWeights) {
-      this.displayCumulativeWeight();
+    if (this.worker != null) {
+      FrameSnapshot latest = this.frameSlot.getAndSet(null);
+      if (latest != null) {
+        this.shownFrame = latest;
+      }
+      return;
+    }
+    this.renderCurrentMode();
+    if (this.frameBudget > 0) {
+      this.carveFrame();
     } else {
-      this.makeUpdatedImageColor();
+      this.carveStep();
+    }
+    this.makeScene();
+  }
+
+  // EFFECT: gives every tick the given number of milliseconds to carve in, or goes back to
+  // painting one seam red on one tick and removing it on the next if it is 0
+  void budgetFrames(double millis) {
+    if (millis < 0) {
+      throw new RuntimeException("a frame budget cannot be negative");
     }
+    this.frameBudget = (long) (millis * 1e6);
+  }
 
-    if (this.paintRed && !this.undoMode) {
-      if (this.vCarve || this.hCarve) {
-        if (this.vCarve) {
-          this.paintVerticalSeamRed();
+  // EFFECT: carves as many seams as fit in the frame budget: removes the seam that was painted
+  // red, if there is one, then goes on finding and removing the cheapest seam while there is
+  // time left for another one and for finding the seam after it, and paints that seam red, so
+  // that only the last seam of every frame is seen. Every pass run to find a seam, and every
+  // seam removed or put back, is timed, so that the budget goes by how long they take now. In
+  // undo mode it puts back seams instead. At least one seam is carved every frame, and the grid is
+  // checked to be well formed once a frame rather than after every seam.
+  void carveFrame() {
+    if (this.paused) {
+      return;
+    }
+    long start = System.nanoTime();
+    this.frameSeams = 0;
+    boolean going = true;
+    // LOOP: goes on carving or putting back seams until the budget is used up, or nothing changes
+    while (going) {
+      long version = this.gridVersion;
+      long stepStart = System.nanoTime();
+      if (this.undoMode) {
+        this.undoMove();
+        this.removeNanos = System.nanoTime() - stepStart;
+      } else if (!this.paintRed) {
+        if (this.lastCarved) {
+          this.seamRemoveVertical();
         } else {
-          this.paintHorizontalSeamRed();
+          this.seamRemoveHorizontal();
         }
-      } else if (Math.random() > 0.5) {
-        this.paintVerticalSeamRed();
+        this.paintRed = true;
+        this.removeNanos = System.nanoTime() - stepStart;
       } else {
-        this.paintHorizontalSeamRed();
+        this.removeNextSeam();
+      }
+      if (this.gridVersion != version) {
+        this.frameSeams += 1;
       }
+      long needed = this.undoMode ? this.removeNanos : 2 * this.passNanos + this.removeNanos;
+      going = this.gridVersion != version
+              && System.nanoTime() - start + needed <= this.frameBudget;
+    }
+    if (!this.undoMode) {
+      boolean vertical = this.nextSeamVertical();
+      this.timePass(vertical);
+      this.paintSeam(vertical);
+      this.paintRed = false;
+    }
+    this.checkIfWellFormed();
+    this.frameOutdated = true;
+  }
+
+  // EFFECT: takes the next step of carving: painting the next seam red, removing the seam that
+  // was painted red, or putting back the last removed seam in undo mode. The passes that find the
+  // seams are only run when a seam going that way is first needed after the grid changes.
+  void carveStep() {
+    if (this.paintRed && !this.undoMode) {
+      this.paintNextSeam();
     } else if (this.undoMode) {
-      this.seamCarveVertical();
-      this.seamCarveHorizontal();
       this.undoMove();
-      this.seamCarveVertical();
-      this.seamCarveHorizontal();
+    } else if (this.lastCarved) {
+      this.seamRemoveVertical();
     } else {
-      if (this.lastCarved) {
-        this.seamRemoveVertical();
-        this.seamCarveVertical();
-        this.seamCarveHorizontal();
-      } else {
-        this.seamRemoveHorizontal();
-        this.seamCarveHorizontal();
-        this.seamCarveVertical();
-      }
+      this.seamRemoveHorizontal();
     }
     this.paintRed = !this.paintRed;
     this.checkIfWellFormed();
-    this.makeScene();
+    this.frameOutdated = true;
+  }
+
+  // EFFECT: paints the next seam red: a vertical one if "v" was pressed, a horizontal one if "h"
+  // was pressed, and otherwise one going either way at random
+  void paintNextSeam() {
+    this.paintSeam(this.nextSeamVertical());
+  }
+
+  // EFFECT: paints the cheapest seam going the given way red, true for vertical
+  void paintSeam(boolean vertical) {
+    if (vertical) {
+      this.paintVerticalSeamRed();
+    } else {
+      this.paintHorizontalSeamRed();
+    }
+  }
+
+  // This method picks which way the next seam goes, true for vertical: the way "v" or "h" asks
+  // for, or either way if neither has been pressed.
+  boolean nextSeamVertical() {
+    return this.vCarve || (!this.hCarve && this.flipCoin());
+  }
+
+  // This method picks which way a seam goes when neither "v" nor "h" has been pressed, true for
+  // vertical, half the time each, from the seeded Random if one has been given.
+  boolean flipCoin() {
+    return (this.random == null ? Math.random() : this.random.nextDouble()) > 0.5;
+  }
+
+  // EFFECT: removes the next seam without painting it red first, going the same way
+  // paintNextSeam would have painted it, timing the pass that finds it and removing it apart
+  void removeNextSeam() {
+    boolean vertical = this.nextSeamVertical();
+    this.timePass(vertical);
+    long start = System.nanoTime();
+    if (vertical) {
+      this.seamRemoveVertical();
+    } else {
+      this.seamRemoveHorizontal();
+    }
+    this.removeNanos = System.nanoTime() - start;
+  }
+
+  // EFFECT: runs the pass that finds the seams going the given way and times it, unless they
+  // have already been found for the grid as it is, or the next seam going that way is one that
+  // was put back, since then no pass is needed
+  void timePass(boolean vertical) {
+    long found = vertical ? this.lastRowVersion : this.lastColVersion;
+    if (!this.paused && !this.canRedo(vertical) && found != this.gridVersion) {
+      long start = System.nanoTime();
+      if (vertical) {
+        this.verticalSeams();
+      } else {
+        this.horizontalSeams();
+      }
+      this.passNanos = System.nanoTime() - start;
+    }
   }
 
   //EFFECT: checks if the current grid is well-formed (pixel.up.left = pixel.left.up etc.
@@ -551,103 +1351,150 @@ class SeamCarver extends World {
     }
   }
 
-  // EFFECT: connects all of the pixels initially based on the originalImage
+  // EFFECT: connects all of the pixels initially based on the source raster, and computes the
+  // energy of every pixel along the way. The grid is built in bands of rows on the fork/join
+  // pool: first every band makes and attaches its own rows, and then every band attaches its
+  // first row to the band above it and computes its energies, reading the brightness of the rows
+  // just outside of it.
   void makeConnections() {
-    ArrayList<APixel> topRow = new ArrayList<>();
-    ArrayList<APixel> botRow = new ArrayList<>();
-    // Loop statement: loops through the width of the original image and sets a top
-    // row of borders
-    for (int col = 0; col < this.originalImage.getWidth() + 2; col += 1) {
-      topRow.add(new Border());
-      botRow.add(new Border());
-    }
-    this.pixelHolder.add(topRow);
-
-    // Loop statement: loops through the body of the image and adds those APixels to the arraylist
-    for (int row = 0; row < this.originalImage.getHeight(); row += 1) {
-      ArrayList<APixel> midRow = new ArrayList<>();
-      midRow.add(new Border());
-      // Loop statement: loops through the columns in this image and adds those APixels
-      // to the arraylist
-      for (int col = 0; col < this.originalImage.getWidth(); col += 1) {
-        Color newColor = this.originalImage.getColorAt(col, row);
-        APixel pix = new Pixel(newColor);
-        midRow.add(pix);
-      }
-      midRow.add(new Border());
-      this.pixelHolder.add(midRow);
-    }
-    this.pixelHolder.add(botRow);
-
-    // LOOP: goes through the top row of the ArrayList and makes those connections
-    for (int col = 0; col < this.pixelHolder.get(0).size() - 1; col += 1) {
-      APixel down = this.pixelHolder.get(1).get(col);
-      APixel right = this.pixelHolder.get(0).get(col + 1);
-      APixel cur = this.pixelHolder.get(0).get(col);
-      cur.makeConnectionsPixel(cur.upNeighbor(), down, cur.leftNeighbor(), right);
-      cur.updateEnergies();
-    }
-    APixel down = this.pixelHolder.get(1).get(this.pixelHolder.get(0).size() - 1);
-    APixel cur = this.pixelHolder.get(0).get(this.pixelHolder.get(0).size() - 1);
-    cur.makeConnectionsPixel(cur.upNeighbor(), down, cur.leftNeighbor(), cur.rightNeighbor());
-    cur.updateEnergies();
-
-    // LOOP: goes through the middle rows of the ArrayList and makes those connections
-    for (int row = 1; row < this.pixelHolder.size() - 1; row += 1) {
-      // LOOP: goes through the columns of the middle rows of the ArrayList
-      // and makes those connections
-      for (int col = 0; col < this.pixelHolder.get(0).size() - 1; col += 1) {
-        APixel down1 = this.pixelHolder.get(row + 1).get(col);
-        APixel right = this.pixelHolder.get(row).get(col + 1);
-        APixel cur1 = this.pixelHolder.get(row).get(col);
-        cur1.makeConnectionsPixel(cur1.upNeighbor(), down1, cur1.leftNeighbor(), right);
-        cur1.updateEnergies();
-      }
-      APixel d = this.pixelHolder.get(row + 1).get(this.pixelHolder.get(0).size() - 1);
-      APixel c = this.pixelHolder.get(row).get(this.pixelHolder.get(0).size() - 1);
-      c.makeConnectionsPixel(c.upNeighbor(), d, c.leftNeighbor(), c.rightNeighbor());
-      c.updateEnergies();
-    }
-
-    // LOOP: goes through the bottom row of the ArrayList and makes those connections
-    for (int col = 0; col < this.pixelHolder.get(0).size() - 1; col += 1) {
-      APixel right = this.pixelHolder.get(this.pixelHolder.size() - 1).get(col + 1);
-      APixel cur2 = this.pixelHolder.get(this.pixelHolder.size() - 1).get(col);
-      cur2.makeConnectionsPixel(cur2.upNeighbor(), cur2.downNeighbor(),
-              cur2.leftNeighbor(), right);
-      cur2.updateEnergies();
-    }
-    this.topLeft = this.pixelHolder.get(0).get(0);
+    EnergyRecomputeEvent event = new EnergyRecomputeEvent();
+    event.begin();
+    int cols = this.source.width + 2;
+    int rows = this.source.height + 2;
+    APixel[] grid = new APixel[rows * cols];
+    double[] brightness = new double[rows * cols];
+    int bandRows = Math.max(1, GridBandTask.BAND_CELLS / cols);
+    int bands = (rows + bandRows - 1) / bandRows;
+    ForkJoinPool.commonPool().invoke(new GridBandTask(this, grid, brightness, cols, rows,
+            bandRows, 0, bands, false));
+    ForkJoinPool.commonPool().invoke(new GridBandTask(this, grid, brightness, cols, rows,
+            bandRows, 0, bands, true));
+    this.topLeft = grid[0];
+    if (event.shouldCommit()) {
+      event.reason = "construction";
+      event.width = this.source.width;
+      event.height = this.source.height;
+      event.cells = (long) event.width * event.height;
+      event.commit();
+    }
+  }
+
+  // EFFECT: makes and attaches the rows from the given first row up to, but not including, the
+  // given last row of the given grid, leaving the first row unattached to the row above it
+  void makeGridBand(APixel[] grid, double[] brightness, int cols, int rows,
+                    int firstRow, int lastRow) {
+    // LOOP: goes through the rows of the band, making and attaching each one
+    for (int row = firstRow; row < lastRow; row += 1) {
+      this.makeGridRow(grid, brightness, cols, rows, row, firstRow);
+    }
+  }
+
+  // EFFECT: attaches the given first row of the given grid to the row above it, if there is one,
+  // and computes the energies of the Pixels in the rows from the given first row up to, but not
+  // including, the given last row
+  void finishGridBand(APixel[] grid, double[] brightness, int cols, int rows,
+                      int firstRow, int lastRow) {
+    if (firstRow > 0) {
+      // LOOP: goes through the columns of the first row, attaching each APixel to the one above
+      for (int col = 0; col < cols; col += 1) {
+        int index = firstRow * cols + col;
+        grid[index].attachBelow(grid[index - cols]);
+      }
+    }
+    // LOOP: goes through the rows of the band that hold Pixels, computing their energies
+    for (int row = Math.max(firstRow, 1); row < Math.min(lastRow, rows - 1); row += 1) {
+      this.computeEnergyRow(grid, brightness, cols, row);
+    }
+  }
+
+  // EFFECT: makes the APixels of the given row of the given grid, which is stored row by row and
+  // is the given number of columns wide, and attaches each of them to its left-neighbour, and to
+  // its up-neighbour unless the row is the given first row of its band. Pixels on the outside of
+  // the grid are Borders, and every other one is a Pixel whose brightness is stored in the given
+  // brightness plane.
+  void makeGridRow(APixel[] grid, double[] brightness, int cols, int rows, int row,
+                   int firstRow) {
+    boolean borderRow = row == 0 || row == rows - 1;
+    // LOOP: goes through the columns of the row, making and attaching each APixel
+    for (int col = 0; col < cols; col += 1) {
+      int index = row * cols + col;
+      if (borderRow || col == 0 || col == cols - 1) {
+        grid[index] = new Border();
+      } else {
+        Pixel pixel = new Pixel(this.source.argbAt(col - 1, row - 1));
+        this.tiles.add(pixel, col - 1, row - 1);
+        grid[index] = pixel;
+        brightness[index] = grid[index].calculateBrightness();
+      }
+      if (row > firstRow) {
+        grid[index].attachBelow(grid[index - cols]);
+      }
+      if (col > 0) {
+        grid[index].attachRightOf(grid[index - 1]);
+      }
+    }
+  }
+
+  // EFFECT: computes the energies of the Pixels in the given row of the given grid straight from
+  // the brightness plane, the same way Pixel.updateEnergies does by following neighbours (Borders
+  // have a brightness of 0.0), and stores them in those Pixels
+  void computeEnergyRow(APixel[] grid, double[] brightness, int cols, int row) {
+    // LOOP: goes through the Pixels of the row, leaving out the Borders on either side
+    for (int col = 1; col < cols - 1; col += 1) {
+      int index = row * cols + col;
+      int up = index - cols;
+      int down = index + cols;
+      double verticalEnergy = ((2 * brightness[up]) + brightness[up - 1] + brightness[up + 1])
+              - ((2 * brightness[down]) + brightness[down - 1] + brightness[down + 1]);
+      double horizontalEnergy = ((2 * brightness[index - 1]) + brightness[up - 1]
+              + brightness[down - 1])
+              - ((2 * brightness[index + 1]) + brightness[up + 1] + brightness[down + 1]);
+      grid[index].storeEnergies(verticalEnergy, horizontalEnergy);
+    }
   }
 
   // EFFECT: makes an updated version of this SeamCarver in color
   public void makeUpdatedImageColor() {
-    this.inColor.setPixels(0, 0, (int) this.originalImage.getWidth(),
-            (int) this.originalImage.getHeight(), Color.WHITE);
+    this.drawColor(this.inColor);
+  }
+
+  // EFFECT: draws this SeamCarver in color into the given image
+  void drawColor(ComputedPixelImage image) {
+    RenderEvent event = new RenderEvent();
+    event.begin();
+    image.setPixels(0, 0, this.source.width, this.source.height, Color.WHITE);
 
     int x = 0;
     int y = 0;
     APixel curRowCounter = this.topLeft.findImageStart();
-    // LOOP: goes through the rows in the grid to set colors of pixels in this.inColor in each row
+    // LOOP: goes through the rows in the grid to set colors of pixels in the image in each row
     while (curRowCounter.hasDown()) {
       APixel curColCounter = curRowCounter;
       x = 0;
-      // LOOP: goes through the pixels in a given row to set the color in this.inColor to
+      // LOOP: goes through the pixels in a given row to set the color in the image to
       // correspond to the color of the pixel
       while (curColCounter.hasRight()) {
-        this.inColor.setColorAt(x, y, curColCounter.checkColorDisplayed());
+        image.setColorAt(x, y, curColCounter.checkColorDisplayed());
         x += 1;
         curColCounter = curColCounter.rightNeighbor();
       }
       y += 1;
       curRowCounter = curRowCounter.downNeighbor();
     }
+    this.commitRender(event, "color", x, y);
   }
 
   // EFFECT: makes an updated version of this SeamCarver that displays the energies of each pixel
   public void makeBandW() {
-    this.blackAndWhite.setPixels(0, 0, (int) this.originalImage.getWidth(),
-            (int) this.originalImage.getHeight(), Color.WHITE);
+    this.drawEnergies(this.blackAndWhite);
+  }
+
+  // EFFECT: draws the energies of each pixel of this SeamCarver into the given image
+  void drawEnergies(ComputedPixelImage image) {
+    this.tiles.refresh();
+    RenderEvent event = new RenderEvent();
+    event.begin();
+    image.setPixels(0, 0, this.source.width, this.source.height, Color.WHITE);
 
     int x = 0;
     int y = 0;
@@ -655,28 +1502,36 @@ class SeamCarver extends World {
 
     double max = Math.sqrt(32.0);
     // LOOP: goes through the rows in the grid to set colors of
-    // pixels in this.blackAndWhite in each row
+    // pixels in the image in each row
     while (curRowCounter.hasDown()) {
       APixel curColCounter = curRowCounter;
       x = 0;
-      // LOOP: goes through the pixels in a given row to set the color in this.blackAndWhite to
+      // LOOP: goes through the pixels in a given row to set the color in the image to
       // correspond to the color of the pixel
       while (curColCounter.hasRight()) {
-        int energyFrac = (int) ((curColCounter.calculateEnergy() / max) * 255.0);
-        this.blackAndWhite.setColorAt(x, y, new Color(energyFrac, energyFrac, energyFrac));
+        int energyFrac = (int) ((curColCounter.storedEnergy() / max) * 255.0);
+        image.setColorAt(x, y, new Color(energyFrac, energyFrac, energyFrac));
         x += 1;
         curColCounter = curColCounter.rightNeighbor();
       }
       y += 1;
       curRowCounter = curRowCounter.downNeighbor();
     }
+    this.commitRender(event, "energies", x, y);
   }
 
   // EFFECT: makes an updated version of this SeamCarver that displays the cumulative weights
   // of each pixel
   public void displayCumulativeWeight() {
-    this.displayEnergies.setPixels(0, 0, (int) this.originalImage.getWidth(),
-            (int) this.originalImage.getHeight(), Color.WHITE);
+    this.drawWeights(this.displayEnergies);
+  }
+
+  // EFFECT: draws the cumulative weights of each pixel of this SeamCarver into the given image
+  void drawWeights(ComputedPixelImage image) {
+    this.tiles.refresh();
+    RenderEvent event = new RenderEvent();
+    event.begin();
+    image.setPixels(0, 0, this.source.width, this.source.height, Color.WHITE);
 
     double maxEnergy = 0.0;
     this.lastRow = new ArrayList<SeamInfo>();
@@ -685,7 +1540,7 @@ class SeamCarver extends World {
     // LOOP: goes through the first row of pixels and finds the SeamInfo corresponding to each
     // pixel and adds that SeamInfo to the ArrayList "first"
     while (curRowCounter.hasRight()) {
-      SeamInfo newSeam = new SeamInfo(curRowCounter, curRowCounter.calculateEnergy());
+      SeamInfo newSeam = new SeamInfo(curRowCounter, curRowCounter.storedEnergy());
       first.add(newSeam);
       curRowCounter = curRowCounter.rightNeighbor();
     }
@@ -704,7 +1559,7 @@ class SeamCarver extends World {
       while (curColCounter.hasRight()) {
         SeamInfo newSeam = new SeamInfo(curColCounter,
                 this.findMinimumSeam(first, counter).weightSoFar()
-                        + curColCounter.calculateEnergy(), this.findMinimumSeam(first, counter));
+                        + curColCounter.storedEnergy(), this.findMinimumSeam(first, counter));
         nextRow.add(newSeam);
         if (newSeam.weightSoFar() > maxEnergy) {
           maxEnergy = newSeam.weightSoFar();
@@ -716,13 +1571,14 @@ class SeamCarver extends World {
       curRowCounter = curRowCounter.downNeighbor();
     }
     this.lastRow = first;
+    this.lastRowVersion = this.gridVersion;
 
     curRowCounter = this.topLeft.findImageStart().downNeighbor();
     first = new ArrayList<>();
     // LOOP: goes through to calculate the SeamInfos of the pixels in the first row to help with
     // later calculations
     while (curRowCounter.hasRight()) {
-      SeamInfo newSeam = new SeamInfo(curRowCounter, curRowCounter.calculateEnergy());
+      SeamInfo newSeam = new SeamInfo(curRowCounter, curRowCounter.storedEnergy());
       first.add(newSeam);
       curRowCounter = curRowCounter.rightNeighbor();
     }
@@ -732,7 +1588,7 @@ class SeamCarver extends World {
     // at the given location
     for (int col = 0; col < first.size(); col += 1) {
       int newVal = (int) ((first.get(col).weightSoFar() / maxEnergy) * 255.0);
-      this.displayEnergies.setColorAt(col, 0, new Color(newVal, newVal, newVal));
+      image.setColorAt(col, 0, new Color(newVal, newVal, newVal));
     }
 
     curRowCounter = this.topLeft.findImageStart().downNeighbor();
@@ -749,39 +1605,63 @@ class SeamCarver extends World {
       while (curColCounter.hasRight()) {
         nextRow.add(new SeamInfo(curColCounter,
                 this.findMinimumSeam(first, counter).weightSoFar()
-                        + curColCounter.calculateEnergy(), this.findMinimumSeam(first, counter)));
+                        + curColCounter.storedEnergy(), this.findMinimumSeam(first, counter)));
         curColCounter = curColCounter.rightNeighbor();
         counter += 1;
       }
       first = nextRow;
 
       // LOOP: goes through each index of "first" and sets the color at the corresponding
-      // location in this.displayEnergies to reflect the relative totalWeight of the
+      // location in the image to reflect the relative totalWeight of the
       // SeamInfo at the given index
       for (int col = 0; col < first.size(); col += 1) {
         int newVal = (int) ((first.get(col).weightSoFar() / maxEnergy) * 255.0);
-        this.displayEnergies.setColorAt(col, rowCounter, new Color(newVal, newVal, newVal));
+        image.setColorAt(col, rowCounter, new Color(newVal, newVal, newVal));
       }
       curRowCounter = curRowCounter.downNeighbor();
       rowCounter += 1;
     }
+    this.commitRender(event, "weights", first.size(), rowCounter);
+  }
+
+  // EFFECT: fills in and commits the given RenderEvent, if a flight recording wants it
+  void commitRender(RenderEvent event, String mode, int width, int height) {
+    if (event.shouldCommit()) {
+      event.mode = mode;
+      event.width = width;
+      event.height = height;
+      event.commit();
+    }
+  }
+
+  // EFFECT: populates both the last row and the last col of SeamInfos at the same time, with the
+  // horizontal pass running on the fork/join pool. The out of date tiles are refreshed first, so
+  // both passes only read the energies stored in the Pixels.
+  void seamCarveBoth() {
+    this.tiles.refresh();
+    RecursiveAction.invokeAll(new SeamPassTask(this, true), new SeamPassTask(this, false));
   }
 
-  // EFFECT: This method populates the last row of SeamInfos once the pixels are fully traversed.
+  // EFFECT: This method populates the last row of SeamInfos once the pixels are fully traversed,
+  // using the energies stored in the Pixels once the out of date tiles are refreshed.
   public void seamCarveVertical() {
+    this.tiles.refresh();
+    SeamPassEvent event = new SeamPassEvent();
+    event.begin();
     this.lastRow = new ArrayList<SeamInfo>();
     ArrayList<SeamInfo> first = new ArrayList<SeamInfo>();
     APixel curRowCounter = this.topLeft.findImageStart();
     // LOOP: goes through each element of the first row and adds a SeamInfo to "first"
     // corresponding to each element of that row
     while (curRowCounter.hasRight()) {
-      first.add(new SeamInfo(curRowCounter, curRowCounter.calculateEnergy()));
+      first.add(new SeamInfo(curRowCounter, curRowCounter.storedEnergy()));
       curRowCounter = curRowCounter.rightNeighbor();
     }
 
     curRowCounter = this.topLeft.findImageStart().downNeighbor();
     APixel curColCounter = curRowCounter;
     int counter = 0;
+    int rows = 1;
     // LOOP: goes through each row of the grid to calculate SeamInfos
     while (curRowCounter.hasDown()) {
       curColCounter = curRowCounter;
@@ -792,31 +1672,39 @@ class SeamCarver extends World {
       while (curColCounter.hasRight()) {
         nextRow.add(new SeamInfo(curColCounter,
                 this.findMinimumSeam(first, counter).weightSoFar()
-                        + curColCounter.calculateEnergy(), this.findMinimumSeam(first, counter)));
+                        + curColCounter.storedEnergy(), this.findMinimumSeam(first, counter)));
         curColCounter = curColCounter.rightNeighbor();
         counter += 1;
       }
       first = nextRow;
       curRowCounter = curRowCounter.downNeighbor();
+      rows += 1;
     }
     this.lastRow = first;
+    this.lastRowVersion = this.gridVersion;
+    this.commitPass(event, "vertical", first.size(), rows);
   }
 
-  // EFFECT: This method populates the last col of SeamInfos once the pixels are fully traversed
+  // EFFECT: This method populates the last col of SeamInfos once the pixels are fully traversed,
+  // using the energies stored in the Pixels once the out of date tiles are refreshed.
   public void seamCarveHorizontal() {
+    this.tiles.refresh();
+    SeamPassEvent event = new SeamPassEvent();
+    event.begin();
     this.lastCol = new ArrayList<SeamInfo>();
     ArrayList<SeamInfo> first = new ArrayList<SeamInfo>();
     APixel curColCounter = this.topLeft.findImageStart();
     // LOOP: goes through each element of the first column and adds a SeamInfo to "first"
     // corresponding to each element of that column
     while (curColCounter.hasDown()) {
-      first.add(new SeamInfo(curColCounter, curColCounter.calculateEnergy()));
+      first.add(new SeamInfo(curColCounter, curColCounter.storedEnergy()));
       curColCounter = curColCounter.downNeighbor();
     }
 
     curColCounter = this.topLeft.findImageStart().rightNeighbor();
     APixel curRowCounter = curColCounter;
     int counter = 0;
+    int cols = 1;
     // LOOP: goes through each column of the grid to calculate SeamInfos
     while (curColCounter.hasRight()) {
       curRowCounter = curColCounter;
@@ -827,55 +1715,232 @@ class SeamCarver extends World {
       while (curRowCounter.hasDown()) {
         nextRow.add(new SeamInfo(curRowCounter,
                 this.findMinimumSeam(first, counter).weightSoFar()
-                        + curRowCounter.calculateEnergy(), this.findMinimumSeam(first, counter)));
+                        + curRowCounter.storedEnergy(), this.findMinimumSeam(first, counter)));
         curRowCounter = curRowCounter.downNeighbor();
         counter += 1;
       }
       curColCounter = curColCounter.rightNeighbor();
       first = nextRow;
+      cols += 1;
     }
     this.lastCol = first;
+    this.lastColVersion = this.gridVersion;
+    this.commitPass(event, "horizontal", cols, first.size());
   }
 
-  // This method inspects the SeamInfo of the pixel at the given row and col, and its horizontal
-  // neighbours. Of the three SeamInfos examined, this method will help find the SeamInfo with the
-  // minimum total weight so far, and return that SeamInfo. If any of the SeamInfos' pixels
-  // correspond to a Border, that is not considered.
-  SeamInfo findMinimumSeam(ArrayList<SeamInfo> prevRow, int col) {
-    SeamInfo left = new SeamInfo(new Border(), Integer.MAX_VALUE);
-    // set as the max value for an Integer so that this value is never used
-    SeamInfo right = new SeamInfo(new Border(), Integer.MAX_VALUE);
-    // set as the max value for an Integer so that this value is never used
-    if (col > 0) {
-      left = prevRow.get(col - 1);
+  // This method finds and returns the last row of SeamInfos for the grid as it is now, only
+  // running the vertical pass if the grid has changed since it was last run.
+  ArrayList<SeamInfo> verticalSeams() {
+    if (this.lastRowVersion != this.gridVersion) {
+      this.seamCarveVertical();
     }
-    SeamInfo above = prevRow.get(col);
-    if (col < prevRow.size() - 1) {
-      right = prevRow.get(col + 1);
+    return this.lastRow;
+  }
+
+  // This method finds and returns the last col of SeamInfos for the grid as it is now, only
+  // running the horizontal pass if the grid has changed since it was last run.
+  ArrayList<SeamInfo> horizontalSeams() {
+    if (this.lastColVersion != this.gridVersion) {
+      this.seamCarveHorizontal();
     }
-    if (left.weightSoFar() <= above.weightSoFar()
-            && (left.weightSoFar() <= right.weightSoFar())) {
-      return left;
-    } else if (above.weightSoFar() <= right.weightSoFar()
-            && (above.weightSoFar() <= left.weightSoFar())) {
-      return above;
+    return this.lastCol;
+  }
+
+  // EFFECT: records that the grid has changed into a new version, so that the seams found for it
+  // before are found again when they are next needed, and the seams that were put back can no
+  // longer be removed again without a pass
+  void gridChanged() {
+    this.versions += 1;
+    this.gridVersion = this.versions;
+    this.undone.clear();
+  }
+
+  // This method checks whether the last seam put back goes the given way and the grid is still as
+  // it was when that seam was put back, which makes it the cheapest seam going that way again.
+  boolean canRedo(boolean vertical) {
+    return this.undone.size() > 0 && this.undone.get(0).before == this.gridVersion
+            && this.undone.get(0).vertical == vertical;
+  }
+
+  // This method finds and returns where the cheapest seam going the given way ends. Right after
+  // a seam going that way has been put back, it is that seam, and no pass is run to find it.
+  SeamInfo cheapestSeam(boolean vertical) {
+    if (this.canRedo(vertical)) {
+      return this.undone.get(0).seam;
+    } else if (vertical) {
+      return this.selectSeam(this.verticalSeams(), "vertical");
+    } else {
+      return this.selectSeam(this.horizontalSeams(), "horizontal");
+    }
+  }
+
+  // EFFECT: records that the given seam going the given way has just been removed. If it is the
+  // last seam that was put back, the grid goes back to the version it had after that seam was
+  // removed before, and otherwise to a new version.
+  void seamRemoved(SeamInfo seam, boolean vertical) {
+    if (this.canRedo(vertical) && this.undone.get(0).seam == seam) {
+      RemovedSeam redone = this.undone.remove(0);
+      this.gridVersion = redone.after;
+      this.history.add(0, redone);
+    } else {
+      long before = this.gridVersion;
+      this.gridChanged();
+      this.history.add(0, new RemovedSeam(seam, vertical, before, this.gridVersion));
+    }
+  }
+
+  // EFFECT: marks the tiles of every Pixel of the seam ending at the given SeamInfo, and of every
+  // APixel around those Pixels, as out of date. Called while the seam is still in the grid, both
+  // before it is removed and after it is put back, since those are the only APixels whose
+  // neighbourhoods change.
+  void markSeamTiles(SeamInfo seam) {
+    // LOOP: goes through the seam from its end back to its start
+    while (seam != null) {
+      this.tiles.markAround(seam.findMyPixel());
+      seam = seam.prevSeamInfo();
+    }
+  }
+
+  // This method breaks down how many bytes this SeamCarver takes up for the image it was made
+  // from. Every Pixel is counted, including the ones of removed seams, which are kept to be put
+  // back, along with the Color each one was made with. The SeamInfos are counted once each,
+  // however many seams share them.
+  MemoryReport memoryReport() {
+    int width = this.source.width;
+    int height = this.source.height;
+    long pixels = (long) width * height;
+    MemoryReport report = new MemoryReport(pixels);
+    report.add("pixels", pixels * MemoryReport.objectBytes(6, 1, 3));
+    report.add("pixel colors", pixels * MemoryReport.objectBytes(3, 2, 0));
+    report.add("borders", (2L * (width + 2) + 2L * height) * MemoryReport.objectBytes(6, 0, 0));
+    report.add("energy tiles", MemoryReport.arrayBytes(pixels, MemoryReport.REFERENCE)
+            + MemoryReport.objectBytes(1, 2, 0)
+            + MemoryReport.arrayBytes((this.tiles.dirty.size() + 63) / 64, 8));
+    IdentityHashMap<SeamInfo, Boolean> seen = new IdentityHashMap<>();
+    report.add("seam passes", this.seamInfoBytes(this.lastRow, seen)
+            + this.seamInfoBytes(this.lastCol, seen));
+    report.add("removed seams", this.seamInfoBytes(this.removed, seen));
+    ArrayList<SeamInfo> undone = new ArrayList<>();
+    // LOOP: goes through the seams that have been put back
+    for (RemovedSeam seam : this.undone) {
+      undone.add(seam.seam);
+    }
+    report.add("undone seams", this.seamInfoBytes(undone, seen)
+            + (this.history.size() + this.undone.size()) * MemoryReport.objectBytes(1, 1, 2));
+    report.add("source raster", MemoryReport.objectBytes(1, 2, 0)
+            + MemoryReport.arrayBytes(pixels, 4));
+    report.add("images", 3 * MemoryReport.arrayBytes(pixels, 4));
+    return report;
+  }
+
+  // This method adds up how many bytes the given list of SeamInfos takes up, along with every
+  // SeamInfo the seams ending at them came from, leaving out the ones already in the given map.
+  // EFFECT: adds every SeamInfo it counts to the given map
+  long seamInfoBytes(ArrayList<SeamInfo> seams, IdentityHashMap<SeamInfo, Boolean> seen) {
+    long bytes = MemoryReport.objectBytes(1, 2, 0)
+            + MemoryReport.arrayBytes(seams.size(), MemoryReport.REFERENCE);
+    long seamInfo = MemoryReport.objectBytes(2, 0, 1);
+    // LOOP: goes through the seams in the list
+    for (SeamInfo seam : seams) {
+      // LOOP: walks back along the seam until it reaches a SeamInfo that has been counted
+      while (seam != null && seen.put(seam, true) == null) {
+        bytes += seamInfo;
+        seam = seam.prevSeamInfo();
+      }
+    }
+    return bytes;
+  }
+
+  // EFFECT: fills in and commits the given SeamPassEvent, if a flight recording wants it
+  void commitPass(SeamPassEvent event, String direction, int width, int height) {
+    if (event.shouldCommit()) {
+      event.direction = direction;
+      event.width = width;
+      event.height = height;
+      event.cells = (long) width * height;
+      event.commit();
+    }
+  }
+
+  // This method inspects the SeamInfo of the pixel at the given row and col, and its horizontal
+  // neighbours. Of the three SeamInfos examined, this method will help find the SeamInfo with the
+  // minimum total weight so far, and return that SeamInfo. If any of the SeamInfos' pixels
+  // correspond to a Border, that is not considered.
+  SeamInfo findMinimumSeam(ArrayList<SeamInfo> prevRow, int col) {
+    SeamInfo left = new SeamInfo(new Border(), Integer.MAX_VALUE);
+    // set as the max value for an Integer so that this value is never used
+    SeamInfo right = new SeamInfo(new Border(), Integer.MAX_VALUE);
+    // set as the max value for an Integer so that this value is never used
+    if (col > 0) {
+      left = prevRow.get(col - 1);
+    }
+    SeamInfo above = prevRow.get(col);
+    if (col < prevRow.size() - 1) {
+      right = prevRow.get(col + 1);
+    }
+    if (left.weightSoFar() <= above.weightSoFar()
+            && (left.weightSoFar() <= right.weightSoFar())) {
+      return left;
+    } else if (above.weightSoFar() <= right.weightSoFar()
+            && (above.weightSoFar() <= left.weightSoFar())) {
+      return above;
     } else {
       return right;
     }
   }
 
+  // This method finds and returns the SeamInfo with the minimum totalWeight out of the given
+  // last row (or column) of SeamInfos, which is where the minimum seam ends, going in the given
+  // direction. If there are several, the first one is kept.
+  SeamInfo selectSeam(ArrayList<SeamInfo> candidates, String direction) {
+    SeamSelectedEvent event = new SeamSelectedEvent();
+    event.begin();
+    int minIndex = 0;
+    // LOOP: This loop iterates through every SeamInfo in the given candidates, and
+    // keeps the index of the SeamInfo with the minimum totalWeight.
+    for (int i = 1; i < candidates.size(); i += 1) {
+      if (candidates.get(i).weightSoFar() < candidates.get(minIndex).weightSoFar()) {
+        minIndex = i;
+      }
+    }
+    SeamInfo min = candidates.get(minIndex);
+    if (event.shouldCommit()) {
+      event.direction = direction;
+      event.cost = min.weightSoFar();
+      event.startIndex = minIndex;
+      event.commit();
+    }
+    return min;
+  }
+
+  // This method counts and returns the number of pixels in the seam ending at the given SeamInfo.
+  int seamLength(SeamInfo seam) {
+    int length = 1;
+    // LOOP: walks back along the seam, counting every SeamInfo it came from
+    while (seam.hasCameFrom()) {
+      length += 1;
+      seam = seam.prevSeamInfo();
+    }
+    return length;
+  }
+
+  // EFFECT: fills in and commits the given SeamEditEvent for the seam ending at the given
+  // SeamInfo, if a flight recording wants it
+  void commitEdit(SeamEditEvent event, String action, boolean vertical, SeamInfo seam) {
+    if (event.shouldCommit()) {
+      event.action = action;
+      event.direction = vertical ? "vertical" : "horizontal";
+      event.cost = seam.weightSoFar();
+      event.length = this.seamLength(seam);
+      event.commit();
+    }
+  }
+
   // EFFECT: sets all of the colDisplayed fields of the pixels along the min weight path to be red
   // for vertical
   public void paintVerticalSeamRed() {
-    if (!this.paused && (this.lastRow.size() > 0)) {
-      SeamInfo min = this.lastRow.get(0);
-      // LOOP: This loop iterates through every SeamInfo in the last row of the infoGrid, and
-      // keeps the SeamInfo with the minimum totalWeight.
-      for (SeamInfo s : this.lastRow) {
-        if (s.weightSoFar() < min.weightSoFar()) {
-          min = s;
-        }
-      }
+    if (!this.paused && (this.canRedo(true) || this.verticalSeams().size() > 0)) {
+      SeamInfo min = this.cheapestSeam(true);
 
       // LOOP: goes through as long as min.cameFrom is not null and paints the pixels
       // red along the minimum seam
@@ -890,15 +1955,8 @@ class SeamCarver extends World {
   // EFFECT: sets all of the colDisplayed fields of the pixels along the min weight path to be red
   // for horizontal
   public void paintHorizontalSeamRed() {
-    if (!this.paused && (this.lastCol.size() > 0)) {
-      SeamInfo min = this.lastCol.get(0);
-      // LOOP: This loop iterates through every SeamInfo in the last row of the infoGrid, and
-      // keeps the SeamInfo with the minimum totalWeight.
-      for (SeamInfo s : this.lastCol) {
-        if (s.weightSoFar() < min.weightSoFar()) {
-          min = s;
-        }
-      }
+    if (!this.paused && (this.canRedo(false) || this.horizontalSeams().size() > 0)) {
+      SeamInfo min = this.cheapestSeam(false);
 
       // LOOP: goes through as long as min.cameFrom is not null and paints the pixels
       // red along the minimum seam
@@ -914,16 +1972,12 @@ class SeamCarver extends World {
   // removes the Pixels in that seam by changing the connections of those pixels.
   // for vertical
   public void seamRemoveVertical() {
-    if (!this.paused && (this.lastRow.size() > 0)) {
-      SeamInfo min = this.lastRow.get(0);
-      // LOOP: This loop iterates through every SeamInfo in the last row of the infoGrid, and
-      // keeps the SeamInfo with the minimum totalWeight.
-      for (SeamInfo s : this.lastRow) {
-        if (s.weightSoFar() < min.weightSoFar()) {
-          min = s;
-        }
-      }
+    if (!this.paused && (this.canRedo(true) || this.verticalSeams().size() > 0)) {
+      SeamEditEvent event = new SeamEditEvent();
+      event.begin();
+      SeamInfo min = this.cheapestSeam(true);
       this.removed.add(0, min);
+      this.markSeamTiles(min);
 
       APixel pix = min.findMyPixel().downNeighbor().rightNeighbor();
       pix.makeConnectionsPixel(pix.upNeighbor(), pix.downNeighbor(),
@@ -968,10 +2022,9 @@ class SeamCarver extends World {
       pix = min.findMyPixel().upNeighbor().rightNeighbor();
       pix.makeConnectionsPixel(pix.upNeighbor(), pix.downNeighbor(),
               min.findMyPixel().upNeighbor().leftNeighbor(), pix.rightNeighbor());
-
-      min.findMyPixel().leftNeighbor().updateEnergies();
-      min.findMyPixel().rightNeighbor().updateEnergies();
+      this.seamRemoved(this.removed.get(0), true);
       this.lastCarved = true;
+      this.commitEdit(event, "removed", true, this.removed.get(0));
     }
   }
 
@@ -979,17 +2032,13 @@ class SeamCarver extends World {
   // removes the Pixels in that seam by changing the connections of those pixels.
   // for horizontal
   public void seamRemoveHorizontal() {
-    if (!this.paused && (this.lastCol.size() > 1)) {
-      SeamInfo min = this.lastCol.get(0);
-      // LOOP: This loop iterates through every SeamInfo in the last row of the infoGrid, and
-      // keeps the SeamInfo with the minimum totalWeight.
-      for (SeamInfo s : this.lastCol) {
-        if (s.weightSoFar() < min.weightSoFar()) {
-          min = s;
-        }
-      }
+    if (!this.paused && (this.canRedo(false) || this.horizontalSeams().size() > 1)) {
+      SeamEditEvent event = new SeamEditEvent();
+      event.begin();
+      SeamInfo min = this.cheapestSeam(false);
 
       this.removed.add(0, min);
+      this.markSeamTiles(min);
 
       APixel pix = min.findMyPixel().rightNeighbor().upNeighbor();
       pix.makeConnectionsPixel(pix.upNeighbor(), min.findMyPixel().rightNeighbor().downNeighbor(),
@@ -1035,18 +2084,24 @@ class SeamCarver extends World {
       pix = min.findMyPixel().leftNeighbor().upNeighbor();
       pix.makeConnectionsPixel(pix.upNeighbor(), min.findMyPixel().leftNeighbor().downNeighbor(),
               pix.leftNeighbor(), pix.rightNeighbor());
-
-      min.findMyPixel().upNeighbor().updateEnergies();
-      min.findMyPixel().downNeighbor().updateEnergies();
+      this.seamRemoved(this.removed.get(0), false);
       this.lastCarved = false;
+      this.commitEdit(event, "removed", false, this.removed.get(0));
     }
   }
 
-  // EFFECT: adds the last removed seam to the grid and reconnects the pixels properly
+  // EFFECT: adds the last removed seam to the grid and reconnects the pixels properly. No pass is
+  // run: the grid goes back to the version from before the seam was removed, so the last pass is
+  // used again if it was found for that version, and the seam is removed again without a pass if
+  // it is the next one carved. The energies around the seam are only computed again, from their
+  // tiles, when a pass needs them.
   void undoMove() {
     if (!this.paused) {
       if (this.removed.size() != 0) {
+        SeamEditEvent event = new SeamEditEvent();
+        event.begin();
         SeamInfo lastRemoved = this.removed.remove(0);
+        SeamInfo restored = lastRemoved;
         boolean wasVertical = false;
         lastRemoved.findMyPixel().reconnectPixel();
         if (!lastRemoved.findMyPixel().downNeighbor().hasDown()
@@ -1100,1161 +2155,7677 @@ class SeamCarver extends World {
           pix.makeConnectionsPixel(lastRemoved.findMyPixel().leftNeighbor(), pix.downNeighbor(),
                   pix.leftNeighbor(), pix.rightNeighbor());
         }
+        this.markSeamTiles(restored);
+        RemovedSeam edit = this.history.remove(0);
+        this.gridVersion = edit.before;
+        this.undone.add(0, edit);
+        this.commitEdit(event, "restored", wasVertical, restored);
       }
     }
   }
 }
 
-class ExamplesSeamCarver {
-  void testBigBang(Tester t) {
-    SeamCarver im = new SeamCarver(new FromFileImage("images/lerner.jpg"));
-    SeamCarver res = im;
-    res.bigBang((int) res.originalImage.getWidth(),
-            (int) res.originalImage.getHeight(), 0.001);
+// This represents a seam removed from a SeamCarver, along with the versions of the grid from just
+// before and just after it was removed, so that putting it back and removing it again can go back
+// to those versions and use the passes found for them
+class RemovedSeam {
+  final SeamInfo seam;
+  final boolean vertical;
+  final long before;
+  final long after;
+
+  // Constructor
+  RemovedSeam(SeamInfo seam, boolean vertical, long before, long after) {
+    this.seam = seam;
+    this.vertical = vertical;
+    this.before = before;
+    this.after = after;
   }
+}
 
+// This represents one finished frame of a SeamCarver, handed off from the thread carving it to be
+// displayed. Nothing is drawn on the image once the frame has been made.
+class FrameSnapshot {
+  final ComputedPixelImage image;
+  // how many seams had been removed when the frame was drawn
+  final int seamsRemoved;
 
+  // Constructor
+  FrameSnapshot(ComputedPixelImage image, int seamsRemoved) {
+    this.image = image;
+    this.seamsRemoved = seamsRemoved;
+  }
+}
 
+// This represents a background thread that keeps carving a SeamCarver as fast as it can, and
+// hands off a frame whenever the last one has been picked up. Frames are only drawn when they can
+// be handed off, so while the display falls behind, the intermediate frames are skipped instead of
+// slowing the carving down.
+class CarveWorker extends Thread {
+  // how long the worker waits for a key event before trying again, when the carver is paused or
+  // has nothing left to carve or put back, in milliseconds
+  static final long IDLE_MILLIS = 100;
+  SeamCarver carver;
+  // false once the worker has been told to stop; only changed while holding the carver's lock
+  volatile boolean running;
 
-  void testCalculateBrightness(Tester t) {
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Border border = new Border();
-    t.checkInexact(pix1.calculateBrightness(), 0.530718954248366, 0.0001);
-    t.checkInexact(pix2.calculateBrightness(), 0.4928104575163399, 0.0001);
-    t.checkInexact(pix3.calculateBrightness(), 0.550326797385621, 0.0001);
-    t.checkInexact(border.calculateBrightness(), 0.0, 0.0001);
+  // Constructor
+  CarveWorker(SeamCarver carver) {
+    super("seam-carver");
+    this.carver = carver;
+    this.running = true;
+    this.setDaemon(true);
   }
 
-  void testFindVEComponent(Tester t) {
-    Border border = new Border();
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    t.checkInexact(pix4.findVEComponent(), 1.603921568627451, 0.0001);
-    t.checkInexact(pix5.findVEComponent(), 1.231372549019608, 0.0001);
-    t.checkInexact(pix6.findVEComponent(), 1.6405228758169934, 0.0001);
-    t.checkInexact(border.findVEComponent(), 0.0, 0.0001);
+  // EFFECT: carves one step at a time until told to stop, waiting while the carver is paused or
+  // its steps change nothing, and hands off a new frame whenever the previous one has been picked
+  // up. Before every step, it lets every key event waiting for the carver's lock have it first,
+  // by waiting on the carver, which hands the lock over, until the last of them notifies it.
+  public void run() {
+    // LOOP: goes through one step of carving at a time, until the worker is told to stop
+    while (this.running) {
+      synchronized (this.carver) {
+        try {
+          // LOOP: waits for the key events waiting for the carver's lock to have had it
+          while (this.running && this.carver.keysWaiting.get() > 0) {
+            this.carver.wait();
+          }
+          if (!this.running) {
+            return;
+          }
+          boolean changed = this.step();
+          if (this.carver.frameOutdated && this.carver.frameSlot.get() == null) {
+            this.carver.frameSlot.set(this.carver.renderFrame());
+          }
+          if (!changed) {
+            this.carver.wait(IDLE_MILLIS);
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
   }
 
-  void testFindHEComponent(Tester t) {
-    Border border = new Border();
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    t.checkInexact(pix7.findHEComponent(), 1.580392156862745, 0.0001);
-    t.checkInexact(pix8.findHEComponent(), 1.823529411764706, 0.0001);
-    t.checkInexact(pix9.findHEComponent(), 1.9032679738562093, 0.0001);
-    t.checkInexact(border.findHEComponent(), 0.0, 0.0001);
+  // This method takes the carver's next step of carving, unless it is paused, and returns whether
+  // that changed anything: painting a seam red always counts, while removing or putting back a
+  // seam only does if there was one. Called while holding the carver's lock.
+  // EFFECT: carves one step of the carver
+  boolean step() {
+    if (this.carver.paused) {
+      return false;
+    }
+    long version = this.carver.gridVersion;
+    boolean painting = this.carver.paintRed && !this.carver.undoMode;
+    this.carver.carveStep();
+    return painting || this.carver.gridVersion != version;
   }
 
-  void testCalculateEnergy(Tester t) {
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    t.checkInexact(pix10.calculateEnergy(), 0.836, 0.01);
-    t.checkInexact(pix12.calculateEnergy(), 1.163, 0.01);
-    t.checkInexact(pix13.calculateEnergy(), 1.408, 0.01);
-    t.checkInexact(pix15.calculateEnergy(), 1.307, 0.01);
-    t.checkInexact(new Border().calculateEnergy(), 2.147483647E9, 0.01);
+  // EFFECT: tells this worker to stop once it gets the carver's lock. Since this is called while
+  // holding that lock, no carving step can start after this returns.
+  void finish() {
+    this.running = false;
+    this.interrupt();
   }
+}
 
-  // tests that the upNeighbor method works as expected
-  void testUpNeighbor(Tester t) {
-    Border b = new Border();
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    b.down = pix2;
-    t.checkExpect(pix10.upNeighbor(), pix6);
-    t.checkExpect(pix7.upNeighbor(), pix3);
-    t.checkExpect(pix9.upNeighbor(), pix5);
-    t.checkExpect(pix2.upNeighbor(), b);
-    t.checkExpect(new Border().upNeighbor(), new Border());
+// This represents building some of the bands of rows of a SeamCarver's grid, which are split in
+// half and built in parallel until there is only one band left to build.
+@SuppressWarnings("serial")
+class GridBandTask extends RecursiveAction {
+  // roughly how many APixels each band should hold, so that each task is worth forking
+  static final int BAND_CELLS = 1 << 16;
+
+  SeamCarver carver;
+  APixel[] grid;
+  double[] brightness;
+  int cols;
+  int rows;
+  int bandRows;
+  int firstBand;
+  int lastBand;
+  // false while the bands are being made, true when they are being attached and their energies
+  // computed
+  boolean finishing;
+
+  // Constructor
+  GridBandTask(SeamCarver carver, APixel[] grid, double[] brightness, int cols, int rows,
+               int bandRows, int firstBand, int lastBand, boolean finishing) {
+    this.carver = carver;
+    this.grid = grid;
+    this.brightness = brightness;
+    this.cols = cols;
+    this.rows = rows;
+    this.bandRows = bandRows;
+    this.firstBand = firstBand;
+    this.lastBand = lastBand;
+    this.finishing = finishing;
   }
 
-  // tests that the downNeighbor method works as expected
-  void testDownNeighbor(Tester t) {
-    Border b = new Border();
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    b.up = pix16;
-    t.checkExpect(pix16.downNeighbor(), b);
-    t.checkExpect(pix7.downNeighbor(), pix11);
-    t.checkExpect(pix9.downNeighbor(), pix13);
+  // EFFECT: builds the bands from the first band up to, but not including, the last band,
+  // splitting them across the pool when there is more than one
+  protected void compute() {
+    if (this.lastBand - this.firstBand > 1) {
+      int middle = (this.firstBand + this.lastBand) / 2;
+      invokeAll(new GridBandTask(this.carver, this.grid, this.brightness, this.cols, this.rows,
+                      this.bandRows, this.firstBand, middle, this.finishing),
+              new GridBandTask(this.carver, this.grid, this.brightness, this.cols, this.rows,
+                      this.bandRows, middle, this.lastBand, this.finishing));
+    } else if (this.lastBand > this.firstBand) {
+      int firstRow = this.firstBand * this.bandRows;
+      int lastRow = Math.min(firstRow + this.bandRows, this.rows);
+      if (this.finishing) {
+        this.carver.finishGridBand(this.grid, this.brightness, this.cols, this.rows,
+                firstRow, lastRow);
+      } else {
+        this.carver.makeGridBand(this.grid, this.brightness, this.cols, this.rows,
+                firstRow, lastRow);
+      }
+    }
+  }
+}
+
+// This represents one pass of a SeamCarver's dynamic programming, run as a fork/join task so that
+// the vertical and horizontal passes can run at the same time.
+@SuppressWarnings("serial")
+class SeamPassTask extends RecursiveAction {
+  SeamCarver carver;
+  boolean vertical;
+
+  // Constructor
+  SeamPassTask(SeamCarver carver, boolean vertical) {
+    this.carver = carver;
+    this.vertical = vertical;
+  }
+
+  // EFFECT: populates the carver's last row of SeamInfos if this is a vertical pass, or its last
+  // col if it is a horizontal one
+  protected void compute() {
+    if (this.vertical) {
+      this.carver.seamCarveVertical();
+    } else {
+      this.carver.seamCarveHorizontal();
+    }
+  }
+}
+
+// This represents the energies of the Pixels of a SeamCarver, split into square tiles of the
+// original image, and a bitmap of the tiles whose energies may be out of date. Removing or putting
+// back a seam marks the tiles around it, and the next pass refreshes only the marked tiles, in
+// parallel when there are enough of them, instead of computing every energy again.
+// A Pixel stays in the tile it started in even once seams have moved it, since the tile is only a
+// way of grouping Pixels whose energies are refreshed together.
+class EnergyTiles {
+  // how many Pixels wide and tall a tile is
+  static final int TILE = 16;
+  // how many marked tiles it takes for them to be refreshed on the fork/join pool
+  static final int PARALLEL_TILES = 64;
+
+  int width;
+  int height;
+  // how many tiles there are across the image
+  int across;
+  // every Pixel of the original image, row by row, whether or not it is still in the grid
+  Pixel[] pixels;
+  BitSet dirty;
+
+  // Constructor
+  EnergyTiles(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.across = (width + TILE - 1) / TILE;
+    this.pixels = new Pixel[width * height];
+    this.dirty = new BitSet(this.across * ((height + TILE - 1) / TILE));
+  }
+
+  // This method finds the tile that the pixel at the given column and row of the original image
+  // belongs to.
+  int tileAt(int col, int row) {
+    return (row / TILE) * this.across + (col / TILE);
+  }
+
+  // EFFECT: adds the given Pixel, at the given column and row of the original image, to the tile
+  // it belongs to
+  void add(Pixel pixel, int col, int row) {
+    this.pixels[row * this.width + col] = pixel;
+    pixel.tile = this.tileAt(col, row);
+  }
+
+  // EFFECT: marks the given tile as out of date
+  synchronized void mark(int tile) {
+    this.dirty.set(tile);
+  }
+
+  // EFFECT: marks the tiles of the given APixel and of the eight APixels around it as out of
+  // date, since those are the APixels whose energies read the brightness of the given one
+  void markAround(APixel pixel) {
+    pixel.markTile(this);
+    pixel.upNeighbor().markTile(this);
+    pixel.downNeighbor().markTile(this);
+    pixel.leftNeighbor().markTile(this);
+    pixel.rightNeighbor().markTile(this);
+    pixel.upNeighbor().leftNeighbor().markTile(this);
+    pixel.upNeighbor().rightNeighbor().markTile(this);
+    pixel.downNeighbor().leftNeighbor().markTile(this);
+    pixel.downNeighbor().rightNeighbor().markTile(this);
+  }
+
+  // This method refreshes the energies of every Pixel in the marked tiles and unmarks them, and
+  // returns how many tiles it refreshed. A pass calls this before it reads any stored energies,
+  // and when two passes run at once the second one waits for the first to finish refreshing.
+  // EFFECT: stores the energies of the Pixels in the marked tiles and clears the bitmap
+  synchronized int refresh() {
+    int count = this.dirty.cardinality();
+    if (count == 0) {
+      return 0;
+    }
+    int[] marked = new int[count];
+    int next = 0;
+    // LOOP: goes through the marked tiles in order, collecting them
+    for (int tile = this.dirty.nextSetBit(0); tile >= 0;
+         tile = this.dirty.nextSetBit(tile + 1)) {
+      marked[next] = tile;
+      next += 1;
+    }
+    this.dirty.clear();
+    if (count >= PARALLEL_TILES) {
+      ForkJoinPool.commonPool().invoke(new TileRefreshTask(this, marked, 0, count));
+    } else {
+      this.refreshTiles(marked, 0, count);
+    }
+    return count;
+  }
+
+  // EFFECT: refreshes the energies of the Pixels in the given tiles, from the given first index
+  // up to, but not including, the given last index. Each Pixel only stores its own energies and
+  // only reads the colors of the others, so different tiles can be refreshed at the same time.
+  void refreshTiles(int[] tiles, int first, int last) {
+    // LOOP: goes through the given tiles
+    for (int i = first; i < last; i += 1) {
+      int firstCol = (tiles[i] % this.across) * TILE;
+      int firstRow = (tiles[i] / this.across) * TILE;
+      int lastCol = Math.min(firstCol + TILE, this.width);
+      int lastRow = Math.min(firstRow + TILE, this.height);
+      // LOOP: goes through the rows of the tile
+      for (int row = firstRow; row < lastRow; row += 1) {
+        // LOOP: goes through the Pixels of the row that are in the tile
+        for (int col = firstCol; col < lastCol; col += 1) {
+          this.pixels[row * this.width + col].refreshEnergy();
+        }
+      }
+    }
+  }
+}
+
+// This represents refreshing some of the marked tiles of an EnergyTiles, which are split in half
+// and refreshed in parallel until there are few enough left to refresh in one go.
+@SuppressWarnings("serial")
+class TileRefreshTask extends RecursiveAction {
+  EnergyTiles tiles;
+  int[] marked;
+  int first;
+  int last;
+
+  // Constructor
+  TileRefreshTask(EnergyTiles tiles, int[] marked, int first, int last) {
+    this.tiles = tiles;
+    this.marked = marked;
+    this.first = first;
+    this.last = last;
+  }
+
+  // EFFECT: refreshes the marked tiles from the first index up to, but not including, the last
+  // index, splitting them across the pool while there are enough of them
+  protected void compute() {
+    if (this.last - this.first > EnergyTiles.PARALLEL_TILES / 4) {
+      int middle = (this.first + this.last) / 2;
+      invokeAll(new TileRefreshTask(this.tiles, this.marked, this.first, middle),
+              new TileRefreshTask(this.tiles, this.marked, middle, this.last));
+    } else {
+      this.tiles.refreshTiles(this.marked, this.first, this.last);
+    }
+  }
+}
+
+// This represents how one image of a CarveBenchmark's corpus did: how many seams were removed
+// from it, how many of them were removed per second, the median and 99th percentile time to
+// remove one, the most heap used while removing them, and the time spent collecting garbage.
+class BenchmarkResult {
+  String name;
+  int seams;
+  double seamsPerSecond;
+  double p50Millis;
+  double p99Millis;
+  long peakHeapBytes;
+  long gcMillis;
+
+  // Constructor
+  BenchmarkResult(String name, int seams, double seamsPerSecond, double p50Millis,
+                  double p99Millis, long peakHeapBytes, long gcMillis) {
+    this.name = name;
+    this.seams = seams;
+    this.seamsPerSecond = seamsPerSecond;
+    this.p50Millis = p50Millis;
+    this.p99Millis = p99Millis;
+    this.peakHeapBytes = peakHeapBytes;
+    this.gcMillis = gcMillis;
+  }
+
+  // This method writes this result as a JSON object on one line.
+  String toJson() {
+    return String.format(Locale.ROOT, "{\"name\": %s, \"seams\": %d, "
+                    + "\"seamsPerSecond\": %.3f, \"p50Millis\": %.3f, \"p99Millis\": %.3f, "
+                    + "\"peakHeapBytes\": %d, \"gcMillis\": %d}", BenchmarkResult.quote(this.name),
+            this.seams,
+            this.seamsPerSecond, this.p50Millis, this.p99Millis, this.peakHeapBytes,
+            this.gcMillis);
+  }
+
+  // This method reads a result back from the given line, which holds one written by toJson.
+  static BenchmarkResult fromJson(String line) {
+    return new BenchmarkResult(BenchmarkResult.string(line, "name"),
+            (int) BenchmarkResult.number(line, "seams"),
+            BenchmarkResult.number(line, "seamsPerSecond"),
+            BenchmarkResult.number(line, "p50Millis"),
+            BenchmarkResult.number(line, "p99Millis"),
+            (long) BenchmarkResult.number(line, "peakHeapBytes"),
+            (long) BenchmarkResult.number(line, "gcMillis"));
+  }
+
+  // This method finds the value of the field with the given name in the given line, as it was
+  // written, up to the comma or brace that ends it.
+  static String field(String line, String name) {
+    String key = "\"" + name + "\": ";
+    int start = line.indexOf(key);
+    if (start < 0) {
+      throw new RuntimeException("no " + name + " in the benchmark result " + line);
+    }
+    start += key.length();
+    int end = start;
+    // LOOP: goes through the value until the comma or brace that ends it
+    while (end < line.length() && line.charAt(end) != ',' && line.charAt(end) != '}') {
+      end += 1;
+    }
+    return line.substring(start, end).trim();
+  }
+
+  // This method writes the given text as a JSON string, in quotes, with the quotes, backslashes
+  // and control characters in it escaped, so that any file name can be written on one line.
+  static String quote(String text) {
+    StringBuilder quoted = new StringBuilder("\"");
+    // LOOP: goes through the characters of the text, escaping the ones JSON needs escaped
+    for (int at = 0; at < text.length(); at += 1) {
+      char c = text.charAt(at);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  // This method finds the value of the string field with the given name in the given line, from
+  // the quote that starts it to the unescaped quote that ends it, undoing the escapes in it.
+  static String string(String line, String name) {
+    String key = "\"" + name + "\": \"";
+    int start = line.indexOf(key);
+    if (start < 0) {
+      throw new RuntimeException("no " + name + " in the benchmark result " + line);
+    }
+    StringBuilder text = new StringBuilder();
+    int at = start + key.length();
+    // LOOP: goes through the characters of the string until the quote that ends it
+    while (at < line.length() && line.charAt(at) != '"') {
+      char c = line.charAt(at);
+      if (c != '\\' || at + 1 == line.length()) {
+        text.append(c);
+        at += 1;
+      } else if (line.charAt(at + 1) == 'u' && at + 6 <= line.length()) {
+        text.append((char) Integer.parseInt(line.substring(at + 2, at + 6), 16));
+        at += 6;
+      } else {
+        text.append(BenchmarkResult.unescape(line.charAt(at + 1)));
+        at += 2;
+      }
+    }
+    if (at == line.length()) {
+      throw new RuntimeException("the " + name + " in the benchmark result is not closed " + line);
+    }
+    return text.toString();
+  }
+
+  // This method returns the character the given one stands for after a backslash in a JSON
+  // string, other than the four hex digits after a "u".
+  static char unescape(char c) {
+    if (c == 'n') {
+      return '\n';
+    } else if (c == 't') {
+      return '\t';
+    } else if (c == 'r') {
+      return '\r';
+    } else if (c == 'b') {
+      return '\b';
+    } else if (c == 'f') {
+      return '\f';
+    } else {
+      return c;
+    }
+  }
+
+  // This method finds the value of the numeric field with the given name in the given line.
+  static double number(String line, String name) {
+    return Double.parseDouble(BenchmarkResult.field(line, name));
+  }
+
+  // This method describes how this result is slower than the given baseline for the same image,
+  // by more than the given fraction, in seams per second or in the 99th percentile time to remove
+  // a seam, or returns null if it is not.
+  String slowdownFrom(BenchmarkResult baseline, double threshold) {
+    if (this.seamsPerSecond < baseline.seamsPerSecond * (1 - threshold)) {
+      return String.format(Locale.ROOT, "%s: %.1f seams/s, down from %.1f", this.name,
+              this.seamsPerSecond, baseline.seamsPerSecond);
+    } else if (this.p99Millis > baseline.p99Millis * (1 + threshold)) {
+      return String.format(Locale.ROOT, "%s: p99 of %.3f ms, up from %.3f ms", this.name,
+              this.p99Millis, baseline.p99Millis);
+    } else {
+      return null;
+    }
+  }
+}
+
+// This represents an end to end benchmark of a SeamCarver, which removes the same number of seams
+// from every image of a fixed corpus without ever opening a window. The direction of every seam
+// comes from a Random with the benchmark's seed, so that every run removes the same seams.
+// Run it as: java CarveBenchmark results.json [baseline.json [threshold]]
+// which writes the results as JSON and, given a baseline written by an earlier run, lists every
+// image that got slower by more than the threshold (0.1 by default) and exits with a status of 1.
+class CarveBenchmark {
+  // the real photos added to the standard corpus, when they are there to be read
+  static final String[] PHOTOS = {"images/balloons.jpg", "images/lerner.jpg"};
+
+  long seed;
+  int removals;
+  // how many times the whole corpus is carved before it is measured, so that the JIT has
+  // compiled the carving first
+  int warmups;
+  ArrayList<String> names;
+  ArrayList<ImageRaster> corpus;
+
+  // Constructor
+  CarveBenchmark(long seed, int removals, int warmups) {
+    if (removals < 1) {
+      throw new RuntimeException("a benchmark has to remove at least one seam");
+    }
+    this.seed = seed;
+    this.removals = removals;
+    this.warmups = warmups;
+    this.names = new ArrayList<>();
+    this.corpus = new ArrayList<>();
+  }
+
+  // This method makes the standard benchmark with the given seed: three synthetic images made
+  // from that seed, and whichever of the real photos are there to be read.
+  static CarveBenchmark standard(long seed, int removals, int warmups) {
+    CarveBenchmark benchmark = new CarveBenchmark(seed, removals, warmups);
+    benchmark.addImage("synthetic-160x120", ImageRaster.synthetic(160, 120, seed));
+    benchmark.addImage("synthetic-320x240", ImageRaster.synthetic(320, 240, seed + 1));
+    benchmark.addImage("synthetic-640x480", ImageRaster.synthetic(640, 480, seed + 2));
+    // LOOP: goes through the real photos, adding every one that is there
+    for (String photo : PHOTOS) {
+      if (new File(photo).exists()) {
+        benchmark.addImage(photo, ImageRaster.read(photo));
+      }
+    }
+    return benchmark;
+  }
+
+  // EFFECT: adds the given image to the corpus under the given name
+  void addImage(String name, ImageRaster image) {
+    this.names.add(name);
+    this.corpus.add(image);
+  }
+
+  // This method removes this benchmark's number of seams from every image of the corpus, after
+  // warming up, and returns how each image did.
+  ArrayList<BenchmarkResult> runAll() {
+    // LOOP: goes through the warm up rounds, carving the whole corpus each time
+    for (int round = 0; round < this.warmups; round += 1) {
+      // LOOP: goes through the images of the corpus
+      for (int i = 0; i < this.corpus.size(); i += 1) {
+        this.run(this.names.get(i), this.corpus.get(i));
+      }
+    }
+    ArrayList<BenchmarkResult> results = new ArrayList<>();
+    // LOOP: goes through the images of the corpus, measuring each one
+    for (int i = 0; i < this.corpus.size(); i += 1) {
+      results.add(this.run(this.names.get(i), this.corpus.get(i)));
+    }
+    return results;
+  }
+
+  // This method removes this benchmark's number of seams from the given image, or as many as it
+  // has room for, by painting and then removing each seam the way the ticks do, and returns how
+  // long that took. The seams are timed one at a time; the heap and the collections are measured
+  // around all of them.
+  BenchmarkResult run(String name, ImageRaster image) {
+    SeamCarver carver = new SeamCarver(image);
+    carver.paused = false;
+    carver.random = new Random(this.seed);
+    int seams = Math.min(this.removals, Math.min(image.width, image.height) - 1);
+    long[] times = new long[seams];
+    System.gc();
+    long gcBefore = CarveBenchmark.gcMillis();
+    CarveBenchmark.resetPeakHeap();
+    long start = System.nanoTime();
+    // LOOP: goes through the seams, painting and then removing each one
+    for (int i = 0; i < seams; i += 1) {
+      long seamStart = System.nanoTime();
+      carver.carveStep();
+      carver.carveStep();
+      times[i] = System.nanoTime() - seamStart;
+    }
+    long total = System.nanoTime() - start;
+    long peakHeap = CarveBenchmark.peakHeap();
+    long gc = CarveBenchmark.gcMillis() - gcBefore;
+    Arrays.sort(times);
+    return new BenchmarkResult(name, seams, seams / (total / 1e9),
+            CarveBenchmark.percentile(times, 0.5) / 1e6,
+            CarveBenchmark.percentile(times, 0.99) / 1e6, peakHeap, gc);
+  }
+
+  // This method finds the given percentile of the given, sorted times, as the smallest time that
+  // at least that fraction of the times are no larger than.
+  static long percentile(long[] sorted, double fraction) {
+    int rank = (int) Math.ceil(fraction * sorted.length);
+    return sorted[Math.max(0, rank - 1)];
+  }
+
+  // This method adds up the time every garbage collector has spent collecting, in milliseconds.
+  static long gcMillis() {
+    long total = 0;
+    // LOOP: goes through the garbage collectors
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      total += Math.max(0, collector.getCollectionTime());
+    }
+    return total;
+  }
+
+  // EFFECT: forgets the most heap every heap memory pool has used so far
+  static void resetPeakHeap() {
+    // LOOP: goes through the memory pools, resetting the heap ones
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  // This method adds up the most heap every heap memory pool has used since it was last reset.
+  static long peakHeap() {
+    long total = 0;
+    // LOOP: goes through the memory pools, adding up the heap ones
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        total += pool.getPeakUsage().getUsed();
+      }
+    }
+    return total;
+  }
+
+  // This method writes the given results of this benchmark as JSON, one result per line.
+  String toJson(ArrayList<BenchmarkResult> results) {
+    StringBuilder json = new StringBuilder();
+    json.append("{\n  \"seed\": ").append(this.seed).append(",\n  \"removals\": ")
+            .append(this.removals).append(",\n  \"results\": [\n");
+    // LOOP: goes through the results, writing each on its own line
+    for (int i = 0; i < results.size(); i += 1) {
+      json.append("    ").append(results.get(i).toJson());
+      json.append(i < results.size() - 1 ? ",\n" : "\n");
+    }
+    return json.append("  ]\n}\n").toString();
+  }
+
+  // This method reads back the results in the given JSON, written by toJson.
+  static ArrayList<BenchmarkResult> fromJson(String json) {
+    ArrayList<BenchmarkResult> results = new ArrayList<>();
+    // LOOP: goes through the lines, reading every one that holds a result
+    for (String line : json.split("\n")) {
+      if (line.contains("\"name\": ")) {
+        results.add(BenchmarkResult.fromJson(line));
+      }
+    }
+    return results;
+  }
+
+  // This method lists how each of the given results is slower than the result for the same
+  // image in the given baseline, by more than the given fraction. Images that are not in the
+  // baseline are left out.
+  static ArrayList<String> compare(ArrayList<BenchmarkResult> results,
+                                   ArrayList<BenchmarkResult> baseline, double threshold) {
+    ArrayList<String> slowdowns = new ArrayList<>();
+    // LOOP: goes through the results, looking each one up in the baseline
+    for (BenchmarkResult result : results) {
+      // LOOP: goes through the baseline for the result of the same image
+      for (BenchmarkResult before : baseline) {
+        if (before.name.equals(result.name)) {
+          String slowdown = result.slowdownFrom(before, threshold);
+          if (slowdown != null) {
+            slowdowns.add(slowdown);
+          }
+        }
+      }
+    }
+    return slowdowns;
+  }
+
+  // EFFECT: runs the standard benchmark, writes its results to the file named by the first
+  // argument, and compares them against the baseline named by the second argument, if there is
+  // one, exiting with a status of 1 if anything got slower than the threshold in the third
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      throw new RuntimeException("usage: CarveBenchmark results.json [baseline.json [threshold]]");
+    }
+    CarveBenchmark benchmark = CarveBenchmark.standard(7L, 100, 2);
+    ArrayList<BenchmarkResult> results = benchmark.runAll();
+    String json = benchmark.toJson(results);
+    Files.write(Paths.get(args[0]), json.getBytes(StandardCharsets.UTF_8));
+    System.out.print(json);
+    if (args.length > 1) {
+      double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+      String baseline = new String(Files.readAllBytes(Paths.get(args[1])),
+              StandardCharsets.UTF_8);
+      ArrayList<String> slowdowns = CarveBenchmark.compare(results,
+              CarveBenchmark.fromJson(baseline), threshold);
+      // LOOP: goes through the slowdowns, reporting each one
+      for (String slowdown : slowdowns) {
+        System.out.println("slower than the baseline: " + slowdown);
+      }
+      if (!slowdowns.isEmpty()) {
+        System.exit(1);
+      }
+    }
+  }
+}
+
+// This represents a seam that has been carved out of a PlaneCarver: whether it was vertical, the
+// column it went through in every row (or the row it went through in every column, for a
+// horizontal seam), its total cost, and the colors of the pixels it took out, so that it can be
+// put back.
+class CarvedSeam {
+  boolean vertical;
+  int[] positions;
+  double cost;
+  int[] argb;
+
+  // Constructor
+  CarvedSeam(boolean vertical, int[] positions, double cost) {
+    this.vertical = vertical;
+    this.positions = positions;
+    this.cost = cost;
+    this.argb = new int[positions.length];
+  }
+
+  // This method finds and returns the smallest and largest positions of this seam in the given
+  // line and the lines on either side of it, as {smallest, largest}.
+  int[] positionsAround(int line) {
+    int smallest = this.positions[line];
+    int largest = this.positions[line];
+    // LOOP: goes through the lines on either side of the given line, if there are any
+    for (int other = Math.max(line - 1, 0);
+         other <= Math.min(line + 1, this.positions.length - 1); other += 1) {
+      smallest = Math.min(smallest, this.positions[other]);
+      largest = Math.max(largest, this.positions[other]);
+    }
+    return new int[]{smallest, largest};
+  }
+}
+
+// This represents the edits made to the planes of a PlaneCarver when a seam is taken out of them
+// or put back. A plane is an array of any primitive type, or an IntBuffer or DoubleBuffer,
+// holding one value per pixel, row by row, with the pixel at column 0 and row 0 at the given
+// origin and each row the given stride after the last; every value is moved by move, so every
+// plane type is edited the same way.
+class PlaneEdits {
+  // EFFECT: takes the given vertical seam out of the given plane, whose rows are the given width
+  // before the seam is taken out, by shifting the rest of each row left over it
+  static void closeVertical(Object plane, int origin, int stride, int[] positions, int width,
+                            int height) {
+    // LOOP: goes through the rows, shifting each one left over the seam's column
+    for (int row = 0; row < height; row += 1) {
+      int start = origin + row * stride + positions[row];
+      PlaneEdits.move(plane, start + 1, start, width - 1 - positions[row]);
+    }
+  }
+
+  // EFFECT: makes room for the given vertical seam in the given plane, whose rows are the given
+  // width once the seam is put back, by shifting the rest of each row right of it
+  static void openVertical(Object plane, int origin, int stride, int[] positions, int width,
+                           int height) {
+    // LOOP: goes through the rows, shifting each one right of the seam's column
+    for (int row = 0; row < height; row += 1) {
+      int start = origin + row * stride + positions[row];
+      PlaneEdits.move(plane, start, start + 1, width - 1 - positions[row]);
+    }
+  }
+
+  // EFFECT: takes the given horizontal seam out of the given plane, whose columns are the given
+  // height before the seam is taken out, by shifting the rest of each column up over it. This is
+  // done one row at a time, copying up every run of columns the seam has already passed, so the
+  // plane is still read row by row.
+  static void closeHorizontal(Object plane, int origin, int stride, int[] positions, int width,
+                              int height) {
+    // LOOP: goes through the rows that pull values up from the row below them
+    for (int row = 0; row < height - 1; row += 1) {
+      int col = 0;
+      // LOOP: goes through the runs of columns whose seam is at or above this row
+      while (col < width) {
+        if (positions[col] <= row) {
+          int runStart = col;
+          // LOOP: finds the end of this run of columns
+          while (col < width && positions[col] <= row) {
+            col += 1;
+          }
+          int start = origin + row * stride + runStart;
+          PlaneEdits.move(plane, start + stride, start, col - runStart);
+        } else {
+          col += 1;
+        }
+      }
+    }
+  }
+
+  // EFFECT: makes room for the given horizontal seam in the given plane, whose columns are the
+  // given height once the seam is put back, by shifting the rest of each column down below it
+  static void openHorizontal(Object plane, int origin, int stride, int[] positions, int width,
+                             int height) {
+    // LOOP: goes up through the rows that pull values down from the row above them
+    for (int row = height - 1; row > 0; row -= 1) {
+      int col = 0;
+      // LOOP: goes through the runs of columns whose seam is above this row
+      while (col < width) {
+        if (positions[col] < row) {
+          int runStart = col;
+          // LOOP: finds the end of this run of columns
+          while (col < width && positions[col] < row) {
+            col += 1;
+          }
+          int start = origin + row * stride + runStart;
+          PlaneEdits.move(plane, start - stride, start, col - runStart);
+        } else {
+          col += 1;
+        }
+      }
+    }
+  }
+
+  // EFFECT: takes the given vertical seams, in order from left to right, none of them sharing a
+  // pixel, out of the given plane at once, whose rows are the given width before they are taken
+  // out, by shifting each stretch of a row between two seams left by the number of seams before it
+  static void closeVerticalSeams(Object plane, int origin, int stride, int[][] seams, int width,
+                                 int height) {
+    // LOOP: goes through the rows, closing up the seams in each one
+    for (int row = 0; row < height; row += 1) {
+      int rowStart = origin + row * stride;
+      // LOOP: goes through the seams, shifting the stretch after each one
+      for (int seam = 0; seam < seams.length; seam += 1) {
+        int from = seams[seam][row] + 1;
+        int to = seam + 1 < seams.length ? seams[seam + 1][row] : width;
+        PlaneEdits.move(plane, rowStart + from, rowStart + from - seam - 1, to - from);
+      }
+    }
+  }
+
+  // EFFECT: takes the given horizontal seams, in order from top to bottom, none of them sharing a
+  // pixel, out of the given plane at once, whose columns are the given height before they are
+  // taken out, by shifting every pixel up by the number of seams above it in its column. This is
+  // done one row at a time, from the top, copying every run of columns that shift by the same
+  // amount together.
+  static void closeHorizontalSeams(Object plane, int origin, int stride, int[][] seams,
+                                   int width, int height) {
+    // how many of the seams each column has passed so far
+    int[] passed = new int[width];
+    // LOOP: goes through the rows, shifting each one up
+    for (int row = 0; row < height; row += 1) {
+      int col = 0;
+      // LOOP: goes through the runs of columns that shift by the same amount in this row
+      while (col < width) {
+        if (passed[col] < seams.length && seams[passed[col]][col] == row) {
+          passed[col] += 1;
+          col += 1;
+        } else {
+          int shift = passed[col];
+          int runStart = col;
+          // LOOP: finds the end of this run of columns
+          while (col < width && passed[col] == shift
+                  && !(shift < seams.length && seams[shift][col] == row)) {
+            col += 1;
+          }
+          if (shift > 0) {
+            int start = origin + row * stride + runStart;
+            PlaneEdits.move(plane, start, start - shift * stride, col - runStart);
+          }
+        }
+      }
+    }
+  }
+
+  // EFFECT: copies the given width by height block of values at the start of the given plane,
+  // whose rows are the given stride apart, into the other given plane, whose rows are the other
+  // given stride apart, with its rows and columns swapped. The copy goes through the block in
+  // square tiles, so that both planes are read and written a few cache lines at a time.
+  static void transpose(Object from, int fromStride, Object to, int toStride, int width,
+                        int height) {
+    int tile = 32;
+    // LOOP: goes through the rows of tiles
+    for (int tileRow = 0; tileRow < height; tileRow += tile) {
+      // LOOP: goes through the tiles of this row of tiles
+      for (int tileCol = 0; tileCol < width; tileCol += tile) {
+        // LOOP: goes through the rows of this tile
+        for (int row = tileRow; row < Math.min(tileRow + tile, height); row += 1) {
+          // LOOP: goes through the columns of this row of the tile
+          for (int col = tileCol; col < Math.min(tileCol + tile, width); col += 1) {
+            PlaneEdits.copy(from, row * fromStride + col, to, col * toStride + row);
+          }
+        }
+      }
+    }
+  }
+
+  // EFFECT: copies the value at the given index of the given plane to the other given index of
+  // the other given plane, which must hold the same type of values
+  static void copy(Object from, int fromIndex, Object to, int toIndex) {
+    if (from instanceof double[]) {
+      ((double[]) to)[toIndex] = ((double[]) from)[fromIndex];
+    } else if (from instanceof float[]) {
+      ((float[]) to)[toIndex] = ((float[]) from)[fromIndex];
+    } else if (from instanceof int[]) {
+      ((int[]) to)[toIndex] = ((int[]) from)[fromIndex];
+    } else if (from instanceof DoubleBuffer) {
+      ((DoubleBuffer) to).put(toIndex, ((DoubleBuffer) from).get(fromIndex));
+    } else if (from instanceof IntBuffer) {
+      ((IntBuffer) to).put(toIndex, ((IntBuffer) from).get(fromIndex));
+    } else {
+      System.arraycopy(from, fromIndex, to, toIndex, 1);
+    }
+  }
+
+  // EFFECT: copies the given number of values in the given plane from the given index to the
+  // other given index, as if they were copied out first, like System.arraycopy does. Buffers that
+  // are backed by an array are copied with System.arraycopy too; direct buffers are copied one
+  // value at a time, in whichever order does not overwrite values before they are copied.
+  static void move(Object plane, int from, int to, int length) {
+    if (plane instanceof Buffer && ((Buffer) plane).hasArray()) {
+      Buffer buffer = (Buffer) plane;
+      System.arraycopy(buffer.array(), buffer.arrayOffset() + from, buffer.array(),
+              buffer.arrayOffset() + to, length);
+    } else if (plane instanceof IntBuffer) {
+      IntBuffer ints = (IntBuffer) plane;
+      if (to < from) {
+        // LOOP: goes forwards through the values, copying each one down
+        for (int i = 0; i < length; i += 1) {
+          ints.put(to + i, ints.get(from + i));
+        }
+      } else {
+        // LOOP: goes backwards through the values, copying each one up
+        for (int i = length - 1; i >= 0; i -= 1) {
+          ints.put(to + i, ints.get(from + i));
+        }
+      }
+    } else if (plane instanceof DoubleBuffer) {
+      DoubleBuffer doubles = (DoubleBuffer) plane;
+      if (to < from) {
+        // LOOP: goes forwards through the values, copying each one down
+        for (int i = 0; i < length; i += 1) {
+          doubles.put(to + i, doubles.get(from + i));
+        }
+      } else {
+        // LOOP: goes backwards through the values, copying each one up
+        for (int i = length - 1; i >= 0; i -= 1) {
+          doubles.put(to + i, doubles.get(from + i));
+        }
+      }
+    } else {
+      System.arraycopy(plane, from, plane, to, length);
+    }
+  }
+}
+
+// This represents where the planes of a PlaneCarver are kept: on the Java heap, in buffers backed
+// by arrays, or off it, in direct buffers in native memory. Off-heap planes are never looked at by
+// the garbage collector, which only sees the small buffer objects pointing at them, so however big
+// the image is, collections take no longer; the memory is given back once the carver is closed, or
+// a plane is dropped, and those buffer objects are collected. It is never freed any sooner, since
+// a pass on another thread may still be reading a plane.
+// Every plane is a single buffer, which can hold no more than MAX_PLANE values on the heap, or
+// MAX_PLANE bytes off it.
+class PlaneMemory {
+  // the most values a heap buffer, or bytes a direct buffer, can hold
+  static final long MAX_PLANE = Integer.MAX_VALUE - 8;
+  boolean offHeap;
+  // how many bytes of planes this has made
+  long allocated;
+
+  // Constructor
+  PlaneMemory(boolean offHeap) {
+    this.offHeap = offHeap;
+    this.allocated = 0;
+  }
+
+  // This method checks that a plane of the given number of values, each taking up the given
+  // number of bytes, fits in a single buffer, and returns how many bytes it takes up.
+  // EFFECT: counts those bytes as allocated
+  long claim(long length, int size) {
+    long bytes = length * size;
+    if (length < 0 || (this.offHeap ? bytes : length) > MAX_PLANE) {
+      throw new RuntimeException("a plane of " + length + " values is too big for one buffer");
+    }
+    this.allocated += bytes;
+    return bytes;
+  }
+
+  // This method makes and returns a plane of the given number of ints, all zero.
+  IntBuffer ints(long length) {
+    long bytes = this.claim(length, 4);
+    return this.offHeap ? this.direct(bytes).asIntBuffer() : IntBuffer.allocate((int) length);
+  }
+
+  // This method makes and returns a plane of the given number of doubles, all zero.
+  DoubleBuffer doubles(long length) {
+    long bytes = this.claim(length, 8);
+    return this.offHeap ? this.direct(bytes).asDoubleBuffer()
+            : DoubleBuffer.allocate((int) length);
+  }
+
+  // This method makes and returns a plane of the given number of bytes, all zero.
+  ByteBuffer bytes(long length) {
+    long bytes = this.claim(length, 1);
+    return this.offHeap ? this.direct(bytes) : ByteBuffer.allocate((int) length);
+  }
+
+  // This method makes and returns a direct buffer of the given number of bytes, in the order the
+  // machine keeps them in, so that reading a value out of it is a single load.
+  ByteBuffer direct(long bytes) {
+    return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+  }
+}
+
+// This represents how many bytes a carver takes up, broken down by the structures it is made of,
+// and spread over the pixels of the image it was made from. The sizes of objects are worked out
+// the way a 64-bit JVM with compressed references lays them out: a 12 byte header, 4 bytes per
+// reference, and every object padded to a multiple of 8 bytes.
+class MemoryReport {
+  static final int HEADER = 12;
+  static final int ARRAY_HEADER = 16;
+  static final int REFERENCE = 4;
+  static final int ALIGNMENT = 8;
+
+  // how many pixels the image the carver was made from has
+  long pixels;
+  ArrayList<String> structures;
+  ArrayList<Long> bytes;
+
+  // Constructor
+  MemoryReport(long pixels) {
+    this.pixels = pixels;
+    this.structures = new ArrayList<>();
+    this.bytes = new ArrayList<>();
+  }
+
+  // EFFECT: adds the given structure, which takes up the given number of bytes, to this report
+  void add(String structure, long bytes) {
+    this.structures.add(structure);
+    this.bytes.add(bytes);
+  }
+
+  // This method adds up and returns how many bytes every structure in this report takes up.
+  long total() {
+    long total = 0;
+    // LOOP: goes through the structures, adding up their bytes
+    for (long structureBytes : this.bytes) {
+      total += structureBytes;
+    }
+    return total;
+  }
+
+  // This method finds and returns how many bytes the carver takes up for each pixel.
+  double bytesPerPixel() {
+    return (double) this.total() / Math.max(1, this.pixels);
+  }
+
+  // This method checks whether the carver takes up no more than the given number of bytes for
+  // each pixel.
+  boolean withinBudget(double bytesPerPixel) {
+    return this.bytesPerPixel() <= bytesPerPixel;
+  }
+
+  // This method writes this report as a table, with a line for every structure and one for the
+  // total, each giving its bytes and its bytes per pixel.
+  public String toString() {
+    StringBuilder table = new StringBuilder();
+    // LOOP: goes through the structures, writing a line for each
+    for (int i = 0; i < this.structures.size(); i += 1) {
+      table.append(this.line(this.structures.get(i), this.bytes.get(i)));
+    }
+    return table.append(this.line("total", this.total())).toString();
+  }
+
+  // This method writes one line of this report's table, for the given structure taking up the
+  // given number of bytes.
+  String line(String structure, long structureBytes) {
+    return String.format(Locale.ROOT, "%-30s %14d B %9.2f B/px%n", structure, structureBytes,
+            (double) structureBytes / Math.max(1, this.pixels));
+  }
+
+  // This method finds how many bytes an object with the given numbers of references, ints (or
+  // floats) and doubles (or longs) in its fields takes up.
+  static long objectBytes(int references, int ints, int doubles) {
+    return MemoryReport.align(HEADER + (long) REFERENCE * references + 4L * ints + 8L * doubles);
+  }
+
+  // This method finds how many bytes an array of the given length takes up, when each of its
+  // elements takes up the given number of bytes.
+  static long arrayBytes(long length, int elementBytes) {
+    return MemoryReport.align(ARRAY_HEADER + length * elementBytes);
+  }
+
+  // This method rounds the given number of bytes up to the next multiple of the alignment.
+  static long align(long bytes) {
+    return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  // This method finds how many bytes the given plane takes up, whether it is an array of
+  // primitives or a buffer, or 0 if it has not been made.
+  static long planeBytes(Object plane) {
+    if (plane == null) {
+      return 0;
+    } else if (plane instanceof Buffer) {
+      Buffer buffer = (Buffer) plane;
+      int elementBytes = 1;
+      if (buffer instanceof DoubleBuffer) {
+        elementBytes = 8;
+      } else if (buffer instanceof IntBuffer) {
+        elementBytes = 4;
+      }
+      return (long) buffer.capacity() * elementBytes;
+    } else if (plane instanceof double[]) {
+      return MemoryReport.arrayBytes(((double[]) plane).length, 8);
+    } else if (plane instanceof long[]) {
+      return MemoryReport.arrayBytes(((long[]) plane).length, 8);
+    } else if (plane instanceof int[]) {
+      return MemoryReport.arrayBytes(((int[]) plane).length, 4);
+    } else if (plane instanceof float[]) {
+      return MemoryReport.arrayBytes(((float[]) plane).length, 4);
+    } else if (plane instanceof byte[]) {
+      return MemoryReport.arrayBytes(((byte[]) plane).length, 1);
+    } else {
+      throw new RuntimeException("cannot measure a plane of " + plane.getClass().getName());
+    }
+  }
+}
+
+// This represents a way of working out the energy of every pixel of a PlaneCarver from the
+// channel sums of the pixels around it, through the rows of a ConvolutionRows, instead of the
+// built-in formula of its energy plane.
+interface IEnergyFunction {
+  // This method finds and returns the name of this energy function.
+  String name();
+
+  // EFFECT: computes the energies of the pixels in the given row of the carver of the given
+  // rows, from the given first column up to, but not including, the given last column, and
+  // stores the energy of each column at that column minus the first in the given array
+  void computeRow(ConvolutionRows rows, int row, int fromCol, int toCol, double[] into);
+}
+
+// This represents an energy that is the magnitude of the brightness gradient, found with a
+// separable 3 by 3 kernel: a difference between the pixels on either side of a pixel one way,
+// smoothed with the weights side, centre and side the other way. The Sobel kernel, with weights
+// 1, 2 and 1, gives exactly the energies a Pixel does.
+class KernelEnergy implements IEnergyFunction {
+  String name;
+  double side;
+  double centre;
+
+  // Constructor
+  KernelEnergy(String name, double side, double centre) {
+    this.name = name;
+    this.side = side;
+    this.centre = centre;
+  }
+
+  // This method makes and returns the energy found with plain central differences, without any
+  // smoothing.
+  static KernelEnergy gradient() {
+    return new KernelEnergy("gradient", 0.0, 1.0);
+  }
+
+  // This method makes and returns the energy found with the Sobel kernel, which is the energy a
+  // Pixel has.
+  static KernelEnergy sobel() {
+    return new KernelEnergy("sobel", 1.0, 2.0);
+  }
+
+  // This method makes and returns the energy found with the Scharr kernel, which turns the same
+  // way for edges at every angle more evenly than the Sobel kernel does.
+  static KernelEnergy scharr() {
+    return new KernelEnergy("scharr", 3.0, 10.0);
+  }
+
+  // This method finds and returns the name of this energy function.
+  public String name() {
+    return this.name;
+  }
+
+  // EFFECT: computes the energies of the pixels in the given row, from the given first column up
+  // to, but not including, the given last column, into the given array. The rows above and below
+  // are smoothed across and kept by the given rows, so each is smoothed once for the two rows it
+  // is next to, and this row is smoothed down its columns once for the two columns each is next
+  // to. The sums are added up in the same order as Pixel adds them up.
+  public void computeRow(ConvolutionRows rows, int row, int fromCol, int toCol, double[] into) {
+    double[] up = rows.across(ConvolutionRows.BRIGHTNESS, row - 1, this.side, this.centre,
+            fromCol, toCol);
+    double[] down = rows.across(ConvolutionRows.BRIGHTNESS, row + 1, this.side, this.centre,
+            fromCol, toCol);
+    double[] above = rows.source(ConvolutionRows.BRIGHTNESS, row - 1, fromCol - 1, toCol + 1);
+    double[] here = rows.source(ConvolutionRows.BRIGHTNESS, row, fromCol - 1, toCol + 1);
+    double[] below = rows.source(ConvolutionRows.BRIGHTNESS, row + 1, fromCol - 1, toCol + 1);
+    double[] columns = rows.columns;
+    // LOOP: goes through the columns of the row and the one on either side, smoothing each down
+    for (int at = fromCol; at <= toCol + 1; at += 1) {
+      columns[at] = (this.centre * here[at] + this.side * above[at]) + this.side * below[at];
+    }
+    // LOOP: goes through the given columns, putting the two differences together
+    for (int col = fromCol; col < toCol; col += 1) {
+      double verticalEnergy = up[col + 1] - down[col + 1];
+      double horizontalEnergy = columns[col] - columns[col + 2];
+      into[col - fromCol] = Math.sqrt(Math.pow(verticalEnergy, 2)
+              + Math.pow(horizontalEnergy, 2));
+    }
+  }
+}
+
+// This represents an energy that is the entropy, in bits, of the brightnesses of the 3 by 3 block
+// of pixels around a pixel, with the brightnesses sorted into ConvolutionRows.BIN_COUNT bins.
+// Busy, textured parts of an image have a high entropy even where their gradient is low. The
+// counts of the bins are packed into a single value per pixel, so that the block is added up as a
+// separable box sum: across each row once, and then down the three rows.
+class EntropyEnergy implements IEnergyFunction {
+  // the entropy of a block whose pixels all fall in different bins
+  static final double MOST = Math.log(9) / Math.log(2);
+
+  // how much each count of a bin takes off of MOST, which is the count times its base 2
+  // logarithm, over the 9 pixels of the block
+  double[] weights;
+
+  // Constructor
+  EntropyEnergy() {
+    this.weights = new double[10];
+    // LOOP: goes through the counts a bin can have, working out the weight of each
+    for (int count = 1; count < this.weights.length; count += 1) {
+      this.weights[count] = count * (Math.log(count) / Math.log(2)) / 9.0;
+    }
+  }
+
+  // This method finds and returns the name of this energy function.
+  public String name() {
+    return "entropy";
+  }
+
+  // EFFECT: computes the entropies of the blocks around the pixels in the given row, from the
+  // given first column up to, but not including, the given last column, into the given array
+  public void computeRow(ConvolutionRows rows, int row, int fromCol, int toCol, double[] into) {
+    double[] up = rows.across(ConvolutionRows.BINS, row - 1, 1.0, 1.0, fromCol, toCol);
+    double[] here = rows.across(ConvolutionRows.BINS, row, 1.0, 1.0, fromCol, toCol);
+    double[] down = rows.across(ConvolutionRows.BINS, row + 1, 1.0, 1.0, fromCol, toCol);
+    int mask = (1 << ConvolutionRows.BIN_BITS) - 1;
+    // LOOP: goes through the given columns, unpacking the counts of their blocks
+    for (int col = fromCol; col < toCol; col += 1) {
+      long counts = (long) (up[col + 1] + here[col + 1] + down[col + 1]);
+      double entropy = MOST;
+      // LOOP: goes through the bins, taking off the weight of the count of each
+      for (int bin = 0; bin < ConvolutionRows.BIN_COUNT; bin += 1) {
+        entropy -= this.weights[(int) (counts >>> (bin * ConvolutionRows.BIN_BITS)) & mask];
+      }
+      into[col - fromCol] = Math.max(entropy, 0.0);
+    }
+  }
+}
+
+// This represents the rows an IEnergyFunction reads while it computes the energies of a
+// PlaneCarver: rows of values worked out from the channel sums of its pixels, and those rows
+// smoothed across with a 3 wide kernel. The last few rows asked for are kept, with the columns
+// they were worked out for, so a row shared by the energies of neighbouring rows is only worked
+// out once, and working down the image one row after another works out just one new row of each.
+// Every row is indexed by column plus one, so that the column on either side of the image, which
+// is always 0, has a place too. Kept rows go out of date as soon as the channel sums change, so
+// the carver forgets them before it computes any energies again.
+class ConvolutionRows {
+  // how many rows are kept, which is more than any IEnergyFunction reads for one row
+  static final int SLOTS = 8;
+  // the rows of brightnesses, as Pixel works them out
+  static final int BRIGHTNESS = 0;
+  // the rows of brightness bins, each a 1 shifted left by BIN_BITS times the bin a pixel falls in,
+  // so that adding them up packs the count of every bin into one value, which stays exact in a
+  // double
+  static final int BINS = 1;
+  static final int BIN_BITS = 4;
+  static final int BIN_COUNT = 8;
+
+  PlaneCarver carver;
+  ConvolutionRow[] slots;
+  // how many times a row has been asked for, to find the one asked for the longest time ago
+  long uses;
+  // a row of values smoothed down their columns, for an energy function to use as it likes
+  double[] columns;
+  // the energies of the row being computed
+  double[] energies;
+
+  // Constructor
+  ConvolutionRows(PlaneCarver carver) {
+    this.carver = carver;
+    this.slots = new ConvolutionRow[SLOTS];
+    // LOOP: goes through the slots, making the row kept in each
+    for (int slot = 0; slot < SLOTS; slot += 1) {
+      this.slots[slot] = new ConvolutionRow(carver.stride + 2);
+    }
+    this.uses = 0;
+    this.columns = new double[carver.stride + 2];
+    this.energies = new double[carver.stride];
+  }
+
+  // EFFECT: forgets every row kept, since the channel sums they were worked out from have changed
+  void forget() {
+    // LOOP: goes through the slots, emptying each
+    for (ConvolutionRow slot : this.slots) {
+      slot.row = Integer.MIN_VALUE;
+    }
+  }
+
+  // This method finds and returns the given row of values of the given source, worked out at
+  // least from the given first column up to, but not including, the given last column, which
+  // may be the columns just outside of the image.
+  double[] source(int source, int row, int fromCol, int toCol) {
+    ConvolutionRow kept = this.find(source, false, 0.0, 0.0, row, fromCol, toCol);
+    if (kept != null) {
+      return kept.values;
+    }
+    ConvolutionRow slot = this.claim(source, false, 0.0, 0.0, row, fromCol, toCol);
+    IntBuffer lum = this.carver.lum;
+    int start = this.carver.lumIndex(0, row);
+    // LOOP: goes through the given columns, working out the value of each
+    for (int col = fromCol; col < toCol; col += 1) {
+      int channelSum = lum.get(start + col);
+      slot.values[col + 1] = source == BRIGHTNESS ? (channelSum / 3.0) / 255.0
+              : (double) (1L << (BIN_BITS * (channelSum * BIN_COUNT / 766)));
+    }
+    return slot.values;
+  }
+
+  // This method finds and returns the given row of values of the given source smoothed across
+  // with the weights side, centre and side, worked out at least from the given first column up
+  // to, but not including, the given last column, which must be in the image.
+  double[] across(int source, int row, double side, double centre, int fromCol, int toCol) {
+    ConvolutionRow kept = this.find(source, true, side, centre, row, fromCol, toCol);
+    if (kept != null) {
+      return kept.values;
+    }
+    double[] values = this.source(source, row, fromCol - 1, toCol + 1);
+    ConvolutionRow slot = this.claim(source, true, side, centre, row, fromCol, toCol);
+    // LOOP: goes through the given columns, smoothing each with the columns on either side
+    for (int at = fromCol + 1; at <= toCol; at += 1) {
+      slot.values[at] = (centre * values[at] + side * values[at - 1]) + side * values[at + 1];
+    }
+    return slot.values;
+  }
+
+  // This method finds and returns the kept row that has the given values worked out for at least
+  // the given columns, or null if there is none.
+  ConvolutionRow find(int source, boolean across, double side, double centre, int row,
+                      int fromCol, int toCol) {
+    // LOOP: goes through the slots, looking for the row
+    for (ConvolutionRow slot : this.slots) {
+      if (slot.row == row && slot.source == source && slot.across == across
+              && slot.side == side && slot.centre == centre
+              && slot.fromCol <= fromCol && slot.toCol >= toCol) {
+        this.uses += 1;
+        slot.lastUse = this.uses;
+        return slot;
+      }
+    }
+    return null;
+  }
+
+  // This method finds the slot whose row was asked for the longest time ago, marks it as
+  // holding the given values for the given columns, and returns it to be filled in.
+  ConvolutionRow claim(int source, boolean across, double side, double centre, int row,
+                       int fromCol, int toCol) {
+    ConvolutionRow oldest = this.slots[0];
+    // LOOP: goes through the other slots, looking for one asked for longer ago
+    for (int slot = 1; slot < SLOTS; slot += 1) {
+      if (this.slots[slot].lastUse < oldest.lastUse) {
+        oldest = this.slots[slot];
+      }
+    }
+    this.uses += 1;
+    oldest.lastUse = this.uses;
+    oldest.source = source;
+    oldest.across = across;
+    oldest.side = side;
+    oldest.centre = centre;
+    oldest.row = row;
+    oldest.fromCol = fromCol;
+    oldest.toCol = toCol;
+    return oldest;
+  }
+
+  // This method adds up and returns how many bytes the rows kept take up.
+  long bytes() {
+    return MemoryReport.arrayBytes(SLOTS, MemoryReport.REFERENCE)
+            + SLOTS * (MemoryReport.objectBytes(1, 5, 3) + MemoryReport.planeBytes(
+                    this.slots[0].values))
+            + MemoryReport.planeBytes(this.columns) + MemoryReport.planeBytes(this.energies);
+  }
+}
+
+// This represents a row kept by a ConvolutionRows, along with what its values are and which of
+// its columns they have been worked out for.
+class ConvolutionRow {
+  int source;
+  // whether the values are smoothed across, or just those of the source
+  boolean across;
+  double side;
+  double centre;
+  // which row of the image this is, or Integer.MIN_VALUE if it holds nothing
+  int row;
+  int fromCol;
+  int toCol;
+  // when this row was last asked for
+  long lastUse;
+  double[] values;
+
+  // Constructor
+  ConvolutionRow(int length) {
+    this.row = Integer.MIN_VALUE;
+    this.lastUse = 0;
+    this.values = new double[length];
+  }
+}
+
+// This represents the energies of the pixels of a PlaneCarver, kept in one plane with a value per
+// pixel, along with the dynamic programming that adds them up into the cheapest seam. Each
+// implementation keeps its own number format all the way from the energies to the seam costs.
+interface IEnergyPlane {
+  // EFFECT: makes room for the energies of an image with the given stride and height
+  void allocate(int stride, int height);
+
+  // EFFECT: computes the energies of the pixels of the given carver in the given row, from the
+  // given first column up to, but not including, the given last column
+  void computeRow(PlaneCarver carver, int row, int fromCol, int toCol);
+
+  // EFFECT: stores the given energies, worked out by an IEnergyFunction, as those of the pixels
+  // in the given row, from the given first column up to, but not including, the given last
+  // column, where the energy of each column is at that column minus the first in the array
+  void storeRow(int row, int fromCol, int toCol, double[] energies);
+
+  // This method finds the cheapest seam through an image of the given width and height, going
+  // vertically or horizontally, and returns its cost.
+  // EFFECT: stores the seam's column in every row (or row in every column) in the given positions
+  double findSeam(boolean vertical, int width, int height, int[] positions);
+
+  // This method finds and returns the plane of energies itself, for PlaneEdits to edit.
+  Object plane();
+
+  // This method finds and returns the energy of the pixel at the given column and row, in the
+  // same units as the costs returned by findSeam.
+  double energyAt(int col, int row);
+
+  // This method finds and returns the cost of the cheapest seam ending at the given cell of the
+  // last line, as of the last call to findSeam.
+  double endCost(int cell);
+
+  // This method adds the given energy to the given cost of a seam and returns the sum, rounded
+  // the same way findSeam rounds the costs it adds up.
+  double addCost(double cost, double energy);
+
+  // This method finds and returns which way the cheapest seam through the given cell of the given
+  // line came from the line before it, -1, 0 or 1, as of the last call to findSeam, which must
+  // have gone in the given direction.
+  int stepBack(boolean vertical, int line, int cell);
+
+  // This method makes and returns a new, empty energy plane of the same kind as this one.
+  IEnergyPlane emptyCopy();
+
+  // This method adds up and returns how many bytes the planes and rows of this energy plane
+  // take up.
+  long bytes();
+
+  // EFFECT: makes every pass over this plane check the given limit, or none if it is null, every
+  // CarveLimit.CHECK_LINES lines, and stop with a CarveStoppedException once it has been reached
+  void limitBy(CarveLimit limit);
+}
+
+// This represents the energies of a PlaneCarver computed in double precision, exactly the way a
+// Pixel computes them, so that it carves the same seams a SeamCarver does.
+class DoubleEnergyPlane implements IEnergyPlane {
+  int stride;
+  double[] energies;
+  byte[] cameFrom;
+  double[] prevCosts;
+  double[] costs;
+  // the costs of the seams ending in each cell of the last line of the last pass
+  double[] endCosts;
+  // what every pass checks as it goes, to stop early, or null to never stop
+  CarveLimit limit;
+
+  // EFFECT: makes room for the energies of an image with the given stride and height
+  public void allocate(int stride, int height) {
+    this.stride = stride;
+    this.energies = new double[stride * height];
+    this.cameFrom = new byte[stride * height];
+    this.prevCosts = new double[Math.max(stride, height)];
+    this.costs = new double[Math.max(stride, height)];
+  }
+
+  // EFFECT: computes the energies of the pixels of the given carver in the given row, from the
+  // given first column up to, but not including, the given last column
+  public void computeRow(PlaneCarver carver, int row, int fromCol, int toCol) {
+    // LOOP: goes through the given columns of the row
+    for (int col = fromCol; col < toCol; col += 1) {
+      this.energies[row * this.stride + col] =
+              this.energyOf(carver.lum, carver.lumIndex(col, row), carver.stride + 2);
+    }
+  }
+
+  // EFFECT: stores the given energies as those of the pixels in the given row, from the given
+  // first column up to, but not including, the given last column
+  public void storeRow(int row, int fromCol, int toCol, double[] energies) {
+    // LOOP: goes through the given columns of the row
+    for (int col = fromCol; col < toCol; col += 1) {
+      this.energies[row * this.stride + col] = energies[col - fromCol];
+    }
+  }
+
+  // This method computes and returns the energy of the pixel at the given index of the given
+  // plane of channel sums, whose rows are the given stride apart.
+  double energyOf(IntBuffer lum, int index, int lumStride) {
+    int up = index - lumStride;
+    int down = index + lumStride;
+    double verticalEnergy = ((2 * this.brightness(lum.get(up))) + this.brightness(lum.get(up - 1))
+            + this.brightness(lum.get(up + 1)))
+            - ((2 * this.brightness(lum.get(down))) + this.brightness(lum.get(down - 1))
+            + this.brightness(lum.get(down + 1)));
+    double horizontalEnergy = ((2 * this.brightness(lum.get(index - 1)))
+            + this.brightness(lum.get(up - 1)) + this.brightness(lum.get(down - 1)))
+            - ((2 * this.brightness(lum.get(index + 1))) + this.brightness(lum.get(up + 1))
+            + this.brightness(lum.get(down + 1)));
+    return Math.sqrt(Math.pow(verticalEnergy, 2) + Math.pow(horizontalEnergy, 2));
+  }
+
+  // This method computes and returns the brightness of a pixel from the sum of its channels,
+  // the same way APixel.calculateBrightness does.
+  double brightness(int channelSum) {
+    return (channelSum / 3.0) / 255.0;
+  }
+
+  // This method finds the cheapest seam through an image of the given width and height, going
+  // vertically or horizontally, and returns its cost. Ties are broken the same way as
+  // SeamCarver.findMinimumSeam: left, then straight on, then right.
+  // EFFECT: stores the seam's column in every row (or row in every column) in the given positions
+  public double findSeam(boolean vertical, int width, int height, int[] positions) {
+    int lines = vertical ? height : width;
+    int cells = vertical ? width : height;
+    int lineStep = vertical ? this.stride : 1;
+    int cellStep = vertical ? 1 : this.stride;
+    double[] prev = this.prevCosts;
+    double[] cur = this.costs;
+    // LOOP: goes through the cells of the first line, whose costs are just their energies
+    for (int cell = 0; cell < cells; cell += 1) {
+      prev[cell] = this.energies[cell * cellStep];
+    }
+    // LOOP: goes through every other line, adding each cell's energy to the cheapest of the
+    // three cells it could have come from
+    for (int line = 1; line < lines; line += 1) {
+      if (this.limit != null && line % CarveLimit.CHECK_LINES == 0) {
+        this.limit.check();
+      }
+      // LOOP: goes through the cells of the line
+      for (int cell = 0; cell < cells; cell += 1) {
+        double left = cell > 0 ? prev[cell - 1] : Double.POSITIVE_INFINITY;
+        double above = prev[cell];
+        double right = cell < cells - 1 ? prev[cell + 1] : Double.POSITIVE_INFINITY;
+        int index = line * lineStep + cell * cellStep;
+        if (left <= above && left <= right) {
+          this.cameFrom[index] = -1;
+          cur[cell] = left + this.energies[index];
+        } else if (above <= right) {
+          this.cameFrom[index] = 0;
+          cur[cell] = above + this.energies[index];
+        } else {
+          this.cameFrom[index] = 1;
+          cur[cell] = right + this.energies[index];
+        }
+      }
+      double[] swap = prev;
+      prev = cur;
+      cur = swap;
+    }
+    this.endCosts = prev;
+    int end = 0;
+    // LOOP: goes through the cells of the last line, keeping the first of the cheapest
+    for (int cell = 1; cell < cells; cell += 1) {
+      if (prev[cell] < prev[end]) {
+        end = cell;
+      }
+    }
+    double cost = prev[end];
+    positions[lines - 1] = end;
+    // LOOP: goes back up through the lines, following where the seam came from
+    for (int line = lines - 1; line > 0; line -= 1) {
+      end += this.cameFrom[line * lineStep + end * cellStep];
+      positions[line - 1] = end;
+    }
+    return cost;
+  }
+
+  // This method finds and returns the plane of energies itself, for PlaneEdits to edit.
+  public Object plane() {
+    return this.energies;
+  }
+
+  // This method finds and returns the energy of the pixel at the given column and row.
+  public double energyAt(int col, int row) {
+    return this.energies[row * this.stride + col];
+  }
+
+  // This method finds and returns the cost of the cheapest seam ending at the given cell of the
+  // last line, as of the last call to findSeam.
+  public double endCost(int cell) {
+    return this.endCosts[cell];
+  }
+
+  // This method adds the given energy to the given cost of a seam and returns the sum.
+  public double addCost(double cost, double energy) {
+    return cost + energy;
+  }
+
+  // This method finds and returns which way the cheapest seam through the given cell of the given
+  // line came from the line before it, as of the last call to findSeam.
+  public int stepBack(boolean vertical, int line, int cell) {
+    return this.cameFrom[vertical ? line * this.stride + cell : cell * this.stride + line];
+  }
+
+  // This method makes and returns a new, empty energy plane of the same kind as this one.
+  public IEnergyPlane emptyCopy() {
+    return new DoubleEnergyPlane();
+  }
+
+  // This method adds up and returns how many bytes the planes and rows of this energy plane
+  // take up.
+  public long bytes() {
+    return MemoryReport.planeBytes(this.energies) + MemoryReport.planeBytes(this.cameFrom)
+            + MemoryReport.planeBytes(this.prevCosts) + MemoryReport.planeBytes(this.costs)
+            + MemoryReport.planeBytes(this.endCosts);
+  }
+
+  // EFFECT: makes every pass over this plane check the given limit, or none if it is null
+  public void limitBy(CarveLimit limit) {
+    this.limit = limit;
+  }
+}
+
+// This represents the energies of a PlaneCarver computed entirely in integers, so that the same
+// image always carves the same seams, bit for bit, on any JVM. The brightness of a pixel is the
+// plain sum of its channels, the gradient components are sums of those, and the energy is the
+// gradient's magnitude in fixed point with FRACTION_BITS bits after the point, using Math.sqrt,
+// which the JLS requires to be correctly rounded. Seam costs are added up as longs.
+class FixedEnergyPlane implements IEnergyPlane {
+  // how many of the bits of each energy are after the fixed point
+  static final int FRACTION_BITS = 4;
+
+  int stride;
+  int[] energies;
+  byte[] cameFrom;
+  long[] prevCosts;
+  long[] costs;
+  // the costs of the seams ending in each cell of the last line of the last pass
+  long[] endCosts;
+  // what every pass checks as it goes, to stop early, or null to never stop
+  CarveLimit limit;
+
+  // EFFECT: makes room for the energies of an image with the given stride and height
+  public void allocate(int stride, int height) {
+    this.stride = stride;
+    this.energies = new int[stride * height];
+    this.cameFrom = new byte[stride * height];
+    this.prevCosts = new long[Math.max(stride, height)];
+    this.costs = new long[Math.max(stride, height)];
+  }
+
+  // EFFECT: computes the energies of the pixels of the given carver in the given row, from the
+  // given first column up to, but not including, the given last column
+  public void computeRow(PlaneCarver carver, int row, int fromCol, int toCol) {
+    IntBuffer lum = carver.lum;
+    int lumStride = carver.stride + 2;
+    // LOOP: goes through the given columns of the row
+    for (int col = fromCol; col < toCol; col += 1) {
+      int index = carver.lumIndex(col, row);
+      int up = index - lumStride;
+      int down = index + lumStride;
+      int verticalEnergy = (2 * lum.get(up) + lum.get(up - 1) + lum.get(up + 1))
+              - (2 * lum.get(down) + lum.get(down - 1) + lum.get(down + 1));
+      int horizontalEnergy = (2 * lum.get(index - 1) + lum.get(up - 1) + lum.get(down - 1))
+              - (2 * lum.get(index + 1) + lum.get(up + 1) + lum.get(down + 1));
+      long squared = (long) verticalEnergy * verticalEnergy
+              + (long) horizontalEnergy * horizontalEnergy;
+      this.energies[row * this.stride + col] =
+              (int) Math.sqrt((double) (squared << (2 * FRACTION_BITS)));
+    }
+  }
+
+  // EFFECT: stores the given energies as those of the pixels in the given row, from the given
+  // first column up to, but not including, the given last column, in the same fixed point units
+  // as the built-in energies, which are in channel sums rather than brightnesses
+  public void storeRow(int row, int fromCol, int toCol, double[] energies) {
+    // LOOP: goes through the given columns of the row
+    for (int col = fromCol; col < toCol; col += 1) {
+      this.energies[row * this.stride + col] =
+              (int) (energies[col - fromCol] * 765.0 * (1 << FRACTION_BITS));
+    }
+  }
+
+  // This method finds the cheapest seam through an image of the given width and height, going
+  // vertically or horizontally, and returns its cost. Ties are broken left, then straight on,
+  // then right, and the first of the cheapest seams is kept.
+  // EFFECT: stores the seam's column in every row (or row in every column) in the given positions
+  public double findSeam(boolean vertical, int width, int height, int[] positions) {
+    int lines = vertical ? height : width;
+    int cells = vertical ? width : height;
+    int lineStep = vertical ? this.stride : 1;
+    int cellStep = vertical ? 1 : this.stride;
+    long[] prev = this.prevCosts;
+    long[] cur = this.costs;
+    // LOOP: goes through the cells of the first line, whose costs are just their energies
+    for (int cell = 0; cell < cells; cell += 1) {
+      prev[cell] = this.energies[cell * cellStep];
+    }
+    // LOOP: goes through every other line, adding each cell's energy to the cheapest of the
+    // three cells it could have come from
+    for (int line = 1; line < lines; line += 1) {
+      if (this.limit != null && line % CarveLimit.CHECK_LINES == 0) {
+        this.limit.check();
+      }
+      // LOOP: goes through the cells of the line
+      for (int cell = 0; cell < cells; cell += 1) {
+        long left = cell > 0 ? prev[cell - 1] : Long.MAX_VALUE;
+        long above = prev[cell];
+        long right = cell < cells - 1 ? prev[cell + 1] : Long.MAX_VALUE;
+        int index = line * lineStep + cell * cellStep;
+        if (left <= above && left <= right) {
+          this.cameFrom[index] = -1;
+          cur[cell] = left + this.energies[index];
+        } else if (above <= right) {
+          this.cameFrom[index] = 0;
+          cur[cell] = above + this.energies[index];
+        } else {
+          this.cameFrom[index] = 1;
+          cur[cell] = right + this.energies[index];
+        }
+      }
+      long[] swap = prev;
+      prev = cur;
+      cur = swap;
+    }
+    this.endCosts = prev;
+    int end = 0;
+    // LOOP: goes through the cells of the last line, keeping the first of the cheapest
+    for (int cell = 1; cell < cells; cell += 1) {
+      if (prev[cell] < prev[end]) {
+        end = cell;
+      }
+    }
+    long cost = prev[end];
+    positions[lines - 1] = end;
+    // LOOP: goes back up through the lines, following where the seam came from
+    for (int line = lines - 1; line > 0; line -= 1) {
+      end += this.cameFrom[line * lineStep + end * cellStep];
+      positions[line - 1] = end;
+    }
+    return (double) cost / (1 << FRACTION_BITS);
+  }
+
+  // This method finds and returns the plane of energies itself, for PlaneEdits to edit.
+  public Object plane() {
+    return this.energies;
+  }
+
+  // This method finds and returns the energy of the pixel at the given column and row, taken out
+  // of fixed point.
+  public double energyAt(int col, int row) {
+    return (double) this.energies[row * this.stride + col] / (1 << FRACTION_BITS);
+  }
+
+  // This method finds and returns the cost of the cheapest seam ending at the given cell of the
+  // last line, as of the last call to findSeam.
+  public double endCost(int cell) {
+    return (double) this.endCosts[cell] / (1 << FRACTION_BITS);
+  }
+
+  // This method adds the given energy to the given cost of a seam and returns the sum, which is
+  // exact, since both are whole numbers of fractions of 1 << FRACTION_BITS.
+  public double addCost(double cost, double energy) {
+    return cost + energy;
+  }
+
+  // This method finds and returns which way the cheapest seam through the given cell of the given
+  // line came from the line before it, as of the last call to findSeam.
+  public int stepBack(boolean vertical, int line, int cell) {
+    return this.cameFrom[vertical ? line * this.stride + cell : cell * this.stride + line];
+  }
+
+  // This method makes and returns a new, empty energy plane of the same kind as this one.
+  public IEnergyPlane emptyCopy() {
+    return new FixedEnergyPlane();
+  }
+
+  // This method adds up and returns how many bytes the planes and rows of this energy plane
+  // take up.
+  public long bytes() {
+    return MemoryReport.planeBytes(this.energies) + MemoryReport.planeBytes(this.cameFrom)
+            + MemoryReport.planeBytes(this.prevCosts) + MemoryReport.planeBytes(this.costs)
+            + MemoryReport.planeBytes(this.endCosts);
+  }
+
+  // EFFECT: makes every pass over this plane check the given limit, or none if it is null
+  public void limitBy(CarveLimit limit) {
+    this.limit = limit;
+  }
+}
+
+// This represents the energies of a PlaneCarver computed in single precision, so that the
+// energies and the costs of a pass take half the memory of a DoubleEnergyPlane, and twice as many
+// fit in a vector register. The seams it picks are checked against double precision by
+// PrecisionReport.
+class FloatEnergyPlane implements IEnergyPlane {
+  int stride;
+  float[] energies;
+  byte[] cameFrom;
+  float[] prevCosts;
+  float[] costs;
+  // the costs of the seams ending in each cell of the last line of the last pass
+  float[] endCosts;
+  // what every pass checks as it goes, to stop early, or null to never stop
+  CarveLimit limit;
+
+  // EFFECT: makes room for the energies of an image with the given stride and height
+  public void allocate(int stride, int height) {
+    this.stride = stride;
+    this.energies = new float[stride * height];
+    this.cameFrom = new byte[stride * height];
+    this.prevCosts = new float[Math.max(stride, height)];
+    this.costs = new float[Math.max(stride, height)];
+  }
+
+  // EFFECT: computes the energies of the pixels of the given carver in the given row, from the
+  // given first column up to, but not including, the given last column
+  public void computeRow(PlaneCarver carver, int row, int fromCol, int toCol) {
+    // LOOP: goes through the given columns of the row
+    for (int col = fromCol; col < toCol; col += 1) {
+      this.energies[row * this.stride + col] =
+              this.energyOf(carver.lum, carver.lumIndex(col, row), carver.stride + 2);
+    }
+  }
+
+  // EFFECT: stores the given energies as those of the pixels in the given row, from the given
+  // first column up to, but not including, the given last column, rounded to floats
+  public void storeRow(int row, int fromCol, int toCol, double[] energies) {
+    // LOOP: goes through the given columns of the row
+    for (int col = fromCol; col < toCol; col += 1) {
+      this.energies[row * this.stride + col] = (float) energies[col - fromCol];
+    }
+  }
+
+  // This method computes and returns the energy of the pixel at the given index of the given
+  // plane of channel sums, whose rows are the given stride apart.
+  float energyOf(IntBuffer lum, int index, int lumStride) {
+    int up = index - lumStride;
+    int down = index + lumStride;
+    float verticalEnergy = ((2 * this.brightness(lum.get(up))) + this.brightness(lum.get(up - 1))
+            + this.brightness(lum.get(up + 1)))
+            - ((2 * this.brightness(lum.get(down))) + this.brightness(lum.get(down - 1))
+            + this.brightness(lum.get(down + 1)));
+    float horizontalEnergy = ((2 * this.brightness(lum.get(index - 1)))
+            + this.brightness(lum.get(up - 1)) + this.brightness(lum.get(down - 1)))
+            - ((2 * this.brightness(lum.get(index + 1))) + this.brightness(lum.get(up + 1))
+            + this.brightness(lum.get(down + 1)));
+    return (float) Math.sqrt(
+            verticalEnergy * verticalEnergy + horizontalEnergy * horizontalEnergy);
+  }
+
+  // This method computes and returns the brightness of a pixel from the sum of its channels.
+  float brightness(int channelSum) {
+    return (channelSum / 3.0f) / 255.0f;
+  }
+
+  // This method finds the cheapest seam through an image of the given width and height, going
+  // vertically or horizontally, and returns its cost. Ties are broken the same way as
+  // SeamCarver.findMinimumSeam: left, then straight on, then right.
+  // EFFECT: stores the seam's column in every row (or row in every column) in the given positions
+  public double findSeam(boolean vertical, int width, int height, int[] positions) {
+    int lines = vertical ? height : width;
+    int cells = vertical ? width : height;
+    int lineStep = vertical ? this.stride : 1;
+    int cellStep = vertical ? 1 : this.stride;
+    float[] prev = this.prevCosts;
+    float[] cur = this.costs;
+    // LOOP: goes through the cells of the first line, whose costs are just their energies
+    for (int cell = 0; cell < cells; cell += 1) {
+      prev[cell] = this.energies[cell * cellStep];
+    }
+    // LOOP: goes through every other line, adding each cell's energy to the cheapest of the
+    // three cells it could have come from
+    for (int line = 1; line < lines; line += 1) {
+      if (this.limit != null && line % CarveLimit.CHECK_LINES == 0) {
+        this.limit.check();
+      }
+      // LOOP: goes through the cells of the line
+      for (int cell = 0; cell < cells; cell += 1) {
+        float left = cell > 0 ? prev[cell - 1] : Float.POSITIVE_INFINITY;
+        float above = prev[cell];
+        float right = cell < cells - 1 ? prev[cell + 1] : Float.POSITIVE_INFINITY;
+        int index = line * lineStep + cell * cellStep;
+        if (left <= above && left <= right) {
+          this.cameFrom[index] = -1;
+          cur[cell] = left + this.energies[index];
+        } else if (above <= right) {
+          this.cameFrom[index] = 0;
+          cur[cell] = above + this.energies[index];
+        } else {
+          this.cameFrom[index] = 1;
+          cur[cell] = right + this.energies[index];
+        }
+      }
+      float[] swap = prev;
+      prev = cur;
+      cur = swap;
+    }
+    this.endCosts = prev;
+    int end = 0;
+    // LOOP: goes through the cells of the last line, keeping the first of the cheapest
+    for (int cell = 1; cell < cells; cell += 1) {
+      if (prev[cell] < prev[end]) {
+        end = cell;
+      }
+    }
+    float cost = prev[end];
+    positions[lines - 1] = end;
+    // LOOP: goes back up through the lines, following where the seam came from
+    for (int line = lines - 1; line > 0; line -= 1) {
+      end += this.cameFrom[line * lineStep + end * cellStep];
+      positions[line - 1] = end;
+    }
+    return cost;
+  }
+
+  // This method finds and returns the plane of energies itself, for PlaneEdits to edit.
+  public Object plane() {
+    return this.energies;
+  }
+
+  // This method finds and returns the energy of the pixel at the given column and row.
+  public double energyAt(int col, int row) {
+    return this.energies[row * this.stride + col];
+  }
+
+  // This method finds and returns the cost of the cheapest seam ending at the given cell of the
+  // last line, as of the last call to findSeam.
+  public double endCost(int cell) {
+    return this.endCosts[cell];
+  }
+
+  // This method adds the given energy to the given cost of a seam and returns the sum, rounded to
+  // a float the way findSeam adds up costs.
+  public double addCost(double cost, double energy) {
+    return (float) cost + (float) energy;
+  }
+
+  // This method finds and returns which way the cheapest seam through the given cell of the given
+  // line came from the line before it, as of the last call to findSeam.
+  public int stepBack(boolean vertical, int line, int cell) {
+    return this.cameFrom[vertical ? line * this.stride + cell : cell * this.stride + line];
+  }
+
+  // This method makes and returns a new, empty energy plane of the same kind as this one.
+  public IEnergyPlane emptyCopy() {
+    return new FloatEnergyPlane();
+  }
+
+  // This method adds up and returns how many bytes the planes and rows of this energy plane
+  // take up.
+  public long bytes() {
+    return MemoryReport.planeBytes(this.energies) + MemoryReport.planeBytes(this.cameFrom)
+            + MemoryReport.planeBytes(this.prevCosts) + MemoryReport.planeBytes(this.costs)
+            + MemoryReport.planeBytes(this.endCosts);
+  }
+
+  // EFFECT: makes every pass over this plane check the given limit, or none if it is null
+  public void limitBy(CarveLimit limit) {
+    this.limit = limit;
+  }
+}
+
+// This represents the energies of a PlaneCarver computed in double precision, exactly like a
+// DoubleEnergyPlane, but kept along with the costs and backpointers of its passes in the planes of
+// the given PlaneMemory, which can be off the Java heap.
+class OffHeapEnergyPlane implements IEnergyPlane {
+  // works out the energy of every pixel, so that it is the same as a DoubleEnergyPlane's
+  static final DoubleEnergyPlane FORMULA = new DoubleEnergyPlane();
+  int stride;
+  // what every pass checks as it goes, to stop early, or null to never stop
+  CarveLimit limit;
+  PlaneMemory memory;
+  DoubleBuffer energyPlane;
+  ByteBuffer cameFromPlane;
+  DoubleBuffer prevCostRow;
+  DoubleBuffer costRow;
+  // the costs of the seams ending in each cell of the last line of the last pass
+  DoubleBuffer endCostRow;
+
+  // Constructor
+  OffHeapEnergyPlane(PlaneMemory memory) {
+    this.memory = memory;
+  }
+
+  // EFFECT: makes room for the energies of an image with the given stride and height
+  public void allocate(int stride, int height) {
+    this.stride = stride;
+    this.energyPlane = this.memory.doubles((long) stride * height);
+    this.cameFromPlane = this.memory.bytes((long) stride * height);
+    this.prevCostRow = this.memory.doubles(Math.max(stride, height));
+    this.costRow = this.memory.doubles(Math.max(stride, height));
+  }
+
+  // EFFECT: computes the energies of the pixels of the given carver in the given row, from the
+  // given first column up to, but not including, the given last column
+  public void computeRow(PlaneCarver carver, int row, int fromCol, int toCol) {
+    // LOOP: goes through the given columns of the row
+    for (int col = fromCol; col < toCol; col += 1) {
+      this.energyPlane.put(row * this.stride + col,
+              FORMULA.energyOf(carver.lum, carver.lumIndex(col, row), carver.stride + 2));
+    }
+  }
+
+  // EFFECT: stores the given energies as those of the pixels in the given row, from the given
+  // first column up to, but not including, the given last column
+  public void storeRow(int row, int fromCol, int toCol, double[] energies) {
+    // LOOP: goes through the given columns of the row
+    for (int col = fromCol; col < toCol; col += 1) {
+      this.energyPlane.put(row * this.stride + col, energies[col - fromCol]);
+    }
+  }
+
+  // This method finds the cheapest seam through an image of the given width and height, going
+  // vertically or horizontally, and returns its cost, the same way DoubleEnergyPlane does.
+  // EFFECT: stores the seam's column in every row (or row in every column) in the given positions
+  public double findSeam(boolean vertical, int width, int height, int[] positions) {
+    int lines = vertical ? height : width;
+    int cells = vertical ? width : height;
+    int lineStep = vertical ? this.stride : 1;
+    int cellStep = vertical ? 1 : this.stride;
+    DoubleBuffer prev = this.prevCostRow;
+    DoubleBuffer cur = this.costRow;
+    // LOOP: goes through the cells of the first line, whose costs are just their energies
+    for (int cell = 0; cell < cells; cell += 1) {
+      prev.put(cell, this.energyPlane.get(cell * cellStep));
+    }
+    // LOOP: goes through every other line, adding each cell's energy to the cheapest of the
+    // three cells it could have come from
+    for (int line = 1; line < lines; line += 1) {
+      if (this.limit != null && line % CarveLimit.CHECK_LINES == 0) {
+        this.limit.check();
+      }
+      // LOOP: goes through the cells of the line
+      for (int cell = 0; cell < cells; cell += 1) {
+        double left = cell > 0 ? prev.get(cell - 1) : Double.POSITIVE_INFINITY;
+        double above = prev.get(cell);
+        double right = cell < cells - 1 ? prev.get(cell + 1) : Double.POSITIVE_INFINITY;
+        int index = line * lineStep + cell * cellStep;
+        if (left <= above && left <= right) {
+          this.cameFromPlane.put(index, (byte) -1);
+          cur.put(cell, left + this.energyPlane.get(index));
+        } else if (above <= right) {
+          this.cameFromPlane.put(index, (byte) 0);
+          cur.put(cell, above + this.energyPlane.get(index));
+        } else {
+          this.cameFromPlane.put(index, (byte) 1);
+          cur.put(cell, right + this.energyPlane.get(index));
+        }
+      }
+      DoubleBuffer swap = prev;
+      prev = cur;
+      cur = swap;
+    }
+    this.endCostRow = prev;
+    int end = 0;
+    // LOOP: goes through the cells of the last line, keeping the first of the cheapest
+    for (int cell = 1; cell < cells; cell += 1) {
+      if (prev.get(cell) < prev.get(end)) {
+        end = cell;
+      }
+    }
+    double cost = prev.get(end);
+    positions[lines - 1] = end;
+    // LOOP: goes back up through the lines, following where the seam came from
+    for (int line = lines - 1; line > 0; line -= 1) {
+      end += this.cameFromPlane.get(line * lineStep + end * cellStep);
+      positions[line - 1] = end;
+    }
+    return cost;
+  }
+
+  // This method finds and returns the plane of energies itself, for PlaneEdits to edit.
+  public Object plane() {
+    return this.energyPlane;
+  }
+
+  // This method finds and returns the energy of the pixel at the given column and row.
+  public double energyAt(int col, int row) {
+    return this.energyPlane.get(row * this.stride + col);
+  }
+
+  // This method finds and returns the cost of the cheapest seam ending at the given cell of the
+  // last line, as of the last call to findSeam.
+  public double endCost(int cell) {
+    return this.endCostRow.get(cell);
+  }
+
+  // This method finds and returns which way the cheapest seam through the given cell of the given
+  // line came from the line before it, as of the last call to findSeam.
+  public int stepBack(boolean vertical, int line, int cell) {
+    return this.cameFromPlane.get(vertical ? line * this.stride + cell
+            : cell * this.stride + line);
+  }
+
+  // This method makes and returns a new, empty energy plane of the same kind as this one.
+  public IEnergyPlane emptyCopy() {
+    return new OffHeapEnergyPlane(this.memory);
+  }
+
+  // This method adds up and returns how many bytes the planes and rows of this energy plane
+  // take up.
+  public long bytes() {
+    return MemoryReport.planeBytes(this.energyPlane) + MemoryReport.planeBytes(this.cameFromPlane)
+            + MemoryReport.planeBytes(this.prevCostRow) + MemoryReport.planeBytes(this.costRow)
+            + MemoryReport.planeBytes(this.endCostRow);
+  }
+
+  // This method adds the given energy to the given cost of a seam and returns the sum.
+  public double addCost(double cost, double energy) {
+    return cost + energy;
+  }
+
+  // EFFECT: makes every pass over this plane check the given limit, or none if it is null
+  public void limitBy(CarveLimit limit) {
+    this.limit = limit;
+  }
+}
+
+// This represents how closely some picked seams followed the cheapest ones. compare measures it
+// for a reduced precision energy plane against double precision by carving both side by side: at
+// every step both pick a seam, the reduced precision seam's cost is added up again from the
+// double precision energies, and then that seam is carved out of both, so they keep carving the
+// same image. ApproximateCarving measures it for an approximate seam search, now and again.
+class PrecisionReport {
+  int seams;
+  // how many of the seams were exactly the cheapest one
+  int matching;
+  // the most that any seam cost, in double precision, over the cheapest seam there was
+  double maxCostGap;
+  // the most that any seam's cost gap was, as a fraction of the cheapest seam's cost
+  double maxRelativeGap;
+
+  // Constructor
+  PrecisionReport() {
+    this.seams = 0;
+    this.matching = 0;
+    this.maxCostGap = 0.0;
+    this.maxRelativeGap = 0.0;
+  }
+
+  // This method carves the given number of seams out of every image in the given corpus, taking
+  // turns between vertical and horizontal, once in double precision and once with the energy
+  // plane the given factory makes, and returns how closely they agreed.
+  static PrecisionReport compare(ArrayList<ImageRaster> corpus, int seams,
+                                 IEnergyPlaneFactory reduced) {
+    PrecisionReport report = new PrecisionReport();
+    // LOOP: goes through the images of the corpus
+    for (ImageRaster image : corpus) {
+      PlaneCarver exact = new PlaneCarver(image, new DoubleEnergyPlane());
+      PlaneCarver approximate = new PlaneCarver(image, reduced.make());
+      // LOOP: goes through the seams, as long as the image is big enough to carve them
+      for (int seam = 0; seam < seams && exact.canCarve(seam % 2 == 0); seam += 1) {
+        boolean vertical = seam % 2 == 0;
+        CarvedSeam best = exact.findSeam(vertical);
+        CarvedSeam picked = approximate.findSeam(vertical);
+        report.add(best.cost, exact.costOf(picked.positions, vertical),
+                Arrays.equals(best.positions, picked.positions));
+        exact.removeSeam(new CarvedSeam(vertical, picked.positions.clone(), picked.cost));
+        approximate.removeSeam(picked);
+      }
+    }
+    return report;
+  }
+
+  // EFFECT: counts one more seam, whose cheapest cost was the given best cost and whose picked
+  // seam cost the given picked cost, and which may have been exactly the cheapest seam
+  void add(double bestCost, double pickedCost, boolean matched) {
+    this.seams += 1;
+    if (matched) {
+      this.matching += 1;
+    }
+    double gap = Math.max(0.0, pickedCost - bestCost);
+    this.maxCostGap = Math.max(this.maxCostGap, gap);
+    if (bestCost > 0) {
+      this.maxRelativeGap = Math.max(this.maxRelativeGap, gap / bestCost);
+    }
+  }
+
+  // This method checks whether every seam was either the cheapest one or cost no more than the
+  // given fraction more than it.
+  boolean withinBound(double relativeBound) {
+    return this.maxRelativeGap <= relativeBound;
+  }
+}
+
+// This represents a way of making a fresh IEnergyPlane, for whenever a PlaneCarver has to be made
+// for another image.
+interface IEnergyPlaneFactory {
+  // This method makes and returns a new, empty energy plane.
+  IEnergyPlane make();
+}
+
+// This represents making FloatEnergyPlanes.
+class FloatEnergyPlaneFactory implements IEnergyPlaneFactory {
+  // This method makes and returns a new, empty FloatEnergyPlane.
+  public IEnergyPlane make() {
+    return new FloatEnergyPlane();
+  }
+}
+
+// This represents an image being seam carved without being displayed, kept as flat planes rather
+// than a grid of linked APixels: the packed ARGB colors of its pixels, the sums of their channels
+// (with a ring of zeros around them, which behave like the Borders of a SeamCarver) and their
+// energies. Every plane keeps the original image's width as its stride, and seams are taken out by
+// shifting the rest of each row or column over them.
+class PlaneCarver implements AutoCloseable, IRowSource {
+  // the most bytes per pixel a compact carver takes up
+  static final double COMPACT_BUDGET = 16.0;
+
+  // the width of the original image, which is the distance between the starts of two rows
+  int stride;
+  int width;
+  int height;
+  IntBuffer argb;
+  // the sums of the channels of the pixels, with a ring of zeros around the image
+  IntBuffer lum;
+  IEnergyPlane energies;
+  // the height of the original image
+  int tallest;
+  // whether horizontal passes are run over a transposed copy of the energies, which is kept up to
+  // date with every seam once it has been made
+  boolean transposeHorizontal;
+  // the energies with their rows and columns swapped, so that a horizontal pass reads them row
+  // by row just like a vertical pass, or null until the first horizontal pass needs them
+  IEnergyPlane transposed;
+  // where the planes of this carver are kept
+  PlaneMemory memory;
+  // the seams that have been carved out, most recent first
+  ArrayList<CarvedSeam> removed;
+  // where every seam carved out is published as it happens, or null if nothing is listening
+  SeamPublisher publisher;
+  // what every pass over this carver checks as it goes, to stop early, or null to never stop
+  CarveLimit limit;
+  // how the energies are worked out, or null for the built-in formula of the energy plane
+  IEnergyFunction energyFunction;
+  // the rows the energy function reads, or null if there is no energy function
+  ConvolutionRows convolution;
+  // what other threads read the carved image through while this carver carves it, or null until
+  // one of them is set up
+  PlaneReaders readers;
+
+  // Constructor
+  PlaneCarver(ImageRaster source, IEnergyPlane energies) {
+    this(source, energies, new PlaneMemory(false));
+  }
+
+  // Constructor
+  PlaneCarver(ImageRaster source, IEnergyPlane energies, PlaneMemory memory) {
+    this(source.width, source.height, energies, memory);
+    this.argb.put(source.argb);
+    this.argb.clear();
+    // LOOP: goes through the pixels, storing the sum of their channels
+    for (int row = 0; row < this.height; row += 1) {
+      // LOOP: goes through the pixels of the row
+      for (int col = 0; col < this.width; col += 1) {
+        this.lum.put(this.lumIndex(col, row),
+                this.channelSum(this.argb.get(row * this.stride + col)));
+      }
+    }
+    // LOOP: goes through the rows, computing the energies of their pixels
+    for (int row = 0; row < this.height; row += 1) {
+      this.computeEnergies(row, 0, this.width);
+    }
+  }
+
+  // Constructor for a carver of an image of the given width and height whose planes are all
+  // made but left empty, for a checkpoint to fill in
+  PlaneCarver(int stride, int tallest, IEnergyPlane energies, PlaneMemory memory) {
+    this.stride = stride;
+    this.width = stride;
+    this.height = tallest;
+    this.tallest = tallest;
+    this.transposeHorizontal = true;
+    this.transposed = null;
+    this.memory = memory;
+    this.argb = memory.ints((long) this.stride * this.height);
+    this.lum = memory.ints((long) (this.stride + 2) * (this.height + 2));
+    this.energies = energies;
+    this.energies.allocate(this.stride, this.height);
+    this.removed = new ArrayList<>();
+    this.publisher = null;
+    this.limit = null;
+    this.energyFunction = null;
+    this.convolution = null;
+    this.readers = null;
+  }
+
+  // This method makes and returns a carver for the given image whose pixel, energy, cost and
+  // backpointer planes are all kept off the Java heap. It should be closed once it is done with.
+  static PlaneCarver offHeap(ImageRaster source) {
+    PlaneMemory memory = new PlaneMemory(true);
+    return new PlaneCarver(source, new OffHeapEnergyPlane(memory), memory);
+  }
+
+  // This method makes and returns a carver for the given image that takes up no more than
+  // COMPACT_BUDGET bytes per pixel, leaving out the seams it keeps to be put back: one int each
+  // for the color and the channel sum of a pixel, one for its fixed point energy, and a byte for
+  // where its seam came from. It carves horizontal seams without a transposed copy.
+  static PlaneCarver compact(ImageRaster source) {
+    PlaneCarver carver = new PlaneCarver(source, new FixedEnergyPlane());
+    carver.transposeHorizontal = false;
+    return carver;
+  }
+
+  // This method breaks down how many bytes this carver takes up for the image it was made from,
+  // noting which planes are kept off the Java heap.
+  MemoryReport memoryReport() {
+    this.checkOpen();
+    MemoryReport report = new MemoryReport((long) this.stride * this.tallest);
+    String where = this.memory.offHeap ? " (off heap)" : "";
+    report.add("argb plane" + where, MemoryReport.planeBytes(this.argb));
+    report.add("channel sums" + where, MemoryReport.planeBytes(this.lum));
+    report.add("energies and costs" + where, this.energies.bytes());
+    if (this.convolution != null) {
+      report.add("convolution rows", this.convolution.bytes());
+    }
+    if (this.transposed != null) {
+      report.add("transposed energies" + where, this.transposed.bytes());
+    }
+    long seams = MemoryReport.objectBytes(1, 2, 0)
+            + MemoryReport.arrayBytes(this.removed.size(), MemoryReport.REFERENCE);
+    // LOOP: goes through the removed seams, adding up what each keeps to be put back
+    for (CarvedSeam seam : this.removed) {
+      seams += MemoryReport.objectBytes(2, 1, 1) + MemoryReport.planeBytes(seam.positions)
+              + MemoryReport.planeBytes(seam.argb);
+    }
+    report.add("removed seams", seams);
+    return report;
+  }
+
+  // This method finds and returns how many lines a seam going in the given direction crosses.
+  int lines(boolean vertical) {
+    return vertical ? this.height : this.width;
+  }
+
+  // This method finds and returns how many cells there are in each line a seam going in the given
+  // direction crosses.
+  int cells(boolean vertical) {
+    return vertical ? this.width : this.height;
+  }
+
+  // This method finds and returns the energy of the given cell of the given line, where the lines
+  // are rows for a vertical seam and columns for a horizontal one.
+  double energyOnLine(boolean vertical, int line, int cell) {
+    if (vertical) {
+      return this.energies.energyAt(cell, line);
+    } else if (this.transposed != null) {
+      return this.transposed.energyAt(cell, line);
+    } else {
+      return this.energies.energyAt(line, cell);
+    }
+  }
+
+  // This method finds and returns the energy plane that passes going in the given direction run
+  // over, making the transposed copy of the energies first if a horizontal pass needs it.
+  IEnergyPlane passPlane(boolean vertical) {
+    if (vertical || !this.transposeHorizontal) {
+      return this.energies;
+    }
+    if (this.transposed == null) {
+      this.transposed = this.energies.emptyCopy();
+      this.transposed.limitBy(this.limit);
+      this.transposed.allocate(this.tallest, this.stride);
+      PlaneEdits.transpose(this.energies.plane(), this.stride, this.transposed.plane(),
+              this.tallest, this.width, this.height);
+    }
+    return this.transposed;
+  }
+
+  // This method finds and returns which way the cheapest seam through the given cell of the given
+  // line came from the line before it, as of the last pass going in the given direction.
+  int stepBack(boolean vertical, int line, int cell) {
+    IEnergyPlane plane = this.passPlane(vertical);
+    return plane.stepBack(vertical || plane == this.transposed, line, cell);
+  }
+
+  // This method finds and returns where the given column and row are in the lum plane.
+  int lumIndex(int col, int row) {
+    return (row + 1) * (this.stride + 2) + col + 1;
+  }
+
+  // This method computes and returns the sum of the red, green and blue channels of the given
+  // packed ARGB color.
+  int channelSum(int argb) {
+    return ((argb >> 16) & 0xFF) + ((argb >> 8) & 0xFF) + (argb & 0xFF);
+  }
+
+  // This method checks whether a seam going in the given direction can still be carved out, which
+  // needs the image to be at least two pixels across that way.
+  boolean canCarve(boolean vertical) {
+    return vertical ? this.width > 1 : this.height > 1;
+  }
+
+  // This method finds and returns the cheapest seam going in the given direction, without
+  // carving it out.
+  CarvedSeam findSeam(boolean vertical) {
+    this.checkOpen();
+    int[] positions = new int[vertical ? this.height : this.width];
+    IEnergyPlane plane = this.passPlane(vertical);
+    double cost = plane == this.transposed
+            ? plane.findSeam(true, this.height, this.width, positions)
+            : plane.findSeam(vertical, this.width, this.height, positions);
+    return new CarvedSeam(vertical, positions, cost);
+  }
+
+  // This method finds up to the given number of seams going in the given direction with a single
+  // pass, none of which share a pixel or cross each other, and returns them, cheapest first. The
+  // seams ending in each cell of the last line are tried in order of their cost, and one that runs
+  // into or crosses a seam already taken is left out rather than rerouted, so the cheaper seam
+  // always gets a contested pixel. At least one pixel of every line is always left.
+  ArrayList<CarvedSeam> findSeams(boolean vertical, int count) {
+    this.findSeam(vertical);
+    int lines = this.lines(vertical);
+    int cells = this.cells(vertical);
+    int wanted = Math.min(count, cells - 1);
+    Integer[] ends = new Integer[cells];
+    // LOOP: goes through the cells of the last line, listing them
+    for (int cell = 0; cell < cells; cell += 1) {
+      ends[cell] = cell;
+    }
+    Arrays.sort(ends, new CheapestEndFirst(this.passPlane(vertical)));
+    // which seam, counting from 1, has taken each cell of each line
+    int[] taken = new int[lines * cells];
+    ArrayList<CarvedSeam> seams = new ArrayList<>();
+    // LOOP: goes through the ends, cheapest first, until enough seams have been found
+    for (int end = 0; end < cells && seams.size() < wanted; end += 1) {
+      int[] positions = this.traceSeam(vertical, ends[end], taken, cells);
+      if (positions != null) {
+        // LOOP: goes through the lines of the seam, taking its cells
+        for (int line = 0; line < lines; line += 1) {
+          taken[line * cells + positions[line]] = seams.size() + 1;
+        }
+        seams.add(new CarvedSeam(vertical, positions,
+                this.passPlane(vertical).endCost(ends[end])));
+      }
+    }
+    return seams;
+  }
+
+  // This method follows the cheapest seam ending at the given cell of the last line back up
+  // through the last pass going in the given direction, and returns its positions, or null if it
+  // runs into a cell that is already taken in the given plane of taken cells, or crosses between
+  // two cells of the same seam.
+  int[] traceSeam(boolean vertical, int end, int[] taken, int cells) {
+    int lines = this.lines(vertical);
+    int[] positions = new int[lines];
+    int cell = end;
+    positions[lines - 1] = cell;
+    if (taken[(lines - 1) * cells + cell] != 0) {
+      return null;
+    }
+    // LOOP: goes back up through the lines, following where the seam came from
+    for (int line = lines - 1; line > 0; line -= 1) {
+      int above = cell + this.stepBack(vertical, line, cell);
+      int other = taken[(line - 1) * cells + cell];
+      if (taken[(line - 1) * cells + above] != 0
+              || (above != cell && other != 0 && other == taken[line * cells + above])) {
+        return null;
+      }
+      cell = above;
+      positions[line - 1] = cell;
+    }
+    return positions;
+  }
+
+  // This method finds up to the given number of seams going in the given direction with a single
+  // pass, carves them all out at once, and returns them, cheapest first.
+  // EFFECT: takes the seams out of this image and remembers them so that they can be put back
+  ArrayList<CarvedSeam> carveSeams(boolean vertical, int count) {
+    if (!this.canCarve(vertical)) {
+      throw new RuntimeException("image is too small to carve another seam");
+    }
+    ArrayList<CarvedSeam> seams = this.findSeams(vertical, count);
+    this.removeSeams(seams);
+    return seams;
+  }
+
+  // EFFECT: takes the given seams, which all go the same way and neither share a pixel nor cross,
+  // out of every plane of this image with a single shift of each plane, recomputes the energies
+  // of the pixels next to them, and remembers them so that they can be put back one at a time, as
+  // if they had been carved out one at a time from the last to the first
+  void removeSeams(ArrayList<CarvedSeam> seams) {
+    this.checkOpen();
+    if (seams.size() == 0) {
+      return;
+    }
+    boolean vertical = seams.get(0).vertical;
+    CarvedSeam[] ordered = seams.toArray(new CarvedSeam[0]);
+    Arrays.sort(ordered, new FirstPositionFirst());
+    int[][] positions = new int[ordered.length][];
+    // LOOP: goes through the seams, in order across the image, keeping the colors they take out
+    for (int seam = 0; seam < ordered.length; seam += 1) {
+      positions[seam] = ordered[seam].positions;
+      // LOOP: goes through the lines of the seam
+      for (int line = 0; line < positions[seam].length; line += 1) {
+        ordered[seam].argb[line] = vertical
+                ? this.argb.get(line * this.stride + positions[seam][line])
+                : this.argb.get(positions[seam][line] * this.stride + line);
+      }
+    }
+    long stamp = this.beginWrite();
+    int lumOrigin = this.lumIndex(0, 0);
+    if (vertical) {
+      PlaneEdits.closeVerticalSeams(this.argb, 0, this.stride, positions, this.width,
+              this.height);
+      PlaneEdits.closeVerticalSeams(this.lum, lumOrigin, this.stride + 2, positions,
+              this.width + 1, this.height);
+      PlaneEdits.closeVerticalSeams(this.energies.plane(), 0, this.stride, positions,
+              this.width, this.height);
+      if (this.transposed != null) {
+        PlaneEdits.closeHorizontalSeams(this.transposed.plane(), 0, this.tallest, positions,
+                this.height, this.width);
+      }
+      this.width -= ordered.length;
+    } else {
+      PlaneEdits.closeHorizontalSeams(this.argb, 0, this.stride, positions, this.width,
+              this.height);
+      PlaneEdits.closeHorizontalSeams(this.lum, lumOrigin, this.stride + 2, positions,
+              this.width, this.height + 1);
+      PlaneEdits.closeHorizontalSeams(this.energies.plane(), 0, this.stride, positions,
+              this.width, this.height);
+      if (this.transposed != null) {
+        PlaneEdits.closeVerticalSeams(this.transposed.plane(), 0, this.tallest, positions,
+                this.height, this.width);
+      }
+      this.height -= ordered.length;
+    }
+    // LOOP: goes through the seams, recomputing the energies next to where each one now is,
+    // which is as many cells back as there are seams before it
+    for (int seam = 0; seam < ordered.length; seam += 1) {
+      int[] shifted = new int[positions[seam].length];
+      // LOOP: goes through the lines of the seam, shifting it back
+      for (int line = 0; line < shifted.length; line += 1) {
+        shifted[line] = positions[seam][line] - seam;
+      }
+      this.recomputeAround(new CarvedSeam(vertical, shifted, 0.0), 0);
+    }
+    // LOOP: goes through the seams from the last to the first, remembering each one
+    for (int seam = ordered.length - 1; seam >= 0; seam -= 1) {
+      this.removed.add(0, ordered[seam]);
+    }
+    this.endWrite(stamp);
+    // LOOP: goes through the seams from the last to the first, publishing each one
+    for (int seam = ordered.length - 1; seam >= 0; seam -= 1) {
+      this.publish(ordered[seam]);
+    }
+  }
+
+  // This method adds up and returns the cost of the seam going through the given positions in
+  // the given direction, from the energies this carver has now.
+  double costOf(int[] positions, boolean vertical) {
+    double cost = 0.0;
+    // LOOP: goes through the lines of the seam, adding up the energy of its pixel in each
+    for (int line = 0; line < positions.length; line += 1) {
+      cost += vertical
+              ? this.energies.energyAt(positions[line], line)
+              : this.energies.energyAt(line, positions[line]);
+    }
+    return cost;
+  }
+
+  // This method finds the cheapest seam going in the given direction, carves it out, and
+  // returns it.
+  // EFFECT: takes the seam out of this image and remembers it so that it can be put back
+  CarvedSeam carveSeam(boolean vertical) {
+    if (!this.canCarve(vertical)) {
+      throw new RuntimeException("image is too small to carve another seam");
+    }
+    CarvedSeam seam = this.findSeam(vertical);
+    this.removeSeam(seam);
+    return seam;
+  }
+
+  // EFFECT: takes the given seam out of every plane of this image, recomputes the energies of
+  // the pixels next to it, and remembers it so that it can be put back
+  void removeSeam(CarvedSeam seam) {
+    this.checkOpen();
+    int[] positions = seam.positions;
+    // LOOP: goes through the seam, keeping the colors it takes out
+    for (int line = 0; line < positions.length; line += 1) {
+      seam.argb[line] = seam.vertical
+              ? this.argb.get(line * this.stride + positions[line])
+              : this.argb.get(positions[line] * this.stride + line);
+    }
+    long stamp = this.beginWrite();
+    int lumOrigin = this.lumIndex(0, 0);
+    if (seam.vertical) {
+      PlaneEdits.closeVertical(this.argb, 0, this.stride, positions, this.width, this.height);
+      PlaneEdits.closeVertical(this.lum, lumOrigin, this.stride + 2, positions, this.width + 1,
+              this.height);
+      PlaneEdits.closeVertical(this.energies.plane(), 0, this.stride, positions, this.width,
+              this.height);
+      if (this.transposed != null) {
+        PlaneEdits.closeHorizontal(this.transposed.plane(), 0, this.tallest, positions,
+                this.height, this.width);
+      }
+      this.width -= 1;
+    } else {
+      PlaneEdits.closeHorizontal(this.argb, 0, this.stride, positions, this.width,
+              this.height);
+      PlaneEdits.closeHorizontal(this.lum, lumOrigin, this.stride + 2, positions, this.width,
+              this.height + 1);
+      PlaneEdits.closeHorizontal(this.energies.plane(), 0, this.stride, positions, this.width,
+              this.height);
+      if (this.transposed != null) {
+        PlaneEdits.closeVertical(this.transposed.plane(), 0, this.tallest, positions,
+                this.height, this.width);
+      }
+      this.height -= 1;
+    }
+    this.recomputeAround(seam, 0);
+    this.removed.add(0, seam);
+    this.endWrite(stamp);
+    this.publish(seam);
+  }
+
+  // This method starts a change to the planes of this carver, which the readers of its image
+  // wait out, and returns the stamp that ends it.
+  long beginWrite() {
+    return this.readers == null ? 0 : this.readers.beginWrite();
+  }
+
+  // EFFECT: ends the change to the planes of this carver started with the given stamp
+  void endWrite(long stamp) {
+    if (this.readers != null) {
+      this.readers.endWrite(stamp);
+    }
+  }
+
+  // This method finds and returns what other threads can read the carved image through, with
+  // snapshot isolation, while this carver goes on carving on its own thread, setting it up the
+  // first time. It should be asked for on the carving thread before it is handed to the others.
+  PlaneReaders readers() {
+    this.checkOpen();
+    if (this.readers == null) {
+      this.readers = new PlaneReaders(this);
+    }
+    return this.readers;
+  }
+
+  // EFFECT: makes every pass over this carver check the given limit as it goes, or none if it is
+  // null, and stop with a CarveStoppedException, leaving the image as it was, once it is reached
+  void limitBy(CarveLimit limit) {
+    this.limit = limit;
+    this.energies.limitBy(limit);
+    if (this.transposed != null) {
+      this.transposed.limitBy(limit);
+    }
+  }
+
+  // EFFECT: publishes every seam carved out of this carver from now on to the given publisher,
+  // which is closed along with this carver
+  void publishSeams(SeamPublisher publisher) {
+    this.publisher = publisher;
+  }
+
+  // EFFECT: publishes the given seam, which has just been carved out, if anything is listening
+  void publish(CarvedSeam seam) {
+    if (this.publisher != null) {
+      this.publisher.publish(seam);
+    }
+  }
+
+  // This method puts back the last seam that was carved out, and returns whether there was one.
+  // EFFECT: puts the last carved seam back into every plane of this image, and recomputes the
+  // energies of the pixels next to it
+  boolean undo() {
+    this.checkOpen();
+    if (this.removed.size() == 0) {
+      return false;
+    }
+    long stamp = this.beginWrite();
+    CarvedSeam seam = this.removed.remove(0);
+    int[] positions = seam.positions;
+    int lumOrigin = this.lumIndex(0, 0);
+    if (seam.vertical) {
+      this.width += 1;
+      PlaneEdits.openVertical(this.argb, 0, this.stride, positions, this.width, this.height);
+      PlaneEdits.openVertical(this.lum, lumOrigin, this.stride + 2, positions, this.width + 1,
+              this.height);
+      PlaneEdits.openVertical(this.energies.plane(), 0, this.stride, positions, this.width,
+              this.height);
+      if (this.transposed != null) {
+        PlaneEdits.openHorizontal(this.transposed.plane(), 0, this.tallest, positions,
+                this.height, this.width);
+      }
+    } else {
+      this.height += 1;
+      PlaneEdits.openHorizontal(this.argb, 0, this.stride, positions, this.width, this.height);
+      PlaneEdits.openHorizontal(this.lum, lumOrigin, this.stride + 2, positions, this.width,
+              this.height + 1);
+      PlaneEdits.openHorizontal(this.energies.plane(), 0, this.stride, positions, this.width,
+              this.height);
+      if (this.transposed != null) {
+        PlaneEdits.openVertical(this.transposed.plane(), 0, this.tallest, positions,
+                this.height, this.width);
+      }
+    }
+    // LOOP: goes through the seam, putting its colors back
+    for (int line = 0; line < positions.length; line += 1) {
+      int col = seam.vertical ? positions[line] : line;
+      int row = seam.vertical ? line : positions[line];
+      this.argb.put(row * this.stride + col, seam.argb[line]);
+      this.lum.put(this.lumIndex(col, row), this.channelSum(seam.argb[line]));
+    }
+    this.recomputeAround(seam, 1);
+    this.endWrite(stamp);
+    return true;
+  }
+
+  // EFFECT: recomputes the energies of the pixels whose neighbours changed when the given seam
+  // was taken out or put back: in every line, those from just before the seam's leftmost position
+  // in that line and the lines on either side of it, up to its rightmost position there, plus the
+  // given number of extra pixels after it
+  void recomputeAround(CarvedSeam seam, int extra) {
+    int cells = seam.vertical ? this.width : this.height;
+    if (this.convolution != null) {
+      this.convolution.forget();
+    }
+    // LOOP: goes through every line the seam went through
+    for (int line = 0; line < seam.positions.length; line += 1) {
+      int[] around = seam.positionsAround(line);
+      int from = Math.max(around[0] - 1, 0);
+      int to = Math.min(around[1] + extra + 1, cells);
+      if (seam.vertical) {
+        this.computeEnergies(line, from, to);
+        this.mirrorEnergies(line, from, to);
+      } else {
+        // LOOP: goes through the rows of this column that need recomputing
+        for (int row = from; row < to; row += 1) {
+          this.computeEnergies(row, line, line + 1);
+          this.mirrorEnergies(row, line, line + 1);
+        }
+      }
+    }
+  }
+
+  // EFFECT: computes the energies of the pixels in the given row, from the given first column up
+  // to, but not including, the given last column, with the energy function of this carver if it
+  // has one, or else with the built-in formula of its energy plane
+  void computeEnergies(int row, int fromCol, int toCol) {
+    if (this.energyFunction == null) {
+      this.energies.computeRow(this, row, fromCol, toCol);
+    } else {
+      this.energyFunction.computeRow(this.convolution, row, fromCol, toCol,
+              this.convolution.energies);
+      this.energies.storeRow(row, fromCol, toCol, this.convolution.energies);
+    }
+  }
+
+  // EFFECT: works out the energies of every pixel with the given energy function from now on, or
+  // with the built-in formula of the energy plane if it is null, and computes them all again.
+  // The transposed copy of the energies, if there is one, is kept and filled in again, rather than
+  // dropped and made again by the next horizontal pass.
+  void useEnergy(IEnergyFunction function) {
+    this.checkOpen();
+    this.energyFunction = function;
+    this.convolution = function == null ? null : new ConvolutionRows(this);
+    // LOOP: goes through the rows, computing the energies of their pixels
+    for (int row = 0; row < this.height; row += 1) {
+      this.computeEnergies(row, 0, this.width);
+      this.mirrorEnergies(row, 0, this.width);
+    }
+  }
+
+  // EFFECT: copies the energies of the given row, from the given first column up to, but not
+  // including, the given last column, into the transposed copy of the energies, if there is one
+  void mirrorEnergies(int row, int fromCol, int toCol) {
+    if (this.transposed != null) {
+      // LOOP: goes through the given columns of the row
+      for (int col = fromCol; col < toCol; col += 1) {
+        PlaneEdits.copy(this.energies.plane(), row * this.stride + col, this.transposed.plane(),
+                col * this.tallest + row);
+      }
+    }
+  }
+
+  // This method copies the current, carved image out into a new raster.
+  ImageRaster toRaster() {
+    this.checkOpen();
+    int[] pixels = new int[this.width * this.height];
+    IntBuffer rows = this.argb.duplicate();
+    // LOOP: goes through the rows, copying the part of each one that is still in the image
+    for (int row = 0; row < this.height; row += 1) {
+      rows.position(row * this.stride);
+      rows.get(pixels, row * this.width, this.width);
+    }
+    return new ImageRaster(this.width, this.height, pixels);
+  }
+
+  // This method finds and returns how many pixels there are in each row of the carved image.
+  public int rowLength() {
+    return this.width;
+  }
+
+  // This method finds and returns how many rows there are in the carved image.
+  public int rowCount() {
+    return this.height;
+  }
+
+  // EFFECT: copies the pixels of the given row of the carved image into the start of the given
+  // array
+  public void readRow(int row, int[] into) {
+    this.checkOpen();
+    IntBuffer rows = this.argb.duplicate();
+    rows.position(row * this.stride);
+    rows.get(into, 0, this.width);
+  }
+
+  // EFFECT: writes the carved image to the file with the given name in the format its extension
+  // names, straight from the argb plane
+  void save(String fileName) {
+    ImageExporter.write(this, fileName);
+  }
+
+  // EFFECT: writes everything needed to go on carving this image, and to put back the seams
+  // carved out of it so far, to the file with the given name
+  void checkpoint(String fileName) {
+    CarveCheckpoint.write(this, fileName);
+  }
+
+  // This method reads the checkpoint in the file with the given name back into a carver that
+  // carries on from where the one that wrote it was.
+  static PlaneCarver fromCheckpoint(String fileName) {
+    return CarveCheckpoint.read(fileName);
+  }
+
+  // EFFECT: lets go of the planes of this carver, so that off-heap ones can be given back, after
+  // which it can no longer be used
+  public void close() {
+    long stamp = this.beginWrite();
+    this.argb = null;
+    this.lum = null;
+    this.energies = null;
+    this.transposed = null;
+    this.convolution = null;
+    this.removed.clear();
+    this.endWrite(stamp);
+    if (this.publisher != null) {
+      this.publisher.close();
+    }
+  }
+
+  // EFFECT: throws an exception if this carver has been closed
+  void checkOpen() {
+    if (this.argb == null) {
+      throw new RuntimeException("the carver has been closed");
+    }
+  }
+}
+
+// This represents a way of picking the next seam to carve out of a PlaneCarver.
+interface ISeamSearch {
+  // This method finds and returns a seam through the given carver going in the given direction,
+  // without carving it out.
+  CarvedSeam find(PlaneCarver carver, boolean vertical);
+}
+
+// This represents picking the cheapest seam there is, with a full pass over the image.
+class ExactSeamSearch implements ISeamSearch {
+  // This method finds and returns the cheapest seam through the given carver going in the given
+  // direction.
+  public CarvedSeam find(PlaneCarver carver, boolean vertical) {
+    return carver.findSeam(vertical);
+  }
+}
+
+// This represents picking a seam by walking down from each of the given number of lowest energy
+// pixels in the first line, always stepping to the lowest energy of the three pixels below, and
+// keeping the cheapest walk. It looks at a few pixels of each line for every start instead of
+// every pixel of the image, but it can miss a cheap seam that starts out expensive.
+class GreedySeamSearch implements ISeamSearch {
+  // how many of the lowest energy pixels of the first line to walk down from
+  int starts;
+
+  // Constructor
+  GreedySeamSearch(int starts) {
+    if (starts < 1) {
+      throw new RuntimeException("a greedy search needs at least one start");
+    }
+    this.starts = starts;
+  }
+
+  // This method finds and returns the cheapest of the walks down from the lowest energy pixels of
+  // the first line of the given carver, going in the given direction.
+  public CarvedSeam find(PlaneCarver carver, boolean vertical) {
+    int[] firstCells = this.lowestCells(carver, vertical);
+    CarvedSeam best = null;
+    // LOOP: goes through the starting cells, walking down from each one
+    for (int start : firstCells) {
+      CarvedSeam walk = this.walk(carver, vertical, start);
+      if (best == null || walk.cost < best.cost) {
+        best = walk;
+      }
+    }
+    return best;
+  }
+
+  // This method finds and returns the cells of the first line of the given carver going in the
+  // given direction with the lowest energies, as many as this search starts from, lowest first.
+  int[] lowestCells(PlaneCarver carver, boolean vertical) {
+    int cells = carver.cells(vertical);
+    int[] lowest = new int[Math.min(this.starts, cells)];
+    double[] energies = new double[lowest.length];
+    int found = 0;
+    // LOOP: goes through the cells of the first line, keeping the lowest ones in order
+    for (int cell = 0; cell < cells; cell += 1) {
+      double energy = carver.energyOnLine(vertical, 0, cell);
+      if (found < lowest.length || energy < energies[found - 1]) {
+        int at = Math.min(found, lowest.length - 1);
+        // LOOP: shifts higher energies along to make room for this one
+        while (at > 0 && energies[at - 1] > energy) {
+          lowest[at] = lowest[at - 1];
+          energies[at] = energies[at - 1];
+          at -= 1;
+        }
+        lowest[at] = cell;
+        energies[at] = energy;
+        found = Math.min(found + 1, lowest.length);
+      }
+    }
+    return lowest;
+  }
+
+  // This method walks down through the given carver in the given direction from the given cell of
+  // the first line, always stepping to the lowest energy neighbour in the next line, breaking ties
+  // the same way the full pass does, and returns the seam it walked.
+  CarvedSeam walk(PlaneCarver carver, boolean vertical, int start) {
+    int lines = carver.lines(vertical);
+    int cells = carver.cells(vertical);
+    int[] positions = new int[lines];
+    int cell = start;
+    positions[0] = cell;
+    double cost = carver.energyOnLine(vertical, 0, cell);
+    // LOOP: goes through every other line, stepping to the cheapest neighbour in it
+    for (int line = 1; line < lines; line += 1) {
+      double left = cell > 0
+              ? carver.energyOnLine(vertical, line, cell - 1) : Double.POSITIVE_INFINITY;
+      double below = carver.energyOnLine(vertical, line, cell);
+      double right = cell < cells - 1
+              ? carver.energyOnLine(vertical, line, cell + 1) : Double.POSITIVE_INFINITY;
+      if (left <= below && left <= right) {
+        cell -= 1;
+        cost += left;
+      } else if (below <= right) {
+        cost += below;
+      } else {
+        cell += 1;
+        cost += right;
+      }
+      positions[line] = cell;
+    }
+    return new CarvedSeam(vertical, positions, cost);
+  }
+}
+
+// This represents picking a seam with the same pass as the exact search, but only over the cells
+// within the given band of a candidate seam found by a greedy search, so that each line costs the
+// width of the band instead of the width of the image. The candidate is always inside the band, so
+// the seam found is never more expensive than it.
+class BandedSeamSearch implements ISeamSearch {
+  // how many cells either side of the candidate seam the pass looks at
+  int band;
+  ISeamSearch candidates;
+
+  // Constructor
+  BandedSeamSearch(int band, ISeamSearch candidates) {
+    if (band < 0) {
+      throw new RuntimeException("the band of a search cannot be negative");
+    }
+    this.band = band;
+    this.candidates = candidates;
+  }
+
+  // Constructor for a band around the best greedy walk from the given number of starts
+  BandedSeamSearch(int band, int starts) {
+    this(band, new GreedySeamSearch(starts));
+  }
+
+  // This method finds and returns the cheapest seam through the given carver going in the given
+  // direction that stays within the band around the candidate seam. Ties are broken the same way
+  // as the full pass: left, then straight on, then right.
+  public CarvedSeam find(PlaneCarver carver, boolean vertical) {
+    CarvedSeam candidate = this.candidates.find(carver, vertical);
+    int lines = carver.lines(vertical);
+    int cells = carver.cells(vertical);
+    int width = 2 * this.band + 1;
+    byte[] cameFrom = new byte[lines * width];
+    double[] prev = new double[width];
+    double[] cur = new double[width];
+    int prevLow = candidate.positions[0] - this.band;
+    // LOOP: goes through the band of the first line, whose costs are just their energies
+    for (int offset = 0; offset < width; offset += 1) {
+      int cell = prevLow + offset;
+      prev[offset] = cell >= 0 && cell < cells
+              ? carver.energyOnLine(vertical, 0, cell) : Double.POSITIVE_INFINITY;
+    }
+    // LOOP: goes through every other line, adding each cell's energy in the band to the cheapest
+    // of the cells of the last line's band it could have come from
+    for (int line = 1; line < lines; line += 1) {
+      if (carver.limit != null && line % CarveLimit.CHECK_LINES == 0) {
+        carver.limit.check();
+      }
+      int low = candidate.positions[line] - this.band;
+      // LOOP: goes through the band of this line
+      for (int offset = 0; offset < width; offset += 1) {
+        int cell = low + offset;
+        if (cell < 0 || cell >= cells) {
+          cur[offset] = Double.POSITIVE_INFINITY;
+        } else {
+          double left = this.costInBand(prev, cell - 1 - prevLow);
+          double above = this.costInBand(prev, cell - prevLow);
+          double right = this.costInBand(prev, cell + 1 - prevLow);
+          double energy = carver.energyOnLine(vertical, line, cell);
+          if (left <= above && left <= right) {
+            cameFrom[line * width + offset] = -1;
+            cur[offset] = left + energy;
+          } else if (above <= right) {
+            cameFrom[line * width + offset] = 0;
+            cur[offset] = above + energy;
+          } else {
+            cameFrom[line * width + offset] = 1;
+            cur[offset] = right + energy;
+          }
+        }
+      }
+      double[] swap = prev;
+      prev = cur;
+      cur = swap;
+      prevLow = low;
+    }
+    int end = 0;
+    // LOOP: goes through the band of the last line, keeping the first of the cheapest
+    for (int offset = 1; offset < width; offset += 1) {
+      if (prev[offset] < prev[end]) {
+        end = offset;
+      }
+    }
+    double cost = prev[end];
+    int[] positions = new int[lines];
+    int cell = prevLow + end;
+    positions[lines - 1] = cell;
+    // LOOP: goes back up through the lines, following where the seam came from
+    for (int line = lines - 1; line > 0; line -= 1) {
+      int offset = cell - (candidate.positions[line] - this.band);
+      cell += cameFrom[line * width + offset];
+      positions[line - 1] = cell;
+    }
+    return new CarvedSeam(vertical, positions, cost);
+  }
+
+  // This method finds and returns the cost at the given offset into the given band of costs, or
+  // infinity if it is outside the band.
+  double costInBand(double[] costs, int offset) {
+    return offset >= 0 && offset < costs.length ? costs[offset] : Double.POSITIVE_INFINITY;
+  }
+}
+
+// This represents picking the cheapest seam there is, like ExactSeamSearch, with the pass over
+// each line split into strips that are worked out by fork/join subtasks on whichever pool the
+// search is run from. Rather than wait for every strip at the end of every line, the lines are
+// taken BLOCK_LINES at a time: each strip also works out the costs of BLOCK_LINES cells on either
+// side of it, which no other cell in the strip can be more than that many steps from by the end of
+// the block, and only keeps the costs and steps of its own cells. Costs are added up with the
+// energy plane's own rounding and ties are broken the same way as its full pass, so it finds the
+// same seam that plane's findSeam does, however many strips the lines are split into.
+class ParallelSeamSearch implements ISeamSearch {
+  // the fewest cells of a line a strip is given, so that a strip is worth forking
+  static final int STRIP_CELLS = 2048;
+  // how many lines are worked out between the strips waiting for each other
+  static final int BLOCK_LINES = 32;
+
+  // which way the cheapest seam through each cell came from the line before it, kept from one
+  // search to the next so that a big image does not need a new one for every seam
+  byte[] cameFrom;
+
+  // Constructor
+  ParallelSeamSearch() {
+    this.cameFrom = new byte[0];
+  }
+
+  // This method finds how many strips the lines of the given number of cells are split into.
+  static int stripsFor(int cells) {
+    return Math.max(1, cells / STRIP_CELLS);
+  }
+
+  // This method finds and returns the cheapest seam through the given carver going in the given
+  // direction.
+  public CarvedSeam find(PlaneCarver carver, boolean vertical) {
+    carver.checkOpen();
+    carver.passPlane(vertical);
+    int lines = carver.lines(vertical);
+    int cells = carver.cells(vertical);
+    if (this.cameFrom.length < lines * cells) {
+      this.cameFrom = new byte[lines * cells];
+    }
+    double[] costs = new double[cells];
+    double[] next = new double[cells];
+    // LOOP: goes through the cells of the first line, whose costs are just their energies
+    for (int cell = 0; cell < cells; cell += 1) {
+      costs[cell] = carver.energyOnLine(vertical, 0, cell);
+    }
+    int strips = ParallelSeamSearch.stripsFor(cells);
+    // LOOP: goes through the blocks of lines after the first, working out every strip of each
+    for (int start = 1; start < lines; start += BLOCK_LINES) {
+      if (carver.limit != null) {
+        carver.limit.check();
+      }
+      int end = Math.min(start + BLOCK_LINES, lines);
+      if (strips == 1) {
+        this.computeStrip(carver, vertical, start, end, 0, cells, costs, next);
+      } else {
+        new SeamStripTask(this, carver, vertical, start, end, strips, 0, strips, costs, next)
+                .invoke();
+      }
+      double[] swap = costs;
+      costs = next;
+      next = swap;
+    }
+    int end = 0;
+    // LOOP: goes through the cells of the last line, keeping the first of the cheapest
+    for (int cell = 1; cell < cells; cell += 1) {
+      if (costs[cell] < costs[end]) {
+        end = cell;
+      }
+    }
+    int[] positions = new int[lines];
+    positions[lines - 1] = end;
+    // LOOP: goes back up through the lines, following where the seam came from
+    for (int line = lines - 1; line > 0; line -= 1) {
+      end += this.cameFrom[line * cells + end];
+      positions[line - 1] = end;
+    }
+    return new CarvedSeam(vertical, positions, costs[positions[lines - 1]]);
+  }
+
+  // EFFECT: works out the costs of the cells of the given carver from the given first cell up
+  // to, but not including, the given last cell, in the lines from the given first line up to,
+  // but not including, the given last line, from the given costs of the line before them, and
+  // stores where each cell's seam came from along with the costs of the cells in the last line
+  void computeStrip(PlaneCarver carver, boolean vertical, int startLine, int endLine,
+                    int fromCell, int toCell, double[] costs, double[] next) {
+    int cells = costs.length;
+    int low = Math.max(0, fromCell - (endLine - startLine));
+    int high = Math.min(cells, toCell + (endLine - startLine));
+    IEnergyPlane plane = carver.passPlane(vertical);
+    double[] prev = Arrays.copyOfRange(costs, low, high);
+    double[] cur = new double[high - low];
+    // LOOP: goes through the lines of the block
+    for (int line = startLine; line < endLine; line += 1) {
+      // LOOP: goes through the cells of the strip and the cells on either side of it
+      for (int cell = low; cell < high; cell += 1) {
+        double left = cell > low ? prev[cell - 1 - low] : Double.POSITIVE_INFINITY;
+        double above = prev[cell - low];
+        double right = cell < high - 1 ? prev[cell + 1 - low] : Double.POSITIVE_INFINITY;
+        double energy = carver.energyOnLine(vertical, line, cell);
+        byte step;
+        if (left <= above && left <= right) {
+          step = -1;
+          cur[cell - low] = plane.addCost(left, energy);
+        } else if (above <= right) {
+          step = 0;
+          cur[cell - low] = plane.addCost(above, energy);
+        } else {
+          step = 1;
+          cur[cell - low] = plane.addCost(right, energy);
+        }
+        if (cell >= fromCell && cell < toCell) {
+          this.cameFrom[line * cells + cell] = step;
+        }
+      }
+      double[] swap = prev;
+      prev = cur;
+      cur = swap;
+    }
+    System.arraycopy(prev, fromCell - low, next, fromCell, toCell - fromCell);
+  }
+}
+
+// This represents working out some of the strips of a block of lines of a ParallelSeamSearch,
+// which are split in half and worked out in parallel until there is only one strip left.
+@SuppressWarnings("serial")
+class SeamStripTask extends RecursiveAction {
+  ParallelSeamSearch search;
+  PlaneCarver carver;
+  boolean vertical;
+  int startLine;
+  int endLine;
+  int strips;
+  int firstStrip;
+  int lastStrip;
+  double[] costs;
+  double[] next;
+
+  // Constructor
+  SeamStripTask(ParallelSeamSearch search, PlaneCarver carver, boolean vertical, int startLine,
+                int endLine, int strips, int firstStrip, int lastStrip, double[] costs,
+                double[] next) {
+    this.search = search;
+    this.carver = carver;
+    this.vertical = vertical;
+    this.startLine = startLine;
+    this.endLine = endLine;
+    this.strips = strips;
+    this.firstStrip = firstStrip;
+    this.lastStrip = lastStrip;
+    this.costs = costs;
+    this.next = next;
+  }
+
+  // EFFECT: works out the strips from the first strip up to, but not including, the last strip,
+  // splitting them across the pool when there is more than one
+  protected void compute() {
+    if (this.lastStrip - this.firstStrip > 1) {
+      int middle = (this.firstStrip + this.lastStrip) / 2;
+      invokeAll(new SeamStripTask(this.search, this.carver, this.vertical, this.startLine,
+                      this.endLine, this.strips, this.firstStrip, middle, this.costs, this.next),
+              new SeamStripTask(this.search, this.carver, this.vertical, this.startLine,
+                      this.endLine, this.strips, middle, this.lastStrip, this.costs, this.next));
+    } else if (this.lastStrip > this.firstStrip) {
+      int cells = this.costs.length;
+      int fromCell = (int) ((long) this.firstStrip * cells / this.strips);
+      int toCell = (int) ((long) this.lastStrip * cells / this.strips);
+      this.search.computeStrip(this.carver, this.vertical, this.startLine, this.endLine,
+              fromCell, toCell, this.costs, this.next);
+    }
+  }
+}
+
+// This represents carving seams picked by an approximate search, checking now and again how much
+// more the picked seam cost than the cheapest one, so the speed of a search can be weighed
+// against the seams it picks.
+class ApproximateCarving {
+  ISeamSearch search;
+  // how many seams are carved for every one that is checked against the cheapest seam, or zero
+  // to never check
+  int sampleEvery;
+  int carved;
+  PrecisionReport gaps;
+
+  // Constructor
+  ApproximateCarving(ISeamSearch search, int sampleEvery) {
+    this.search = search;
+    this.sampleEvery = sampleEvery;
+    this.carved = 0;
+    this.gaps = new PrecisionReport();
+  }
+
+  // This method finds a seam through the given carver going in the given direction with this
+  // carving's search, carves it out, and returns it.
+  // EFFECT: takes the seam out of the carver, and, if it is one of the sampled seams, records how
+  // much more it cost than the cheapest seam there was
+  CarvedSeam carve(PlaneCarver carver, boolean vertical) {
+    if (!carver.canCarve(vertical)) {
+      throw new RuntimeException("image is too small to carve another seam");
+    }
+    CarvedSeam seam = this.search.find(carver, vertical);
+    if (this.sampleEvery > 0 && this.carved % this.sampleEvery == 0) {
+      CarvedSeam best = carver.findSeam(vertical);
+      this.gaps.add(best.cost, seam.cost, Arrays.equals(best.positions, seam.positions));
+    }
+    carver.removeSeam(seam);
+    this.carved += 1;
+    return seam;
+  }
+}
+
+// This represents ordering the cells of the last line of a pass by the cost of the cheapest seam
+// ending in them, with ties going to the first cell.
+class CheapestEndFirst implements Comparator<Integer> {
+  IEnergyPlane energies;
+
+  // Constructor
+  CheapestEndFirst(IEnergyPlane energies) {
+    this.energies = energies;
+  }
+
+  // This method compares the given cells by the cost of the cheapest seam ending in them.
+  public int compare(Integer cell1, Integer cell2) {
+    int byCost = Double.compare(this.energies.endCost(cell1), this.energies.endCost(cell2));
+    return byCost != 0 ? byCost : Integer.compare(cell1, cell2);
+  }
+}
+
+// This represents ordering seams that neither share a pixel nor cross by where they are in the
+// first line, which is also where they are in every other line.
+class FirstPositionFirst implements Comparator<CarvedSeam> {
+  // This method compares the given seams by their positions in the first line.
+  public int compare(CarvedSeam seam1, CarvedSeam seam2) {
+    return Integer.compare(seam1.positions[0], seam2.positions[0]);
+  }
+}
+
+// This represents carving several seams out of a PlaneCarver for each pass over it, checking now
+// and again how much more each seam cost than the cheapest one there was when it came out, so the
+// number of seams per pass can be weighed against the seams it picks. A checked pass takes its
+// seams out one at a time, cheapest first, finding the cheapest seam before each one.
+class MultiSeamCarving {
+  // the most seams to carve out for each pass
+  int seamsPerPass;
+  // how many passes are made for every one that is checked, or zero to never check
+  int sampleEvery;
+  int passes;
+  int carved;
+  PrecisionReport gaps;
+
+  // Constructor
+  MultiSeamCarving(int seamsPerPass, int sampleEvery) {
+    if (seamsPerPass < 1) {
+      throw new RuntimeException("a pass has to carve at least one seam");
+    }
+    this.seamsPerPass = seamsPerPass;
+    this.sampleEvery = sampleEvery;
+    this.passes = 0;
+    this.carved = 0;
+    this.gaps = new PrecisionReport();
+  }
+
+  // This method carves as many seams as it can, up to this carving's number, out of the given
+  // carver going in the given direction from a single pass, and returns them, cheapest first.
+  // EFFECT: takes the seams out of the carver, and, if this is one of the sampled passes,
+  // records how much more each one cost than the cheapest seam there was when it came out
+  ArrayList<CarvedSeam> carve(PlaneCarver carver, boolean vertical) {
+    if (!carver.canCarve(vertical)) {
+      throw new RuntimeException("image is too small to carve another seam");
+    }
+    ArrayList<CarvedSeam> seams = carver.findSeams(vertical, this.seamsPerPass);
+    if (this.sampleEvery > 0 && this.passes % this.sampleEvery == 0) {
+      this.removeChecked(carver, seams);
+    } else {
+      carver.removeSeams(seams);
+    }
+    this.passes += 1;
+    this.carved += seams.size();
+    return seams;
+  }
+
+  // EFFECT: takes the given seams out of the given carver one at a time, cheapest first, moving
+  // each one back by the seams already taken out before it, and records how much more it cost
+  // than the cheapest seam there was then
+  void removeChecked(PlaneCarver carver, ArrayList<CarvedSeam> seams) {
+    // LOOP: goes through the seams, cheapest first
+    for (int seam = 0; seam < seams.size(); seam += 1) {
+      CarvedSeam next = seams.get(seam);
+      int[] shifted = new int[next.positions.length];
+      // LOOP: goes through the lines of the seam, moving it back past the seams already out
+      for (int line = 0; line < shifted.length; line += 1) {
+        shifted[line] = next.positions[line];
+        // LOOP: goes through the seams already taken out
+        for (int earlier = 0; earlier < seam; earlier += 1) {
+          if (seams.get(earlier).positions[line] < next.positions[line]) {
+            shifted[line] -= 1;
+          }
+        }
+      }
+      CarvedSeam best = carver.findSeam(next.vertical);
+      double cost = carver.costOf(shifted, next.vertical);
+      this.gaps.add(best.cost, cost, Arrays.equals(best.positions, shifted));
+      carver.removeSeam(new CarvedSeam(next.vertical, shifted, cost));
+    }
+  }
+}
+
+// This represents a seam that has just been carved out of a PlaneCarver, as it is handed to the
+// subscribers of a SeamPublisher: its direction, its path as where it starts in the first line
+// and the step it takes to each line after that (-1, 0 or 1), its cost, and the colors it took out.
+class SeamEvent {
+  // how many seams were published before this one
+  long sequence;
+  boolean vertical;
+  int start;
+  byte[] steps;
+  double cost;
+  int[] argb;
+
+  // Constructor
+  SeamEvent(long sequence, boolean vertical, int start, byte[] steps, double cost, int[] argb) {
+    this.sequence = sequence;
+    this.vertical = vertical;
+    this.start = start;
+    this.steps = steps;
+    this.cost = cost;
+    this.argb = argb;
+  }
+
+  // This method makes and returns the event for the given seam, which is the given number in the
+  // order seams are published, with its own copy of the colors.
+  static SeamEvent of(long sequence, CarvedSeam seam) {
+    byte[] steps = new byte[Math.max(0, seam.positions.length - 1)];
+    // LOOP: goes through the lines after the first, keeping the step the seam takes to each
+    for (int line = 0; line < steps.length; line += 1) {
+      steps[line] = (byte) (seam.positions[line + 1] - seam.positions[line]);
+    }
+    return new SeamEvent(sequence, seam.vertical, seam.positions[0], steps, seam.cost,
+            Arrays.copyOf(seam.argb, seam.argb.length));
+  }
+
+  // This method works out and returns where the seam of this event is in every line.
+  int[] positions() {
+    int[] positions = new int[this.steps.length + 1];
+    positions[0] = this.start;
+    // LOOP: goes through the steps, taking each one from the line before
+    for (int line = 0; line < this.steps.length; line += 1) {
+      positions[line + 1] = positions[line] + this.steps[line];
+    }
+    return positions;
+  }
+}
+
+// This represents publishing the seams carved out of a PlaneCarver to any number of subscribers,
+// each of which is only handed as many as it has asked for. The seams a subscriber has not asked
+// for yet wait in a buffer of a fixed capacity for each subscriber. Once a buffer is full, the
+// carver either waits for the subscriber to catch up, or, if this publisher drops when full, goes
+// on and the subscriber misses the seam, which is counted.
+class SeamPublisher implements Flow.Publisher<SeamEvent> {
+  SubmissionPublisher<SeamEvent> events;
+  boolean dropWhenFull;
+  long published;
+  // how many times a seam was not handed to a subscriber because its buffer was full
+  long dropped;
+
+  // Constructor
+  SeamPublisher(int capacity, boolean dropWhenFull) {
+    this(ForkJoinPool.commonPool(), capacity, dropWhenFull);
+  }
+
+  // Constructor that hands the seams to the subscribers on the given executor. The capacity is
+  // rounded up to a power of two.
+  SeamPublisher(Executor executor, int capacity, boolean dropWhenFull) {
+    if (capacity < 1) {
+      throw new RuntimeException("a seam publisher has to buffer at least one seam");
+    }
+    this.events = new SubmissionPublisher<>(executor, capacity);
+    this.dropWhenFull = dropWhenFull;
+    this.published = 0;
+    this.dropped = 0;
+  }
+
+  // EFFECT: adds the given subscriber to the ones that are handed every seam from now on
+  public void subscribe(Flow.Subscriber<? super SeamEvent> subscriber) {
+    this.events.subscribe(subscriber);
+  }
+
+  // EFFECT: hands the given seam to every subscriber, waiting for room in their buffers or
+  // dropping it for the ones without room, and does nothing if there are no subscribers
+  void publish(CarvedSeam seam) {
+    if (!this.events.hasSubscribers()) {
+      return;
+    }
+    SeamEvent event = SeamEvent.of(this.published, seam);
+    this.published += 1;
+    if (this.dropWhenFull) {
+      int lag = this.events.offer(event, null);
+      if (lag < 0) {
+        this.dropped -= lag;
+      }
+    } else {
+      this.events.submit(event);
+    }
+  }
+
+  // EFFECT: tells every subscriber that no more seams are coming, once they have been handed the
+  // ones in their buffers
+  void close() {
+    this.events.close();
+  }
+}
+
+// This represents a copy of the image of a carving run part way through it, made by copying the
+// rows of the carved image, so that it stays the same however much more is carved.
+class CarveSnapshot {
+  // how many seams had been carved when the snapshot was made
+  int seams;
+  // how long the run had been carving when the snapshot was made
+  long elapsedNanos;
+  // true if this is the snapshot of the finished run
+  boolean last;
+  ImageRaster image;
+  // which of the run's target sizes the image is, or -1 if it is between them
+  int target;
+
+  // Constructor
+  CarveSnapshot(int seams, long elapsedNanos, boolean last, ImageRaster image, int target) {
+    this.seams = seams;
+    this.elapsedNanos = elapsedNanos;
+    this.last = last;
+    this.image = image;
+    this.target = target;
+  }
+}
+
+// This represents something that wants to see the image of a carving run as it gets smaller.
+interface ISnapshotListener {
+  // EFFECT: does whatever this listener does with the given snapshot, which it can keep
+  void snapshot(CarveSnapshot snapshot);
+}
+
+// This represents the carved image of a PlaneCarver as it was at one version, copied out of its
+// argb plane so that it can be read on any thread however much more is carved. It is shared by
+// every reader of that version, so its image should not be changed.
+class VersionedSnapshot {
+  // which version of the carver's planes this is a copy of
+  final long version;
+  // how many seams had been carved out when the copy was made
+  final int seams;
+  final ImageRaster image;
+
+  // Constructor
+  VersionedSnapshot(long version, int seams, ImageRaster image) {
+    this.version = version;
+    this.seams = seams;
+    this.image = image;
+  }
+
+  // This method copies and returns the given rows of the given width from the given plane, whose
+  // rows start the given stride apart, as the snapshot of the given version.
+  static VersionedSnapshot copy(long version, int seams, IntBuffer argb, int stride, int width,
+                                int height) {
+    int[] pixels = new int[width * height];
+    // LOOP: goes through the rows, copying the part of each one that is still in the image
+    for (int row = 0; row < height; row += 1) {
+      argb.get(row * stride, pixels, row * width, width);
+    }
+    return new VersionedSnapshot(version, seams, new ImageRaster(width, height, pixels));
+  }
+}
+
+// This lets any number of threads read the carved image of a PlaneCarver while one thread carves
+// it, without making the carving thread wait for them. The carver takes the write lock of a
+// StampedLock around every change to its planes, which never has to wait since readers do not
+// hold the lock, and counts a new version each time. A reader copies the image under an
+// optimistic read and keeps the copy only if no change started in the meantime, and the copy is
+// shared by every reader of the same version, so the image is copied at most once a version
+// however many readers there are. A reader that keeps losing the race to the carver asks it to
+// copy the image between two changes instead, and waits for that copy.
+class PlaneReaders {
+  // how many times a reader tries to copy the image between two changes before asking the carver
+  static final int OPTIMISTIC_TRIES = 4;
+  // how long a reader waits for the carver to copy the image before trying again itself, in case
+  // the carver has stopped
+  static final long WAIT_MILLIS = 10;
+  PlaneCarver carver;
+  StampedLock lock;
+  // how many changes have been made to the carver's planes; only changed under the write lock
+  long version;
+  // the latest copy of the image that has been made
+  AtomicReference<VersionedSnapshot> latest;
+  // true while a reader is waiting for the carver to copy the image
+  volatile boolean wanted;
+
+  // Constructor
+  PlaneReaders(PlaneCarver carver) {
+    this.carver = carver;
+    this.lock = new StampedLock();
+    this.version = 0;
+    this.latest = new AtomicReference<>();
+    this.wanted = false;
+  }
+
+  // This method starts a change to the carver's planes and returns the stamp that ends it.
+  long beginWrite() {
+    return this.lock.writeLock();
+  }
+
+  // EFFECT: ends the change started with the given stamp, counting a new version, and copies the
+  // image for the readers if one of them is waiting for that
+  void endWrite(long stamp) {
+    this.version += 1;
+    this.lock.unlockWrite(stamp);
+    if (this.wanted) {
+      this.handOff();
+    }
+  }
+
+  // EFFECT: copies the image as it is now, on the carving thread, and wakes the readers waiting
+  // for it, who find out for themselves if the carver has just been closed
+  synchronized void handOff() {
+    this.wanted = false;
+    PlaneCarver carver = this.carver;
+    if (carver.argb != null) {
+      this.latest.set(VersionedSnapshot.copy(this.version, carver.removed.size(), carver.argb,
+              carver.stride, carver.width, carver.height));
+    }
+    this.notifyAll();
+  }
+
+  // This method returns a copy of the carved image as it is now, or as it was between two
+  // changes made while this was waiting, if the carver never stopped long enough to copy it.
+  VersionedSnapshot snapshot() {
+    // LOOP: tries a few times to copy the image between two changes
+    for (int tries = 0; tries < OPTIMISTIC_TRIES; tries += 1) {
+      VersionedSnapshot read = this.tryRead();
+      if (read != null) {
+        return read;
+      }
+    }
+    VersionedSnapshot before = this.latest.get();
+    // LOOP: asks the carver for a copy and waits for it, trying again now and then in case the
+    // carver has stopped changing the image
+    while (true) {
+      synchronized (this) {
+        if (this.latest.get() != before) {
+          return this.latest.get();
+        }
+        this.wanted = true;
+        try {
+          this.wait(WAIT_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("interrupted while waiting for a snapshot");
+        }
+        if (this.latest.get() != before) {
+          return this.latest.get();
+        }
+      }
+      VersionedSnapshot read = this.tryRead();
+      if (read != null) {
+        return read;
+      }
+    }
+  }
+
+  // This method returns the copy of the image for the version it is at now, made by another
+  // reader if there is one and by copying it otherwise, or null if the carver changed it while it
+  // was being copied.
+  // EFFECT: keeps the copy it makes for the other readers of the same version
+  VersionedSnapshot tryRead() {
+    long stamp = this.lock.tryOptimisticRead();
+    VersionedSnapshot last = this.latest.get();
+    long version = this.version;
+    PlaneCarver carver = this.carver;
+    int seams = carver.removed.size();
+    IntBuffer argb = carver.argb;
+    int width = carver.width;
+    int height = carver.height;
+    if (stamp == 0 || !this.lock.validate(stamp)) {
+      return null;
+    }
+    if (last != null && last.version == version) {
+      return last;
+    }
+    if (argb == null) {
+      throw new RuntimeException("the carver has been closed");
+    }
+    VersionedSnapshot copy = VersionedSnapshot.copy(version, seams, argb, carver.stride, width,
+            height);
+    if (!this.lock.validate(stamp)) {
+      return null;
+    }
+    this.latest.compareAndSet(last, copy);
+    return copy;
+  }
+}
+
+// This represents carving a PlaneCarver's image down to a target size without a window, handing a
+// snapshot to every listener once every given number of seams, once every given number of
+// milliseconds, whichever comes first, and once more when the image has reached its size.
+// Seams are carved in whichever direction has more of them left to go.
+// A run can be given several target sizes, each smaller than the one before, in which case it
+// carves down to each in turn and hands out a snapshot as it reaches every one of them, so that
+// the image at every size costs no more than carving it down to the smallest.
+class CarveRun {
+  PlaneCarver carver;
+  // the smallest size, which the run stops at
+  int targetWidth;
+  int targetHeight;
+  // every size the run hands out the image at, going from the largest to the smallest
+  int[] targetWidths;
+  int[] targetHeights;
+  // the index of the next size to carve down to
+  int nextTarget;
+  // the image at every size reached so far
+  ArrayList<ImageRaster> outputs;
+  // how many seams go by between snapshots, or zero to never count seams
+  int everySeams;
+  // how long goes by between snapshots, or zero to never watch the time
+  long everyNanos;
+  ArrayList<ISnapshotListener> listeners;
+  int carved;
+  long startNanos;
+  // how many seams had been carved, and when, at the last snapshot
+  int snapshotSeams;
+  long snapshotNanos;
+  // when to stop carving before the image is the target size, or null to always finish
+  CarveLimit limit;
+
+  // Constructor
+  CarveRun(PlaneCarver carver, int targetWidth, int targetHeight, int everySeams,
+           long everyMillis) {
+    this(carver, new int[]{targetWidth}, new int[]{targetHeight}, everySeams, everyMillis);
+  }
+
+  // Constructor for a run that carves down to each of the sizes with the given widths and
+  // heights in turn, which have to go from the largest to the smallest
+  CarveRun(PlaneCarver carver, int[] targetWidths, int[] targetHeights, int everySeams,
+           long everyMillis) {
+    if (targetWidths.length == 0 || targetWidths.length != targetHeights.length) {
+      throw new RuntimeException("every target size needs a width and a height");
+    }
+    int last = targetWidths.length - 1;
+    if (targetWidths[last] < 1 || targetHeights[last] < 1 || targetWidths[0] > carver.width
+            || targetHeights[0] > carver.height) {
+      throw new RuntimeException("the target size has to be within the image");
+    }
+    // LOOP: goes through the target sizes after the first, checking each is smaller than the
+    // one before it
+    for (int target = 1; target < targetWidths.length; target += 1) {
+      if (targetWidths[target] > targetWidths[target - 1]
+              || targetHeights[target] > targetHeights[target - 1]
+              || (targetWidths[target] == targetWidths[target - 1]
+              && targetHeights[target] == targetHeights[target - 1])) {
+        throw new RuntimeException("the target sizes have to get smaller one after another");
+      }
+    }
+    this.carver = carver;
+    this.targetWidth = targetWidths[last];
+    this.targetHeight = targetHeights[last];
+    this.targetWidths = targetWidths;
+    this.targetHeights = targetHeights;
+    this.nextTarget = 0;
+    this.outputs = new ArrayList<>();
+    this.everySeams = everySeams;
+    this.everyNanos = everyMillis * 1000000L;
+    this.listeners = new ArrayList<>();
+    this.carved = 0;
+    this.startNanos = 0;
+    this.snapshotSeams = 0;
+    this.snapshotNanos = 0;
+    this.limit = null;
+  }
+
+  // EFFECT: adds the given listener to the ones that are handed every snapshot
+  void addListener(ISnapshotListener listener) {
+    this.listeners.add(listener);
+  }
+
+  // EFFECT: makes this run stop early once the given limit is reached, checking it between seams
+  // and, through the carver, every CarveLimit.CHECK_LINES lines of every pass
+  void limitBy(CarveLimit limit) {
+    this.limit = limit;
+    this.carver.limitBy(limit);
+  }
+
+  // This method carves the image down to the target size, handing out snapshots along the way,
+  // and returns the image it carved, how many seams that took, the image at every target size it
+  // reached, and why it stopped early if its limit was reached first, in which case the image is
+  // as small as it got.
+  // EFFECT: carves the seams out of the carver
+  CarveResult run() {
+    this.startNanos = System.nanoTime();
+    this.snapshotNanos = this.startNanos;
+    CarveSnapshot last = this.reachTarget(this.startNanos);
+    String stopped = last == null ? this.stopReason() : null;
+    boolean carving = last == null && stopped == null;
+    // LOOP: carves one seam at a time until the image is the smallest target size or the limit
+    // is reached
+    while (carving) {
+      try {
+        carving = this.step();
+      } catch (CarveStoppedException e) {
+        stopped = e.reason;
+        carving = false;
+      }
+      if (carving) {
+        long now = System.nanoTime();
+        int reached = this.nextTarget;
+        last = this.reachTarget(now);
+        if (reached == this.nextTarget && this.due(now)) {
+          this.publish(now, false);
+        }
+        stopped = last == null ? this.stopReason() : null;
+        carving = last == null && stopped == null;
+      }
+    }
+    if (last == null) {
+      last = this.publish(System.nanoTime(), true);
+    }
+    return new CarveResult(this.carved, stopped, last.image, this.outputs);
+  }
+
+  // This method hands out a snapshot made at the given time if the image has just reached the
+  // next target size, and returns it if that was the smallest one, or null otherwise.
+  // EFFECT: keeps the image at that size and moves on to the next target size
+  CarveSnapshot reachTarget(long now) {
+    if (this.nextTarget == this.targetWidths.length
+            || this.carver.width != this.targetWidths[this.nextTarget]
+            || this.carver.height != this.targetHeights[this.nextTarget]) {
+      return null;
+    }
+    boolean smallest = this.nextTarget == this.targetWidths.length - 1;
+    CarveSnapshot snapshot = this.publish(now, smallest);
+    this.outputs.add(snapshot.image);
+    this.nextTarget += 1;
+    return smallest ? snapshot : null;
+  }
+
+  // This method finds which of the target sizes the image is now, or returns -1 if it is none of
+  // them.
+  int targetReached() {
+    // LOOP: goes through the target sizes, from the largest
+    for (int target = 0; target < this.targetWidths.length; target += 1) {
+      if (this.carver.width == this.targetWidths[target]
+              && this.carver.height == this.targetHeights[target]) {
+        return target;
+      }
+    }
+    return -1;
+  }
+
+  // This method finds why this run has to stop now, if its limit has been reached, or returns
+  // null if it can go on.
+  String stopReason() {
+    return this.limit == null ? null : this.limit.reached(System.nanoTime());
+  }
+
+  // This method carves one more seam, in whichever direction has more seams left to go to the
+  // next target size, and returns whether it did, which it does not once the image is the
+  // smallest target size.
+  // EFFECT: carves the seam out of the carver, and moves on to the target size after the next
+  // one if the image was already the next one's size
+  boolean step() {
+    if (this.nextTarget < this.targetWidths.length - 1
+            && this.carver.width == this.targetWidths[this.nextTarget]
+            && this.carver.height == this.targetHeights[this.nextTarget]) {
+      this.nextTarget += 1;
+    }
+    int next = Math.min(this.nextTarget, this.targetWidths.length - 1);
+    int widthLeft = this.carver.width - this.targetWidths[next];
+    int heightLeft = this.carver.height - this.targetHeights[next];
+    if (widthLeft == 0 && heightLeft == 0) {
+      return false;
+    }
+    this.carver.carveSeam(widthLeft >= heightLeft);
+    this.carved += 1;
+    return true;
+  }
+
+  // This method checks whether it is time for another snapshot at the given time: if enough seams
+  // have been carved, or enough time has gone by, since the last one.
+  boolean due(long now) {
+    return (this.everySeams > 0 && this.carved - this.snapshotSeams >= this.everySeams)
+            || (this.everyNanos > 0 && now - this.snapshotNanos >= this.everyNanos);
+  }
+
+  // This method copies the carved image into a snapshot made at the given time, which is the last
+  // one if asked for, and returns it.
+  // EFFECT: hands the snapshot to every listener, and remembers when it was made
+  CarveSnapshot publish(long now, boolean last) {
+    CarveSnapshot snapshot = new CarveSnapshot(this.carved, now - this.startNanos, last,
+            this.carver.toRaster(), this.targetReached());
+    this.snapshotSeams = this.carved;
+    this.snapshotNanos = now;
+    // LOOP: goes through the listeners, handing each the snapshot
+    for (ISnapshotListener listener : this.listeners) {
+      listener.snapshot(snapshot);
+    }
+    return snapshot;
+  }
+}
+
+// This represents how a CarveRun ended: how many seams it carved, why it stopped early, or null
+// if it reached its target size, the image it ended up with, and the image at every target size
+// it reached on the way, from the largest.
+class CarveResult {
+  int seams;
+  String stopReason;
+  ImageRaster image;
+  ArrayList<ImageRaster> outputs;
+
+  // Constructor
+  CarveResult(int seams, String stopReason, ImageRaster image, ArrayList<ImageRaster> outputs) {
+    this.seams = seams;
+    this.stopReason = stopReason;
+    this.image = image;
+    this.outputs = outputs;
+  }
+
+  // This method checks whether the run carved the image all the way down to its target size.
+  boolean finished() {
+    return this.stopReason == null;
+  }
+}
+
+// This represents a way for one thread to ask carving going on in another to stop.
+class CancellationToken {
+  volatile boolean cancelled;
+
+  // Constructor
+  CancellationToken() {
+    this.cancelled = false;
+  }
+
+  // EFFECT: asks whatever is checking this token to stop
+  void cancel() {
+    this.cancelled = true;
+  }
+
+  // This method checks whether this token has been cancelled.
+  boolean isCancelled() {
+    return this.cancelled;
+  }
+}
+
+// This represents when carving has to stop: once a deadline, measured by System.nanoTime, has gone
+// by, or once a cancellation token has been cancelled, whichever comes first. Either can be left
+// out.
+class CarveLimit {
+  // how many lines of a pass go by between checks of a limit
+  static final int CHECK_LINES = 64;
+
+  boolean hasDeadline;
+  long deadlineNanos;
+  CancellationToken token;
+
+  // Constructor
+  CarveLimit(boolean hasDeadline, long deadlineNanos, CancellationToken token) {
+    this.hasDeadline = hasDeadline;
+    this.deadlineNanos = deadlineNanos;
+    this.token = token;
+  }
+
+  // This method makes and returns a limit that is reached the given number of milliseconds from
+  // now, or once the given token, which may be null, is cancelled.
+  static CarveLimit within(long millis, CancellationToken token) {
+    return new CarveLimit(true, System.nanoTime() + millis * 1000000L, token);
+  }
+
+  // This method makes and returns a limit that is only reached once the given token is cancelled.
+  static CarveLimit until(CancellationToken token) {
+    return new CarveLimit(false, 0, token);
+  }
+
+  // This method finds whether this limit has been reached at the given time, and returns
+  // "cancelled" or "deadline" if it has, or null if it has not.
+  String reached(long now) {
+    if (this.token != null && this.token.isCancelled()) {
+      return "cancelled";
+    } else if (this.hasDeadline && now - this.deadlineNanos >= 0) {
+      return "deadline";
+    } else {
+      return null;
+    }
+  }
+
+  // EFFECT: throws a CarveStoppedException if this limit has been reached
+  void check() {
+    String reason = this.reached(System.nanoTime());
+    if (reason != null) {
+      throw new CarveStoppedException(reason);
+    }
+  }
+}
+
+// This represents a pass over a carver being stopped part way through because its CarveLimit was
+// reached, before it changed the image.
+@SuppressWarnings("serial")
+class CarveStoppedException extends RuntimeException {
+  // "cancelled" or "deadline"
+  String reason;
+
+  // Constructor
+  CarveStoppedException(String reason) {
+    super("carving stopped: " + reason);
+    this.reason = reason;
+  }
+}
+
+// This represents a checkpoint of a PlaneCarver: the pixels and energies of the image as it is
+// now and every seam carved out of it so far, in a compact, versioned binary layout that is
+// written and read in one pass through a channel, so that a carve can be picked up again after a
+// restart, or by another machine, without decoding the image or carving any seam again. Every
+// value is big-endian, and the layout is:
+//   the int MAGIC, the int VERSION, a byte for the kind of energies, a byte each for whether the
+//   planes were kept off the heap and whether horizontal passes are transposed, a byte for the
+//   energy function, a byte of padding, then the ints stride, tallest, width, height and the
+//   number of removed seams;
+//   the width by height colors of the image, row by row, as ints;
+//   the width by height energies, row by row, as doubles, ints or floats, as the kind says;
+//   every removed seam, most recent first: a byte for whether it is vertical, its cost as a
+//   double, its length and its first position as ints, a byte for the step to each line after
+//   the first, and the colors it took out as ints.
+// The channel sums are worked out again from the colors, and the transposed energies are made
+// again by the first horizontal pass that needs them.
+class CarveCheckpoint {
+  // "SCKP"
+  static final int MAGIC = 0x53434B50;
+  static final int VERSION = 1;
+  static final int BUFFER_BYTES = 1 << 16;
+  // how many bytes the fields before the colors take up
+  static final int HEADER_BYTES = 33;
+  // how many bytes the fields before the steps of a removed seam take up
+  static final int SEAM_HEADER_BYTES = 17;
+  static final byte DOUBLE_ENERGIES = 0;
+  static final byte FIXED_ENERGIES = 1;
+  static final byte FLOAT_ENERGIES = 2;
+  static final byte OFF_HEAP_ENERGIES = 3;
+  // the names of the energy functions, at the bytes that stand for them, with the built-in
+  // formula of the energy plane at 0
+  static final String[] FUNCTIONS = {"", "gradient", "sobel", "scharr", "entropy"};
+
+  // the channel a checkpoint is being written to, or null if one is being read
+  WritableByteChannel out;
+  // the channel a checkpoint is being read from, or null if one is being written
+  ReadableByteChannel in;
+  // the bytes on their way to or from the channel
+  ByteBuffer buffer;
+
+  // Constructor
+  CarveCheckpoint(WritableByteChannel out, ReadableByteChannel in) {
+    this.out = out;
+    this.in = in;
+    this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    if (in != null) {
+      this.buffer.flip();
+    }
+  }
+
+  // EFFECT: writes a checkpoint of the given carver to the file with the given name
+  static void write(PlaneCarver carver, String fileName) {
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      new CarveCheckpoint(channel, null).write(carver);
+    } catch (IOException e) {
+      throw new RuntimeException("could not write the checkpoint " + fileName, e);
+    }
+  }
+
+  // This method reads the checkpoint in the file with the given name, and returns a carver that
+  // carries on from it.
+  static PlaneCarver read(String fileName) {
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+      return new CarveCheckpoint(null, channel).read();
+    } catch (IOException e) {
+      throw new RuntimeException("could not read the checkpoint " + fileName, e);
+    }
+  }
+
+  // EFFECT: throws if the seam starting at the given position and taking the given steps, each of
+  // which moves it at most one pixel, does not stay inside a plane the given number of pixels
+  // across, since putting it back would then write outside the planes
+  static void checkSeam(int start, byte[] steps, int across) {
+    if (start < 0 || start >= across) {
+      throw new RuntimeException("the checkpoint is damaged");
+    }
+    int position = start;
+    // LOOP: follows the seam one step at a time
+    for (byte step : steps) {
+      position += step;
+      if (step < -1 || step > 1 || position < 0 || position >= across) {
+        throw new RuntimeException("the checkpoint is damaged");
+      }
+    }
+  }
+
+  // This method finds and returns which kind of energies the given energy plane holds.
+  static byte kindOf(IEnergyPlane energies) {
+    if (energies instanceof OffHeapEnergyPlane) {
+      return OFF_HEAP_ENERGIES;
+    } else if (energies instanceof DoubleEnergyPlane) {
+      return DOUBLE_ENERGIES;
+    } else if (energies instanceof FixedEnergyPlane) {
+      return FIXED_ENERGIES;
+    } else if (energies instanceof FloatEnergyPlane) {
+      return FLOAT_ENERGIES;
+    } else {
+      throw new RuntimeException("no checkpoint format for these energies");
+    }
+  }
+
+  // This method makes and returns a new, empty energy plane of the given kind, keeping its planes
+  // in the given memory if they go off the heap.
+  static IEnergyPlane energiesOf(byte kind, PlaneMemory memory) {
+    if (kind == OFF_HEAP_ENERGIES) {
+      return new OffHeapEnergyPlane(memory);
+    } else if (kind == DOUBLE_ENERGIES) {
+      return new DoubleEnergyPlane();
+    } else if (kind == FIXED_ENERGIES) {
+      return new FixedEnergyPlane();
+    } else if (kind == FLOAT_ENERGIES) {
+      return new FloatEnergyPlane();
+    } else {
+      throw new RuntimeException("unknown kind of energies in the checkpoint: " + kind);
+    }
+  }
+
+  // This method finds and returns the byte that stands for the given energy function.
+  static byte codeOf(IEnergyFunction function) {
+    String name = function == null ? "" : function.name();
+    // LOOP: goes through the names of the energy functions, looking for this one
+    for (int code = 0; code < FUNCTIONS.length; code += 1) {
+      if (FUNCTIONS[code].equals(name)) {
+        return (byte) code;
+      }
+    }
+    throw new RuntimeException("no checkpoint format for the energy function " + name);
+  }
+
+  // This method makes and returns the energy function the given byte stands for, or null for the
+  // built-in formula of the energy plane.
+  static IEnergyFunction functionOf(byte code) {
+    if (code == 0) {
+      return null;
+    } else if (code == 1) {
+      return KernelEnergy.gradient();
+    } else if (code == 2) {
+      return KernelEnergy.sobel();
+    } else if (code == 3) {
+      return KernelEnergy.scharr();
+    } else if (code == 4) {
+      return new EntropyEnergy();
+    } else {
+      throw new RuntimeException("unknown energy function in the checkpoint: " + code);
+    }
+  }
+
+  // EFFECT: writes a checkpoint of the given carver to the channel of this checkpoint
+  void write(PlaneCarver carver) throws IOException {
+    carver.checkOpen();
+    this.room(HEADER_BYTES);
+    this.buffer.putInt(MAGIC);
+    this.buffer.putInt(VERSION);
+    this.buffer.put(CarveCheckpoint.kindOf(carver.energies));
+    this.buffer.put((byte) (carver.memory.offHeap ? 1 : 0));
+    this.buffer.put((byte) (carver.transposeHorizontal ? 1 : 0));
+    this.buffer.put(CarveCheckpoint.codeOf(carver.energyFunction));
+    this.buffer.put((byte) 0);
+    this.buffer.putInt(carver.stride);
+    this.buffer.putInt(carver.tallest);
+    this.buffer.putInt(carver.width);
+    this.buffer.putInt(carver.height);
+    this.buffer.putInt(carver.removed.size());
+    // LOOP: goes through the rows, writing the colors still in each one
+    for (int row = 0; row < carver.height; row += 1) {
+      this.writeValues(carver.argb, row * carver.stride, carver.width);
+    }
+    // LOOP: goes through the rows, writing the energies still in each one
+    for (int row = 0; row < carver.height; row += 1) {
+      this.writeValues(carver.energies.plane(), row * carver.stride, carver.width);
+    }
+    // LOOP: goes through the removed seams, most recent first
+    for (CarvedSeam seam : carver.removed) {
+      SeamEvent steps = SeamEvent.of(0, seam);
+      this.room(SEAM_HEADER_BYTES);
+      this.buffer.put((byte) (seam.vertical ? 1 : 0));
+      this.buffer.putDouble(seam.cost);
+      this.buffer.putInt(seam.positions.length);
+      this.buffer.putInt(steps.start);
+      this.writeValues(steps.steps, 0, steps.steps.length);
+      this.writeValues(seam.argb, 0, seam.argb.length);
+    }
+    this.drain();
+  }
+
+  // This method reads a checkpoint from the channel of this checkpoint, and returns a carver that
+  // carries on from it.
+  PlaneCarver read() throws IOException {
+    this.fill(HEADER_BYTES);
+    if (this.buffer.getInt() != MAGIC) {
+      throw new RuntimeException("not a carver checkpoint");
+    }
+    int version = this.buffer.getInt();
+    if (version != VERSION) {
+      throw new RuntimeException("unsupported checkpoint version " + version);
+    }
+    byte kind = this.buffer.get();
+    PlaneMemory memory = new PlaneMemory(this.buffer.get() == 1);
+    boolean transposeHorizontal = this.buffer.get() == 1;
+    IEnergyFunction function = CarveCheckpoint.functionOf(this.buffer.get());
+    this.buffer.get();
+    int stride = this.buffer.getInt();
+    int tallest = this.buffer.getInt();
+    PlaneCarver carver = new PlaneCarver(stride, tallest,
+            CarveCheckpoint.energiesOf(kind, memory), memory);
+    carver.transposeHorizontal = transposeHorizontal;
+    carver.energyFunction = function;
+    carver.convolution = function == null ? null : new ConvolutionRows(carver);
+    carver.width = this.buffer.getInt();
+    carver.height = this.buffer.getInt();
+    int seams = this.buffer.getInt();
+    if (carver.width < 1 || carver.width > stride || carver.height < 1
+            || carver.height > tallest || seams < 0) {
+      throw new RuntimeException("the checkpoint is damaged");
+    }
+    // LOOP: goes through the rows, reading the colors still in each one
+    for (int row = 0; row < carver.height; row += 1) {
+      this.readValues(carver.argb, row * stride, carver.width);
+      // LOOP: goes through the pixels of the row, storing the sum of their channels
+      for (int col = 0; col < carver.width; col += 1) {
+        carver.lum.put(carver.lumIndex(col, row),
+                carver.channelSum(carver.argb.get(row * stride + col)));
+      }
+    }
+    // LOOP: goes through the rows, reading the energies still in each one
+    for (int row = 0; row < carver.height; row += 1) {
+      this.readValues(carver.energies.plane(), row * stride, carver.width);
+    }
+    // LOOP: goes through the removed seams, most recent first
+    for (int seam = 0; seam < seams; seam += 1) {
+      this.fill(SEAM_HEADER_BYTES);
+      boolean vertical = this.buffer.get() == 1;
+      double cost = this.buffer.getDouble();
+      int length = this.buffer.getInt();
+      int start = this.buffer.getInt();
+      if (length < 1 || length > (vertical ? tallest : stride)) {
+        throw new RuntimeException("the checkpoint is damaged");
+      }
+      byte[] steps = new byte[length - 1];
+      this.readValues(steps, 0, steps.length);
+      CarveCheckpoint.checkSeam(start, steps, vertical ? stride : tallest);
+      CarvedSeam removed = new CarvedSeam(vertical,
+              new SeamEvent(seam, vertical, start, steps, cost, null).positions(), cost);
+      this.readValues(removed.argb, 0, length);
+      carver.removed.add(removed);
+    }
+    return carver;
+  }
+
+  // EFFECT: writes the given number of values of the given plane, from the given index on, to
+  // the channel of this checkpoint. The plane is any primitive array or buffer of the values
+  // PlaneEdits edits.
+  void writeValues(Object plane, int from, int length) throws IOException {
+    if (plane instanceof IntBuffer || plane instanceof int[]) {
+      IntBuffer ints = plane instanceof int[] ? IntBuffer.wrap((int[]) plane)
+              : ((IntBuffer) plane).duplicate();
+      ints.limit(from + length).position(from);
+      // LOOP: goes through the values, as many at a time as fit in the buffer
+      while (ints.hasRemaining()) {
+        this.room(4);
+        int count = Math.min(ints.remaining(), this.buffer.remaining() / 4);
+        IntBuffer slice = ints.slice();
+        slice.limit(count);
+        this.buffer.asIntBuffer().put(slice);
+        this.buffer.position(this.buffer.position() + 4 * count);
+        ints.position(ints.position() + count);
+      }
+    } else if (plane instanceof DoubleBuffer || plane instanceof double[]) {
+      DoubleBuffer doubles = plane instanceof double[] ? DoubleBuffer.wrap((double[]) plane)
+              : ((DoubleBuffer) plane).duplicate();
+      doubles.limit(from + length).position(from);
+      // LOOP: goes through the values, as many at a time as fit in the buffer
+      while (doubles.hasRemaining()) {
+        this.room(8);
+        int count = Math.min(doubles.remaining(), this.buffer.remaining() / 8);
+        DoubleBuffer slice = doubles.slice();
+        slice.limit(count);
+        this.buffer.asDoubleBuffer().put(slice);
+        this.buffer.position(this.buffer.position() + 8 * count);
+        doubles.position(doubles.position() + count);
+      }
+    } else if (plane instanceof float[]) {
+      float[] floats = (float[]) plane;
+      int done = 0;
+      // LOOP: goes through the values, as many at a time as fit in the buffer
+      while (done < length) {
+        this.room(4);
+        int count = Math.min(length - done, this.buffer.remaining() / 4);
+        this.buffer.asFloatBuffer().put(floats, from + done, count);
+        this.buffer.position(this.buffer.position() + 4 * count);
+        done += count;
+      }
+    } else {
+      byte[] bytes = (byte[]) plane;
+      int done = 0;
+      // LOOP: goes through the values, as many at a time as fit in the buffer
+      while (done < length) {
+        this.room(1);
+        int count = Math.min(length - done, this.buffer.remaining());
+        this.buffer.put(bytes, from + done, count);
+        done += count;
+      }
+    }
+  }
+
+  // EFFECT: reads the given number of values from the channel of this checkpoint into the given
+  // plane, from the given index on. The plane is any primitive array or buffer of the values
+  // PlaneEdits edits.
+  void readValues(Object plane, int from, int length) throws IOException {
+    if (plane instanceof IntBuffer || plane instanceof int[]) {
+      IntBuffer ints = plane instanceof int[] ? IntBuffer.wrap((int[]) plane)
+              : ((IntBuffer) plane).duplicate();
+      ints.limit(from + length).position(from);
+      // LOOP: goes through the values, as many at a time as the buffer holds
+      while (ints.hasRemaining()) {
+        this.fill(4);
+        int count = Math.min(ints.remaining(), this.buffer.remaining() / 4);
+        IntBuffer values = this.buffer.asIntBuffer();
+        values.limit(count);
+        ints.put(values);
+        this.buffer.position(this.buffer.position() + 4 * count);
+      }
+    } else if (plane instanceof DoubleBuffer || plane instanceof double[]) {
+      DoubleBuffer doubles = plane instanceof double[] ? DoubleBuffer.wrap((double[]) plane)
+              : ((DoubleBuffer) plane).duplicate();
+      doubles.limit(from + length).position(from);
+      // LOOP: goes through the values, as many at a time as the buffer holds
+      while (doubles.hasRemaining()) {
+        this.fill(8);
+        int count = Math.min(doubles.remaining(), this.buffer.remaining() / 8);
+        DoubleBuffer values = this.buffer.asDoubleBuffer();
+        values.limit(count);
+        doubles.put(values);
+        this.buffer.position(this.buffer.position() + 8 * count);
+      }
+    } else if (plane instanceof float[]) {
+      float[] floats = (float[]) plane;
+      int done = 0;
+      // LOOP: goes through the values, as many at a time as the buffer holds
+      while (done < length) {
+        this.fill(4);
+        int count = Math.min(length - done, this.buffer.remaining() / 4);
+        this.buffer.asFloatBuffer().get(floats, from + done, count);
+        this.buffer.position(this.buffer.position() + 4 * count);
+        done += count;
+      }
+    } else {
+      byte[] bytes = (byte[]) plane;
+      int done = 0;
+      // LOOP: goes through the values, as many at a time as the buffer holds
+      while (done < length) {
+        this.fill(1);
+        int count = Math.min(length - done, this.buffer.remaining());
+        this.buffer.get(bytes, from + done, count);
+        done += count;
+      }
+    }
+  }
+
+  // EFFECT: writes out the bytes waiting in the buffer, if there are fewer than the given number
+  // of bytes of room left in it
+  void room(int bytes) throws IOException {
+    if (this.buffer.remaining() < bytes) {
+      this.drain();
+    }
+  }
+
+  // EFFECT: writes every byte waiting in the buffer to the channel, leaving the buffer empty
+  void drain() throws IOException {
+    this.buffer.flip();
+    // LOOP: goes on writing until the channel has taken every byte
+    while (this.buffer.hasRemaining()) {
+      this.out.write(this.buffer);
+    }
+    this.buffer.clear();
+  }
+
+  // EFFECT: reads more bytes from the channel into the buffer, if there are fewer than the given
+  // number of bytes left in it to be read
+  void fill(int bytes) throws IOException {
+    if (this.buffer.remaining() >= bytes) {
+      return;
+    }
+    this.buffer.compact();
+    // LOOP: goes on reading until the buffer has enough bytes in it
+    while (this.buffer.position() < bytes) {
+      if (this.in.read(this.buffer) < 0) {
+        throw new RuntimeException("the checkpoint is cut short");
+      }
+    }
+    this.buffer.flip();
+  }
+}
+
+// This represents one image of a CarveBatch, carved down to a target size by a single fork/join
+// task. An image big enough to be split has the pass for every seam split into strips by a
+// ParallelSeamSearch, whose subtasks run on the same pool as the other images, so that idle
+// workers steal them instead of waiting out the last big image. It can only be run once.
+@SuppressWarnings("serial")
+class BatchJob extends RecursiveAction {
+  String name;
+  ImageRaster source;
+  int targetWidth;
+  int targetHeight;
+  IEnergyPlaneFactory energies;
+  // whether the pass for every seam is split into fork/join subtasks
+  boolean split;
+  // the carved image, or null until the job has run
+  ImageRaster result;
+  int seams;
+  // how many cells the passes for the seams went through, adding up the size of the image when
+  // each seam was found
+  long cells;
+  long nanos;
+
+  // Constructor
+  BatchJob(String name, ImageRaster source, int targetWidth, int targetHeight,
+           IEnergyPlaneFactory energies) {
+    if (targetWidth < 1 || targetHeight < 1 || targetWidth > source.width
+            || targetHeight > source.height) {
+      throw new RuntimeException("cannot carve a " + source.width + " by " + source.height
+              + " image to " + targetWidth + " by " + targetHeight);
+    }
+    this.name = name;
+    this.source = source;
+    this.targetWidth = targetWidth;
+    this.targetHeight = targetHeight;
+    this.energies = energies;
+    this.split = false;
+    this.result = null;
+    this.seams = 0;
+    this.cells = 0;
+    this.nanos = 0;
+  }
+
+  // This method estimates how much work carving this image is, as the cells of the energies
+  // worked out at the start plus those of a full pass for every seam, taking the image to be the
+  // size it starts at.
+  long cost() {
+    long pixels = (long) this.source.width * this.source.height;
+    return pixels * (1 + (this.source.width - this.targetWidth)
+            + (this.source.height - this.targetHeight));
+  }
+
+  // EFFECT: carves this image down to its target size, vertical seams first, keeping the carved
+  // image and how long it took
+  protected void compute() {
+    long start = System.nanoTime();
+    ISeamSearch search = this.split ? new ParallelSeamSearch() : new ExactSeamSearch();
+    try (PlaneCarver carver = new PlaneCarver(this.source, this.energies.make())) {
+      // LOOP: goes on carving vertical seams until the image is narrow enough
+      while (carver.width > this.targetWidth) {
+        this.cells += (long) carver.width * carver.height;
+        carver.removeSeam(search.find(carver, true));
+        this.seams += 1;
+      }
+      // LOOP: goes on carving horizontal seams until the image is short enough
+      while (carver.height > this.targetHeight) {
+        this.cells += (long) carver.width * carver.height;
+        carver.removeSeam(search.find(carver, false));
+        this.seams += 1;
+      }
+      this.result = carver.toRaster();
+    }
+    this.nanos = System.nanoTime() - start;
+  }
+
+  // This method finds how many million cells a second the passes of this job went through.
+  double megacellsPerSecond() {
+    return this.nanos == 0 ? 0.0 : this.cells * 1000.0 / this.nanos;
+  }
+
+  // This method describes how this job went, in one line of a report.
+  String line() {
+    return String.format(Locale.ROOT, "%-24s %5dx%-5d -> %5dx%-5d %-6s %5d seams %9.1f ms"
+                    + " %9.1f Mcells/s%n", this.name, this.source.width, this.source.height,
+            this.targetWidth, this.targetHeight, this.split ? "split" : "whole", this.seams,
+            this.nanos / 1e6, this.megacellsPerSecond());
+  }
+}
+
+// This represents ordering the jobs of a CarveBatch by how much work they are estimated to be,
+// the most work first.
+class CostliestFirst implements Comparator<BatchJob> {
+  // This method compares the given jobs by their estimated work, the most work first.
+  public int compare(BatchJob first, BatchJob second) {
+    return Long.compare(second.cost(), first.cost());
+  }
+}
+
+// This represents carving a batch of images of any mix of sizes on one fork/join pool. Each image
+// is carved by a whole-image task, and images of at least splitPixels pixels have the pass for
+// every seam split into subtasks on the same pool as well, unless the pool has a single worker,
+// which would only pay for the strips without running any of them at the same time. The tasks
+// are handed to the pool the costliest first, so the big images are under way before the small
+// ones run out, and workers with nothing to do steal the strips of the big images' passes. A batch
+// can only be run once.
+class CarveBatch {
+  // the fewest pixels an image has to have for the passes for its seams to be split
+  static final long SPLIT_PIXELS = 1L << 21;
+
+  ForkJoinPool pool;
+  long splitPixels;
+  IEnergyPlaneFactory energies;
+  ArrayList<BatchJob> jobs;
+  // how long the whole batch took, or 0 if it has not run yet
+  long nanos;
+
+  // Constructor
+  CarveBatch(ForkJoinPool pool, long splitPixels, IEnergyPlaneFactory energies) {
+    this.pool = pool;
+    this.splitPixels = splitPixels;
+    this.energies = energies;
+    this.jobs = new ArrayList<>();
+    this.nanos = 0;
+  }
+
+  // Convenience constructor for a batch on the common pool, with float energies
+  CarveBatch() {
+    this(ForkJoinPool.commonPool(), SPLIT_PIXELS, new FloatEnergyPlaneFactory());
+  }
+
+  // This method adds a job to carve the given image down to the given size to this batch, and
+  // returns it, so its results can be read once the batch has run.
+  BatchJob add(String name, ImageRaster source, int targetWidth, int targetHeight) {
+    BatchJob job = new BatchJob(name, source, targetWidth, targetHeight, this.energies);
+    job.split = (long) source.width * source.height >= this.splitPixels
+            && this.pool.getParallelism() > 1;
+    this.jobs.add(job);
+    return job;
+  }
+
+  // EFFECT: carves every image of this batch on its pool, the costliest first, and waits for all
+  // of them to finish. Jobs handed to the pool from outside of it are started in the order they
+  // are handed in, so this should not be run from one of the pool's own workers.
+  void run() {
+    ArrayList<BatchJob> ordered = new ArrayList<>(this.jobs);
+    ordered.sort(new CostliestFirst());
+    long start = System.nanoTime();
+    // LOOP: hands the jobs to the pool, the costliest first
+    for (BatchJob job : ordered) {
+      this.pool.execute(job);
+    }
+    // LOOP: waits for every job to finish
+    for (BatchJob job : ordered) {
+      job.join();
+    }
+    this.nanos = System.nanoTime() - start;
+  }
+
+  // This method adds up how many cells the passes of every job of this batch went through.
+  long cells() {
+    long cells = 0;
+    // LOOP: goes through the jobs, adding up their cells
+    for (BatchJob job : this.jobs) {
+      cells += job.cells;
+    }
+    return cells;
+  }
+
+  // This method describes how every job of this batch went, in the order they were added, and
+  // how the batch as a whole went.
+  String report() {
+    StringBuilder report = new StringBuilder();
+    // LOOP: goes through the jobs, describing each
+    for (BatchJob job : this.jobs) {
+      report.append(job.line());
+    }
+    double seconds = this.nanos / 1e9;
+    report.append(String.format(Locale.ROOT, "%d jobs in %.1f ms on %d workers: %.1f jobs/s,"
+                    + " %.1f Mcells/s%n", this.jobs.size(), this.nanos / 1e6,
+            this.pool.getParallelism(), seconds == 0 ? 0.0 : this.jobs.size() / seconds,
+            seconds == 0 ? 0.0 : this.cells() / seconds / 1e6));
+    return report.toString();
+  }
+}
+
+class ExamplesSeamCarver {
+  void testBigBang(Tester t) {
+    SeamCarver im = new SeamCarver(new FromFileImage("images/lerner.jpg"));
+    SeamCarver res = im;
+    res.bigBang((int) res.originalImage.getWidth(),
+            (int) res.originalImage.getHeight(), 0.001);
+  }
+
+
+
+
+  void testCalculateBrightness(Tester t) {
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Border border = new Border();
+    t.checkInexact(pix1.calculateBrightness(), 0.530718954248366, 0.0001);
+    t.checkInexact(pix2.calculateBrightness(), 0.4928104575163399, 0.0001);
+    t.checkInexact(pix3.calculateBrightness(), 0.550326797385621, 0.0001);
+    t.checkInexact(border.calculateBrightness(), 0.0, 0.0001);
+  }
+
+  void testFindVEComponent(Tester t) {
+    Border border = new Border();
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    t.checkInexact(pix4.findVEComponent(), 1.603921568627451, 0.0001);
+    t.checkInexact(pix5.findVEComponent(), 1.231372549019608, 0.0001);
+    t.checkInexact(pix6.findVEComponent(), 1.6405228758169934, 0.0001);
+    t.checkInexact(border.findVEComponent(), 0.0, 0.0001);
+  }
+
+  void testFindHEComponent(Tester t) {
+    Border border = new Border();
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    t.checkInexact(pix7.findHEComponent(), 1.580392156862745, 0.0001);
+    t.checkInexact(pix8.findHEComponent(), 1.823529411764706, 0.0001);
+    t.checkInexact(pix9.findHEComponent(), 1.9032679738562093, 0.0001);
+    t.checkInexact(border.findHEComponent(), 0.0, 0.0001);
+  }
+
+  void testCalculateEnergy(Tester t) {
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    t.checkInexact(pix10.calculateEnergy(), 0.836, 0.01);
+    t.checkInexact(pix12.calculateEnergy(), 1.163, 0.01);
+    t.checkInexact(pix13.calculateEnergy(), 1.408, 0.01);
+    t.checkInexact(pix15.calculateEnergy(), 1.307, 0.01);
+    t.checkInexact(new Border().calculateEnergy(), 2.147483647E9, 0.01);
+  }
+
+  // tests that the upNeighbor method works as expected
+  void testUpNeighbor(Tester t) {
+    Border b = new Border();
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    b.down = pix2;
+    t.checkExpect(pix10.upNeighbor(), pix6);
+    t.checkExpect(pix7.upNeighbor(), pix3);
+    t.checkExpect(pix9.upNeighbor(), pix5);
+    t.checkExpect(pix2.upNeighbor(), b);
+    t.checkExpect(new Border().upNeighbor(), new Border());
+  }
+
+  // tests that the downNeighbor method works as expected
+  void testDownNeighbor(Tester t) {
+    Border b = new Border();
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    b.up = pix16;
+    t.checkExpect(pix16.downNeighbor(), b);
+    t.checkExpect(pix7.downNeighbor(), pix11);
+    t.checkExpect(pix9.downNeighbor(), pix13);
     t.checkExpect(pix2.downNeighbor(), pix6);
   }
 
-  // tests that the leftNeighbor method works as expected
-  void testLeftNeighbor(Tester t) {
-    Border b = new Border();
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    b.right = pix5;
-    t.checkExpect(pix10.leftNeighbor(), pix9);
-    t.checkExpect(pix7.leftNeighbor(), pix6);
-    t.checkExpect(pix5.leftNeighbor(), b);
-    t.checkExpect(pix2.leftNeighbor(), pix1);
+  // tests that the leftNeighbor method works as expected
+  void testLeftNeighbor(Tester t) {
+    Border b = new Border();
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    b.right = pix5;
+    t.checkExpect(pix10.leftNeighbor(), pix9);
+    t.checkExpect(pix7.leftNeighbor(), pix6);
+    t.checkExpect(pix5.leftNeighbor(), b);
+    t.checkExpect(pix2.leftNeighbor(), pix1);
+  }
+
+  // tests that the rightNeighbor method works as expected
+  void testRightNeighbor(Tester t) {
+    Border b = new Border();
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    b.left = pix8;
+    t.checkExpect(pix10.rightNeighbor(), pix11);
+    t.checkExpect(pix7.rightNeighbor(), pix8);
+    t.checkExpect(pix8.rightNeighbor(), b);
+    t.checkExpect(pix2.rightNeighbor(), pix3);
+  }
+
+  // tests that the hasDown method works as expected
+  void testHasDown(Tester t) {
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    t.checkExpect(pix10.hasDown(), true);
+    t.checkExpect(pix7.hasDown(), true);
+    t.checkExpect(new Border().hasDown(), false);
+    t.checkExpect(pix16.down.hasDown(), false);
+  }
+
+  // tests that the hasRight method works as expected
+  void testHasRight(Tester t) {
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    t.checkExpect(pix4.right.hasRight(), false);
+    t.checkExpect(pix7.hasRight(), true);
+    t.checkExpect(pix15.hasRight(), true);
+    t.checkExpect(new Border().hasRight(), false);
+  }
+
+  // tests that findImageStart works as expected
+  void testFindImageStart(Tester t) {
+    Border b = new Border();
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    b.up = pix15;
+    t.checkExpect(pix1.findImageStart(), pix6);
+    t.checkExpect(pix14.findImageStart(), b);
+    t.checkExpect(pix5.findImageStart(), pix10);
+    t.checkExpect(pix10.findImageStart(), pix15);
+    t.checkExpect(b.findImageStart(), b);
+  }
+
+  // tests that the checkColorDisplayed method works as expected
+  void testCheckColorDisplayed(Tester t) {
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    t.checkExpect(pix1.checkColorDisplayed(), new Color(98, 132, 176));
+    t.checkExpect(pix14.checkColorDisplayed(), new Color(94, 33, 41));
+    t.checkExpect(pix5.checkColorDisplayed(), new Color(2, 90, 222));
+    t.checkExpect(pix10.checkColorDisplayed(), new Color(1, 93, 82));
+    t.checkExpect(new Border().checkColorDisplayed(), Color.BLACK);
+  }
+
+  // tests that the makeColDisplayedTo method works as expected
+  void testMakeColDisplayedTo(Tester t) {
+    Pixel pix14 = new Pixel(new Color(33, 44, 55));
+    Pixel pix1 = new Pixel(new Color(22, 33, 44));
+    Pixel pix5 = new Pixel(new Color(1, 2, 3));
+    Pixel pix10 = new Pixel(new Color(4, 5, 6));
+    Border b = new Border();
+    b.makeColorDisplayedTo(Color.BLUE);
+    pix14.makeColorDisplayedTo(new Color(1, 1, 1));
+    pix1.makeColorDisplayedTo(new Color(4, 67, 100));
+    pix5.makeColorDisplayedTo(new Color(6, 30, 22));
+    pix10.makeColorDisplayedTo(new Color(9, 90, 200));
+    t.checkExpect(pix1.colDisplayed, new Color(4, 67, 100));
+    t.checkExpect(pix14.colDisplayed, new Color(1, 1, 1));
+    t.checkExpect(pix5.colDisplayed, new Color(6, 30, 22));
+    t.checkExpect(pix10.colDisplayed, new Color(9, 90, 200));
+    t.checkExpect(b.colDisplayed, Color.BLUE);
+  }
+
+  // tests that the weightSoFar method works as expected
+  void testWeightSoFar(Tester t) {
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    SeamInfo s = new SeamInfo(pix1, 12.4);
+    SeamInfo s2 = new SeamInfo(pix12, 121.4);
+    SeamInfo s3 = new SeamInfo(pix13, 99.4);
+    SeamInfo s4 = new SeamInfo(pix5, 33.88);
+    t.checkInexact(s.weightSoFar(), 12.4, 0.01);
+    t.checkInexact(s2.weightSoFar(), 121.4, 0.01);
+    t.checkInexact(s3.weightSoFar(), 99.4, 0.01);
+    t.checkInexact(s4.weightSoFar(), 33.88, 0.01);
+  }
+
+  // tests that prevSeamInfo works as expected
+  void testPrevSeamInfo(Tester t) {
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    SeamInfo s = new SeamInfo(pix1, 12.4);
+    SeamInfo s2 = new SeamInfo(pix12, 121.4, s);
+    SeamInfo s3 = new SeamInfo(pix13, 12, s2);
+    SeamInfo s4 = new SeamInfo(pix5, 33.88, s3);
+    t.checkExpect(s.prevSeamInfo(), null);
+    t.checkExpect(s2.prevSeamInfo(), s);
+    t.checkExpect(s3.prevSeamInfo(), s2);
+    t.checkExpect(s4.prevSeamInfo(), s3);
+  }
+
+  // tests that the findMyPixel works as expected
+  void testFindMyPixel(Tester t) {
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    SeamInfo s = new SeamInfo(pix1, 12.4);
+    SeamInfo s2 = new SeamInfo(pix12, 121.4, s);
+    SeamInfo s3 = new SeamInfo(pix13, 12, s2);
+    SeamInfo s4 = new SeamInfo(pix5, 33.88, s3);
+    t.checkExpect(s.findMyPixel(), pix1);
+    t.checkExpect(s2.findMyPixel(), pix12);
+    t.checkExpect(s3.findMyPixel(), pix13);
+    t.checkExpect(s4.findMyPixel(), pix5);
+  }
+
+  // tests that the hasCameFrom method works as expected
+  void testHasCameFrom(Tester t) {
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    SeamInfo s = new SeamInfo(pix1, 12.4);
+    SeamInfo s2 = new SeamInfo(pix12, 121.4, s);
+    SeamInfo s3 = new SeamInfo(pix13, 12, s2);
+    SeamInfo s4 = new SeamInfo(pix5, 33.88, s3);
+    t.checkExpect(s.hasCameFrom(), false);
+    t.checkExpect(s2.hasCameFrom(), true);
+    t.checkExpect(s3.hasCameFrom(), true);
+    t.checkExpect(s4.hasCameFrom(), true);
+  }
+
+  void testMakeInColor(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    ComputedPixelImage isInColor = new ComputedPixelImage(4, 4);
+    isInColor.setPixel(0, 0, new Color(98, 132, 176));
+    isInColor.setPixel(1, 0, new Color(123, 231, 23));
+    isInColor.setPixel(2, 0, new Color(12, 155, 254));
+    isInColor.setPixel(3, 0, new Color(5, 197, 201));
+    isInColor.setPixel(0, 1, new Color(2, 90, 222));
+    isInColor.setPixel(1, 1, new Color(2, 90, 222));
+    isInColor.setPixel(2, 1, new Color(2, 90, 221));
+    isInColor.setPixel(3, 1, new Color(2, 90, 221));
+    isInColor.setPixel(0, 2, new Color(139, 32, 215));
+    isInColor.setPixel(1, 2, new Color(1, 93, 82));
+    isInColor.setPixel(2, 2, new Color(76, 47, 39));
+    isInColor.setPixel(3, 2, new Color(127, 118, 121));
+    isInColor.setPixel(0, 3, new Color(125, 132, 113));
+    isInColor.setPixel(1, 3, new Color(94, 33, 41));
+    isInColor.setPixel(2, 3, new Color(179, 40, 33));
+    isInColor.setPixel(3, 3, new Color(180, 76, 67));
+    img.makeUpdatedImageColor();
+    t.checkExpect(img.inColor, isInColor);
+  }
+
+  void testMakeBandW(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    ComputedPixelImage blackAndWhite = new ComputedPixelImage(4, 4);
+    blackAndWhite.setPixel(0, 0, new Color(83, 83, 83));
+    blackAndWhite.setPixel(1, 0, new Color(73, 73, 73));
+    blackAndWhite.setPixel(2, 0, new Color(73, 73, 73));
+    blackAndWhite.setPixel(3, 0, new Color(87, 87, 87));
+    blackAndWhite.setPixel(0, 1, new Color(71, 71, 71));
+    blackAndWhite.setPixel(1, 1, new Color(42, 42, 42));
+    blackAndWhite.setPixel(2, 1, new Color(46, 46, 46));
+    blackAndWhite.setPixel(3, 1, new Color(73, 73, 73));
+    blackAndWhite.setPixel(0, 2, new Color(49, 49, 49));
+    blackAndWhite.setPixel(1, 2, new Color(37, 37, 37));
+    blackAndWhite.setPixel(2, 2, new Color(34, 34, 34));
+    blackAndWhite.setPixel(3, 2, new Color(52, 52, 52));
+    blackAndWhite.setPixel(0, 3, new Color(63, 63, 63));
+    blackAndWhite.setPixel(1, 3, new Color(59, 59, 59));
+    blackAndWhite.setPixel(2, 3, new Color(58, 58, 58));
+    blackAndWhite.setPixel(3, 3, new Color(65, 65, 65));
+    img.makeBandW();
+
+    t.checkExpect(img.blackAndWhite, blackAndWhite);
+  }
+
+  void testDisplayCumulativeWeight(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    ComputedPixelImage weights = new ComputedPixelImage(4, 4);
+    weights.setPixel(0, 0, new Color(83, 83, 83));
+    weights.setPixel(1, 0, new Color(49, 49, 49));
+    weights.setPixel(2, 0, new Color(54, 54, 54));
+    weights.setPixel(3, 0, new Color(86, 86, 86));
+    weights.setPixel(0, 1, new Color(132, 132, 132));
+    weights.setPixel(1, 1, new Color(98, 98, 98));
+    weights.setPixel(2, 1, new Color(103, 103, 103));
+    weights.setPixel(3, 1, new Color(141, 141, 141));
+    weights.setPixel(0, 2, new Color(156, 156, 156));
+    weights.setPixel(1, 2, new Color(142, 142, 142));
+    weights.setPixel(2, 2, new Color(139, 139, 139));
+    weights.setPixel(3, 2, new Color(165, 165, 165));
+    weights.setPixel(0, 3, new Color(217, 217, 217));
+    weights.setPixel(1, 3, new Color(209, 209, 209));
+    weights.setPixel(2, 3, new Color(208, 208, 208));
+    weights.setPixel(3, 3, new Color(216, 216, 216));
+    img.displayCumulativeWeight();
+    t.checkExpect(img.displayEnergies, weights);
+  }
+
+  void testIsWellFormed(Tester t) {
+    APixel not = new Pixel(Color.BLUE);
+    not.down = new Pixel(Color.BLACK);
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
+            new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
+            new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
+            new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
+            new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    t.checkExpect(pix7.isWellFormed(), true);
+    t.checkExpect(not.isWellFormed(), false);
+    t.checkExpect(pix10.isWellFormed(), true);
+    t.checkExpect(new Border().isWellFormed(), true);
+  }
+
+  // tests that checkIfWellFormed works as expected + exception
+  void testCheckIfWellFormed(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    img.makeConnections();
+    img.checkIfWellFormed();
+    // since this is a void method and this method isn't changing anything, we can't
+    // write a check expect to compare this to anything
+    SeamCarver img2 = new SeamCarver(new FromFileImage("images/lerner.jpg"));
+    img2.makeConnections();
+    img2.checkIfWellFormed();
+
+    SeamCarver img3 = new SeamCarver(new FromFileImage("images/lerner.jpg"));
+    img3.topLeft.down.right = new Pixel(Color.BLACK);
+    img3.topLeft.down.right.up = new Pixel(Color.BLUE);
+    // in theory, this should throw an exception, but our code is structured in a way
+    // such that the exception should never be reached because all of the connections
+    // are made properly in the constructor
+    img3.checkIfWellFormed();
+  }
+
+  void testUpdateEnergies(Tester t) {
+    Border b = new Border();
+    Border bNotChanged = new Border();
+    b.updateEnergies();
+    t.checkExpect(b, bNotChanged);
+
+    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
+            new Border(), new Border());
+    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(),
+            pix1, new Border());
+    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(),
+            pix2, new Border());
+    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(),
+            pix3, new Border());
+    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
+            new Border());
+    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
+    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
+    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
+    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(),
+            new Border(), new Border());
+    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
+    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
+    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
+            new Border());
+    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
+            new Border());
+    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
+    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
+    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
+    Border border = new Border();
+    t.checkInexact(pix2.findHEComponent(), 1.396, 0.001);
+    t.checkInexact(pix2.findVEComponent(), 2.066, 0.001);
+    t.checkInexact(pix2.calculateEnergy(), 1.64, 0.001);
+    pix2.up = new Pixel(Color.BLUE);
+    pix2.updateEnergies();
+    t.checkInexact(pix2.findHEComponent(), 1.729, 0.001);
+    t.checkInexact(pix2.findVEComponent(), 2.066, 0.001);
+    t.checkInexact(pix2.calculateEnergy(), 0.974, 0.001);
+  }
+
+  void testMakeConnectionsPixel(Tester t) {
+    APixel pix1 = new Pixel(Color.BLACK);
+    APixel up = new Pixel(Color.BLUE);
+    APixel down = new Pixel(Color.GRAY);
+    APixel left = new Pixel(Color.GREEN);
+    APixel right = new Pixel(Color.RED);
+    pix1.makeConnectionsPixel(up, down, left, right);
+    t.checkExpect(pix1.up, up);
+    t.checkExpect(pix1.down, down);
+    t.checkExpect(pix1.left, left);
+    t.checkExpect(pix1.right, right);
+  }
+
+  void testReconnectPixel(Tester t) {
+    APixel pix1 = new Pixel(Color.BLACK);
+    pix1.up = new Pixel(Color.BLUE);
+    pix1.down = new Pixel(Color.GRAY);
+    pix1.left = new Pixel(Color.GREEN);
+    pix1.right = new Pixel(Color.RED);
+    pix1.reconnectPixel();
+    t.checkExpect(pix1.up.down, pix1);
+    t.checkExpect(pix1.down.up, pix1);
+    t.checkExpect(pix1.left.right, pix1);
+    t.checkExpect(pix1.right.left, pix1);
+
+    APixel pix2 = new Border();
+    pix2.up = new Pixel(Color.BLUE);
+    pix2.down = new Pixel(Color.GRAY);
+    pix2.left = new Pixel(Color.GREEN);
+    pix2.right = new Pixel(Color.RED);
+    pix2.reconnectPixel();
+    t.checkExpect(pix2.up.down, pix2);
+    t.checkExpect(pix2.down.up, pix2);
+    t.checkExpect(pix2.left.right, pix2);
+    t.checkExpect(pix2.right.left, pix2);
+  }
+
+  void testMakeScene(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    SeamCarver im = new SeamCarver(new FromFileImage("images/balloons.jpg"));
+    WorldScene imScene = new WorldScene(800, 343);
+    imScene.placeImageXY(im.inColor, 400, 171);
+    t.checkExpect(im.makeScene(), imScene);
+
+    WorldScene img2Scene = new WorldScene(4, 4);
+    img2Scene.placeImageXY(img.inColor, 2, 2);
+    t.checkExpect(img.makeScene(), img2Scene);
+
+    SeamCarver bAndW = new SeamCarver(new FromFileImage("images/5x5.png"));
+    WorldScene bAndWScene = new WorldScene(5, 5);
+    bAndWScene.placeImageXY(bAndW.blackAndWhite, 2, 2);
+    t.checkExpect(bAndW.makeScene(), bAndWScene);
+
+    SeamCarver weight = new SeamCarver(new FromFileImage("images/30x30.png"));
+    WorldScene weightScene = new WorldScene(30, 30);
+    weightScene.placeImageXY(weight.displayEnergies, 15, 15);
+    t.checkExpect(weight.makeScene(), weightScene);
+  }
+
+  void testOnKeyEvent(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    img.onKeyEvent(" ");
+    t.checkExpect(img.paused, false);
+    img.onKeyEvent(" ");
+    t.checkExpect(img.paused, true);
+    img.onKeyEvent("to show that other keys don't do anything");
+    t.checkExpect(img.paused, true);
+    img.onKeyEvent("v");
+    t.checkExpect(img.vCarve, true);
+    img.onKeyEvent("h");
+    t.checkExpect(img.hCarve, true);
+    img.onKeyEvent("u");
+    t.checkExpect(img.undoMode, true);
+    img.onKeyEvent("w");
+    t.checkExpect(img.showWeights, true);
+    img.onKeyEvent("e");
+    t.checkExpect(img.energySnapShot, true);
+  }
+
+  void testOnTick(Tester t) {
+    SeamCarver newImg = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    SeamCarver image1 = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    newImg.makeUpdatedImageColor();
+    newImg.paintHorizontalSeamRed();
+    newImg.paintRed = false;
+    newImg.checkIfWellFormed();
+    newImg.makeScene();
+    image1.onTick();
+    t.checkExpect(newImg, image1);
+
+    image1.onTick();
+    newImg.makeUpdatedImageColor();
+    newImg.seamRemoveHorizontal();
+    newImg.seamCarveHorizontal();
+    newImg.seamCarveVertical();
+    newImg.checkIfWellFormed();
+    newImg.makeScene();
+    newImg.paintRed = true;
+    t.checkExpect(newImg, image1);
+  }
+
+  void testCarveStep(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    img.paused = false;
+    img.vCarve = true;
+    img.carveStep();
+    t.checkExpect(img.paintRed, false);
+    t.checkExpect(img.lastCarved, true);
+    t.checkExpect(img.removed.size(), 0);
+    img.carveStep();
+    t.checkExpect(img.paintRed, true);
+    t.checkExpect(img.removed.size(), 1);
+    t.checkExpect(img.verticalSeams().size(), 3);
+  }
+
+  void testDisplayedImage(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    t.checkExpect(img.displayedImage(), img.inColor);
+    img.onKeyEvent("e");
+    t.checkExpect(img.displayedImage(), img.blackAndWhite);
+    img.onKeyEvent("w");
+    t.checkExpect(img.displayedImage(), img.displayEnergies);
+  }
+
+  void testRenderFrame(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    SeamCarver drawn = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    ComputedPixelImage before = img.inColor;
+    FrameSnapshot frame = img.renderFrame();
+    drawn.makeUpdatedImageColor();
+    t.checkExpect(frame.image, drawn.inColor);
+    t.checkExpect(frame.image == before, false);
+    t.checkExpect(img.inColor == before, true);
+    t.checkExpect(frame.seamsRemoved, 0);
+    t.checkExpect(img.frameOutdated, false);
+  }
+
+  void testToggleWorker(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    img.onKeyEvent("t");
+    t.checkExpect(img.worker != null, true);
+    CarveWorker worker = img.worker;
+    img.onKeyEvent("t");
+    t.checkExpect(img.worker, null);
+    t.checkExpect(worker.running, false);
+    img.onTick();
+    t.checkExpect(img.paintRed, false);
+  }
+
+  void testSeamCarveVertical(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    SeamCarver newImg = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    APixel imPix1 = img.topLeft.findImageStart();
+    APixel imPix2 = img.topLeft.findImageStart().right;
+    APixel imPix3 = img.topLeft.findImageStart().right.right;
+    APixel imPix4 = img.topLeft.findImageStart().right.right.right;
+    APixel imPix5 = img.topLeft.findImageStart().down;
+    APixel imPix6 = img.topLeft.findImageStart().down.right;
+    APixel imPix7 = img.topLeft.findImageStart().down.right.right;
+    APixel imPix8 = img.topLeft.findImageStart().down.right.right.right;
+    APixel imPix9 = img.topLeft.findImageStart().down.down;
+    APixel imPix10 = img.topLeft.findImageStart().down.down.right;
+    APixel imPix11 = img.topLeft.findImageStart().down.down.right.right;
+    APixel imPix12 = img.topLeft.findImageStart().down.down.right.right.right;
+    APixel imPix13 = img.topLeft.findImageStart().down.down.down;
+    APixel imPix14 = img.topLeft.findImageStart().down.down.down.right;
+    APixel imPix15 = img.topLeft.findImageStart().down.down.down.right.right;
+    APixel imPix16 = img.topLeft.findImageStart().down.down.down.right.right.right;
+
+    newImg.paused = false;
+    newImg.seamCarveVertical();
+
+    ArrayList<SeamInfo> ans = new ArrayList<SeamInfo>();
+    SeamInfo seam1 = new SeamInfo(imPix1, 1.2827120015924982);
+    SeamInfo seam2 = new SeamInfo(imPix2, 1.2861177437813864);
+    SeamInfo seam3 = new SeamInfo(imPix3, 1.6392646790898076);
+    SeamInfo seam4 = new SeamInfo(imPix4, 1.945801580544551);
+
+
+    SeamInfo seam5 = new SeamInfo(imPix5, 2.7050363443314227, seam1);
+    SeamInfo seam6 = new SeamInfo(imPix6, 2.571211068072641, seam3);
+    SeamInfo seam7 = new SeamInfo(imPix7, 2.7556588136119524, seam3);
+    SeamInfo seam8 = new SeamInfo(imPix8, 2.9148384759820045, seam3);
+
+
+    SeamInfo seam9 = new SeamInfo(imPix9, 3.407912450975914, seam6);
+    SeamInfo seam10 = new SeamInfo(imPix10, 3.7694728145667122, seam6);
+    SeamInfo seam11 = new SeamInfo(imPix11, 3.346452717839014, seam6);
+    SeamInfo seam12 = new SeamInfo(imPix12, 3.9189855353337926, seam7);
+
+
+    SeamInfo seam13 = new SeamInfo(imPix13, 4.816313187737722, seam9);
+    SeamInfo seam14 = new SeamInfo(imPix14, 4.667684484478833 , seam11);
+    SeamInfo seam15 = new SeamInfo(imPix15, 4.653613501836393, seam11);
+    SeamInfo seam16 = new SeamInfo(imPix16, 4.803715218083035 , seam11);
+    ans.add(seam13);
+    ans.add(seam14);
+    ans.add(seam15);
+    ans.add(seam16);
+
+    t.checkExpect(img.lastRow.get(0).correspondingInfo, imPix13);
+    t.checkExpect(img.lastRow.get(0).totalWeight, 4.816313187737722);
+    t.checkExpect(img.lastRow.get(1).correspondingInfo, imPix14);
+    t.checkExpect(img.lastRow.get(1).totalWeight, 4.667684484478833);
+    t.checkExpect(img.lastRow.get(2).correspondingInfo, imPix15);
+    t.checkExpect(img.lastRow.get(2).totalWeight, 4.653613501836393);
+    t.checkExpect(img.lastRow.get(3).correspondingInfo, imPix16);
+    t.checkExpect(img.lastRow.get(3).totalWeight, 4.803715218083035);
+  }
+
+  void testFindMinimumSeam(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    APixel imPix1 = img.topLeft.findImageStart();
+    APixel imPix2 = img.topLeft.findImageStart().right;
+    APixel imPix3e = img.topLeft.findImageStart().right.right;
+    APixel imPix4 = img.topLeft.findImageStart().right.right.right;
+    APixel imPix5 = img.topLeft.findImageStart().down;
+    APixel imPix6e = img.topLeft.findImageStart().down.right;
+    APixel imPix7 = img.topLeft.findImageStart().down.right.right;
+    APixel imPix8 = img.topLeft.findImageStart().down.right.right.right;
+    APixel imPix9e = img.topLeft.findImageStart().down.down;
+    APixel imPix10 = img.topLeft.findImageStart().down.down.right;
+    APixel imPix11e = img.topLeft.findImageStart().down.down.right.right;
+    APixel imPix12 = img.topLeft.findImageStart().down.down.right.right.right;
+    APixel imPix13e = img.topLeft.findImageStart().down.down.down;
+    APixel imPix14e = img.topLeft.findImageStart().down.down.down.right;
+    APixel imPix15e = img.topLeft.findImageStart().down.down.down.right.right;
+    APixel imPix16e = img.topLeft.findImageStart().down.down.down.right.right.right;
+
+    img.paused = false;
+    img.seamCarveVertical();
+
+    ArrayList<SeamInfo> ans = new ArrayList<SeamInfo>();
+    //SeamInfo seam1 = new SeamInfo(imPix1, 1.2827120015924982);
+    //SeamInfo seam2 = new SeamInfo(imPix2, 1.2861177437813864);
+    SeamInfo seam3 = new SeamInfo(imPix3e, 1.6392646790898076);
+    //SeamInfo seam4 = new SeamInfo(imPix4, 1.945801580544551);
+
+
+    //SeamInfo seam5 = new SeamInfo(imPix5, 2.7050363443314227, seam1);
+    SeamInfo seam6 = new SeamInfo(imPix6e, 2.571211068072641, seam3);
+    //SeamInfo seam7 = new SeamInfo(imPix7, 2.7556588136119524, seam3);
+    //SeamInfo seam8 = new SeamInfo(imPix8, 2.9148384759820045, seam3);
+
+
+    SeamInfo seam9 = new SeamInfo(imPix9e, 3.407912450975914, seam6);
+    //SeamInfo seam10 = new SeamInfo(imPix10, 3.7694728145667122, seam6);
+    SeamInfo seam11 = new SeamInfo(imPix11e, 3.346452717839014, seam6);
+    //SeamInfo seam12 = new SeamInfo(imPix12, 3.9189855353337926, seam7);
+
+
+    SeamInfo seam13 = new SeamInfo(imPix13e, 4.816313187737722, seam9);
+    SeamInfo seam14 = new SeamInfo(imPix14e, 4.667684484478833 , seam11);
+    SeamInfo seam15 = new SeamInfo(imPix15e, 4.653613501836393, seam11);
+    SeamInfo seam16 = new SeamInfo(imPix16e, 4.803715218083035 , seam11);
+    ans.add(seam13);
+    ans.add(seam14);
+    ans.add(seam15);
+    ans.add(seam16);
+
+    t.checkExpect(img.findMinimumSeam(ans, 3), seam15);
+    t.checkExpect(img.findMinimumSeam(ans, 0), seam14);
+    t.checkExpect(img.findMinimumSeam(ans, 2), seam15);
+  }
+
+  void testSelectSeam(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    SeamInfo seam1 = new SeamInfo(new Border(), 4.8);
+    SeamInfo seam2 = new SeamInfo(new Border(), 4.6);
+    SeamInfo seam3 = new SeamInfo(new Border(), 4.9);
+    SeamInfo seam4 = new SeamInfo(new Border(), 4.6);
+    ArrayList<SeamInfo> candidates = new ArrayList<SeamInfo>();
+    candidates.add(seam1);
+    candidates.add(seam2);
+    candidates.add(seam3);
+    candidates.add(seam4);
+    t.checkExpect(img.selectSeam(candidates, "vertical"), seam2);
+    candidates.remove(1);
+    t.checkExpect(img.selectSeam(candidates, "horizontal"), seam4);
+    candidates.remove(2);
+    t.checkExpect(img.selectSeam(candidates, "horizontal"), seam1);
+  }
+
+  void testSeamLength(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    SeamInfo seam1 = new SeamInfo(new Border(), 1.0);
+    SeamInfo seam2 = new SeamInfo(new Border(), 2.0, seam1);
+    SeamInfo seam3 = new SeamInfo(new Border(), 3.0, seam2);
+    t.checkExpect(img.seamLength(seam1), 1);
+    t.checkExpect(img.seamLength(seam3), 3);
+    img.seamCarveVertical();
+    t.checkExpect(img.seamLength(img.lastRow.get(0)), 4);
+  }
+
+  void testMakeConnections(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    img.makeConnections();
+    APixel imPix1 = img.topLeft.findImageStart();
+    APixel imPix2 = img.topLeft.findImageStart().right;
+    APixel imPix3 = img.topLeft.findImageStart().right.right;
+    APixel imPix4 = img.topLeft.findImageStart().right.right.right;
+    APixel imPix5 = img.topLeft.findImageStart().down;
+    APixel imPix6 = img.topLeft.findImageStart().down.right;
+    APixel imPix7 = img.topLeft.findImageStart().down.right.right;
+    APixel imPix8 = img.topLeft.findImageStart().down.right.right.right;
+    APixel imPix9 = img.topLeft.findImageStart().down.down;
+    APixel imPix10 = img.topLeft.findImageStart().down.down.right;
+    APixel imPix11 = img.topLeft.findImageStart().down.down.right.right;
+    APixel imPix12 = img.topLeft.findImageStart().down.down.right.right.right;
+    APixel imPix13 = img.topLeft.findImageStart().down.down.down;
+    APixel imPix14 = img.topLeft.findImageStart().down.down.down.right;
+    APixel imPix15 = img.topLeft.findImageStart().down.down.down.right.right;
+    APixel imPix16 = img.topLeft.findImageStart().down.down.down.right.right.right;
+    Border b = new Border();
+    t.checkExpect(imPix1.right, imPix2);
+    t.checkExpect(imPix10.left, imPix9);
+    t.checkExpect(imPix16.up, imPix12);
+    t.checkExpect(imPix7.down, imPix11);
+  }
+
+  // tests that the grid's energies are computed while it is built
+  void testMakeConnectionsEnergies(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    Pixel imPix6 = (Pixel) img.topLeft.findImageStart().down.right;
+    Pixel imPix16 = (Pixel) img.topLeft.findImageStart().down.down.down.right.right.right;
+    double energy6 = imPix6.energy;
+    double energy16 = imPix16.energy;
+    t.checkExpect(imPix6.calculateEnergy(), energy6);
+    t.checkExpect(imPix16.calculateEnergy(), energy16);
+  }
+
+  // tests that a SeamCarver read straight from a file matches one made from a FromFileImage
+  void testSeamCarverFromFileName(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    SeamCarver fromFile = new SeamCarver("images/4x4_Pixel.png");
+    t.checkExpect(fromFile.source.width, 4);
+    t.checkExpect(fromFile.source.height, 4);
+    t.checkExpect(fromFile.source.argb, img.source.argb);
+    img.makeUpdatedImageColor();
+    fromFile.makeUpdatedImageColor();
+    t.checkExpect(fromFile.inColor, img.inColor);
+    t.checkExpect(fromFile.lastRow.get(2).totalWeight, 4.653613501836393);
+  }
+
+  // tests that building the grid one row per band gives the same grid as building it whole
+  void testGridBandTask(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    APixel[] grid = new APixel[36];
+    double[] brightness = new double[36];
+    new GridBandTask(img, grid, brightness, 6, 6, 1, 0, 6, false).invoke();
+    t.checkExpect(grid[7].up, null);
+    new GridBandTask(img, grid, brightness, 6, 6, 1, 0, 6, true).invoke();
+    img.topLeft = grid[0];
+    img.checkIfWellFormed();
+    t.checkExpect(grid[7].up, grid[1]);
+    t.checkExpect(grid[7].right, grid[8]);
+    t.checkExpect(grid[28].down, grid[34]);
+    t.checkExpect(grid[7].col, new Color(98, 132, 176));
+    t.checkInexact(brightness[7], 0.530718954248366, 0.0001);
+    t.checkExpect(((Pixel) grid[14]).energy, grid[14].calculateEnergy());
+    img.seamCarveVertical();
+    t.checkExpect(img.lastRow.get(2).totalWeight, 4.653613501836393);
+  }
+
+  // tests that the vertical and horizontal passes give the same results run at the same time
+  void testSeamCarveBoth(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    SeamCarver serial = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    serial.seamCarveVertical();
+    serial.seamCarveHorizontal();
+    img.seamCarveBoth();
+    t.checkExpect(img.lastRow.get(1).totalWeight, serial.lastRow.get(1).totalWeight);
+    t.checkExpect(img.lastCol.get(3).totalWeight, serial.lastCol.get(3).totalWeight);
+    t.checkExpect(img.lastRow.get(1).totalWeight, 4.667684484478833);
+  }
+
+  void testImageRaster(Tester t) {
+    ImageRaster fromImage = ImageRaster.fromImage(new FromFileImage("images/4x4_Pixel.png"));
+    ImageRaster read = ImageRaster.read("images/4x4_Pixel.png");
+    t.checkExpect(fromImage.argbAt(0, 0), new Color(98, 132, 176).getRGB());
+    t.checkExpect(fromImage.argbAt(3, 1), new Color(2, 90, 221).getRGB());
+    t.checkExpect(read.argbAt(2, 3), new Color(179, 40, 33).getRGB());
+    t.checkExpect(read.argb, fromImage.argb);
+    t.checkException(new RuntimeException("no image reader for Instructions.txt"),
+            new ImageRaster(0, 0, new int[0]), "read", "Instructions.txt");
+  }
+
+  void testAttachBelowAndRightOf(Tester t) {
+    APixel pix1 = new Pixel(new Color(98, 132, 176).getRGB());
+    APixel up = new Border();
+    APixel left = new Pixel(Color.GREEN);
+    pix1.attachBelow(up);
+    pix1.attachRightOf(left);
+    t.checkExpect(pix1.up, up);
+    t.checkExpect(up.down, pix1);
+    t.checkExpect(pix1.left, left);
+    t.checkExpect(left.right, pix1);
+    t.checkExpect(pix1.col, new Color(98, 132, 176));
+  }
+
+  void testStoreEnergies(Tester t) {
+    Pixel pix1 = new Pixel(Color.BLUE);
+    Border b = new Border();
+    pix1.storeEnergies(0.3, -0.4);
+    t.checkInexact(pix1.verticalEnergy, 0.3, 0.0001);
+    t.checkInexact(pix1.horizontalEnergy, -0.4, 0.0001);
+    t.checkInexact(pix1.energy, 0.5, 0.0001);
+    b.storeEnergies(0.3, -0.4);
+    t.checkExpect(b, new Border());
+  }
+
+  void testPaintVerticalSeamRed(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    img.inColor.setPixel(2, 0, Color.RED);
+    img.inColor.setPixel(1, 1, Color.RED);
+    img.inColor.setPixel(2, 2, Color.RED);
+    img.inColor.setPixel(2, 3, Color.RED);
+
+    SeamCarver img2 = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    img2.paused = false;
+    img2.seamCarveVertical();
+    img2.paintVerticalSeamRed();
+
+    APixel imPix1 = img2.topLeft.findImageStart();
+    APixel imPix2 = img2.topLeft.findImageStart().right;
+    APixel imPix3 = img2.topLeft.findImageStart().right.right;
+    APixel imPix4 = img2.topLeft.findImageStart().right.right.right;
+    APixel imPix5 = img2.topLeft.findImageStart().down;
+    APixel imPix6 = img2.topLeft.findImageStart().down.right;
+    APixel imPix7 = img2.topLeft.findImageStart().down.right.right;
+    APixel imPix8 = img2.topLeft.findImageStart().down.right.right.right;
+    APixel imPix9 = img2.topLeft.findImageStart().down.down;
+    APixel imPix10 = img2.topLeft.findImageStart().down.down.right;
+    APixel imPix11 = img2.topLeft.findImageStart().down.down.right.right;
+    APixel imPix12 = img2.topLeft.findImageStart().down.down.right.right.right;
+    APixel imPix13 = img2.topLeft.findImageStart().down.down.down;
+    APixel imPix14 = img2.topLeft.findImageStart().down.down.down.right;
+    APixel imPix15 = img2.topLeft.findImageStart().down.down.down.right.right;
+    APixel imPix16 = img2.topLeft.findImageStart().down.down.down.right.right.right;
+
+    t.checkExpect(imPix6.colDisplayed, Color.RED);
+    t.checkExpect(imPix11.colDisplayed, Color.RED);
+    t.checkExpect(imPix15.colDisplayed, Color.RED);
+  }
+
+  void testPaintHorizontalSeamRed(Tester t) {
+
+    SeamCarver img2 = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    img2.paused = false;
+    img2.seamCarveHorizontal();
+    img2.paintHorizontalSeamRed();
+
+    APixel imPix1 = img2.topLeft.findImageStart();
+    APixel imPix2 = img2.topLeft.findImageStart().right;
+    APixel imPix3 = img2.topLeft.findImageStart().right.right;
+    APixel imPix4 = img2.topLeft.findImageStart().right.right.right;
+    APixel imPix5 = img2.topLeft.findImageStart().down;
+    APixel imPix6 = img2.topLeft.findImageStart().down.right;
+    APixel imPix7 = img2.topLeft.findImageStart().down.right.right;
+    APixel imPix8 = img2.topLeft.findImageStart().down.right.right.right;
+    APixel imPix9 = img2.topLeft.findImageStart().down.down;
+    APixel imPix10 = img2.topLeft.findImageStart().down.down.right;
+    APixel imPix11 = img2.topLeft.findImageStart().down.down.right.right;
+    APixel imPix12 = img2.topLeft.findImageStart().down.down.right.right.right;
+    APixel imPix13 = img2.topLeft.findImageStart().down.down.down;
+    APixel imPix14 = img2.topLeft.findImageStart().down.down.down.right;
+    APixel imPix15 = img2.topLeft.findImageStart().down.down.down.right.right;
+    APixel imPix16 = img2.topLeft.findImageStart().down.down.down.right.right.right;
+
+    t.checkExpect(imPix11.colDisplayed, Color.RED);
+    t.checkExpect(imPix12.colDisplayed, Color.RED);
+    t.checkExpect(imPix10.colDisplayed, Color.RED);
+  }
+
+  void testSeamRemoveVertical(Tester t) {
+    SeamCarver img2 = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+
+    APixel imPix1 = img2.topLeft.findImageStart();
+    APixel imPix2 = img2.topLeft.findImageStart().right;
+    APixel imPix3 = img2.topLeft.findImageStart().right.right;
+    APixel imPix4 = img2.topLeft.findImageStart().right.right.right;
+    APixel imPix5 = img2.topLeft.findImageStart().down;
+    APixel imPix6 = img2.topLeft.findImageStart().down.right;
+    APixel imPix7 = img2.topLeft.findImageStart().down.right.right;
+    APixel imPix8 = img2.topLeft.findImageStart().down.right.right.right;
+    APixel imPix9 = img2.topLeft.findImageStart().down.down;
+    APixel imPix10 = img2.topLeft.findImageStart().down.down.right;
+    APixel imPix11 = img2.topLeft.findImageStart().down.down.right.right;
+    APixel imPix12 = img2.topLeft.findImageStart().down.down.right.right.right;
+    APixel imPix13 = img2.topLeft.findImageStart().down.down.down;
+    APixel imPix14 = img2.topLeft.findImageStart().down.down.down.right;
+    APixel imPix15 = img2.topLeft.findImageStart().down.down.down.right.right;
+    APixel imPix16 = img2.topLeft.findImageStart().down.down.down.right.right.right;
+
+    img2.paused = false;
+    img2.seamRemoveVertical();
+
+    t.checkExpect(imPix5.right, imPix7);
+    t.checkExpect(imPix7.left, imPix5);
+    t.checkExpect(imPix7.down, imPix10);
+    t.checkExpect(imPix10.up, imPix7);
+    t.checkExpect(imPix16.left, imPix14);
+    t.checkExpect(imPix14.right, imPix16);
+    t.checkExpect(imPix7.up, imPix2);
+    t.checkExpect(imPix2.down, imPix7);
+  }
+
+  void testSeamCarveHorizontal(Tester t) {
+    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    SeamCarver newImg = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    APixel imPix1 = img.topLeft.findImageStart();
+    APixel imPix2 = img.topLeft.findImageStart().right;
+    APixel imPix3 = img.topLeft.findImageStart().right.right;
+    APixel imPix4 = img.topLeft.findImageStart().right.right.right;
+    APixel imPix5 = img.topLeft.findImageStart().down;
+    APixel imPix6 = img.topLeft.findImageStart().down.right;
+    APixel imPix7 = img.topLeft.findImageStart().down.right.right;
+    APixel imPix8 = img.topLeft.findImageStart().down.right.right.right;
+    APixel imPix9 = img.topLeft.findImageStart().down.down;
+    APixel imPix10 = img.topLeft.findImageStart().down.down.right;
+    APixel imPix11 = img.topLeft.findImageStart().down.down.right.right;
+    APixel imPix12 = img.topLeft.findImageStart().down.down.right.right.right;
+    APixel imPix13 = img.topLeft.findImageStart().down.down.down;
+    APixel imPix14 = img.topLeft.findImageStart().down.down.down.right;
+    APixel imPix15 = img.topLeft.findImageStart().down.down.down.right.right;
+    APixel imPix16 = img.topLeft.findImageStart().down.down.down.right.right.right;
+
+    newImg.paused = false;
+    newImg.seamCarveHorizontal();
+
+
+    t.checkExpect(img.lastCol.get(0).correspondingInfo, imPix4);
+    t.checkExpect(img.lastCol.get(0).totalWeight, 4.90066967849218);
+    t.checkExpect(img.lastCol.get(1).correspondingInfo, imPix8);
+    t.checkExpect(img.lastCol.get(1).totalWeight, 4.342288508174615);
+    t.checkExpect(img.lastCol.get(2).correspondingInfo, imPix12);
+    t.checkExpect(img.lastCol.get(2).totalWeight, 3.8663713986341834);
+    t.checkExpect(img.lastCol.get(3).correspondingInfo, imPix16);
+    t.checkExpect(img.lastCol.get(3).totalWeight, 4.160307177156365);
+  }
+
+  void testSeamRemoveHorizontal(Tester t) {
+    SeamCarver img2 = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+
+    APixel imPix1 = img2.topLeft.findImageStart();
+    APixel imPix2 = img2.topLeft.findImageStart().right;
+    APixel imPix3 = img2.topLeft.findImageStart().right.right;
+    APixel imPix4 = img2.topLeft.findImageStart().right.right.right;
+    APixel imPix5 = img2.topLeft.findImageStart().down;
+    APixel imPix6 = img2.topLeft.findImageStart().down.right;
+    APixel imPix7 = img2.topLeft.findImageStart().down.right.right;
+    APixel imPix8 = img2.topLeft.findImageStart().down.right.right.right;
+    APixel imPix9 = img2.topLeft.findImageStart().down.down;
+    APixel imPix10 = img2.topLeft.findImageStart().down.down.right;
+    APixel imPix11 = img2.topLeft.findImageStart().down.down.right.right;
+    APixel imPix12 = img2.topLeft.findImageStart().down.down.right.right.right;
+    APixel imPix13 = img2.topLeft.findImageStart().down.down.down;
+    APixel imPix14 = img2.topLeft.findImageStart().down.down.down.right;
+    APixel imPix15 = img2.topLeft.findImageStart().down.down.down.right.right;
+    APixel imPix16 = img2.topLeft.findImageStart().down.down.down.right.right.right;
+
+    img2.paused = false;
+    img2.seamRemoveHorizontal();
+
+    t.checkExpect(imPix6.down, imPix14);
+    t.checkExpect(imPix14.up, imPix6);
+    t.checkExpect(imPix16.up, imPix8);
+    t.checkExpect(imPix8.down, imPix16);
+    t.checkExpect(imPix16.left, imPix15);
+    t.checkExpect(imPix15.right, imPix16);
+    t.checkExpect(imPix7.right, imPix8);
+    t.checkExpect(imPix8.left, imPix7);
+  }
+
+  void testUndoMove(Tester t) {
+    SeamCarver img2 = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+    SeamCarver img = img2;
+
+    img.paused = false;
+
+    img2.paused = false;
+    img2.seamRemoveHorizontal();
+    img2.undoMove();
+    t.checkExpect(img, img2);
+
+    img2.seamCarveHorizontal();
+    img2.seamCarveVertical();
+
+    img.seamRemoveVertical();
+    img.seamCarveVertical();
+    img.seamCarveHorizontal();
+    img.seamRemoveHorizontal();
+    img.undoMove();
+    img.undoMove();
+
+    t.checkExpect(img, img2);
+
+    img.undoMove(); // Shouldn't change anything since no removal has been done yet.
+
+    t.checkExpect(img, img2);
+  }
+
+  // makes a raster of the same colors as images/4x4_Pixel.png, for the headless carvers
+  ImageRaster fourByFour() {
+    int[] argb = new int[]{
+        new Color(98, 132, 176).getRGB(), new Color(123, 231, 23).getRGB(),
+        new Color(12, 155, 254).getRGB(), new Color(5, 197, 201).getRGB(),
+        new Color(2, 90, 222).getRGB(), new Color(2, 90, 222).getRGB(),
+        new Color(2, 90, 221).getRGB(), new Color(2, 90, 221).getRGB(),
+        new Color(139, 32, 215).getRGB(), new Color(1, 93, 82).getRGB(),
+        new Color(76, 47, 39).getRGB(), new Color(127, 118, 121).getRGB(),
+        new Color(125, 132, 113).getRGB(), new Color(94, 33, 41).getRGB(),
+        new Color(179, 40, 33).getRGB(), new Color(180, 76, 67).getRGB()};
+    return new ImageRaster(4, 4, argb);
   }
 
-  // tests that the rightNeighbor method works as expected
-  void testRightNeighbor(Tester t) {
-    Border b = new Border();
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    b.left = pix8;
-    t.checkExpect(pix10.rightNeighbor(), pix11);
-    t.checkExpect(pix7.rightNeighbor(), pix8);
-    t.checkExpect(pix8.rightNeighbor(), b);
-    t.checkExpect(pix2.rightNeighbor(), pix3);
+  void testPositionsAround(Tester t) {
+    CarvedSeam seam = new CarvedSeam(true, new int[]{2, 1, 2, 3}, 1.0);
+    t.checkExpect(seam.positionsAround(0), new int[]{1, 2});
+    t.checkExpect(seam.positionsAround(2), new int[]{1, 3});
+    t.checkExpect(seam.positionsAround(3), new int[]{2, 3});
+    t.checkExpect(seam.argb.length, 4);
   }
 
-  // tests that the hasDown method works as expected
-  void testHasDown(Tester t) {
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    t.checkExpect(pix10.hasDown(), true);
-    t.checkExpect(pix7.hasDown(), true);
-    t.checkExpect(new Border().hasDown(), false);
-    t.checkExpect(pix16.down.hasDown(), false);
+  void testPlaneEdits(Tester t) {
+    int[] plane = new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9};
+    PlaneEdits.closeVertical(plane, 0, 3, new int[]{0, 1, 2}, 3, 3);
+    t.checkExpect(plane, new int[]{2, 3, 3, 4, 6, 6, 7, 8, 9});
+    PlaneEdits.openVertical(plane, 0, 3, new int[]{0, 1, 2}, 3, 3);
+    t.checkExpect(plane, new int[]{2, 2, 3, 4, 6, 6, 7, 8, 9});
+
+    double[] doubles = new double[]{1, 2, 3, 4, 5, 6, 7, 8, 9};
+    PlaneEdits.closeHorizontal(doubles, 0, 3, new int[]{0, 1, 1}, 3, 3);
+    t.checkExpect(doubles, new double[]{4, 2, 3, 7, 8, 9, 7, 8, 9});
+    PlaneEdits.openHorizontal(doubles, 0, 3, new int[]{0, 1, 1}, 3, 3);
+    t.checkExpect(doubles, new double[]{4, 2, 3, 4, 8, 9, 7, 8, 9});
   }
 
-  // tests that the hasRight method works as expected
-  void testHasRight(Tester t) {
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    t.checkExpect(pix4.right.hasRight(), false);
-    t.checkExpect(pix7.hasRight(), true);
-    t.checkExpect(pix15.hasRight(), true);
-    t.checkExpect(new Border().hasRight(), false);
+  void testChannelSum(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    t.checkExpect(carver.channelSum(new Color(98, 132, 176).getRGB()), 406);
+    t.checkExpect(carver.channelSum(Color.WHITE.getRGB()), 765);
+    t.checkExpect(carver.lum.get(carver.lumIndex(0, 0)), 406);
+    t.checkExpect(carver.lum.get(carver.lumIndex(-1, 0)), 0);
+    t.checkExpect(carver.lum.get(carver.lumIndex(3, 4)), 0);
   }
 
-  // tests that findImageStart works as expected
-  void testFindImageStart(Tester t) {
-    Border b = new Border();
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    b.up = pix15;
-    t.checkExpect(pix1.findImageStart(), pix6);
-    t.checkExpect(pix14.findImageStart(), b);
-    t.checkExpect(pix5.findImageStart(), pix10);
-    t.checkExpect(pix10.findImageStart(), pix15);
-    t.checkExpect(b.findImageStart(), b);
+  // tests that the double precision carver finds the same seams as the SeamCarver
+  void testDoubleEnergyPlane(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    CarvedSeam vertical = carver.findSeam(true);
+    t.checkExpect(vertical.positions, new int[]{2, 1, 2, 2});
+    t.checkExpect(vertical.cost, 4.653613501836393);
+    CarvedSeam horizontal = carver.findSeam(false);
+    t.checkExpect(horizontal.positions, new int[]{2, 2, 2, 2});
+    t.checkInexact(horizontal.cost, 3.866, 0.001);
+    t.checkInexact(((DoubleEnergyPlane) carver.energies).energies[9], 0.836, 0.01);
+    t.checkInexact(((DoubleEnergyPlane) carver.energies).energies[12], 1.408, 0.01);
+    t.checkInexact(((DoubleEnergyPlane) carver.energies).brightness(406), 0.530718954248366,
+            0.0001);
   }
 
-  // tests that the checkColorDisplayed method works as expected
-  void testCheckColorDisplayed(Tester t) {
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    t.checkExpect(pix1.checkColorDisplayed(), new Color(98, 132, 176));
-    t.checkExpect(pix14.checkColorDisplayed(), new Color(94, 33, 41));
-    t.checkExpect(pix5.checkColorDisplayed(), new Color(2, 90, 222));
-    t.checkExpect(pix10.checkColorDisplayed(), new Color(1, 93, 82));
-    t.checkExpect(new Border().checkColorDisplayed(), Color.BLACK);
+  void testFixedEnergyPlane(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new FixedEnergyPlane());
+    int[] energies = ((FixedEnergyPlane) carver.energies).energies;
+    // the energies are 16 times the gradient of the channel sums, which is 765 times the
+    // gradient of the brightnesses
+    t.checkExpect(energies[0], 22785);
+    t.checkExpect(energies[9], 10241);
+    t.checkExpect(energies[15], 17836);
+    CarvedSeam vertical = carver.findSeam(true);
+    t.checkExpect(vertical.positions, new int[]{2, 1, 2, 2});
+    t.checkExpect(vertical.cost, 3559.875);
+    CarvedSeam horizontal = carver.findSeam(false);
+    t.checkExpect(horizontal.positions, new int[]{2, 2, 2, 2});
+    t.checkExpect(horizontal.cost, 2957.6875);
   }
 
-  // tests that the makeColDisplayedTo method works as expected
-  void testMakeColDisplayedTo(Tester t) {
-    Pixel pix14 = new Pixel(new Color(33, 44, 55));
-    Pixel pix1 = new Pixel(new Color(22, 33, 44));
-    Pixel pix5 = new Pixel(new Color(1, 2, 3));
-    Pixel pix10 = new Pixel(new Color(4, 5, 6));
-    Border b = new Border();
-    b.makeColorDisplayedTo(Color.BLUE);
-    pix14.makeColorDisplayedTo(new Color(1, 1, 1));
-    pix1.makeColorDisplayedTo(new Color(4, 67, 100));
-    pix5.makeColorDisplayedTo(new Color(6, 30, 22));
-    pix10.makeColorDisplayedTo(new Color(9, 90, 200));
-    t.checkExpect(pix1.colDisplayed, new Color(4, 67, 100));
-    t.checkExpect(pix14.colDisplayed, new Color(1, 1, 1));
-    t.checkExpect(pix5.colDisplayed, new Color(6, 30, 22));
-    t.checkExpect(pix10.colDisplayed, new Color(9, 90, 200));
-    t.checkExpect(b.colDisplayed, Color.BLUE);
+  void testCarveSeamAndUndo(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new FixedEnergyPlane());
+    CarvedSeam vertical = carver.carveSeam(true);
+    t.checkExpect(carver.width, 3);
+    t.checkExpect(vertical.argb[1], new Color(2, 90, 222).getRGB());
+    t.checkExpect(carver.toRaster().argbAt(1, 1), new Color(2, 90, 221).getRGB());
+    CarvedSeam horizontal = carver.carveSeam(false);
+    t.checkExpect(carver.height, 3);
+    t.checkExpect(carver.removed.get(0), horizontal);
+    t.checkExpect(carver.canCarve(true), true);
+    t.checkExpect(carver.undo(), true);
+    t.checkExpect(carver.undo(), true);
+    t.checkExpect(carver.undo(), false);
+    t.checkExpect(carver.toRaster().argb, this.fourByFour().argb);
+    t.checkExpect(((FixedEnergyPlane) carver.energies).energies,
+            ((FixedEnergyPlane) new PlaneCarver(this.fourByFour(),
+                    new FixedEnergyPlane()).energies).energies);
+
+    PlaneCarver narrow = new PlaneCarver(new ImageRaster(1, 2, new int[]{0, 0}),
+            new DoubleEnergyPlane());
+    t.checkExpect(narrow.canCarve(true), false);
+    t.checkException(new RuntimeException("image is too small to carve another seam"),
+            narrow, "carveSeam", true);
   }
 
-  // tests that the weightSoFar method works as expected
-  void testWeightSoFar(Tester t) {
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    SeamInfo s = new SeamInfo(pix1, 12.4);
-    SeamInfo s2 = new SeamInfo(pix12, 121.4);
-    SeamInfo s3 = new SeamInfo(pix13, 99.4);
-    SeamInfo s4 = new SeamInfo(pix5, 33.88);
-    t.checkInexact(s.weightSoFar(), 12.4, 0.01);
-    t.checkInexact(s2.weightSoFar(), 121.4, 0.01);
-    t.checkInexact(s3.weightSoFar(), 99.4, 0.01);
-    t.checkInexact(s4.weightSoFar(), 33.88, 0.01);
+  void testToRaster(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    t.checkExpect(carver.toRaster().argb, this.fourByFour().argb);
+    carver.carveSeam(true);
+    ImageRaster carved = carver.toRaster();
+    t.checkExpect(carved.width, 3);
+    t.checkExpect(carved.argb.length, 12);
+    t.checkExpect(carved.argbAt(2, 0), new Color(5, 197, 201).getRGB());
+  }
+
+  void testSynthetic(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(3, 2, 1L);
+    t.checkExpect(image.width, 3);
+    t.checkExpect(image.height, 2);
+    t.checkExpect(image.argbAt(0, 0), new Color(0, 0, 128).getRGB());
+    t.checkExpect(image.argbAt(1, 1), new Color(88, 131, 131).getRGB());
+    t.checkExpect(ImageRaster.synthetic(20, 10, 5L).argb, ImageRaster.synthetic(20, 10, 5L).argb);
+    t.checkExpect(ImageRaster.clampChannel(-3.2), 0);
+    t.checkExpect(ImageRaster.clampChannel(99.6), 100);
+    t.checkExpect(ImageRaster.clampChannel(300.0), 255);
+  }
+
+  void testFloatEnergyPlane(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new FloatEnergyPlane());
+    t.checkInexact(carver.energies.energyAt(1, 2), 0.836, 0.01);
+    t.checkInexact(carver.energies.energyAt(0, 3), 1.408, 0.01);
+    CarvedSeam vertical = carver.findSeam(true);
+    t.checkExpect(vertical.positions, new int[]{2, 1, 2, 2});
+    t.checkInexact(vertical.cost, 4.653613501836393, 0.00001);
+    CarvedSeam horizontal = carver.findSeam(false);
+    t.checkExpect(horizontal.positions, new int[]{2, 2, 2, 2});
+    t.checkInexact(horizontal.cost, 3.866, 0.001);
+    t.checkExpect(new FloatEnergyPlaneFactory().make() instanceof FloatEnergyPlane, true);
+  }
+
+  void testEnergyAt(Tester t) {
+    PlaneCarver exact = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    PlaneCarver fixed = new PlaneCarver(this.fourByFour(), new FixedEnergyPlane());
+    t.checkExpect(exact.energies.energyAt(1, 2),
+            ((DoubleEnergyPlane) exact.energies).energies[9]);
+    t.checkExpect(fixed.energies.energyAt(1, 2), 10241 / 16.0);
+  }
+
+  void testCostOf(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    t.checkExpect(carver.costOf(new int[]{2, 1, 2, 2}, true), 4.653613501836393);
+    t.checkInexact(carver.costOf(new int[]{2, 2, 2, 2}, false), 3.866, 0.001);
+  }
+
+  void testPrecisionReportAdd(Tester t) {
+    PrecisionReport report = new PrecisionReport();
+    report.add(2.0, 2.0, true);
+    report.add(4.0, 4.5, false);
+    report.add(0.0, 0.25, false);
+    t.checkExpect(report.seams, 3);
+    t.checkExpect(report.matching, 1);
+    t.checkExpect(report.maxCostGap, 0.5);
+    t.checkExpect(report.maxRelativeGap, 0.125);
+    t.checkExpect(report.withinBound(0.125), true);
+    t.checkExpect(report.withinBound(0.1), false);
   }
 
-  // tests that prevSeamInfo works as expected
-  void testPrevSeamInfo(Tester t) {
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    SeamInfo s = new SeamInfo(pix1, 12.4);
-    SeamInfo s2 = new SeamInfo(pix12, 121.4, s);
-    SeamInfo s3 = new SeamInfo(pix13, 12, s2);
-    SeamInfo s4 = new SeamInfo(pix5, 33.88, s3);
-    t.checkExpect(s.prevSeamInfo(), null);
-    t.checkExpect(s2.prevSeamInfo(), s);
-    t.checkExpect(s3.prevSeamInfo(), s2);
-    t.checkExpect(s4.prevSeamInfo(), s3);
+  void testPrecisionReportCompare(Tester t) {
+    ArrayList<ImageRaster> corpus = new ArrayList<ImageRaster>();
+    corpus.add(this.fourByFour());
+    corpus.add(ImageRaster.synthetic(40, 30, 3L));
+    PrecisionReport report = PrecisionReport.compare(corpus, 20, new FloatEnergyPlaneFactory());
+    // the four by four image only has room for six seams before it is too small
+    t.checkExpect(report.seams, 26);
+    t.checkExpect(report.withinBound(0.000001), true);
   }
 
-  // tests that the findMyPixel works as expected
-  void testFindMyPixel(Tester t) {
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    SeamInfo s = new SeamInfo(pix1, 12.4);
-    SeamInfo s2 = new SeamInfo(pix12, 121.4, s);
-    SeamInfo s3 = new SeamInfo(pix13, 12, s2);
-    SeamInfo s4 = new SeamInfo(pix5, 33.88, s3);
-    t.checkExpect(s.findMyPixel(), pix1);
-    t.checkExpect(s2.findMyPixel(), pix12);
-    t.checkExpect(s3.findMyPixel(), pix13);
-    t.checkExpect(s4.findMyPixel(), pix5);
+  void testMove(Tester t) {
+    int[] array = new int[]{1, 2, 3, 4, 5};
+    PlaneEdits.move(array, 1, 0, 3);
+    t.checkExpect(array, new int[]{2, 3, 4, 4, 5});
+    IntBuffer heap = IntBuffer.wrap(new int[]{1, 2, 3, 4, 5});
+    PlaneEdits.move(heap, 0, 1, 3);
+    t.checkExpect(heap.array(), new int[]{1, 1, 2, 3, 5});
+    IntBuffer ints = new PlaneMemory(true).ints(5);
+    ints.put(new int[]{1, 2, 3, 4, 5});
+    PlaneEdits.move(ints, 0, 1, 3);
+    t.checkExpect(ints.get(1), 1);
+    t.checkExpect(ints.get(3), 3);
+    PlaneEdits.move(ints, 2, 0, 3);
+    t.checkExpect(ints.get(0), 2);
+    t.checkExpect(ints.get(2), 5);
+    DoubleBuffer doubles = new PlaneMemory(true).doubles(3);
+    doubles.put(0, 1.5);
+    PlaneEdits.move(doubles, 0, 1, 2);
+    t.checkExpect(doubles.get(1), 1.5);
+    t.checkExpect(doubles.get(2), 0.0);
   }
 
-  // tests that the hasCameFrom method works as expected
-  void testHasCameFrom(Tester t) {
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    SeamInfo s = new SeamInfo(pix1, 12.4);
-    SeamInfo s2 = new SeamInfo(pix12, 121.4, s);
-    SeamInfo s3 = new SeamInfo(pix13, 12, s2);
-    SeamInfo s4 = new SeamInfo(pix5, 33.88, s3);
-    t.checkExpect(s.hasCameFrom(), false);
-    t.checkExpect(s2.hasCameFrom(), true);
-    t.checkExpect(s3.hasCameFrom(), true);
-    t.checkExpect(s4.hasCameFrom(), true);
+  void testPlaneMemory(Tester t) {
+    PlaneMemory heap = new PlaneMemory(false);
+    t.checkExpect(heap.ints(4).isDirect(), false);
+    t.checkExpect(heap.allocated, 16L);
+    PlaneMemory offHeap = new PlaneMemory(true);
+    t.checkExpect(offHeap.ints(4).isDirect(), true);
+    t.checkExpect(offHeap.doubles(2).isDirect(), true);
+    t.checkExpect(offHeap.bytes(3).isDirect(), true);
+    t.checkExpect(offHeap.allocated, 35L);
+    t.checkExpect(offHeap.direct(8).order(), ByteOrder.nativeOrder());
+    t.checkExpect(offHeap.claim(PlaneMemory.MAX_PLANE / 8, 8), PlaneMemory.MAX_PLANE / 8 * 8);
+    t.checkException(new RuntimeException("a plane of 268435455 values is too big for one buffer"),
+            offHeap, "claim", PlaneMemory.MAX_PLANE / 8 + 1, 8);
+    t.checkExpect(heap.claim(PlaneMemory.MAX_PLANE, 1), PlaneMemory.MAX_PLANE);
+    t.checkException(new RuntimeException("a plane of 2147488281 values is too big for one buffer"),
+            heap, "claim", 46341L * 46341, 4);
   }
 
-  void testMakeInColor(Tester t) {
-    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    ComputedPixelImage isInColor = new ComputedPixelImage(4, 4);
-    isInColor.setPixel(0, 0, new Color(98, 132, 176));
-    isInColor.setPixel(1, 0, new Color(123, 231, 23));
-    isInColor.setPixel(2, 0, new Color(12, 155, 254));
-    isInColor.setPixel(3, 0, new Color(5, 197, 201));
-    isInColor.setPixel(0, 1, new Color(2, 90, 222));
-    isInColor.setPixel(1, 1, new Color(2, 90, 222));
-    isInColor.setPixel(2, 1, new Color(2, 90, 221));
-    isInColor.setPixel(3, 1, new Color(2, 90, 221));
-    isInColor.setPixel(0, 2, new Color(139, 32, 215));
-    isInColor.setPixel(1, 2, new Color(1, 93, 82));
-    isInColor.setPixel(2, 2, new Color(76, 47, 39));
-    isInColor.setPixel(3, 2, new Color(127, 118, 121));
-    isInColor.setPixel(0, 3, new Color(125, 132, 113));
-    isInColor.setPixel(1, 3, new Color(94, 33, 41));
-    isInColor.setPixel(2, 3, new Color(179, 40, 33));
-    isInColor.setPixel(3, 3, new Color(180, 76, 67));
-    img.makeUpdatedImageColor();
-    t.checkExpect(img.inColor, isInColor);
+  // tests that the off-heap carver finds the same seams as the double precision one
+  void testOffHeapEnergyPlane(Tester t) {
+    PlaneCarver carver = PlaneCarver.offHeap(this.fourByFour());
+    t.checkExpect(carver.argb.isDirect(), true);
+    t.checkExpect(carver.lum.isDirect(), true);
+    t.checkExpect(((OffHeapEnergyPlane) carver.energies).energyPlane.isDirect(), true);
+    t.checkInexact(carver.energies.energyAt(1, 2), 0.836, 0.01);
+    CarvedSeam vertical = carver.findSeam(true);
+    t.checkExpect(vertical.positions, new int[]{2, 1, 2, 2});
+    t.checkExpect(vertical.cost, 4.653613501836393);
+    CarvedSeam horizontal = carver.findSeam(false);
+    t.checkExpect(horizontal.positions, new int[]{2, 2, 2, 2});
+    t.checkInexact(horizontal.cost, 3.866, 0.001);
   }
 
-  void testMakeBandW(Tester t) {
-    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    ComputedPixelImage blackAndWhite = new ComputedPixelImage(4, 4);
-    blackAndWhite.setPixel(0, 0, new Color(83, 83, 83));
-    blackAndWhite.setPixel(1, 0, new Color(73, 73, 73));
-    blackAndWhite.setPixel(2, 0, new Color(73, 73, 73));
-    blackAndWhite.setPixel(3, 0, new Color(87, 87, 87));
-    blackAndWhite.setPixel(0, 1, new Color(71, 71, 71));
-    blackAndWhite.setPixel(1, 1, new Color(42, 42, 42));
-    blackAndWhite.setPixel(2, 1, new Color(46, 46, 46));
-    blackAndWhite.setPixel(3, 1, new Color(73, 73, 73));
-    blackAndWhite.setPixel(0, 2, new Color(49, 49, 49));
-    blackAndWhite.setPixel(1, 2, new Color(37, 37, 37));
-    blackAndWhite.setPixel(2, 2, new Color(34, 34, 34));
-    blackAndWhite.setPixel(3, 2, new Color(52, 52, 52));
-    blackAndWhite.setPixel(0, 3, new Color(63, 63, 63));
-    blackAndWhite.setPixel(1, 3, new Color(59, 59, 59));
-    blackAndWhite.setPixel(2, 3, new Color(58, 58, 58));
-    blackAndWhite.setPixel(3, 3, new Color(65, 65, 65));
-    img.makeBandW();
+  void testOffHeapCarveAndUndo(Tester t) {
+    PlaneCarver carver = PlaneCarver.offHeap(this.fourByFour());
+    PlaneCarver onHeap = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    carver.carveSeam(true);
+    carver.carveSeam(false);
+    onHeap.carveSeam(true);
+    onHeap.carveSeam(false);
+    t.checkExpect(carver.toRaster().argb, onHeap.toRaster().argb);
+    t.checkExpect(carver.energies.energyAt(1, 1), onHeap.energies.energyAt(1, 1));
+    t.checkExpect(carver.undo(), true);
+    t.checkExpect(carver.undo(), true);
+    t.checkExpect(carver.undo(), false);
+    t.checkExpect(carver.toRaster().argb, this.fourByFour().argb);
+    t.checkExpect(carver.energies.energyAt(1, 2),
+            new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane()).energies.energyAt(1, 2));
+  }
 
-    t.checkExpect(img.blackAndWhite, blackAndWhite);
+  void testClose(Tester t) {
+    PlaneCarver carver = PlaneCarver.offHeap(this.fourByFour());
+    carver.carveSeam(true);
+    carver.close();
+    t.checkExpect(carver.removed.size(), 0);
+    t.checkException(new RuntimeException("the carver has been closed"), carver, "findSeam",
+            true);
+    t.checkException(new RuntimeException("the carver has been closed"), carver, "undo");
+    t.checkException(new RuntimeException("the carver has been closed"), carver, "toRaster");
   }
 
-  void testDisplayCumulativeWeight(Tester t) {
-    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    ComputedPixelImage weights = new ComputedPixelImage(4, 4);
-    weights.setPixel(0, 0, new Color(83, 83, 83));
-    weights.setPixel(1, 0, new Color(49, 49, 49));
-    weights.setPixel(2, 0, new Color(54, 54, 54));
-    weights.setPixel(3, 0, new Color(86, 86, 86));
-    weights.setPixel(0, 1, new Color(132, 132, 132));
-    weights.setPixel(1, 1, new Color(98, 98, 98));
-    weights.setPixel(2, 1, new Color(103, 103, 103));
-    weights.setPixel(3, 1, new Color(141, 141, 141));
-    weights.setPixel(0, 2, new Color(156, 156, 156));
-    weights.setPixel(1, 2, new Color(142, 142, 142));
-    weights.setPixel(2, 2, new Color(139, 139, 139));
-    weights.setPixel(3, 2, new Color(165, 165, 165));
-    weights.setPixel(0, 3, new Color(217, 217, 217));
-    weights.setPixel(1, 3, new Color(209, 209, 209));
-    weights.setPixel(2, 3, new Color(208, 208, 208));
-    weights.setPixel(3, 3, new Color(216, 216, 216));
-    img.displayCumulativeWeight();
-    t.checkExpect(img.displayEnergies, weights);
+  void testLinesAndCells(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    carver.carveSeam(true);
+    t.checkExpect(carver.lines(true), 4);
+    t.checkExpect(carver.cells(true), 3);
+    t.checkExpect(carver.lines(false), 3);
+    t.checkExpect(carver.cells(false), 4);
+    t.checkExpect(carver.energyOnLine(true, 2, 1), carver.energies.energyAt(1, 2));
+    t.checkExpect(carver.energyOnLine(false, 2, 1), carver.energies.energyAt(2, 1));
   }
 
-  void testIsWellFormed(Tester t) {
-    APixel not = new Pixel(Color.BLUE);
-    not.down = new Pixel(Color.BLACK);
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(), pix1,
-            new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(), pix2,
-            new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(), pix3,
-            new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(), new Border(),
-            new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    t.checkExpect(pix7.isWellFormed(), true);
-    t.checkExpect(not.isWellFormed(), false);
-    t.checkExpect(pix10.isWellFormed(), true);
-    t.checkExpect(new Border().isWellFormed(), true);
+  void testExactSeamSearch(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    t.checkExpect(new ExactSeamSearch().find(carver, true), carver.findSeam(true));
   }
 
-  // tests that checkIfWellFormed works as expected + exception
-  void testCheckIfWellFormed(Tester t) {
-    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    img.makeConnections();
-    img.checkIfWellFormed();
-    // since this is a void method and this method isn't changing anything, we can't
-    // write a check expect to compare this to anything
-    SeamCarver img2 = new SeamCarver(new FromFileImage("images/lerner.jpg"));
-    img2.makeConnections();
-    img2.checkIfWellFormed();
+  void testGreedySeamSearch(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    t.checkExpect(new GreedySeamSearch(2).lowestCells(carver, true), new int[]{2, 1});
+    t.checkExpect(new GreedySeamSearch(9).lowestCells(carver, false), new int[]{2, 3, 1, 0});
+    CarvedSeam walk = new GreedySeamSearch(1).walk(carver, true, 0);
+    t.checkExpect(walk.positions, new int[]{0, 1, 2, 2});
+    t.checkInexact(walk.cost, 4.8759, 0.0001);
+    t.checkExpect(new GreedySeamSearch(1).walk(carver, true, 3).positions,
+            new int[]{3, 2, 2, 2});
+    CarvedSeam vertical = new GreedySeamSearch(1).find(carver, true);
+    t.checkExpect(vertical.positions, new int[]{2, 1, 2, 2});
+    t.checkExpect(vertical.cost, 4.653613501836393);
+    t.checkExpect(new GreedySeamSearch(4).find(carver, false).positions,
+            new int[]{2, 2, 2, 2});
+  }
 
-    SeamCarver img3 = new SeamCarver(new FromFileImage("images/lerner.jpg"));
-    img3.topLeft.down.right = new Pixel(Color.BLACK);
-    img3.topLeft.down.right.up = new Pixel(Color.BLUE);
-    // in theory, this should throw an exception, but our code is structured in a way
-    // such that the exception should never be reached because all of the connections
-    // are made properly in the constructor
-    img3.checkIfWellFormed();
+  void testBandedSeamSearch(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    CarvedSeam candidate = new GreedySeamSearch(1).find(carver, true);
+    t.checkExpect(new BandedSeamSearch(0, 1).find(carver, true), candidate);
+    CarvedSeam vertical = new BandedSeamSearch(1, 1).find(carver, true);
+    t.checkExpect(vertical.positions, new int[]{2, 1, 2, 2});
+    t.checkExpect(vertical.cost, 4.653613501836393);
+    CarvedSeam horizontal = new BandedSeamSearch(1, new ExactSeamSearch()).find(carver, false);
+    t.checkExpect(horizontal.positions, new int[]{2, 2, 2, 2});
+    t.checkInexact(horizontal.cost, 3.866, 0.001);
+    BandedSeamSearch search = new BandedSeamSearch(1, 1);
+    t.checkExpect(search.costInBand(new double[]{1.0, 2.0, 3.0}, 1), 2.0);
+    t.checkExpect(search.costInBand(new double[]{1.0, 2.0, 3.0}, -1), Double.POSITIVE_INFINITY);
+    t.checkExpect(search.costInBand(new double[]{1.0, 2.0, 3.0}, 3), Double.POSITIVE_INFINITY);
   }
 
-  void testUpdateEnergies(Tester t) {
-    Border b = new Border();
-    Border bNotChanged = new Border();
-    b.updateEnergies();
-    t.checkExpect(b, bNotChanged);
+  void testApproximateCarving(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    ApproximateCarving carving = new ApproximateCarving(new GreedySeamSearch(1), 2);
+    t.checkExpect(carving.carve(carver, true).positions, new int[]{2, 1, 2, 2});
+    carving.carve(carver, false);
+    carving.carve(carver, true);
+    t.checkExpect(carving.carved, 3);
+    t.checkExpect(carving.gaps.seams, 2);
+    t.checkExpect(carving.gaps.matching <= 2, true);
+    t.checkExpect(carver.width, 2);
+    t.checkExpect(carver.height, 3);
+    ApproximateCarving unsampled = new ApproximateCarving(new ExactSeamSearch(), 0);
+    unsampled.carve(carver, true);
+    t.checkExpect(unsampled.gaps.seams, 0);
+    t.checkException(new RuntimeException("image is too small to carve another seam"),
+            unsampled, "carve", carver, true);
+  }
 
-    Pixel pix1 = new Pixel(new Color(98, 132, 176), new Border(), new Border(),
-            new Border(), new Border());
-    Pixel pix2 = new Pixel(new Color(123, 231, 23), new Border(), new Border(),
-            pix1, new Border());
-    Pixel pix3 = new Pixel(new Color(12, 155, 254), new Border(), new Border(),
-            pix2, new Border());
-    Pixel pix4 = new Pixel(new Color(5, 197, 201), new Border(), new Border(),
-            pix3, new Border());
-    Pixel pix5 = new Pixel(new Color(2, 90, 222), pix1, new Border(), new Border(),
-            new Border());
-    Pixel pix6 = new Pixel(new Color(2, 90, 222), pix2, new Border(), pix5, new Border());
-    Pixel pix7 = new Pixel(new Color(2, 90, 221), pix3, new Border(), pix6, new Border());
-    Pixel pix8 = new Pixel(new Color(2, 90, 221), pix4, new Border(), pix7, new Border());
-    Pixel pix9 = new Pixel(new Color(139, 32, 215), pix5, new Border(),
-            new Border(), new Border());
-    Pixel pix10 = new Pixel(new Color(1, 93, 82), pix6, new Border(), pix9, new Border());
-    Pixel pix11 = new Pixel(new Color(76, 47, 39), pix7, new Border(), pix10, new Border());
-    Pixel pix12 = new Pixel(new Color(127, 118, 121), pix8, new Border(), pix11,
-            new Border());
-    Pixel pix13 = new Pixel(new Color(125, 132, 113), pix9, new Border(), new Border(),
-            new Border());
-    Pixel pix14 = new Pixel(new Color(94, 33, 41), pix10, new Border(), pix13, new Border());
-    Pixel pix15 = new Pixel(new Color(179, 40, 33), pix11, new Border(), pix14, new Border());
-    Pixel pix16 = new Pixel(new Color(180, 76, 67), pix12, new Border(), pix15, new Border());
-    Border border = new Border();
-    t.checkInexact(pix2.findHEComponent(), 1.396, 0.001);
-    t.checkInexact(pix2.findVEComponent(), 2.066, 0.001);
-    t.checkInexact(pix2.calculateEnergy(), 1.64, 0.001);
-    pix2.up = new Pixel(Color.BLUE);
-    pix2.updateEnergies();
-    t.checkInexact(pix2.findHEComponent(), 1.729, 0.001);
-    t.checkInexact(pix2.findVEComponent(), 2.066, 0.001);
-    t.checkInexact(pix2.calculateEnergy(), 0.974, 0.001);
+  void testCloseSeams(Tester t) {
+    int[] columns = new int[]{1, 2, 3, 4, 5, 6, 7, 8};
+    PlaneEdits.closeVerticalSeams(columns, 0, 4, new int[][]{{0, 1}, {2, 3}}, 4, 2);
+    t.checkExpect(columns, new int[]{2, 4, 3, 4, 5, 7, 7, 8});
+    int[] rows = new int[]{1, 2, 3, 4, 5, 6, 7, 8};
+    PlaneEdits.closeHorizontalSeams(rows, 0, 2, new int[][]{{0, 1}, {2, 3}}, 2, 4);
+    t.checkExpect(rows, new int[]{3, 2, 7, 6, 5, 6, 7, 8});
+  }
+
+  void testEndCostAndStepBack(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    carver.findSeam(true);
+    t.checkExpect(carver.energies.endCost(2), 4.653613501836393);
+    t.checkInexact(carver.energies.endCost(0), 4.8163, 0.0001);
+    t.checkExpect(carver.energies.stepBack(true, 1, 0), 1);
+    t.checkExpect(carver.energies.stepBack(true, 2, 2), -1);
+    t.checkExpect(carver.energies.stepBack(true, 3, 2), 0);
+    PlaneCarver fixed = new PlaneCarver(this.fourByFour(), new FixedEnergyPlane());
+    fixed.findSeam(false);
+    t.checkExpect(fixed.passPlane(false).endCost(2), 2957.6875);
+    t.checkExpect(fixed.stepBack(false, 3, 2), 0);
+    fixed.transposeHorizontal = false;
+    fixed.findSeam(false);
+    t.checkExpect(fixed.energies.endCost(2), 2957.6875);
+    t.checkExpect(fixed.energies.stepBack(false, 3, 2), 0);
   }
 
-  void testMakeConnectionsPixel(Tester t) {
-    APixel pix1 = new Pixel(Color.BLACK);
-    APixel up = new Pixel(Color.BLUE);
-    APixel down = new Pixel(Color.GRAY);
-    APixel left = new Pixel(Color.GREEN);
-    APixel right = new Pixel(Color.RED);
-    pix1.makeConnectionsPixel(up, down, left, right);
-    t.checkExpect(pix1.up, up);
-    t.checkExpect(pix1.down, down);
-    t.checkExpect(pix1.left, left);
-    t.checkExpect(pix1.right, right);
+  void testCheapestEndFirst(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    carver.findSeam(true);
+    Integer[] ends = new Integer[]{0, 1, 2, 3};
+    Arrays.sort(ends, new CheapestEndFirst(carver.energies));
+    t.checkExpect(ends, new Integer[]{2, 1, 3, 0});
+    t.checkExpect(new CheapestEndFirst(carver.energies).compare(1, 1), 0);
   }
 
-  void testReconnectPixel(Tester t) {
-    APixel pix1 = new Pixel(Color.BLACK);
-    pix1.up = new Pixel(Color.BLUE);
-    pix1.down = new Pixel(Color.GRAY);
-    pix1.left = new Pixel(Color.GREEN);
-    pix1.right = new Pixel(Color.RED);
-    pix1.reconnectPixel();
-    t.checkExpect(pix1.up.down, pix1);
-    t.checkExpect(pix1.down.up, pix1);
-    t.checkExpect(pix1.left.right, pix1);
-    t.checkExpect(pix1.right.left, pix1);
+  void testFirstPositionFirst(Tester t) {
+    CarvedSeam left = new CarvedSeam(true, new int[]{0, 1}, 3.0);
+    CarvedSeam right = new CarvedSeam(true, new int[]{2, 2}, 1.0);
+    t.checkExpect(new FirstPositionFirst().compare(left, right) < 0, true);
+    t.checkExpect(new FirstPositionFirst().compare(right, left) > 0, true);
+  }
 
-    APixel pix2 = new Border();
-    pix2.up = new Pixel(Color.BLUE);
-    pix2.down = new Pixel(Color.GRAY);
-    pix2.left = new Pixel(Color.GREEN);
-    pix2.right = new Pixel(Color.RED);
-    pix2.reconnectPixel();
-    t.checkExpect(pix2.up.down, pix2);
-    t.checkExpect(pix2.down.up, pix2);
-    t.checkExpect(pix2.left.right, pix2);
-    t.checkExpect(pix2.right.left, pix2);
+  void testTraceSeam(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    carver.findSeam(true);
+    t.checkExpect(carver.traceSeam(true, 0, new int[16], 4), new int[]{2, 1, 1, 0});
+    int[] taken = new int[16];
+    taken[5] = 1;
+    t.checkExpect(carver.traceSeam(true, 0, taken, 4), null);
+    int[] crossed = new int[16];
+    crossed[1] = 1;
+    crossed[6] = 1;
+    t.checkExpect(carver.traceSeam(true, 0, crossed, 4), null);
+    crossed[6] = 2;
+    t.checkExpect(carver.traceSeam(true, 0, crossed, 4), new int[]{2, 1, 1, 0});
   }
 
-  void testMakeScene(Tester t) {
-    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    SeamCarver im = new SeamCarver(new FromFileImage("images/balloons.jpg"));
-    WorldScene imScene = new WorldScene(800, 343);
-    imScene.placeImageXY(im.inColor, 400, 171);
-    t.checkExpect(im.makeScene(), imScene);
+  void testFindSeams(Tester t) {
+    PlaneCarver carver = new PlaneCarver(ImageRaster.synthetic(12, 8, 2L),
+            new DoubleEnergyPlane());
+    ArrayList<CarvedSeam> seams = carver.findSeams(true, 3);
+    t.checkExpect(seams.size(), 3);
+    t.checkExpect(seams.get(0), carver.findSeam(true));
+    t.checkExpect(seams.get(1).positions, new int[]{2, 3, 4, 5, 6, 7, 8, 9});
+    t.checkExpect(seams.get(2).positions, new int[]{8, 8, 7, 7, 8, 9, 10, 10});
+    t.checkExpect(seams.get(1).cost < seams.get(2).cost, true);
+    PlaneCarver small = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    // every seam through the four by four image runs into the cheapest one
+    t.checkExpect(small.findSeams(true, 3).size(), 1);
+    t.checkExpect(small.findSeams(false, 0).size(), 0);
+  }
 
-    WorldScene img2Scene = new WorldScene(4, 4);
-    img2Scene.placeImageXY(img.inColor, 2, 2);
-    t.checkExpect(img.makeScene(), img2Scene);
+  void testRemoveSeams(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(12, 8, 2L);
+    PlaneCarver carver = new PlaneCarver(image, new DoubleEnergyPlane());
+    PlaneCarver oneAtATime = new PlaneCarver(image, new DoubleEnergyPlane());
+    ArrayList<CarvedSeam> seams = carver.findSeams(true, 3);
+    carver.removeSeams(seams);
+    oneAtATime.removeSeam(new CarvedSeam(true, seams.get(2).positions.clone(), 0.0));
+    oneAtATime.removeSeam(new CarvedSeam(true, seams.get(1).positions.clone(), 0.0));
+    oneAtATime.removeSeam(new CarvedSeam(true, seams.get(0).positions.clone(), 0.0));
+    t.checkExpect(carver.width, 9);
+    t.checkExpect(carver.toRaster().argb, oneAtATime.toRaster().argb);
+    t.checkExpect(carver.findSeam(true), oneAtATime.findSeam(true));
+    t.checkExpect(carver.findSeam(false), oneAtATime.findSeam(false));
+    t.checkExpect(carver.removed.get(0), seams.get(0));
+    t.checkExpect(carver.removed.get(2), seams.get(2));
+    t.checkExpect(seams.get(1).argb[0], image.argbAt(2, 0));
+    carver.removeSeams(new ArrayList<CarvedSeam>());
+    t.checkExpect(carver.removed.size(), 3);
+  }
 
-    SeamCarver bAndW = new SeamCarver(new FromFileImage("images/5x5.png"));
-    WorldScene bAndWScene = new WorldScene(5, 5);
-    bAndWScene.placeImageXY(bAndW.blackAndWhite, 2, 2);
-    t.checkExpect(bAndW.makeScene(), bAndWScene);
+  void testCarveSeams(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(12, 8, 2L);
+    PlaneCarver carver = new PlaneCarver(image, new DoubleEnergyPlane());
+    int carved = carver.carveSeams(true, 3).size() + carver.carveSeams(false, 2).size();
+    t.checkExpect(carver.toRaster().argb,
+            new PlaneCarver(carver.toRaster(), new DoubleEnergyPlane()).toRaster().argb);
+    t.checkExpect(carver.energies.energyAt(4, 3),
+            new PlaneCarver(carver.toRaster(), new DoubleEnergyPlane()).energies.energyAt(4, 3));
+    int undone = 0;
+    // LOOP: puts back every seam, counting them
+    while (carver.undo()) {
+      undone += 1;
+    }
+    t.checkExpect(undone, carved);
+    t.checkExpect(carver.toRaster().argb, image.argb);
+    PlaneCarver thin = new PlaneCarver(new ImageRaster(1, 2, new int[]{0, 0}),
+            new DoubleEnergyPlane());
+    t.checkException(new RuntimeException("image is too small to carve another seam"), thin,
+            "carveSeams", true, 2);
+  }
 
-    SeamCarver weight = new SeamCarver(new FromFileImage("images/30x30.png"));
-    WorldScene weightScene = new WorldScene(30, 30);
-    weightScene.placeImageXY(weight.displayEnergies, 15, 15);
-    t.checkExpect(weight.makeScene(), weightScene);
+  void testMultiSeamCarving(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(30, 20, 4L);
+    PlaneCarver checked = new PlaneCarver(image, new DoubleEnergyPlane());
+    PlaneCarver unchecked = new PlaneCarver(image, new DoubleEnergyPlane());
+    MultiSeamCarving sampled = new MultiSeamCarving(4, 1);
+    MultiSeamCarving fast = new MultiSeamCarving(4, 0);
+    sampled.carve(checked, true);
+    sampled.carve(checked, false);
+    fast.carve(unchecked, true);
+    fast.carve(unchecked, false);
+    t.checkExpect(sampled.passes, 2);
+    t.checkExpect(sampled.carved, fast.carved);
+    t.checkExpect(sampled.gaps.seams, sampled.carved);
+    t.checkExpect(sampled.gaps.matching >= 2, true);
+    t.checkExpect(fast.gaps.seams, 0);
+    t.checkExpect(checked.toRaster().argb, unchecked.toRaster().argb);
   }
 
-  void testOnKeyEvent(Tester t) {
-    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    img.onKeyEvent(" ");
-    t.checkExpect(img.paused, false);
-    img.onKeyEvent(" ");
-    t.checkExpect(img.paused, true);
-    img.onKeyEvent("to show that other keys don't do anything");
-    t.checkExpect(img.paused, true);
-    img.onKeyEvent("v");
-    t.checkExpect(img.vCarve, true);
-    img.onKeyEvent("h");
-    t.checkExpect(img.hCarve, true);
-    img.onKeyEvent("u");
-    t.checkExpect(img.undoMode, true);
-    img.onKeyEvent("w");
-    t.checkExpect(img.showWeights, true);
-    img.onKeyEvent("e");
-    t.checkExpect(img.energySnapShot, true);
+  void testVerticalSeams(Tester t) {
+    SeamCarver img = new SeamCarver(this.fourByFour());
+    t.checkExpect(img.lastRowVersion, 0L);
+    ArrayList<SeamInfo> found = img.lastRow;
+    t.checkExpect(img.verticalSeams() == found, true);
+    img.paused = false;
+    img.seamRemoveVertical();
+    t.checkExpect(img.lastRowVersion, 0L);
+    t.checkExpect(img.verticalSeams().size(), 3);
+    t.checkExpect(img.lastRowVersion, 1L);
+    t.checkExpect(img.verticalSeams() == img.lastRow, true);
   }
 
-  void testOnTick(Tester t) {
-    SeamCarver newImg = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    SeamCarver image1 = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    newImg.makeUpdatedImageColor();
-    newImg.paintHorizontalSeamRed();
-    newImg.paintRed = false;
-    newImg.checkIfWellFormed();
-    newImg.makeScene();
-    image1.onTick();
-    t.checkExpect(newImg, image1);
+  void testHorizontalSeams(Tester t) {
+    SeamCarver img = new SeamCarver(this.fourByFour());
+    img.paused = false;
+    img.vCarve = true;
+    img.carveStep();
+    img.carveStep();
+    // only the vertical pass was needed to carve a vertical seam
+    t.checkExpect(img.lastColVersion, 0L);
+    t.checkExpect(img.lastCol.size(), 4);
+    t.checkExpect(img.horizontalSeams().size(), 4);
+    t.checkExpect(img.lastColVersion, 1L);
+    t.checkExpect(img.horizontalSeams().get(0).totalWeight < 4.0, true);
+  }
 
-    image1.onTick();
-    newImg.makeUpdatedImageColor();
-    newImg.seamRemoveHorizontal();
-    newImg.seamCarveHorizontal();
-    newImg.seamCarveVertical();
-    newImg.checkIfWellFormed();
-    newImg.makeScene();
-    newImg.paintRed = true;
-    t.checkExpect(newImg, image1);
+  void testGridChanged(Tester t) {
+    SeamCarver img = new SeamCarver(this.fourByFour());
+    t.checkExpect(img.gridVersion, 0L);
+    img.gridChanged();
+    t.checkExpect(img.gridVersion, 1L);
+    img.paused = false;
+    img.seamRemoveHorizontal();
+    t.checkExpect(img.gridVersion, 2L);
+    // putting the seam back goes back to the version from before it was removed
+    img.undoMove();
+    t.checkExpect(img.gridVersion, 1L);
+    img.undoMove();
+    t.checkExpect(img.gridVersion, 1L);
+    img.paintVerticalSeamRed();
+    t.checkExpect(img.gridVersion, 1L);
+    t.checkExpect(img.lastRowVersion, 1L);
+    img.seamRemoveVertical();
+    t.checkExpect(img.gridVersion, 3L);
+    t.checkExpect(img.undone.size(), 0);
   }
 
-  void testSeamCarveVertical(Tester t) {
-    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    SeamCarver newImg = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    APixel imPix1 = img.topLeft.findImageStart();
-    APixel imPix2 = img.topLeft.findImageStart().right;
-    APixel imPix3 = img.topLeft.findImageStart().right.right;
-    APixel imPix4 = img.topLeft.findImageStart().right.right.right;
-    APixel imPix5 = img.topLeft.findImageStart().down;
-    APixel imPix6 = img.topLeft.findImageStart().down.right;
-    APixel imPix7 = img.topLeft.findImageStart().down.right.right;
-    APixel imPix8 = img.topLeft.findImageStart().down.right.right.right;
-    APixel imPix9 = img.topLeft.findImageStart().down.down;
-    APixel imPix10 = img.topLeft.findImageStart().down.down.right;
-    APixel imPix11 = img.topLeft.findImageStart().down.down.right.right;
-    APixel imPix12 = img.topLeft.findImageStart().down.down.right.right.right;
-    APixel imPix13 = img.topLeft.findImageStart().down.down.down;
-    APixel imPix14 = img.topLeft.findImageStart().down.down.down.right;
-    APixel imPix15 = img.topLeft.findImageStart().down.down.down.right.right;
-    APixel imPix16 = img.topLeft.findImageStart().down.down.down.right.right.right;
+  void testTranspose(Tester t) {
+    double[] from = new double[]{1, 2, 3, 9, 4, 5, 6, 9};
+    double[] to = new double[6];
+    PlaneEdits.transpose(from, 4, to, 2, 3, 2);
+    t.checkExpect(to, new double[]{1, 4, 2, 5, 3, 6});
+    int[] ints = new int[]{1, 2, 3, 4};
+    int[] swapped = new int[4];
+    PlaneEdits.transpose(ints, 2, swapped, 2, 2, 2);
+    t.checkExpect(swapped, new int[]{1, 3, 2, 4});
+  }
 
-    newImg.paused = false;
-    newImg.seamCarveVertical();
+  void testCopy(Tester t) {
+    double[] doubles = new double[]{1.5, 0.0};
+    PlaneEdits.copy(doubles, 0, doubles, 1);
+    t.checkExpect(doubles, new double[]{1.5, 1.5});
+    float[] floats = new float[]{0.0f, 2.5f};
+    float[] moreFloats = new float[1];
+    PlaneEdits.copy(floats, 1, moreFloats, 0);
+    t.checkExpect(moreFloats[0], 2.5f);
+    long[] longs = new long[]{7L, 0L};
+    PlaneEdits.copy(longs, 0, longs, 1);
+    t.checkExpect(longs[1], 7L);
+    DoubleBuffer buffer = new PlaneMemory(true).doubles(2);
+    buffer.put(0, 3.0);
+    PlaneEdits.copy(buffer, 0, buffer, 1);
+    t.checkExpect(buffer.get(1), 3.0);
+  }
 
-    ArrayList<SeamInfo> ans = new ArrayList<SeamInfo>();
-    SeamInfo seam1 = new SeamInfo(imPix1, 1.2827120015924982);
-    SeamInfo seam2 = new SeamInfo(imPix2, 1.2861177437813864);
-    SeamInfo seam3 = new SeamInfo(imPix3, 1.6392646790898076);
-    SeamInfo seam4 = new SeamInfo(imPix4, 1.945801580544551);
+  void testEmptyCopy(Tester t) {
+    t.checkExpect(new DoubleEnergyPlane().emptyCopy() instanceof DoubleEnergyPlane, true);
+    t.checkExpect(new FixedEnergyPlane().emptyCopy() instanceof FixedEnergyPlane, true);
+    t.checkExpect(new FloatEnergyPlane().emptyCopy() instanceof FloatEnergyPlane, true);
+    PlaneMemory memory = new PlaneMemory(true);
+    OffHeapEnergyPlane offHeap = new OffHeapEnergyPlane(memory);
+    t.checkExpect(((OffHeapEnergyPlane) offHeap.emptyCopy()).memory == memory, true);
+  }
 
+  void testPassPlane(Tester t) {
+    PlaneCarver carver = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    t.checkExpect(carver.passPlane(true) == carver.energies, true);
+    t.checkExpect(carver.transposed, null);
+    IEnergyPlane transposed = carver.passPlane(false);
+    t.checkExpect(transposed == carver.transposed, true);
+    t.checkExpect(carver.passPlane(false) == transposed, true);
+    t.checkExpect(transposed.energyAt(2, 1), carver.energies.energyAt(1, 2));
+    t.checkExpect(carver.energyOnLine(false, 1, 2), carver.energies.energyAt(1, 2));
+    carver.useEnergy(KernelEnergy.scharr());
+    t.checkExpect(carver.transposed == transposed, true);
+    t.checkExpect(transposed.energyAt(2, 1), carver.energies.energyAt(1, 2));
+    carver.useEnergy(null);
+    PlaneCarver untransposed = new PlaneCarver(this.fourByFour(), new DoubleEnergyPlane());
+    untransposed.transposeHorizontal = false;
+    t.checkExpect(untransposed.passPlane(false) == untransposed.energies, true);
+    t.checkExpect(untransposed.findSeam(false), carver.findSeam(false));
+  }
 
-    SeamInfo seam5 = new SeamInfo(imPix5, 2.7050363443314227, seam1);
-    SeamInfo seam6 = new SeamInfo(imPix6, 2.571211068072641, seam3);
-    SeamInfo seam7 = new SeamInfo(imPix7, 2.7556588136119524, seam3);
-    SeamInfo seam8 = new SeamInfo(imPix8, 2.9148384759820045, seam3);
+  void testTransposedCarveAndUndo(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(12, 8, 2L);
+    PlaneCarver carver = new PlaneCarver(image, new FloatEnergyPlane());
+    PlaneCarver untransposed = new PlaneCarver(image, new FloatEnergyPlane());
+    untransposed.transposeHorizontal = false;
+    t.checkExpect(carver.carveSeam(false), untransposed.carveSeam(false));
+    t.checkExpect(carver.carveSeam(true), untransposed.carveSeam(true));
+    t.checkExpect(carver.carveSeams(false, 2), untransposed.carveSeams(false, 2));
+    t.checkExpect(carver.transposed.energyAt(3, 5), carver.energies.energyAt(5, 3));
+    t.checkExpect(carver.undo(), true);
+    t.checkExpect(carver.undo(), true);
+    untransposed.undo();
+    untransposed.undo();
+    t.checkExpect(carver.transposed.energyAt(6, 10), carver.energies.energyAt(10, 6));
+    t.checkExpect(carver.findSeam(false), untransposed.findSeam(false));
+  }
 
+  void testEnergyTiles(Tester t) {
+    EnergyTiles tiles = new EnergyTiles(40, 20);
+    t.checkExpect(tiles.across, 3);
+    t.checkExpect(tiles.tileAt(0, 0), 0);
+    t.checkExpect(tiles.tileAt(17, 3), 1);
+    t.checkExpect(tiles.tileAt(39, 19), 5);
+    Pixel pixel = new Pixel(0xFF808080);
+    t.checkExpect(pixel.tile, -1);
+    tiles.add(pixel, 33, 16);
+    t.checkExpect(pixel.tile, 5);
+    t.checkExpect(tiles.pixels[16 * 40 + 33], pixel);
+    new Border().markTile(tiles);
+    t.checkExpect(tiles.dirty.isEmpty(), true);
+    pixel.markTile(tiles);
+    t.checkExpect(tiles.dirty.get(5), true);
+  }
 
-    SeamInfo seam9 = new SeamInfo(imPix9, 3.407912450975914, seam6);
-    SeamInfo seam10 = new SeamInfo(imPix10, 3.7694728145667122, seam6);
-    SeamInfo seam11 = new SeamInfo(imPix11, 3.346452717839014, seam6);
-    SeamInfo seam12 = new SeamInfo(imPix12, 3.9189855353337926, seam7);
+  void testStoredEnergy(Tester t) {
+    Pixel pixel = new Pixel(Color.WHITE);
+    t.checkExpect(pixel.storedEnergy(), 0.0);
+    pixel.storeEnergies(3.0, 4.0);
+    t.checkExpect(pixel.storedEnergy(), 5.0);
+    pixel.refreshEnergy();
+    t.checkExpect(pixel.storedEnergy(), 0.0);
+    t.checkExpect(new Border().storedEnergy(), 2.147483647E9);
+  }
 
+  void testRefreshTiles(Tester t) {
+    SeamCarver img = new SeamCarver(ImageRaster.synthetic(40, 20, 4L));
+    Pixel pixel = img.tiles.pixels[3 * 40 + 20];
+    double energy = pixel.energy;
+    pixel.energy = -1.0;
+    t.checkExpect(img.tiles.refresh(), 0);
+    t.checkExpect(pixel.energy, -1.0);
+    img.tiles.mark(1);
+    t.checkExpect(img.tiles.refresh(), 1);
+    t.checkExpect(pixel.energy, energy);
+    t.checkExpect(img.tiles.dirty.isEmpty(), true);
+    pixel.energy = -1.0;
+    new TileRefreshTask(img.tiles, new int[] {0, 1, 2}, 1, 2).invoke();
+    t.checkExpect(pixel.energy, energy);
+  }
 
-    SeamInfo seam13 = new SeamInfo(imPix13, 4.816313187737722, seam9);
-    SeamInfo seam14 = new SeamInfo(imPix14, 4.667684484478833 , seam11);
-    SeamInfo seam15 = new SeamInfo(imPix15, 4.653613501836393, seam11);
-    SeamInfo seam16 = new SeamInfo(imPix16, 4.803715218083035 , seam11);
-    ans.add(seam13);
-    ans.add(seam14);
-    ans.add(seam15);
-    ans.add(seam16);
+  void testMarkSeamTiles(Tester t) {
+    SeamCarver img = new SeamCarver(ImageRaster.synthetic(40, 40, 4L));
+    img.paused = false;
+    SeamInfo seam = img.selectSeam(img.verticalSeams(), "vertical");
+    img.markSeamTiles(seam);
+    // a vertical seam runs through every row of tiles
+    t.checkExpect(img.tiles.dirty.cardinality() >= 3, true);
+    img.tiles.refresh();
+    img.seamRemoveVertical();
+    t.checkExpect(img.tiles.dirty.isEmpty(), false);
+    img.seamRemoveHorizontal();
+    img.undoMove();
+    img.verticalSeams();
+    t.checkExpect(img.tiles.dirty.isEmpty(), true);
+    APixel row = img.topLeft.findImageStart();
+    boolean fresh = true;
+    // LOOP: goes through every row of the grid
+    while (row.hasDown()) {
+      APixel cur = row;
+      // LOOP: goes through every Pixel of the row, checking its stored energy is up to date
+      while (cur.hasRight()) {
+        fresh = fresh && cur.storedEnergy() == cur.calculateEnergy();
+        cur = cur.rightNeighbor();
+      }
+      row = row.downNeighbor();
+    }
+    t.checkExpect(fresh, true);
+  }
 
-    t.checkExpect(img.lastRow.get(0).correspondingInfo, imPix13);
-    t.checkExpect(img.lastRow.get(0).totalWeight, 4.816313187737722);
-    t.checkExpect(img.lastRow.get(1).correspondingInfo, imPix14);
-    t.checkExpect(img.lastRow.get(1).totalWeight, 4.667684484478833);
-    t.checkExpect(img.lastRow.get(2).correspondingInfo, imPix15);
-    t.checkExpect(img.lastRow.get(2).totalWeight, 4.653613501836393);
-    t.checkExpect(img.lastRow.get(3).correspondingInfo, imPix16);
-    t.checkExpect(img.lastRow.get(3).totalWeight, 4.803715218083035);
+  void testSeededDirections(Tester t) {
+    SeamCarver img = new SeamCarver(ImageRaster.synthetic(12, 10, 3L));
+    SeamCarver same = new SeamCarver(ImageRaster.synthetic(12, 10, 3L));
+    img.paused = false;
+    same.paused = false;
+    img.random = new Random(5L);
+    same.random = new Random(5L);
+    // LOOP: paints and removes four seams from both carvers
+    for (int i = 0; i < 8; i += 1) {
+      img.carveStep();
+      same.carveStep();
+      t.checkExpect(img.lastCarved, same.lastCarved);
+    }
+    t.checkExpect(img.removed.size(), 4);
+    t.checkExpect(img.removed.get(0).weightSoFar(), same.removed.get(0).weightSoFar());
+    t.checkExpect(img.removed.get(3).weightSoFar(), same.removed.get(3).weightSoFar());
   }
 
-  void testFindMinimumSeam(Tester t) {
-    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    APixel imPix1 = img.topLeft.findImageStart();
-    APixel imPix2 = img.topLeft.findImageStart().right;
-    APixel imPix3e = img.topLeft.findImageStart().right.right;
-    APixel imPix4 = img.topLeft.findImageStart().right.right.right;
-    APixel imPix5 = img.topLeft.findImageStart().down;
-    APixel imPix6e = img.topLeft.findImageStart().down.right;
-    APixel imPix7 = img.topLeft.findImageStart().down.right.right;
-    APixel imPix8 = img.topLeft.findImageStart().down.right.right.right;
-    APixel imPix9e = img.topLeft.findImageStart().down.down;
-    APixel imPix10 = img.topLeft.findImageStart().down.down.right;
-    APixel imPix11e = img.topLeft.findImageStart().down.down.right.right;
-    APixel imPix12 = img.topLeft.findImageStart().down.down.right.right.right;
-    APixel imPix13e = img.topLeft.findImageStart().down.down.down;
-    APixel imPix14e = img.topLeft.findImageStart().down.down.down.right;
-    APixel imPix15e = img.topLeft.findImageStart().down.down.down.right.right;
-    APixel imPix16e = img.topLeft.findImageStart().down.down.down.right.right.right;
+  void testBenchmarkResultJson(Tester t) {
+    BenchmarkResult result = new BenchmarkResult("synthetic-8x8", 3, 120.5, 1.25, 4.0, 2048L, 7L);
+    t.checkExpect(result.toJson(), "{\"name\": \"synthetic-8x8\", \"seams\": 3, "
+            + "\"seamsPerSecond\": 120.500, \"p50Millis\": 1.250, \"p99Millis\": 4.000, "
+            + "\"peakHeapBytes\": 2048, \"gcMillis\": 7}");
+    t.checkExpect(BenchmarkResult.fromJson(result.toJson()), result);
+    t.checkExpect(BenchmarkResult.field(result.toJson(), "gcMillis"), "7");
+    t.checkExpect(BenchmarkResult.number(result.toJson(), "p99Millis"), 4.0);
+    t.checkException(new RuntimeException("no cost in the benchmark result {}"),
+            result, "field", "{}", "cost");
+    BenchmarkResult odd = new BenchmarkResult("a \"b\", c\\d}\n.png", 3, 1.0, 1.0, 1.0, 0L, 0L);
+    t.checkExpect(odd.toJson().startsWith("{\"name\": \"a \\\"b\\\", c\\\\d}\\u000a.png\", "),
+            true);
+    t.checkExpect(BenchmarkResult.fromJson(odd.toJson()), odd);
+    t.checkExpect(CarveBenchmark.fromJson(odd.toJson() + "\n" + result.toJson()).size(), 2);
+    t.checkExpect(BenchmarkResult.string("{\"name\": \"tab\\there\\/\"}", "name"), "tab\there/");
+    t.checkException(new RuntimeException("the name in the benchmark result is not closed "
+            + "{\"name\": \"a\\\"}"), result, "string", "{\"name\": \"a\\\"}", "name");
+  }
 
-    img.paused = false;
-    img.seamCarveVertical();
+  void testSlowdownFrom(Tester t) {
+    BenchmarkResult baseline = new BenchmarkResult("a", 10, 100.0, 2.0, 5.0, 0L, 0L);
+    BenchmarkResult fine = new BenchmarkResult("a", 10, 95.0, 2.0, 5.4, 0L, 0L);
+    BenchmarkResult slower = new BenchmarkResult("a", 10, 80.0, 2.0, 5.0, 0L, 0L);
+    BenchmarkResult spiky = new BenchmarkResult("a", 10, 100.0, 2.0, 6.0, 0L, 0L);
+    t.checkExpect(fine.slowdownFrom(baseline, 0.1), null);
+    t.checkExpect(slower.slowdownFrom(baseline, 0.1), "a: 80.0 seams/s, down from 100.0");
+    t.checkExpect(spiky.slowdownFrom(baseline, 0.1), "a: p99 of 6.000 ms, up from 5.000 ms");
+    t.checkExpect(spiky.slowdownFrom(baseline, 0.25), null);
+  }
 
-    ArrayList<SeamInfo> ans = new ArrayList<SeamInfo>();
-    //SeamInfo seam1 = new SeamInfo(imPix1, 1.2827120015924982);
-    //SeamInfo seam2 = new SeamInfo(imPix2, 1.2861177437813864);
-    SeamInfo seam3 = new SeamInfo(imPix3e, 1.6392646790898076);
-    //SeamInfo seam4 = new SeamInfo(imPix4, 1.945801580544551);
+  void testPercentile(Tester t) {
+    long[] times = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+    t.checkExpect(CarveBenchmark.percentile(times, 0.5), 5L);
+    t.checkExpect(CarveBenchmark.percentile(times, 0.99), 10L);
+    t.checkExpect(CarveBenchmark.percentile(times, 0.0), 1L);
+    t.checkExpect(CarveBenchmark.percentile(new long[] {4}, 0.99), 4L);
+  }
 
+  void testCarveBenchmark(Tester t) {
+    CarveBenchmark benchmark = new CarveBenchmark(1L, 5, 1);
+    benchmark.addImage("small", ImageRaster.synthetic(4, 4, 1L));
+    benchmark.addImage("larger", ImageRaster.synthetic(12, 10, 2L));
+    ArrayList<BenchmarkResult> results = benchmark.runAll();
+    t.checkExpect(results.size(), 2);
+    t.checkExpect(results.get(0).name, "small");
+    // only three seams fit in a 4x4 image
+    t.checkExpect(results.get(0).seams, 3);
+    t.checkExpect(results.get(1).seams, 5);
+    t.checkExpect(results.get(1).seamsPerSecond > 0, true);
+    t.checkExpect(results.get(1).p99Millis >= results.get(1).p50Millis, true);
+    t.checkExpect(CarveBenchmark.standard(1L, 5, 0).names.get(2), "synthetic-640x480");
+  }
 
-    //SeamInfo seam5 = new SeamInfo(imPix5, 2.7050363443314227, seam1);
-    SeamInfo seam6 = new SeamInfo(imPix6e, 2.571211068072641, seam3);
-    //SeamInfo seam7 = new SeamInfo(imPix7, 2.7556588136119524, seam3);
-    //SeamInfo seam8 = new SeamInfo(imPix8, 2.9148384759820045, seam3);
+  void testCompareBenchmarks(Tester t) {
+    CarveBenchmark benchmark = new CarveBenchmark(1L, 5, 0);
+    ArrayList<BenchmarkResult> baseline = new ArrayList<>();
+    baseline.add(new BenchmarkResult("a", 5, 100.0, 1.0, 2.0, 0L, 0L));
+    baseline.add(new BenchmarkResult("b", 5, 50.0, 1.0, 2.0, 0L, 0L));
+    ArrayList<BenchmarkResult> results = new ArrayList<>();
+    results.add(new BenchmarkResult("a", 5, 99.0, 1.0, 2.0, 0L, 0L));
+    results.add(new BenchmarkResult("b", 5, 25.0, 1.0, 2.0, 0L, 0L));
+    results.add(new BenchmarkResult("c", 5, 1.0, 1.0, 2.0, 0L, 0L));
+    t.checkExpect(CarveBenchmark.fromJson(benchmark.toJson(baseline)), baseline);
+    t.checkExpect(benchmark.toJson(baseline).startsWith("{\n  \"seed\": 1,\n"), true);
+    ArrayList<String> slowdowns = CarveBenchmark.compare(results, baseline, 0.1);
+    t.checkExpect(slowdowns.size(), 1);
+    t.checkExpect(slowdowns.get(0), "b: 25.0 seams/s, down from 50.0");
+  }
 
+  void testMemoryReport(Tester t) {
+    MemoryReport report = new MemoryReport(10);
+    report.add("a", 40);
+    report.add("b", 25);
+    t.checkExpect(report.total(), 65L);
+    t.checkInexact(report.bytesPerPixel(), 6.5, 0.0001);
+    t.checkExpect(report.withinBudget(6.5), true);
+    t.checkExpect(report.withinBudget(6.0), false);
+    t.checkExpect(report.line("a", 40), String.format(Locale.ROOT, "%-30s %14d B %9.2f B/px%n",
+            "a", 40L, 4.0));
+    t.checkExpect(report.toString(), report.line("a", 40) + report.line("b", 25)
+            + report.line("total", 65));
+  }
 
-    SeamInfo seam9 = new SeamInfo(imPix9e, 3.407912450975914, seam6);
-    //SeamInfo seam10 = new SeamInfo(imPix10, 3.7694728145667122, seam6);
-    SeamInfo seam11 = new SeamInfo(imPix11e, 3.346452717839014, seam6);
-    //SeamInfo seam12 = new SeamInfo(imPix12, 3.9189855353337926, seam7);
+  void testObjectAndArrayBytes(Tester t) {
+    t.checkExpect(MemoryReport.align(12), 16L);
+    t.checkExpect(MemoryReport.align(16), 16L);
+    // a Pixel: six references, its tile and three doubles
+    t.checkExpect(MemoryReport.objectBytes(6, 1, 3), 64L);
+    t.checkExpect(MemoryReport.objectBytes(2, 0, 1), 32L);
+    t.checkExpect(MemoryReport.arrayBytes(3, 4), 32L);
+    t.checkExpect(MemoryReport.arrayBytes(0, 8), 16L);
+  }
 
+  void testPlaneBytes(Tester t) {
+    t.checkExpect(MemoryReport.planeBytes(null), 0L);
+    t.checkExpect(MemoryReport.planeBytes(new double[4]), 48L);
+    t.checkExpect(MemoryReport.planeBytes(new long[4]), 48L);
+    t.checkExpect(MemoryReport.planeBytes(new int[4]), 32L);
+    t.checkExpect(MemoryReport.planeBytes(new float[4]), 32L);
+    t.checkExpect(MemoryReport.planeBytes(new byte[4]), 24L);
+    t.checkExpect(MemoryReport.planeBytes(IntBuffer.allocate(5)), 20L);
+    t.checkExpect(MemoryReport.planeBytes(DoubleBuffer.allocate(5)), 40L);
+    t.checkExpect(MemoryReport.planeBytes(ByteBuffer.allocateDirect(5)), 5L);
+    t.checkException(new RuntimeException("cannot measure a plane of java.lang.String"),
+            new MemoryReport(1), "planeBytes", "plane");
+  }
 
-    SeamInfo seam13 = new SeamInfo(imPix13e, 4.816313187737722, seam9);
-    SeamInfo seam14 = new SeamInfo(imPix14e, 4.667684484478833 , seam11);
-    SeamInfo seam15 = new SeamInfo(imPix15e, 4.653613501836393, seam11);
-    SeamInfo seam16 = new SeamInfo(imPix16e, 4.803715218083035 , seam11);
-    ans.add(seam13);
-    ans.add(seam14);
-    ans.add(seam15);
-    ans.add(seam16);
+  void testEnergyPlaneBytes(Tester t) {
+    t.checkExpect(new FixedEnergyPlane().bytes(), 0L);
+    FixedEnergyPlane fixed = new FixedEnergyPlane();
+    fixed.allocate(4, 3);
+    t.checkExpect(fixed.bytes(), MemoryReport.arrayBytes(12, 4) + MemoryReport.arrayBytes(12, 1)
+            + 2 * MemoryReport.arrayBytes(4, 8));
+    DoubleEnergyPlane doubles = new DoubleEnergyPlane();
+    doubles.allocate(4, 3);
+    t.checkExpect(doubles.bytes(), MemoryReport.arrayBytes(12, 8) + MemoryReport.arrayBytes(12, 1)
+            + 2 * MemoryReport.arrayBytes(4, 8));
+    FloatEnergyPlane floats = new FloatEnergyPlane();
+    floats.allocate(4, 3);
+    t.checkExpect(floats.bytes(), MemoryReport.arrayBytes(12, 4) + MemoryReport.arrayBytes(12, 1)
+            + 2 * MemoryReport.arrayBytes(4, 4));
+    PlaneMemory memory = new PlaneMemory(true);
+    OffHeapEnergyPlane offHeap = new OffHeapEnergyPlane(memory);
+    offHeap.allocate(4, 3);
+    t.checkExpect(offHeap.bytes(), memory.allocated);
+  }
 
-    t.checkExpect(img.findMinimumSeam(ans, 3), seam15);
-    t.checkExpect(img.findMinimumSeam(ans, 0), seam14);
-    t.checkExpect(img.findMinimumSeam(ans, 2), seam15);
+  void testSeamCarverMemoryReport(Tester t) {
+    SeamCarver img = new SeamCarver(ImageRaster.synthetic(8, 6, 1L));
+    MemoryReport report = img.memoryReport();
+    t.checkExpect(report.pixels, 48L);
+    t.checkExpect(report.structures.get(0), "pixels");
+    t.checkExpect(report.bytes.get(0), 48 * 64L);
+    t.checkExpect(report.bytes.get(2), 32 * 40L);
+    t.checkExpect(report.structures.get(5), "removed seams");
+    long emptyList = MemoryReport.objectBytes(1, 2, 0) + MemoryReport.arrayBytes(0, 4);
+    t.checkExpect(report.bytes.get(5), emptyList);
+    // each pass keeps its last line in a list, and at most a SeamInfo per pixel along the seams
+    // ending in that line
+    long lists = 2 * MemoryReport.objectBytes(1, 2, 0) + MemoryReport.arrayBytes(8, 4)
+            + MemoryReport.arrayBytes(6, 4);
+    t.checkExpect(report.bytes.get(4) >= lists + (8 * 6 + 6 * 8) * 32L / 8, true);
+    t.checkExpect(report.bytes.get(4) <= lists + 2 * 48 * 32L, true);
+    img.paused = false;
+    img.seamRemoveVertical();
+    t.checkExpect(img.memoryReport().bytes.get(5) > emptyList, true);
   }
 
-  void testMakeConnections(Tester t) {
-    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    img.makeConnections();
-    APixel imPix1 = img.topLeft.findImageStart();
-    APixel imPix2 = img.topLeft.findImageStart().right;
-    APixel imPix3 = img.topLeft.findImageStart().right.right;
-    APixel imPix4 = img.topLeft.findImageStart().right.right.right;
-    APixel imPix5 = img.topLeft.findImageStart().down;
-    APixel imPix6 = img.topLeft.findImageStart().down.right;
-    APixel imPix7 = img.topLeft.findImageStart().down.right.right;
-    APixel imPix8 = img.topLeft.findImageStart().down.right.right.right;
-    APixel imPix9 = img.topLeft.findImageStart().down.down;
-    APixel imPix10 = img.topLeft.findImageStart().down.down.right;
-    APixel imPix11 = img.topLeft.findImageStart().down.down.right.right;
-    APixel imPix12 = img.topLeft.findImageStart().down.down.right.right.right;
-    APixel imPix13 = img.topLeft.findImageStart().down.down.down;
-    APixel imPix14 = img.topLeft.findImageStart().down.down.down.right;
-    APixel imPix15 = img.topLeft.findImageStart().down.down.down.right.right;
-    APixel imPix16 = img.topLeft.findImageStart().down.down.down.right.right.right;
-    Border b = new Border();
-    t.checkExpect(imPix1.right, imPix2);
-    t.checkExpect(imPix10.left, imPix9);
-    t.checkExpect(imPix16.up, imPix12);
-    t.checkExpect(imPix7.down, imPix11);
+  void testSeamInfoBytes(Tester t) {
+    SeamCarver img = new SeamCarver(ImageRaster.synthetic(3, 3, 1L));
+    SeamInfo first = new SeamInfo(new Border(), 1.0);
+    SeamInfo second = new SeamInfo(new Border(), 2.0, first);
+    ArrayList<SeamInfo> seams = new ArrayList<>(Arrays.asList(second, first));
+    IdentityHashMap<SeamInfo, Boolean> seen = new IdentityHashMap<>();
+    long list = MemoryReport.objectBytes(1, 2, 0) + MemoryReport.arrayBytes(2, 4);
+    t.checkExpect(img.seamInfoBytes(seams, seen), list + 64L);
+    t.checkExpect(img.seamInfoBytes(seams, seen), list);
+  }
+
+  void testCompactPlaneCarver(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(64, 48, 3L);
+    PlaneCarver compact = PlaneCarver.compact(image);
+    t.checkExpect(compact.transposeHorizontal, false);
+    compact.carveSeam(true);
+    compact.carveSeam(false);
+    t.checkExpect(compact.transposed, null);
+    MemoryReport report = compact.memoryReport();
+    t.checkExpect(report.withinBudget(PlaneCarver.COMPACT_BUDGET), true);
+    t.checkExpect(report.structures, new ArrayList<>(Arrays.asList("argb plane", "channel sums",
+            "energies and costs", "removed seams")));
+    PlaneCarver doubles = new PlaneCarver(image, new DoubleEnergyPlane());
+    doubles.carveSeam(false);
+    t.checkExpect(doubles.memoryReport().structures.get(3), "transposed energies");
+    t.checkExpect(doubles.memoryReport().withinBudget(PlaneCarver.COMPACT_BUDGET), false);
+    PlaneCarver offHeap = PlaneCarver.offHeap(image);
+    t.checkExpect(offHeap.memoryReport().structures.get(0), "argb plane (off heap)");
+    t.checkExpect(offHeap.memoryReport().total(), offHeap.memory.allocated
+            + MemoryReport.objectBytes(1, 2, 0) + MemoryReport.arrayBytes(0, 4));
+    offHeap.close();
+  }
+
+  void testRowSources(Tester t) {
+    ImageRaster image = new ImageRaster(3, 2, new int[] {1, 2, 3, 4, 5, 6});
+    int[] row = new int[4];
+    t.checkExpect(image.rowLength(), 3);
+    t.checkExpect(image.rowCount(), 2);
+    image.readRow(1, row);
+    t.checkExpect(row, new int[] {4, 5, 6, 0});
+    PlaneCarver carver = new PlaneCarver(ImageRaster.synthetic(6, 5, 1L), new FloatEnergyPlane());
+    carver.carveSeam(true);
+    ImageRaster carved = carver.toRaster();
+    int[] carverRow = new int[5];
+    int[] carvedRow = new int[5];
+    t.checkExpect(carver.rowLength(), 5);
+    t.checkExpect(carver.rowCount(), 5);
+    carver.readRow(3, carverRow);
+    carved.readRow(3, carvedRow);
+    t.checkExpect(carverRow, carvedRow);
+  }
+
+  void testGridRows(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(5, 4, 2L);
+    SeamCarver img = new SeamCarver(image);
+    GridRows rows = new GridRows(img.topLeft);
+    t.checkExpect(rows.rowLength(), 5);
+    t.checkExpect(rows.rowCount(), 4);
+    int[] row = new int[5];
+    int[] expected = new int[5];
+    rows.readRow(0, row);
+    image.readRow(0, expected);
+    t.checkExpect(row, expected);
+    rows.readRow(1, row);
+    image.readRow(1, expected);
+    t.checkExpect(row, expected);
+    img.paused = false;
+    img.paintVerticalSeamRed();
+    img.seamRemoveVertical();
+    PlaneCarver carver = new PlaneCarver(image, new DoubleEnergyPlane());
+    carver.carveSeam(true);
+    rows = new GridRows(img.topLeft);
+    t.checkExpect(rows.rowLength(), 4);
+    int[] carverRow = new int[4];
+    row = new int[4];
+    // LOOP: goes through the rows, checking the grid kept the same pixels as the plane carver
+    for (int y = 0; y < 4; y += 1) {
+      rows.readRow(y, row);
+      carver.readRow(y, carverRow);
+      t.checkExpect(row, carverRow);
+    }
   }
 
-  void testPaintVerticalSeamRed(Tester t) {
-    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    img.inColor.setPixel(2, 0, Color.RED);
-    img.inColor.setPixel(1, 1, Color.RED);
-    img.inColor.setPixel(2, 2, Color.RED);
-    img.inColor.setPixel(2, 3, Color.RED);
+  void testFormatOf(Tester t) {
+    t.checkExpect(ImageExporter.formatOf("out/carved.PNG"), "png");
+    t.checkExpect(ImageExporter.formatOf("a.b.pam"), "pam");
+    t.checkException(new RuntimeException("no image format for carved"),
+            new ImageExporter(), "formatOf", "carved");
+    t.checkException(new RuntimeException("no image format for carved."),
+            new ImageExporter(), "formatOf", "carved.");
+  }
 
-    SeamCarver img2 = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    img2.paused = false;
-    img2.seamCarveVertical();
-    img2.paintVerticalSeamRed();
+  void testWriteNetpbm(Tester t) throws IOException {
+    ImageRaster image = new ImageRaster(2, 1, new int[] {0x80102030, 0xFFFFFFFF});
+    ByteArrayOutputStream ppm = new ByteArrayOutputStream();
+    ImageExporter.write(image, "ppm", ppm);
+    byte[] header = "P6\n2 1\n255\n".getBytes(StandardCharsets.US_ASCII);
+    byte[] expected = Arrays.copyOf(header, header.length + 6);
+    expected[header.length] = 0x10;
+    expected[header.length + 1] = 0x20;
+    expected[header.length + 2] = 0x30;
+    expected[header.length + 3] = (byte) 0xFF;
+    expected[header.length + 4] = (byte) 0xFF;
+    expected[header.length + 5] = (byte) 0xFF;
+    t.checkExpect(ppm.toByteArray(), expected);
+    ByteArrayOutputStream pam = new ByteArrayOutputStream();
+    ImageExporter.write(image, "pam", pam);
+    String pamHeader = "P7\nWIDTH 2\nHEIGHT 1\nDEPTH 4\nMAXVAL 255\nTUPLTYPE RGB_ALPHA\nENDHDR\n";
+    byte[] written = pam.toByteArray();
+    t.checkExpect(written.length, pamHeader.length() + 8);
+    t.checkExpect(new String(written, 0, pamHeader.length(), StandardCharsets.US_ASCII),
+            pamHeader);
+    t.checkExpect(written[pamHeader.length() + 3], (byte) 0x80);
+    t.checkExpect(written[pamHeader.length() + 7], (byte) 0xFF);
+  }
 
-    APixel imPix1 = img2.topLeft.findImageStart();
-    APixel imPix2 = img2.topLeft.findImageStart().right;
-    APixel imPix3 = img2.topLeft.findImageStart().right.right;
-    APixel imPix4 = img2.topLeft.findImageStart().right.right.right;
-    APixel imPix5 = img2.topLeft.findImageStart().down;
-    APixel imPix6 = img2.topLeft.findImageStart().down.right;
-    APixel imPix7 = img2.topLeft.findImageStart().down.right.right;
-    APixel imPix8 = img2.topLeft.findImageStart().down.right.right.right;
-    APixel imPix9 = img2.topLeft.findImageStart().down.down;
-    APixel imPix10 = img2.topLeft.findImageStart().down.down.right;
-    APixel imPix11 = img2.topLeft.findImageStart().down.down.right.right;
-    APixel imPix12 = img2.topLeft.findImageStart().down.down.right.right.right;
-    APixel imPix13 = img2.topLeft.findImageStart().down.down.down;
-    APixel imPix14 = img2.topLeft.findImageStart().down.down.down.right;
-    APixel imPix15 = img2.topLeft.findImageStart().down.down.down.right.right;
-    APixel imPix16 = img2.topLeft.findImageStart().down.down.down.right.right.right;
+  void testWriteImageIO(Tester t) throws IOException {
+    ImageRaster image = ImageRaster.synthetic(7, 5, 3L);
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageExporter.write(image, "png", png);
+    BufferedImage read = ImageIO.read(new ByteArrayInputStream(png.toByteArray()));
+    t.checkExpect(read.getRGB(0, 0, 7, 5, null, 0, 7), image.argb);
+    ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    ImageExporter.write(image, "jpg", jpeg);
+    t.checkExpect(ImageIO.read(new ByteArrayInputStream(jpeg.toByteArray())).getWidth(), 7);
+    t.checkException(new RuntimeException("no image writer for tiff2"),
+            new ImageExporter(), "writeImageIO", image, "tiff2", new ByteArrayOutputStream());
+  }
 
-    t.checkExpect(imPix6.colDisplayed, Color.RED);
-    t.checkExpect(imPix11.colDisplayed, Color.RED);
-    t.checkExpect(imPix15.colDisplayed, Color.RED);
+  void testSave(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(9, 6, 4L);
+    SeamCarver img = new SeamCarver(image);
+    img.paused = false;
+    img.seamRemoveHorizontal();
+    PlaneCarver carver = new PlaneCarver(image, new DoubleEnergyPlane());
+    carver.carveSeam(false);
+    String gridFile = new File(System.getProperty("java.io.tmpdir"), "grid.png").getPath();
+    String planeFile = new File(System.getProperty("java.io.tmpdir"), "plane.png").getPath();
+    img.save(gridFile);
+    carver.save(planeFile);
+    ImageRaster fromGrid = ImageRaster.read(gridFile);
+    t.checkExpect(fromGrid.height, 5);
+    t.checkExpect(fromGrid.argb, carver.toRaster().argb);
+    t.checkExpect(ImageRaster.read(planeFile).argb, fromGrid.argb);
+    new File(gridFile).delete();
+    new File(planeFile).delete();
   }
 
-  void testPaintHorizontalSeamRed(Tester t) {
+  void testCarveRun(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(10, 8, 6L);
+    PlaneCarver carver = new PlaneCarver(image, new FloatEnergyPlane());
+    CarveRun run = new CarveRun(carver, 7, 6, 2, 0);
+    ArrayList<CarveSnapshot> snapshots = new ArrayList<>();
+    run.addListener(new SnapshotCollector(snapshots));
+    t.checkExpect(run.run().seams, 5);
+    t.checkExpect(carver.width, 7);
+    t.checkExpect(carver.height, 6);
+    // one snapshot for every two seams, and one more at the end
+    t.checkExpect(snapshots.size(), 3);
+    t.checkExpect(snapshots.get(0).seams, 2);
+    t.checkExpect(snapshots.get(0).last, false);
+    t.checkExpect(snapshots.get(1).image.width * snapshots.get(1).image.height, 7 * 7);
+    t.checkExpect(snapshots.get(2).last, true);
+    t.checkExpect(snapshots.get(2).image.argb, carver.toRaster().argb);
+    t.checkExpect(snapshots.get(2).elapsedNanos >= snapshots.get(1).elapsedNanos, true);
+  }
 
-    SeamCarver img2 = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    img2.paused = false;
-    img2.seamCarveHorizontal();
-    img2.paintHorizontalSeamRed();
+  void testCarveRunStep(Tester t) {
+    PlaneCarver carver = new PlaneCarver(ImageRaster.synthetic(6, 6, 1L), new FloatEnergyPlane());
+    CarveRun run = new CarveRun(carver, 5, 4, 0, 0);
+    t.checkExpect(run.step(), true);
+    // the height had more seams to go
+    t.checkExpect(carver.height, 5);
+    t.checkExpect(run.step(), true);
+    t.checkExpect(carver.width, 5);
+    t.checkExpect(run.step(), true);
+    t.checkExpect(run.step(), false);
+    t.checkExpect(run.carved, 3);
+    t.checkExpect(carver.height, 4);
+  }
 
-    APixel imPix1 = img2.topLeft.findImageStart();
-    APixel imPix2 = img2.topLeft.findImageStart().right;
-    APixel imPix3 = img2.topLeft.findImageStart().right.right;
-    APixel imPix4 = img2.topLeft.findImageStart().right.right.right;
-    APixel imPix5 = img2.topLeft.findImageStart().down;
-    APixel imPix6 = img2.topLeft.findImageStart().down.right;
-    APixel imPix7 = img2.topLeft.findImageStart().down.right.right;
-    APixel imPix8 = img2.topLeft.findImageStart().down.right.right.right;
-    APixel imPix9 = img2.topLeft.findImageStart().down.down;
-    APixel imPix10 = img2.topLeft.findImageStart().down.down.right;
-    APixel imPix11 = img2.topLeft.findImageStart().down.down.right.right;
-    APixel imPix12 = img2.topLeft.findImageStart().down.down.right.right.right;
-    APixel imPix13 = img2.topLeft.findImageStart().down.down.down;
-    APixel imPix14 = img2.topLeft.findImageStart().down.down.down.right;
-    APixel imPix15 = img2.topLeft.findImageStart().down.down.down.right.right;
-    APixel imPix16 = img2.topLeft.findImageStart().down.down.down.right.right.right;
+  void testCarveRunDue(Tester t) {
+    PlaneCarver carver = new PlaneCarver(ImageRaster.synthetic(6, 6, 1L), new FloatEnergyPlane());
+    CarveRun never = new CarveRun(carver, 6, 6, 0, 0);
+    never.carved = 100;
+    t.checkExpect(never.due(Long.MAX_VALUE), false);
+    CarveRun timed = new CarveRun(carver, 6, 6, 0, 5);
+    timed.snapshotNanos = 1000L;
+    t.checkExpect(timed.due(1000L + 4999999L), false);
+    t.checkExpect(timed.due(1000L + 5000000L), true);
+    CarveRun counted = new CarveRun(carver, 6, 6, 3, 0);
+    counted.carved = 5;
+    counted.snapshotSeams = 3;
+    t.checkExpect(counted.due(0L), false);
+    counted.carved = 6;
+    t.checkExpect(counted.due(0L), true);
+    counted.publish(7L, false);
+    t.checkExpect(counted.snapshotSeams, 6);
+    t.checkExpect(counted.snapshotNanos, 7L);
+    t.checkExpect(counted.due(0L), false);
+  }
 
-    t.checkExpect(imPix11.colDisplayed, Color.RED);
-    t.checkExpect(imPix12.colDisplayed, Color.RED);
-    t.checkExpect(imPix10.colDisplayed, Color.RED);
+  void testSeamEvent(Tester t) {
+    CarvedSeam seam = new CarvedSeam(true, new int[] {3, 2, 2, 3}, 1.5);
+    seam.argb = new int[] {1, 2, 3, 4};
+    SeamEvent event = SeamEvent.of(7L, seam);
+    t.checkExpect(event.sequence, 7L);
+    t.checkExpect(event.vertical, true);
+    t.checkExpect(event.start, 3);
+    t.checkExpect(event.steps, new byte[] {-1, 0, 1});
+    t.checkExpect(event.cost, 1.5);
+    t.checkExpect(event.positions(), new int[] {3, 2, 2, 3});
+    seam.argb[0] = 9;
+    t.checkExpect(event.argb, new int[] {1, 2, 3, 4});
+    t.checkExpect(SeamEvent.of(0L, new CarvedSeam(false, new int[] {4}, 0.0)).positions(),
+            new int[] {4});
   }
 
-  void testSeamRemoveVertical(Tester t) {
-    SeamCarver img2 = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+  void testSeamPublisher(Tester t) throws InterruptedException {
+    PlaneCarver carver = new PlaneCarver(ImageRaster.synthetic(12, 10, 2L),
+            new FloatEnergyPlane());
+    SeamPublisher publisher = new SeamPublisher(2, false);
+    carver.carveSeam(true);
+    t.checkExpect(publisher.published, 0L);
+    SeamSubscriber subscriber = new SeamSubscriber(1);
+    publisher.subscribe(subscriber);
+    carver.publishSeams(publisher);
+    carver.carveSeam(true);
+    carver.carveSeam(false);
+    carver.carveSeams(true, 2);
+    ArrayList<CarvedSeam> removed = new ArrayList<>(carver.removed);
+    carver.close();
+    t.checkExpect(subscriber.done.await(10, TimeUnit.SECONDS), true);
+    // every seam but the first, which was carved before anything was listening
+    int published = removed.size() - 1;
+    t.checkExpect(publisher.published, (long) published);
+    t.checkExpect(subscriber.events.size(), published);
+    t.checkExpect(subscriber.events.get(0).sequence, 0L);
+    t.checkExpect(subscriber.events.get(0).positions(), removed.get(published - 1).positions);
+    t.checkExpect(subscriber.events.get(1).vertical, false);
+    t.checkExpect(subscriber.events.get(1).argb, removed.get(published - 2).argb);
+    t.checkExpect(subscriber.events.get(published - 1).positions(), removed.get(0).positions);
+  }
 
-    APixel imPix1 = img2.topLeft.findImageStart();
-    APixel imPix2 = img2.topLeft.findImageStart().right;
-    APixel imPix3 = img2.topLeft.findImageStart().right.right;
-    APixel imPix4 = img2.topLeft.findImageStart().right.right.right;
-    APixel imPix5 = img2.topLeft.findImageStart().down;
-    APixel imPix6 = img2.topLeft.findImageStart().down.right;
-    APixel imPix7 = img2.topLeft.findImageStart().down.right.right;
-    APixel imPix8 = img2.topLeft.findImageStart().down.right.right.right;
-    APixel imPix9 = img2.topLeft.findImageStart().down.down;
-    APixel imPix10 = img2.topLeft.findImageStart().down.down.right;
-    APixel imPix11 = img2.topLeft.findImageStart().down.down.right.right;
-    APixel imPix12 = img2.topLeft.findImageStart().down.down.right.right.right;
-    APixel imPix13 = img2.topLeft.findImageStart().down.down.down;
-    APixel imPix14 = img2.topLeft.findImageStart().down.down.down.right;
-    APixel imPix15 = img2.topLeft.findImageStart().down.down.down.right.right;
-    APixel imPix16 = img2.topLeft.findImageStart().down.down.down.right.right.right;
+  void testSeamPublisherDrops(Tester t) throws InterruptedException {
+    PlaneCarver carver = new PlaneCarver(ImageRaster.synthetic(12, 10, 2L),
+            new FloatEnergyPlane());
+    SeamPublisher publisher = new SeamPublisher(1, true);
+    // a subscriber that never asks for a seam
+    SeamSubscriber subscriber = new SeamSubscriber(0);
+    publisher.subscribe(subscriber);
+    carver.publishSeams(publisher);
+    // LOOP: carves five seams, only one of which fits in the subscriber's buffer
+    for (int i = 0; i < 5; i += 1) {
+      carver.carveSeam(true);
+    }
+    t.checkExpect(publisher.published, 5L);
+    t.checkExpect(publisher.dropped, 4L);
+    t.checkExpect(subscriber.events.size(), 0);
+    carver.close();
+  }
 
-    img2.paused = false;
-    img2.seamRemoveVertical();
+  void testCancellationToken(Tester t) {
+    CancellationToken token = new CancellationToken();
+    t.checkExpect(token.isCancelled(), false);
+    token.cancel();
+    t.checkExpect(token.isCancelled(), true);
+  }
 
-    t.checkExpect(imPix5.right, imPix7);
-    t.checkExpect(imPix7.left, imPix5);
-    t.checkExpect(imPix7.down, imPix10);
-    t.checkExpect(imPix10.up, imPix7);
-    t.checkExpect(imPix16.left, imPix14);
-    t.checkExpect(imPix14.right, imPix16);
-    t.checkExpect(imPix7.up, imPix2);
-    t.checkExpect(imPix2.down, imPix7);
+  void testCarveLimit(Tester t) {
+    CarveLimit deadline = new CarveLimit(true, 1000L, null);
+    t.checkExpect(deadline.reached(999L), null);
+    t.checkExpect(deadline.reached(1000L), "deadline");
+    CancellationToken token = new CancellationToken();
+    CarveLimit cancellable = CarveLimit.until(token);
+    t.checkExpect(cancellable.reached(Long.MAX_VALUE), null);
+    cancellable.check();
+    token.cancel();
+    t.checkExpect(cancellable.reached(0L), "cancelled");
+    t.checkException(new CarveStoppedException("cancelled"), cancellable, "check");
+    t.checkExpect(CarveLimit.within(60000L, null).reached(System.nanoTime()), null);
+    t.checkExpect(CarveLimit.within(0L, null).reached(System.nanoTime()), "deadline");
+    t.checkExpect(new CarveStoppedException("deadline").getMessage(), "carving stopped: deadline");
   }
 
-  void testSeamCarveHorizontal(Tester t) {
-    SeamCarver img = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    SeamCarver newImg = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    APixel imPix1 = img.topLeft.findImageStart();
-    APixel imPix2 = img.topLeft.findImageStart().right;
-    APixel imPix3 = img.topLeft.findImageStart().right.right;
-    APixel imPix4 = img.topLeft.findImageStart().right.right.right;
-    APixel imPix5 = img.topLeft.findImageStart().down;
-    APixel imPix6 = img.topLeft.findImageStart().down.right;
-    APixel imPix7 = img.topLeft.findImageStart().down.right.right;
-    APixel imPix8 = img.topLeft.findImageStart().down.right.right.right;
-    APixel imPix9 = img.topLeft.findImageStart().down.down;
-    APixel imPix10 = img.topLeft.findImageStart().down.down.right;
-    APixel imPix11 = img.topLeft.findImageStart().down.down.right.right;
-    APixel imPix12 = img.topLeft.findImageStart().down.down.right.right.right;
-    APixel imPix13 = img.topLeft.findImageStart().down.down.down;
-    APixel imPix14 = img.topLeft.findImageStart().down.down.down.right;
-    APixel imPix15 = img.topLeft.findImageStart().down.down.down.right.right;
-    APixel imPix16 = img.topLeft.findImageStart().down.down.down.right.right.right;
+  void testLimitedPasses(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(2 * CarveLimit.CHECK_LINES, 2 * CarveLimit.CHECK_LINES, 3L);
+    PlaneCarver carver = new PlaneCarver(image, new FloatEnergyPlane());
+    CancellationToken token = new CancellationToken();
+    carver.limitBy(CarveLimit.until(token));
+    carver.carveSeam(true);
+    carver.carveSeam(false);
+    t.checkExpect(((FloatEnergyPlane) carver.transposed).limit, carver.limit);
+    token.cancel();
+    t.checkException(new CarveStoppedException("cancelled"), carver, "carveSeam", true);
+    t.checkException(new CarveStoppedException("cancelled"), carver, "carveSeam", false);
+    t.checkException(new CarveStoppedException("cancelled"),
+            new BandedSeamSearch(1, 1), "find", carver, true);
+    // a stopped pass leaves the image as it was
+    t.checkExpect(carver.width, 2 * CarveLimit.CHECK_LINES - 1);
+    t.checkExpect(carver.height, 2 * CarveLimit.CHECK_LINES - 1);
+    t.checkExpect(carver.removed.size(), 2);
+    carver.limitBy(null);
+    t.checkExpect(carver.carveSeam(true).positions.length, 2 * CarveLimit.CHECK_LINES - 1);
+  }
 
-    newImg.paused = false;
-    newImg.seamCarveHorizontal();
+  void testCarveRunLimit(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(10, 8, 6L);
+    CarveRun finished = new CarveRun(new PlaneCarver(image, new FloatEnergyPlane()), 8, 8, 0, 0);
+    finished.limitBy(CarveLimit.within(60000L, null));
+    CarveResult result = finished.run();
+    t.checkExpect(result.finished(), true);
+    t.checkExpect(result.seams, 2);
+    t.checkExpect(result.image.width, 8);
+    CancellationToken token = new CancellationToken();
+    token.cancel();
+    PlaneCarver carver = new PlaneCarver(image, new FloatEnergyPlane());
+    CarveRun cancelled = new CarveRun(carver, 5, 5, 0, 0);
+    ArrayList<CarveSnapshot> snapshots = new ArrayList<>();
+    cancelled.addListener(new SnapshotCollector(snapshots));
+    cancelled.limitBy(CarveLimit.until(token));
+    t.checkExpect(carver.limit, cancelled.limit);
+    result = cancelled.run();
+    t.checkExpect(result.finished(), false);
+    t.checkExpect(result.stopReason, "cancelled");
+    t.checkExpect(result.seams, 0);
+    t.checkExpect(result.image.argb, image.argb);
+    t.checkExpect(snapshots.size(), 1);
+    t.checkExpect(snapshots.get(0).last, true);
+    CarveRun late = new CarveRun(new PlaneCarver(image, new FloatEnergyPlane()), 5, 5, 0, 0);
+    late.limitBy(new CarveLimit(true, System.nanoTime(), null));
+    t.checkExpect(late.run().stopReason, "deadline");
+    t.checkExpect(late.stopReason(), "deadline");
+  }
 
+  void testCarveCheckpoint(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(12, 9, 4L);
+    ArrayList<PlaneCarver> carvers = new ArrayList<>();
+    carvers.add(new PlaneCarver(image, new DoubleEnergyPlane()));
+    carvers.add(PlaneCarver.compact(image));
+    carvers.add(new PlaneCarver(image, new FloatEnergyPlane()));
+    carvers.add(PlaneCarver.offHeap(image));
+    // LOOP: goes through the kinds of carver, checkpointing each partway through a carve
+    for (PlaneCarver carver : carvers) {
+      carver.carveSeam(true);
+      carver.carveSeam(false);
+      carver.carveSeams(true, 2);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try {
+        new CarveCheckpoint(Channels.newChannel(bytes), null).write(carver);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      PlaneCarver restored;
+      try {
+        restored = new CarveCheckpoint(null,
+                Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()))).read();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      t.checkExpect(restored.energies.getClass(), carver.energies.getClass());
+      t.checkExpect(restored.memory.offHeap, carver.memory.offHeap);
+      t.checkExpect(restored.transposeHorizontal, carver.transposeHorizontal);
+      t.checkExpect(restored.width, carver.width);
+      t.checkExpect(restored.height, carver.height);
+      t.checkExpect(restored.toRaster().argb, carver.toRaster().argb);
+      t.checkExpect(restored.energies.energyAt(3, 4), carver.energies.energyAt(3, 4));
+      t.checkExpect(restored.lum.get(restored.lumIndex(2, 5)),
+              carver.lum.get(carver.lumIndex(2, 5)));
+      t.checkExpect(restored.removed.size(), carver.removed.size());
+      t.checkExpect(restored.removed.get(1).positions, carver.removed.get(1).positions);
+      t.checkExpect(restored.removed.get(1).argb, carver.removed.get(1).argb);
+      t.checkExpect(restored.removed.get(1).cost, carver.removed.get(1).cost);
+      t.checkExpect(restored.carveSeam(false).positions, carver.carveSeam(false).positions);
+      // LOOP: puts back every seam carved out of both carvers
+      while (carver.undo()) {
+        restored.undo();
+      }
+      t.checkExpect(restored.toRaster().argb, image.argb);
+      t.checkExpect(restored.undo(), false);
+      carver.close();
+      restored.close();
+    }
+    PlaneCarver small = new PlaneCarver(ImageRaster.synthetic(5, 4, 1L), new FixedEnergyPlane());
+    small.carveSeam(true);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      new CarveCheckpoint(Channels.newChannel(bytes), null).write(small);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    // the seam is the last thing written: its header, 3 steps and the colors of its 4 pixels
+    int seamAt = bytes.size() - CarveCheckpoint.SEAM_HEADER_BYTES - 3 - 4 * 4;
+    byte[] outside = bytes.toByteArray();
+    ByteBuffer.wrap(outside).putInt(seamAt + 13, 5);
+    t.checkException(new RuntimeException("the checkpoint is damaged"),
+            new CarveCheckpoint(null, Channels.newChannel(new ByteArrayInputStream(outside))),
+            "read");
+    byte[] jump = bytes.toByteArray();
+    jump[seamAt + CarveCheckpoint.SEAM_HEADER_BYTES] = 2;
+    t.checkException(new RuntimeException("the checkpoint is damaged"),
+            new CarveCheckpoint(null, Channels.newChannel(new ByteArrayInputStream(jump))),
+            "read");
+    t.checkException(new RuntimeException("the checkpoint is damaged"),
+            new CarveCheckpoint(null, null), "checkSeam", 4, new byte[]{0, 1}, 5);
+    // a seam along the edges of the plane is fine
+    CarveCheckpoint.checkSeam(4, new byte[]{0, -1, 1}, 5);
+    CarveCheckpoint.checkSeam(0, new byte[]{1, -1}, 5);
+  }
 
-    t.checkExpect(img.lastCol.get(0).correspondingInfo, imPix4);
-    t.checkExpect(img.lastCol.get(0).totalWeight, 4.90066967849218);
-    t.checkExpect(img.lastCol.get(1).correspondingInfo, imPix8);
-    t.checkExpect(img.lastCol.get(1).totalWeight, 4.342288508174615);
-    t.checkExpect(img.lastCol.get(2).correspondingInfo, imPix12);
-    t.checkExpect(img.lastCol.get(2).totalWeight, 3.8663713986341834);
-    t.checkExpect(img.lastCol.get(3).correspondingInfo, imPix16);
-    t.checkExpect(img.lastCol.get(3).totalWeight, 4.160307177156365);
+  void testCarveCheckpointFile(Tester t) {
+    String file = new File(System.getProperty("java.io.tmpdir"), "carve.ckpt").getPath();
+    PlaneCarver carver = new PlaneCarver(ImageRaster.synthetic(300, 200, 2L),
+            new FloatEnergyPlane());
+    carver.carveSeams(true, 20);
+    carver.carveSeam(false);
+    carver.checkpoint(file);
+    PlaneCarver restored = PlaneCarver.fromCheckpoint(file);
+    t.checkExpect(restored.toRaster().argb, carver.toRaster().argb);
+    t.checkExpect(restored.removed.size(), carver.removed.size());
+    t.checkExpect(restored.carveSeam(true).positions, carver.carveSeam(true).positions);
+    new File(file).delete();
+    t.checkException(new RuntimeException("could not read the checkpoint " + file,
+            new java.nio.file.NoSuchFileException(file)), new CarveCheckpoint(null, null),
+            "read", file);
   }
 
-  void testSeamRemoveHorizontal(Tester t) {
-    SeamCarver img2 = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
+  void testCarveCheckpointDamaged(Tester t) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      new CarveCheckpoint(Channels.newChannel(bytes), null)
+              .write(new PlaneCarver(ImageRaster.synthetic(5, 4, 1L), new FixedEnergyPlane()));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    byte[] whole = bytes.toByteArray();
+    t.checkExpect(whole.length, CarveCheckpoint.HEADER_BYTES + 5 * 4 * 4 + 5 * 4 * 4);
+    byte[] cut = Arrays.copyOf(whole, whole.length - 1);
+    t.checkException(new RuntimeException("the checkpoint is cut short"),
+            new CarveCheckpoint(null, Channels.newChannel(new ByteArrayInputStream(cut))),
+            "read");
+    byte[] newer = Arrays.copyOf(whole, whole.length);
+    newer[7] = 2;
+    t.checkException(new RuntimeException("unsupported checkpoint version 2"),
+            new CarveCheckpoint(null, Channels.newChannel(new ByteArrayInputStream(newer))),
+            "read");
+    byte[] other = Arrays.copyOf(whole, whole.length);
+    other[0] = 'P';
+    t.checkException(new RuntimeException("not a carver checkpoint"),
+            new CarveCheckpoint(null, Channels.newChannel(new ByteArrayInputStream(other))),
+            "read");
+    t.checkException(new RuntimeException("unknown kind of energies in the checkpoint: 9"),
+            new CarveCheckpoint(null, null), "energiesOf", (byte) 9, new PlaneMemory(false));
+  }
 
-    APixel imPix1 = img2.topLeft.findImageStart();
-    APixel imPix2 = img2.topLeft.findImageStart().right;
-    APixel imPix3 = img2.topLeft.findImageStart().right.right;
-    APixel imPix4 = img2.topLeft.findImageStart().right.right.right;
-    APixel imPix5 = img2.topLeft.findImageStart().down;
-    APixel imPix6 = img2.topLeft.findImageStart().down.right;
-    APixel imPix7 = img2.topLeft.findImageStart().down.right.right;
-    APixel imPix8 = img2.topLeft.findImageStart().down.right.right.right;
-    APixel imPix9 = img2.topLeft.findImageStart().down.down;
-    APixel imPix10 = img2.topLeft.findImageStart().down.down.right;
-    APixel imPix11 = img2.topLeft.findImageStart().down.down.right.right;
-    APixel imPix12 = img2.topLeft.findImageStart().down.down.right.right.right;
-    APixel imPix13 = img2.topLeft.findImageStart().down.down.down;
-    APixel imPix14 = img2.topLeft.findImageStart().down.down.down.right;
-    APixel imPix15 = img2.topLeft.findImageStart().down.down.down.right.right;
-    APixel imPix16 = img2.topLeft.findImageStart().down.down.down.right.right.right;
+  void testKernelEnergy(Tester t) {
+    int white = 0xFFFFFFFF;
+    int black = 0xFF000000;
+    ImageRaster image = new ImageRaster(3, 3, new int[]{white, white, white, black, black, black,
+        black, black, black});
+    PlaneCarver carver = new PlaneCarver(image, new DoubleEnergyPlane());
+    double[] into = new double[3];
+    carver.useEnergy(KernelEnergy.gradient());
+    KernelEnergy.gradient().computeRow(carver.convolution, 1, 0, 3, into);
+    t.checkExpect(into[1], 1.0);
+    t.checkExpect(into[0], 1.0);
+    t.checkExpect(carver.energies.energyAt(1, 1), 1.0);
+    carver.useEnergy(KernelEnergy.sobel());
+    t.checkExpect(carver.energies.energyAt(1, 1), 4.0);
+    t.checkExpect(carver.energies.energyAt(1, 1),
+            new PlaneCarver(image, new DoubleEnergyPlane()).energies.energyAt(1, 1));
+    carver.useEnergy(KernelEnergy.scharr());
+    t.checkExpect(carver.energies.energyAt(1, 1), 16.0);
+    t.checkExpect(KernelEnergy.scharr().name(), "scharr");
+    carver.useEnergy(null);
+    t.checkExpect(carver.convolution, null);
+    t.checkExpect(carver.energies.energyAt(1, 1), 4.0);
+  }
 
-    img2.paused = false;
-    img2.seamRemoveHorizontal();
+  void testSobelEnergyMatchesPixel(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(40, 30, 8L);
+    PlaneCarver builtIn = new PlaneCarver(image, new DoubleEnergyPlane());
+    PlaneCarver sobel = new PlaneCarver(image, new DoubleEnergyPlane());
+    sobel.useEnergy(KernelEnergy.sobel());
+    t.checkExpect(sobel.energies.plane(), builtIn.energies.plane());
+    // LOOP: carves the same mix of seams out of both carvers
+    for (int seam = 0; seam < 9; seam += 1) {
+      t.checkExpect(sobel.carveSeam(seam % 3 != 0).positions,
+              builtIn.carveSeam(seam % 3 != 0).positions);
+    }
+    sobel.carveSeams(true, 4);
+    builtIn.carveSeams(true, 4);
+    t.checkExpect(sobel.energies.plane(), builtIn.energies.plane());
+    sobel.undo();
+    builtIn.undo();
+    t.checkExpect(sobel.energies.plane(), builtIn.energies.plane());
+  }
 
-    t.checkExpect(imPix6.down, imPix14);
-    t.checkExpect(imPix14.up, imPix6);
-    t.checkExpect(imPix16.up, imPix8);
-    t.checkExpect(imPix8.down, imPix16);
-    t.checkExpect(imPix16.left, imPix15);
-    t.checkExpect(imPix15.right, imPix16);
-    t.checkExpect(imPix7.right, imPix8);
-    t.checkExpect(imPix8.left, imPix7);
+  void testEntropyEnergy(Tester t) {
+    int white = 0xFFFFFFFF;
+    int black = 0xFF000000;
+    ImageRaster image = new ImageRaster(3, 3, new int[]{white, white, white, black, black, black,
+        black, black, black});
+    PlaneCarver carver = new PlaneCarver(image, new FloatEnergyPlane());
+    carver.useEnergy(new EntropyEnergy());
+    double third = 1.0 / 3.0;
+    t.checkInexact(carver.energies.energyAt(1, 1), -(third * Math.log(third)
+            + 2 * third * Math.log(2 * third)) / Math.log(2), 0.0001);
+    t.checkExpect(carver.energies.energyAt(1, 2), 0.0);
+    t.checkInexact(new EntropyEnergy().weights[9], Math.log(9) / Math.log(2), 0.000001);
+    ImageRaster photo = ImageRaster.synthetic(30, 20, 5L);
+    PlaneCarver textured = new PlaneCarver(photo, new FixedEnergyPlane());
+    textured.useEnergy(new EntropyEnergy());
+    textured.carveSeams(true, 3);
+    textured.carveSeam(false);
+    t.checkExpect(textured.energyFunction.name(), "entropy");
+    t.checkExpect(textured.memoryReport().toString().contains("convolution rows"), true);
+    // LOOP: puts back every seam
+    while (textured.undo()) {
+      t.checkExpect(textured.energies.energyAt(0, 0) >= 0.0, true);
+    }
+    t.checkExpect(textured.toRaster().argb, photo.argb);
   }
 
-  void testUndoMove(Tester t) {
-    SeamCarver img2 = new SeamCarver(new FromFileImage("images/4x4_Pixel.png"));
-    SeamCarver img = img2;
+  void testConvolutionRows(Tester t) {
+    int gray = 0xFF333333;
+    ImageRaster image = new ImageRaster(2, 2, new int[]{gray, gray, gray, gray});
+    PlaneCarver carver = new PlaneCarver(image, new DoubleEnergyPlane());
+    ConvolutionRows rows = new ConvolutionRows(carver);
+    double[] brightness = rows.source(ConvolutionRows.BRIGHTNESS, 0, -1, 3);
+    t.checkExpect(brightness[0], 0.0);
+    t.checkExpect(brightness[1], (0x99 / 3.0) / 255.0);
+    t.checkExpect(brightness[3], 0.0);
+    t.checkExpect(rows.source(ConvolutionRows.BRIGHTNESS, 0, 0, 2), brightness);
+    t.checkExpect(rows.source(ConvolutionRows.BRIGHTNESS, -1, -1, 3)[1], 0.0);
+    double[] bins = rows.source(ConvolutionRows.BINS, 0, -1, 3);
+    t.checkExpect(bins[1], (double) (1L << (ConvolutionRows.BIN_BITS * (0x99 * 8 / 766))));
+    t.checkExpect(bins[0], 1.0);
+    double[] summed = rows.across(ConvolutionRows.BRIGHTNESS, 0, 1.0, 2.0, 0, 2);
+    t.checkExpect(summed[1], 3 * brightness[1]);
+    t.checkExpect(summed[2], 3 * brightness[1]);
+    t.checkExpect(rows.find(ConvolutionRows.BRIGHTNESS, true, 1.0, 2.0, 0, 1, 2) != null, true);
+    t.checkExpect(rows.find(ConvolutionRows.BRIGHTNESS, true, 3.0, 10.0, 0, 0, 2), null);
+    t.checkExpect(rows.find(ConvolutionRows.BRIGHTNESS, false, 0.0, 0.0, 0, -1, 4), null);
+    rows.forget();
+    t.checkExpect(rows.find(ConvolutionRows.BRIGHTNESS, true, 1.0, 2.0, 0, 0, 2), null);
+    // LOOP: asks for more rows than there are slots, so the first ones are let go
+    for (int side = 0; side < ConvolutionRows.SLOTS; side += 1) {
+      rows.across(ConvolutionRows.BINS, 0, side, 1.0, 0, 1);
+    }
+    t.checkExpect(rows.find(ConvolutionRows.BINS, true, 0.0, 1.0, 0, 0, 1), null);
+    t.checkExpect(rows.find(ConvolutionRows.BINS, true, 7.0, 1.0, 0, 0, 1) != null, true);
+    t.checkExpect(rows.find(ConvolutionRows.BINS, false, 0.0, 0.0, 0, -1, 2) != null, true);
+  }
+
+  void testEnergyFunctionCheckpoint(Tester t) {
+    PlaneCarver carver = new PlaneCarver(ImageRaster.synthetic(20, 16, 9L),
+            new DoubleEnergyPlane());
+    carver.useEnergy(KernelEnergy.scharr());
+    carver.carveSeam(true);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      new CarveCheckpoint(Channels.newChannel(bytes), null).write(carver);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    PlaneCarver restored;
+    try {
+      restored = new CarveCheckpoint(null,
+              Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()))).read();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    t.checkExpect(restored.energyFunction.name(), "scharr");
+    t.checkExpect(restored.carveSeam(false).positions, carver.carveSeam(false).positions);
+    t.checkExpect(restored.energies.energyAt(6, 7), carver.energies.energyAt(6, 7));
+    t.checkExpect(restored.carveSeam(true).positions, carver.carveSeam(true).positions);
+    t.checkExpect(CarveCheckpoint.codeOf(null), (byte) 0);
+    t.checkExpect(CarveCheckpoint.codeOf(new EntropyEnergy()), (byte) 4);
+    t.checkExpect(CarveCheckpoint.functionOf((byte) 1).name(), "gradient");
+    t.checkException(new RuntimeException("no checkpoint format for the energy function blur"),
+            new CarveCheckpoint(null, null), "codeOf", new KernelEnergy("blur", 1.0, 1.0));
+  }
+
+  void testParallelSeamSearch(Tester t) {
+    t.checkExpect(ParallelSeamSearch.stripsFor(100), 1);
+    t.checkExpect(ParallelSeamSearch.stripsFor(3 * ParallelSeamSearch.STRIP_CELLS + 5), 3);
+    ImageRaster image = ImageRaster.synthetic(2 * ParallelSeamSearch.STRIP_CELLS + 70,
+            2 * ParallelSeamSearch.BLOCK_LINES + 7, 12L);
+    PlaneCarver carver = new PlaneCarver(image, new DoubleEnergyPlane());
+    ParallelSeamSearch search = new ParallelSeamSearch();
+    // LOOP: carves a few seams each way, checking the split pass finds the cheapest
+    for (int seam = 0; seam < 4; seam += 1) {
+      boolean vertical = seam != 2;
+      CarvedSeam exact = carver.findSeam(vertical);
+      CarvedSeam split = search.find(carver, vertical);
+      t.checkExpect(split.positions, exact.positions);
+      t.checkExpect(split.cost, exact.cost);
+      carver.removeSeam(split);
+    }
+    t.checkExpect(search.cameFrom.length, image.width * image.height);
+    CancellationToken token = new CancellationToken();
+    token.cancel();
+    carver.limitBy(CarveLimit.until(token));
+    t.checkException(new CarveStoppedException("cancelled"), search, "find", carver, true);
+  }
+
+  void testCarveBatch(Tester t) {
+    CarveBatch batch = new CarveBatch(new ForkJoinPool(2), 4000, new FloatEnergyPlaneFactory());
+    BatchJob small = batch.add("small", ImageRaster.synthetic(12, 10, 1L), 9, 10);
+    BatchJob wide = batch.add("wide", ImageRaster.synthetic(100, 50, 2L), 97, 48);
+    BatchJob same = batch.add("same", ImageRaster.synthetic(8, 8, 3L), 8, 8);
+    t.checkExpect(small.split, false);
+    t.checkExpect(wide.split, true);
+    t.checkExpect(small.cost(), 120L * 4);
+    t.checkExpect(wide.cost(), 5000L * 6);
+    t.checkExpect(new CostliestFirst().compare(wide, small) < 0, true);
+    batch.run();
+    t.checkExpect(small.result.width, 9);
+    t.checkExpect(small.seams, 3);
+    t.checkExpect(small.cells, 120L + 110 + 100);
+    t.checkExpect(wide.result.width, 97);
+    t.checkExpect(wide.result.height, 48);
+    t.checkExpect(wide.seams, 5);
+    t.checkExpect(same.seams, 0);
+    t.checkExpect(same.result.argb, same.source.argb);
+    t.checkExpect(wide.nanos > 0, true);
+    t.checkExpect(batch.cells(), small.cells + wide.cells);
+    String report = batch.report();
+    t.checkExpect(report.split("\n").length, 4);
+    t.checkExpect(report.startsWith("small "), true);
+    t.checkExpect(report.contains(" split "), true);
+    t.checkExpect(report.contains("3 jobs in "), true);
+    t.checkExpect(report.contains(" on 2 workers: "), true);
+    CarveBatch alone = new CarveBatch(new ForkJoinPool(1), 1, new FloatEnergyPlaneFactory());
+    t.checkExpect(alone.add("alone", ImageRaster.synthetic(5, 5, 4L), 4, 4).split, false);
+    // a split job carves the same image as a whole one
+    CarveBatch whole = new CarveBatch(new ForkJoinPool(2), Long.MAX_VALUE,
+            new FloatEnergyPlaneFactory());
+    BatchJob unsplit = whole.add("wide", ImageRaster.synthetic(100, 50, 2L), 97, 48);
+    whole.run();
+    t.checkExpect(unsplit.split, false);
+    t.checkExpect(unsplit.result.argb, wide.result.argb);
+  }
 
+  void testCarveFrame(Tester t) {
+    SeamCarver img = new SeamCarver(ImageRaster.synthetic(20, 12, 6L));
+    img.budgetFrames(0.000001);
+    img.carveFrame();
+    t.checkExpect(img.frameSeams, 0);
+    t.checkExpect(img.removed.size(), 0);
     img.paused = false;
+    img.vCarve = true;
+    img.carveFrame();
+    t.checkExpect(img.frameSeams, 1);
+    t.checkExpect(img.removed.size(), 1);
+    t.checkExpect(img.paintRed, false);
+    t.checkExpect(img.passNanos > 0, true);
+    t.checkExpect(img.removeNanos > 0, true);
+    int red = 0;
+    APixel row = img.topLeft.findImageStart();
+    // LOOP: goes down the rows, counting the Pixels painted red
+    for (int y = 0; y < 12; y += 1) {
+      APixel cur = row;
+      // LOOP: goes along the row
+      while (cur.hasRight()) {
+        if (cur.checkColorDisplayed().equals(Color.RED)) {
+          red += 1;
+        }
+        cur = cur.rightNeighbor();
+      }
+      row = row.downNeighbor();
+    }
+    // painting a seam red leaves out the Pixel it starts from
+    t.checkExpect(red, 11);
+    SeamInfo painted = img.selectSeam(img.verticalSeams(), "vertical");
+    img.carveFrame();
+    t.checkExpect(img.removed.get(0), painted);
+    t.checkExpect(img.removed.size(), 2);
+    img.carveFrame();
+    t.checkExpect(img.removed.size(), 3);
+    img.undoMode = true;
+    img.budgetFrames(60000.0);
+    img.carveFrame();
+    t.checkExpect(img.frameSeams, 3);
+    t.checkExpect(img.removed.size(), 0);
+    t.checkExpect(img.frameBudget, 60000000000L);
+  }
 
-    img2.paused = false;
-    img2.seamRemoveHorizontal();
-    img2.undoMove();
-    t.checkExpect(img, img2);
+  void testBudgetFrames(Tester t) {
+    SeamCarver img = new SeamCarver(ImageRaster.synthetic(6, 5, 2L));
+    t.checkExpect(img.frameBudget, 0L);
+    img.onKeyEvent("f");
+    t.checkExpect(img.frameBudget, 12000000L);
+    img.onKeyEvent("f");
+    t.checkExpect(img.frameBudget, 0L);
+    t.checkException(new RuntimeException("a frame budget cannot be negative"), img,
+            "budgetFrames", -1.0);
+  }
 
-    img2.seamCarveHorizontal();
-    img2.seamCarveVertical();
+  void testNextSeam(Tester t) {
+    SeamCarver img = new SeamCarver(ImageRaster.synthetic(10, 8, 3L));
+    img.paused = false;
+    img.hCarve = true;
+    img.removeNextSeam();
+    t.checkExpect(img.lastCarved, false);
+    img.hCarve = false;
+    img.vCarve = true;
+    img.paintNextSeam();
+    t.checkExpect(img.lastCarved, true);
+    img.removeNextSeam();
+    t.checkExpect(img.removed.size(), 2);
+    t.checkExpect(img.nextSeamVertical(), true);
+    img.timePass(true);
+    t.checkExpect(img.lastRowVersion, img.gridVersion);
+    img.passNanos = 0;
+    // the seams have already been found, so no pass is run or timed
+    img.timePass(true);
+    t.checkExpect(img.passNanos, 0L);
+  }
 
+  void testCanRedo(Tester t) {
+    SeamCarver img = new SeamCarver(ImageRaster.synthetic(12, 8, 2L));
+    img.paused = false;
+    t.checkExpect(img.canRedo(true), false);
+    img.seamRemoveVertical();
+    img.undoMove();
+    t.checkExpect(img.canRedo(true), true);
+    t.checkExpect(img.canRedo(false), false);
+    img.gridChanged();
+    t.checkExpect(img.canRedo(true), false);
+  }
+
+  void testCheapestSeam(Tester t) {
+    SeamCarver img = new SeamCarver(ImageRaster.synthetic(12, 8, 2L));
+    img.paused = false;
+    SeamInfo found = img.cheapestSeam(true);
+    t.checkExpect(found, img.selectSeam(img.verticalSeams(), "vertical"));
     img.seamRemoveVertical();
-    img.seamCarveVertical();
-    img.seamCarveHorizontal();
     img.seamRemoveHorizontal();
     img.undoMove();
     img.undoMove();
+    long passes = img.lastRowVersion;
+    // the seam that was put back is found again without a pass
+    t.checkExpect(img.cheapestSeam(true) == img.undone.get(0).seam, true);
+    t.checkExpect(img.lastRowVersion, passes);
+    t.checkExpect(img.cheapestSeam(false) == img.undone.get(1).seam, false);
+  }
 
-    t.checkExpect(img, img2);
+  void testSeamRemoved(Tester t) {
+    SeamCarver img = new SeamCarver(ImageRaster.synthetic(12, 8, 2L));
+    SeamCarver fresh = new SeamCarver(ImageRaster.synthetic(12, 8, 2L));
+    img.paused = false;
+    fresh.paused = false;
+    // LOOP: removes three seams going both ways from both carvers
+    for (int i = 0; i < 3; i += 1) {
+      img.seamRemoveVertical();
+      img.seamRemoveHorizontal();
+      fresh.seamRemoveVertical();
+      fresh.seamRemoveHorizontal();
+    }
+    t.checkExpect(img.gridVersion, 6L);
+    t.checkExpect(img.history.size(), 6);
+    // LOOP: puts back four seams
+    for (int i = 0; i < 4; i += 1) {
+      img.undoMove();
+    }
+    t.checkExpect(img.gridVersion, 2L);
+    t.checkExpect(img.history.get(0).after, 2L);
+    img.seamRemoveVertical();
+    img.seamRemoveHorizontal();
+    t.checkExpect(img.gridVersion, 4L);
+    t.checkExpect(img.undone.size(), 2);
+    // no pass was run to remove them again
+    t.checkExpect(img.lastRowVersion, 4L);
+    t.checkExpect(img.lastColVersion, 5L);
+    img.seamRemoveVertical();
+    img.seamRemoveHorizontal();
+    t.checkExpect(img.gridVersion, 6L);
+    t.checkExpect(img.undone.size(), 0);
+    // the seams removed again are the ones a pass would have found
+    t.checkExpect(img.removed.size(), fresh.removed.size());
+    // LOOP: goes through the removed seams of both carvers
+    for (int i = 0; i < img.removed.size(); i += 1) {
+      t.checkExpect(img.removed.get(i) == img.history.get(i).seam, true);
+      t.checkExpect(img.removed.get(i).weightSoFar(), fresh.removed.get(i).weightSoFar());
+    }
+    img.seamRemoveVertical();
+    t.checkExpect(img.gridVersion, 7L);
+    img.undoMove();
+    img.seamRemoveHorizontal();
+    t.checkExpect(img.gridVersion, 8L);
+    t.checkExpect(img.undone.size(), 0);
+  }
 
-    img.undoMove(); // Shouldn't change anything since no removal has been done yet.
+  void testVersionedSnapshot(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(6, 4, 2L);
+    IntBuffer argb = IntBuffer.wrap(image.argb);
+    VersionedSnapshot copy = VersionedSnapshot.copy(3, 1, argb, 6, 5, 2);
+    t.checkExpect(copy.version, 3L);
+    t.checkExpect(copy.seams, 1);
+    t.checkExpect(copy.image.width, 5);
+    t.checkExpect(copy.image.height, 2);
+    t.checkExpect(copy.image.argb[5], image.argb[6]);
+    t.checkExpect(copy.image.argb[9], image.argb[10]);
+  }
 
-    t.checkExpect(img, img2);
+  void testPlaneReaders(Tester t) {
+    PlaneCarver carver = new PlaneCarver(ImageRaster.synthetic(12, 8, 2L),
+            new DoubleEnergyPlane());
+    PlaneReaders readers = carver.readers();
+    t.checkExpect(carver.readers() == readers, true);
+    VersionedSnapshot first = readers.snapshot();
+    t.checkExpect(first.version, 0L);
+    t.checkExpect(first.image.argb, carver.toRaster().argb);
+    // readers of the same version share one copy
+    t.checkExpect(readers.snapshot() == first, true);
+    carver.carveSeam(true);
+    carver.carveSeam(false);
+    carver.carveSeam(false);
+    VersionedSnapshot carved = readers.snapshot();
+    t.checkExpect(carved.version, 3L);
+    t.checkExpect(carved.seams, 3);
+    t.checkExpect(carved.image.width, 11);
+    t.checkExpect(carved.image.height, 6);
+    t.checkExpect(carved.image.argb, carver.toRaster().argb);
+    // the copy stays the same however much more is carved
+    carver.undo();
+    t.checkExpect(carved.image.height, 6);
+    t.checkExpect(readers.snapshot().version, 4L);
+    t.checkExpect(readers.snapshot().image.height, 7);
+    carver.close();
+    t.checkException(new RuntimeException("the carver has been closed"), readers, "snapshot");
+  }
+
+  void testHandOff(Tester t) {
+    PlaneCarver carver = new PlaneCarver(ImageRaster.synthetic(12, 8, 2L),
+            new DoubleEnergyPlane());
+    PlaneReaders readers = carver.readers();
+    readers.wanted = true;
+    carver.carveSeam(true);
+    // the carver copied the image after the change, since a reader was waiting for it
+    t.checkExpect(readers.wanted, false);
+    t.checkExpect(readers.latest.get().version, 1L);
+    t.checkExpect(readers.latest.get().image.argb, carver.toRaster().argb);
+    t.checkExpect(readers.snapshot() == readers.latest.get(), true);
+    // a change in progress makes an optimistic read fail
+    long stamp = carver.beginWrite();
+    t.checkExpect(readers.tryRead(), null);
+    carver.endWrite(stamp);
+    t.checkExpect(readers.tryRead().version, 2L);
+    PlaneCarver unread = new PlaneCarver(ImageRaster.synthetic(12, 8, 2L),
+            new DoubleEnergyPlane());
+    t.checkExpect(unread.beginWrite(), 0L);
+    t.checkExpect(unread.readers, null);
+  }
+
+  void testCarveRunTargets(Tester t) {
+    ImageRaster image = ImageRaster.synthetic(16, 6, 3L);
+    PlaneCarver carver = new PlaneCarver(image, new FloatEnergyPlane());
+    CarveRun run = new CarveRun(carver, new int[]{16, 12, 9, 5}, new int[]{6, 6, 6, 6}, 0, 0);
+    ArrayList<CarveSnapshot> snapshots = new ArrayList<>();
+    run.addListener(new SnapshotCollector(snapshots));
+    CarveResult result = run.run();
+    // the smallest size only costs as many seams as carving down to it alone
+    t.checkExpect(result.seams, 11);
+    t.checkExpect(result.finished(), true);
+    t.checkExpect(result.outputs.size(), 4);
+    t.checkExpect(snapshots.size(), 4);
+    t.checkExpect(snapshots.get(0).seams, 0);
+    t.checkExpect(snapshots.get(1).target, 1);
+    t.checkExpect(snapshots.get(2).last, false);
+    t.checkExpect(snapshots.get(3).last, true);
+    t.checkExpect(result.image, result.outputs.get(3));
+    // LOOP: goes through the sizes, carving each alone to compare with the run
+    for (int target = 0; target < 4; target += 1) {
+      CarveRun alone = new CarveRun(new PlaneCarver(image, new FloatEnergyPlane()),
+              run.targetWidths[target], 6, 0, 0);
+      t.checkExpect(result.outputs.get(target).argb, alone.run().image.argb);
+    }
+  }
+
+  void testReachTarget(Tester t) {
+    PlaneCarver carver = new PlaneCarver(ImageRaster.synthetic(8, 8, 1L), new FloatEnergyPlane());
+    CarveRun run = new CarveRun(carver, new int[]{7, 6}, new int[]{8, 7}, 0, 0);
+    t.checkExpect(run.reachTarget(0L), null);
+    t.checkExpect(run.step(), true);
+    t.checkExpect(carver.width, 7);
+    t.checkExpect(run.reachTarget(5L), null);
+    t.checkExpect(run.outputs.size(), 1);
+    t.checkExpect(run.nextTarget, 1);
+    // the height and the width both had one seam to go
+    t.checkExpect(run.step(), true);
+    t.checkExpect(carver.width, 6);
+    t.checkExpect(run.step(), true);
+    t.checkExpect(run.reachTarget(9L).last, true);
+    t.checkExpect(run.outputs.size(), 2);
+    t.checkExpect(run.step(), false);
+    t.checkExpect(run.reachTarget(9L), null);
+  }
+
+  void testTargetReached(Tester t) {
+    PlaneCarver carver = new PlaneCarver(ImageRaster.synthetic(8, 8, 1L), new FloatEnergyPlane());
+    CarveRun run = new CarveRun(carver, new int[]{8, 7}, new int[]{8, 8}, 0, 0);
+    t.checkExpect(run.targetReached(), 0);
+    t.checkExpect(run.targetWidth, 7);
+    carver.carveSeam(false);
+    t.checkExpect(run.targetReached(), -1);
+    carver.undo();
+    carver.carveSeam(true);
+    t.checkExpect(run.targetReached(), 1);
+    t.checkExpect(run.publish(3L, false).target, 1);
+  }
+
+  void testCarveWorkerStep(Tester t) {
+    SeamCarver img = new SeamCarver(ImageRaster.synthetic(6, 5, 2L));
+    CarveWorker worker = new CarveWorker(img);
+    t.checkExpect(worker.step(), false);
+    img.paused = false;
+    img.vCarve = true;
+    t.checkExpect(worker.step(), true);
+    t.checkExpect(worker.step(), true);
+    t.checkExpect(img.removed.size(), 1);
+    img.undoMode = true;
+    t.checkExpect(worker.step(), true);
+    // with nothing left to put back, a step changes nothing
+    t.checkExpect(worker.step(), false);
+    t.checkExpect(img.removed.size(), 0);
+  }
+
+  void testHandleKey(Tester t) {
+    SeamCarver img = new SeamCarver(ImageRaster.synthetic(6, 5, 2L));
+    img.onKeyEvent("v");
+    t.checkExpect(img.keysWaiting.get(), 0);
+    t.checkExpect(img.vCarve, true);
+    img.keysWaiting.incrementAndGet();
+    img.handleKey("h");
+    t.checkExpect(img.keysWaiting.get(), 0);
+    t.checkExpect(img.hCarve, true);
+  }
+}
+
+// This represents a listener that keeps every snapshot it is handed, for the tests.
+class SnapshotCollector implements ISnapshotListener {
+  ArrayList<CarveSnapshot> snapshots;
+
+  // Constructor
+  SnapshotCollector(ArrayList<CarveSnapshot> snapshots) {
+    this.snapshots = snapshots;
+  }
+
+  // EFFECT: adds the given snapshot to the ones this listener keeps
+  public void snapshot(CarveSnapshot snapshot) {
+    this.snapshots.add(snapshot);
   }
 }
 
+// This represents a subscriber that keeps every seam event it is handed, for the tests, asking for
+// a given number of them at a time.
+class SeamSubscriber implements Flow.Subscriber<SeamEvent> {
+  int batch;
+  Flow.Subscription subscription;
+  ArrayList<SeamEvent> events;
+  CountDownLatch done;
+
+  // Constructor
+  SeamSubscriber(int batch) {
+    this.batch = batch;
+    this.events = new ArrayList<>();
+    this.done = new CountDownLatch(1);
+  }
+
+  // EFFECT: keeps the given subscription and asks for the first batch of seams
+  public void onSubscribe(Flow.Subscription subscription) {
+    this.subscription = subscription;
+    if (this.batch > 0) {
+      subscription.request(this.batch);
+    }
+  }
+
+  // EFFECT: keeps the given event, and asks for another batch once this one has been handed over
+  public synchronized void onNext(SeamEvent event) {
+    this.events.add(event);
+    if (this.events.size() % this.batch == 0) {
+      this.subscription.request(this.batch);
+    }
+  }
+
+  // EFFECT: records that no more seams are coming
+  public void onError(Throwable error) {
+    this.done.countDown();
+  }
 
+  // EFFECT: records that no more seams are coming
+  public void onComplete() {
+    this.done.countDown();
+  }
+}